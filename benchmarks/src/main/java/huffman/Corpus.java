@@ -0,0 +1,129 @@
+package huffman;
+
+import java.io.BufferedOutputStream;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.Random;
+
+/**
+ * Generates the files the benchmarks run over. Every corpus comes from a fixed seed so runs are comparable.
+ *     - uniform: letters, digits and a few punctuation marks all equally likely
+ *     - zipf: all 256 byte values, the k'th most common appearing about 1/k as often as the first
+ *     - english: words drawn from a small vocabulary by a Zipf law with spaces, punctuation and newlines
+ *     - random: random bytes that will not compress
+ */
+public class Corpus {
+
+	// the corpora we know how to make
+	public static final String UNIFORM = "uniform";
+	public static final String ZIPF = "zipf";
+	public static final String ENGLISH = "english";
+	public static final String RANDOM = "random";
+
+	// the words the english corpus is made of, most common first
+	private static final String[] WORDS = ("the of and to a in is it you that he was for on are with as I his they be at one have "
+		+ "this from or had by hot word but what some we can out other were all there when up use your how said an each she "
+		+ "which do their time if will way about many then them write would like so these her long make thing see him two "
+		+ "has look more day could go come did number sound no most people my over know water than call first who may down "
+		+ "side been now find any new work part take get place made live where after back little only round man year came "
+		+ "show every good me give our under name very through just form sentence great think say help low line differ turn "
+		+ "cause much mean before move right boy old too same tell does set three want air well also play small end put home "
+		+ "read hand port large spell add even land here must big high such follow act why ask men change went light kind").split(" ");
+
+	// the characters of the uniform corpus
+	private static final byte[] UNIFORM_ALPHABET = "abcdefghijklmnopqrstuvwxyzABCDEFGHIJKLMNOPQRSTUVWXYZ0123456789 .,;:!?-".getBytes();
+
+	/**
+	 * Prevent construction since all methods will be static
+	 */
+	private Corpus() {}
+
+	/**
+	 * Writes a corpus to a file.
+	 * @param corpus which corpus
+	 * @param size how many bytes to write
+	 * @param file where to write it
+	 * @throws IOException if the file can not be written
+	 */
+	public static void write(String corpus, long size, Path file) throws IOException{
+		Random random = new Random(42);
+		byte[] chunk = new byte[1 << 16];
+		try(OutputStream out = new BufferedOutputStream(Files.newOutputStream(file))){
+			long written = 0;
+			while(written < size){
+				int length = (int) Math.min(chunk.length, size - written);
+				fill(corpus, random, chunk, length);
+				out.write(chunk, 0, length);
+				written += length;
+			}
+		}
+	}
+
+	/**
+	 * Generates a corpus in memory.
+	 * @param corpus which corpus
+	 * @param size how many bytes
+	 * @return the bytes
+	 */
+	public static byte[] generate(String corpus, int size){
+		byte[] bytes = new byte[size];
+		fill(corpus, new Random(42), bytes, size);
+		return bytes;
+	}
+
+	/**
+	 * Fills the start of an array with the next bytes of a corpus.
+	 * @param corpus which corpus
+	 * @param random where the randomness comes from
+	 * @param bytes the array
+	 * @param length how many bytes to fill
+	 */
+	private static void fill(String corpus, Random random, byte[] bytes, int length){
+		switch(corpus){
+		case UNIFORM:
+			for(int i = 0; i < length; i++){
+				bytes[i] = UNIFORM_ALPHABET[random.nextInt(UNIFORM_ALPHABET.length)];
+			}
+			break;
+		case ZIPF:
+			for(int i = 0; i < length; i++){
+				bytes[i] = (byte) zipf(random, 256);
+			}
+			break;
+		case ENGLISH:
+			int i = 0;
+			while(i < length){
+				byte[] word = WORDS[zipf(random, WORDS.length)].getBytes();
+				for(int j = 0; j < word.length && i < length; j++){
+					bytes[i++] = word[j];
+				}
+				if(i < length){
+					int separator = random.nextInt(20);
+					bytes[i++] = (byte) (separator == 0 ? '\n' : separator == 1 ? '.' : separator == 2 ? ',' : ' ');
+				}
+			}
+			break;
+		case RANDOM:
+			byte[] noise = new byte[length];
+			random.nextBytes(noise);
+			System.arraycopy(noise, 0, bytes, 0, length);
+			break;
+		default:
+			throw new IllegalArgumentException("Unknown corpus " + corpus);
+		}
+	}
+
+	/**
+	 * Picks a number from 0 to n - 1 with a Zipf law (s = 1): k comes up about 1 / (k + 1) as often as 0.
+	 * Drawn by inverting the harmonic sum with the continuous approximation, close enough for a benchmark.
+	 * @param random where the randomness comes from
+	 * @param n how many numbers to pick from
+	 * @return the number
+	 */
+	private static int zipf(Random random, int n){
+		double u = random.nextDouble() * Math.log(n + 1);
+		return Math.min(n - 1, (int) Math.exp(u) - 1);
+	}
+}
@@ -0,0 +1,56 @@
+package huffman;
+
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.Comparator;
+import java.util.stream.Stream;
+
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+
+/**
+ * A generated corpus on disk, plus a scratch directory the benchmarks can write into. The corpus and size
+ * are parameters so every benchmark runs over every combination (narrow them with -p corpus=english).
+ */
+@State(Scope.Benchmark)
+public class CorpusState {
+
+	@Param({Corpus.UNIFORM, Corpus.ZIPF, Corpus.ENGLISH, Corpus.RANDOM})
+	public String corpus;
+
+	// 1 KB, 1 MB, 64 MB and 1 GB
+	@Param({"1024", "1048576", "67108864", "1073741824"})
+	public long size;
+
+	// the scratch directory and the corpus in it
+	public Path directory;
+	public Path source;
+
+	@Setup(Level.Trial)
+	public void generate() throws IOException{
+		this.directory = Files.createTempDirectory("huffman-bench");
+		this.source = this.directory.resolve(this.corpus + "-" + this.size);
+		Corpus.write(this.corpus, this.size, this.source);
+	}
+
+	@TearDown(Level.Trial)
+	public void delete() throws IOException{
+		try(Stream<Path> files = Files.walk(this.directory)){
+			files.sorted(Comparator.reverseOrder()).forEach(file -> file.toFile().delete());
+		}
+	}
+
+	/**
+	 * A file in the scratch directory.
+	 * @param name its name
+	 * @return its path as a string, the way Encode and Decode take them
+	 */
+	public String file(String name){
+		return this.directory.resolve(name).toString();
+	}
+}
@@ -0,0 +1,109 @@
+package huffman;
+
+import java.io.ByteArrayInputStream;
+import java.io.DataInputStream;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.nio.ByteBuffer;
+import java.nio.file.Files;
+import java.nio.file.Paths;
+import java.util.concurrent.TimeUnit;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+/**
+ * The decode side: decoding the bits on their own (from memory to nowhere), one block of a block
+ * container as a single stream, as four interleaved streams and with an order-1 context model (which
+ * falls back to a single code on corpora it does not help), and end to end (file to file).
+ * Throughput is counted in megabytes of the original corpus so it lines up with EncodeBenchmark.
+ *
+ * Run with the GC profiler to see the allocation rate:
+ *     java -jar benchmarks/target/benchmarks.jar DecodeBenchmark -prof gc
+ */
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.SECONDS)
+@Warmup(iterations = 3, time = 2)
+@Measurement(iterations = 5, time = 2)
+@Fork(1)
+@State(Scope.Benchmark)
+public class DecodeBenchmark {
+
+	// the encoded corpus
+	private String encoded;
+
+	// its table and the bits after the header
+	private DecodeTable table;
+	private byte[] bits;
+
+	// the first block of the corpus encoded as one stream, as four and with an order-1 model
+	private byte[] singleStream;
+	private byte[] fourStreams;
+	private byte[] context;
+	private int blockLength;
+
+	@Setup(Level.Trial)
+	public void setUp(CorpusState corpus) throws IOException{
+		this.encoded = corpus.file("encoded");
+		new Encode(corpus.source.toString(), this.encoded).encode();
+
+		// read the header back the way Decode does
+		byte[] file = Files.readAllBytes(Paths.get(this.encoded));
+		DataInputStream in = new DataInputStream(new ByteArrayInputStream(file));
+		int size = in.readUnsignedByte();
+		int[] symbols = new int[size];
+		int[] lengths = new int[size];
+		for(int i = 0; i < size; i++){
+			symbols[i] = in.readUnsignedByte();
+			lengths[i] = in.readUnsignedByte();
+		}
+		this.table = new CodeTable(symbols, lengths, Histogram.BYTES).decodeTable();
+		this.bits = in.readAllBytes();
+
+		byte[] source = Files.readAllBytes(corpus.source);
+		this.blockLength = Math.min(source.length, BlockCodec.DEFAULT_BLOCK_SIZE);
+		ByteBuffer block = ByteBuffer.wrap(source, 0, this.blockLength).slice();
+		this.singleStream = BlockCodec.encodeBlock(block, 0, BlockCodec.SINGLE_STREAM);
+		this.fourStreams = BlockCodec.encodeBlock(block, 0, BlockCodec.FOUR_STREAMS);
+		this.context = BlockCodec.encodeBlock(block, 0, BlockCodec.CONTEXT);
+	}
+
+	@Benchmark
+	public byte[] decodeSingleStream(Throughput throughput) throws IOException{
+		throughput.add(this.blockLength);
+		return BlockCodec.decodeBlock(this.singleStream);
+	}
+
+	@Benchmark
+	public byte[] decodeFourStreams(Throughput throughput) throws IOException{
+		throughput.add(this.blockLength);
+		return BlockCodec.decodeBlock(this.fourStreams);
+	}
+
+	@Benchmark
+	public byte[] decodeContext(Throughput throughput) throws IOException{
+		throughput.add(this.blockLength);
+		return BlockCodec.decodeBlock(this.context);
+	}
+
+	@Benchmark
+	public void writeFile(CorpusState corpus, Throughput throughput) throws IOException{
+		HuffmanUtilities.writeFile(this.table, new ByteArrayInputStream(this.bits), OutputStream.nullOutputStream());
+		throughput.add(corpus.size);
+	}
+
+	@Benchmark
+	public void decode(CorpusState corpus, Throughput throughput){
+		new Decode(this.encoded, corpus.file("decoded")).decode();
+		throughput.add(corpus.size);
+	}
+}
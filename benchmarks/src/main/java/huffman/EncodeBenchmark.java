@@ -0,0 +1,96 @@
+package huffman;
+
+import java.io.IOException;
+import java.util.concurrent.TimeUnit;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+import org.openjdk.jmh.annotations.Warmup;
+
+/**
+ * The encode side one step at a time (count, build the codes, write the file) and end to end.
+ *
+ * Run with the GC profiler to see the allocation rate of each step:
+ *     java -jar benchmarks/target/benchmarks.jar EncodeBenchmark -prof gc
+ */
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.SECONDS)
+@Warmup(iterations = 3, time = 2)
+@Measurement(iterations = 5, time = 2)
+@Fork(1)
+@State(Scope.Benchmark)
+public class EncodeBenchmark {
+
+	// the corpus mapped once, as Encode does
+	private MappedInput input;
+
+	// what each step needs from the step before
+	private long[] frequencies;
+	private CodeTable codes;
+
+	@Setup(Level.Trial)
+	public void setUp(CorpusState corpus) throws IOException{
+		this.input = new MappedInput(corpus.source.toString());
+		this.frequencies = this.newEncode(corpus).readInputMap(this.input);
+		this.codes = this.buildCodes();
+	}
+
+	@TearDown(Level.Trial)
+	public void tearDown() throws IOException{
+		this.input.close();
+	}
+
+	@Benchmark
+	public long[] readInputMap(CorpusState corpus, Throughput throughput){
+		throughput.add(corpus.size);
+		return this.newEncode(corpus).readInputMap(this.input);
+	}
+
+	@Benchmark
+	public int[] codeLengths(){
+		return CodeLengths.huffmanLengths(this.frequencies);
+	}
+
+	@Benchmark
+	public CodeTable huffmanCodes(){
+		return this.buildCodes();
+	}
+
+	@Benchmark
+	public void writeEncodedFile(CorpusState corpus, Throughput throughput) throws IOException{
+		HuffmanUtilities.writeEncodedFile(this.codes, corpus.file("encoded"), this.input);
+		throughput.add(corpus.size);
+	}
+
+	@Benchmark
+	public void encode(CorpusState corpus, Throughput throughput){
+		this.newEncode(corpus).encode();
+		throughput.add(corpus.size);
+	}
+
+	/**
+	 * Builds the codes the way Encode does: lengths, then canonical codes.
+	 * @return the canonical codes
+	 */
+	private CodeTable buildCodes(){
+		return HuffmanUtilities.huffmanCodes(this.frequencies, 0);
+	}
+
+	/**
+	 * An encoder from the corpus to the scratch directory.
+	 * @param corpus the corpus
+	 * @return the encoder
+	 */
+	private Encode newEncode(CorpusState corpus){
+		return new Encode(corpus.source.toString(), corpus.file("encoded"));
+	}
+}
@@ -0,0 +1,93 @@
+package huffman;
+
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.util.concurrent.TimeUnit;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+/**
+ * The per byte loops of ByteKernel against VectorByteKernel's: counting, writing the codes one at a
+ * time and writing them packed four to a write. The fork adds the vector module, if this JVM does not
+ * have it the vector runs fail in setup rather than quietly measuring the scalar kernel again:
+ *     java -jar benchmarks/target/benchmarks.jar KernelBenchmark
+ */
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.SECONDS)
+@Warmup(iterations = 3, time = 2)
+@Measurement(iterations = 5, time = 2)
+@Fork(value = 1, jvmArgsAppend = "--add-modules=jdk.incubator.vector")
+@State(Scope.Thread)
+public class KernelBenchmark {
+
+	public static final String SCALAR = "scalar";
+	public static final String VECTOR = "vector";
+
+	@Param({SCALAR, VECTOR})
+	public String kernel;
+
+	@Param({Corpus.UNIFORM, Corpus.ZIPF, Corpus.ENGLISH, Corpus.RANDOM})
+	public String corpus;
+
+	// one default block
+	@Param({"1048576"})
+	public int size;
+
+	// the bytes, their code and where the codes go
+	private ByteKernel byteKernel;
+	private ByteBuffer bytes;
+	private long[] counts;
+	private EncodeTable table;
+	private BitWriter writer;
+	private byte[] out;
+
+	@Setup(Level.Trial)
+	public void setUp(){
+		this.byteKernel = this.kernel.equals(VECTOR) ? ByteKernel.vector() : ByteKernel.scalar();
+		if(this.byteKernel == null){
+			throw new IllegalStateException("jdk.incubator.vector is not available");
+		}
+		this.bytes = ByteBuffer.wrap(Corpus.generate(this.corpus, this.size));
+		this.counts = new long[Histogram.BYTES];
+		this.byteKernel.count(this.bytes, 0, this.size, this.counts);
+		this.table = HuffmanUtilities.huffmanCodes(this.counts, 0).encodeTable();
+		this.out = new byte[this.size + 8];
+		this.writer = new BitWriter(this.out, 0);
+	}
+
+	@Benchmark
+	public long[] count(Throughput throughput){
+		throughput.add(this.size);
+		this.byteKernel.count(this.bytes, 0, this.size, this.counts);
+		return this.counts;
+	}
+
+	@Benchmark
+	public long encode(Throughput throughput) throws IOException{
+		throughput.add(this.size);
+		this.writer.reset(this.out, 0);
+		this.byteKernel.encode(this.bytes, 0, this.size, this.table, this.writer);
+		this.writer.flush();
+		return this.writer.bytesWritten();
+	}
+
+	@Benchmark
+	public long encodePacked(Throughput throughput) throws IOException{
+		throughput.add(this.size);
+		this.writer.reset(this.out, 0);
+		this.byteKernel.encodePacked(this.bytes, 0, this.size, this.table, this.writer);
+		this.writer.flush();
+		return this.writer.bytesWritten();
+	}
+}
@@ -0,0 +1,88 @@
+package huffman;
+
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.util.concurrent.TimeUnit;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+/**
+ * Small messages in memory, the way a request path encodes them: HuffmanCodec, which allocates its
+ * tables and output for every call, against a HuffmanEncoder and HuffmanDecoder kept from call to call
+ * writing into arrays we own. Run with the GC profiler, the reused ones should show an allocation rate
+ * (gc.alloc.rate.norm) of 0 bytes per operation:
+ *     java -jar benchmarks/target/benchmarks.jar MessageBenchmark -prof gc
+ */
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.SECONDS)
+@Warmup(iterations = 3, time = 2)
+@Measurement(iterations = 5, time = 2)
+@Fork(1)
+@State(Scope.Thread)
+public class MessageBenchmark {
+
+	@Param({Corpus.UNIFORM, Corpus.ZIPF, Corpus.ENGLISH, Corpus.RANDOM})
+	public String corpus;
+
+	// 256 bytes, 4 KB and 64 KB (big enough for four streams)
+	@Param({"256", "4096", "65536"})
+	public int size;
+
+	// the message, and it encoded
+	private byte[] message;
+	private ByteBuffer messageBuffer;
+	private byte[] encoded;
+
+	// the reused encoder and decoder and the arrays they write into
+	private HuffmanEncoder encoder;
+	private HuffmanDecoder decoder;
+	private byte[] encodeOut;
+	private byte[] decodeOut;
+
+	@Setup(Level.Trial)
+	public void setUp(){
+		this.message = Corpus.generate(this.corpus, this.size);
+		this.messageBuffer = ByteBuffer.wrap(this.message);
+		this.encoded = HuffmanCodec.encode(this.message);
+		this.encoder = new HuffmanEncoder();
+		this.decoder = new HuffmanDecoder();
+		this.encodeOut = new byte[this.encoder.maxEncodedLength(this.size)];
+		this.decodeOut = new byte[this.size];
+	}
+
+	@Benchmark
+	public byte[] encodeCodec(Throughput throughput){
+		throughput.add(this.size);
+		return HuffmanCodec.encode(this.message);
+	}
+
+	@Benchmark
+	public int encodeReused(Throughput throughput){
+		throughput.add(this.size);
+		this.messageBuffer.clear();
+		return this.encoder.encode(this.messageBuffer, this.encodeOut, 0);
+	}
+
+	@Benchmark
+	public byte[] decodeCodec(Throughput throughput) throws IOException{
+		throughput.add(this.size);
+		return HuffmanCodec.decode(this.encoded);
+	}
+
+	@Benchmark
+	public int decodeReused(Throughput throughput) throws IOException{
+		throughput.add(this.size);
+		return this.decoder.decode(this.encoded, 0, this.encoded.length, this.decodeOut, 0);
+	}
+}
@@ -0,0 +1,31 @@
+package huffman;
+
+import org.openjdk.jmh.annotations.AuxCounters;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+
+/**
+ * Counts the megabytes of input each benchmark gets through. JMH reports a counter like this as a rate,
+ * so next to ops/s every benchmark shows its throughput as "megabytes" per second.
+ */
+@State(Scope.Thread)
+@AuxCounters(AuxCounters.Type.OPERATIONS)
+public class Throughput {
+
+	public double megabytes;
+
+	@Setup(Level.Iteration)
+	public void reset(){
+		this.megabytes = 0;
+	}
+
+	/**
+	 * Counts some bytes as done.
+	 * @param bytes how many
+	 */
+	public void add(long bytes){
+		this.megabytes += bytes / 1e6;
+	}
+}
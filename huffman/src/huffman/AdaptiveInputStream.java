@@ -0,0 +1,132 @@
+package huffman;
+
+import java.io.DataInputStream;
+import java.io.EOFException;
+import java.io.FilterInputStream;
+import java.io.IOException;
+import java.io.InputStream;
+
+/**
+ * An input stream that decodes what an AdaptiveOutputStream wrote, running the same model so it
+ * rebuilds the same codes at the same points. A segment is decoded as soon as all of it has arrived.
+ */
+public class AdaptiveInputStream extends FilterInputStream {
+
+	// where the segments come from
+	private DataInputStream data;
+
+	// the model, shared by every segment
+	private AdaptiveModel model = new AdaptiveModel(false);
+
+	// the current segment, encoded and decoded (both grown as needed and reused)
+	private byte[] bits = new byte[0];
+	private byte[] segment = new byte[0];
+
+	// how much of the decoded segment there is and how much has been read
+	private int count;
+	private int position;
+
+	// whether the end marker has been read
+	private boolean finished;
+
+	/**
+	 * Creates a stream, reading the header straight away.
+	 * @param in the encoded bytes
+	 * @throws IOException if they do not start with an adaptive stream header
+	 */
+	public AdaptiveInputStream(InputStream in) throws IOException{
+		this(new DataInputStream(in));
+		try{
+			if(this.data.readUnsignedByte() != Container.MARKER || this.data.readUnsignedByte() != Container.ADAPTIVE){
+				throw new IOException("Not an adaptive Huffman stream");
+			}
+		}catch(EOFException e){
+			throw new IOException("Not an adaptive Huffman stream", e);
+		}
+	}
+
+	/**
+	 * Creates a stream whose header has already been read (Decode reads the marker and kind itself).
+	 * @param data the encoded bytes, just after the header
+	 */
+	protected AdaptiveInputStream(DataInputStream data){
+		super(data);
+		this.data = data;
+	}
+
+	@Override
+	public int read() throws IOException{
+		if(this.position == this.count && !this.nextSegment()){
+			return -1;
+		}
+		return this.segment[this.position++] & 0xFF;
+	}
+
+	@Override
+	public int read(byte[] bytes, int offset, int length) throws IOException{
+		if(length == 0){
+			return 0;
+		}
+		if(this.position == this.count && !this.nextSegment()){
+			return -1;
+		}
+		int n = Math.min(length, this.count - this.position);
+		System.arraycopy(this.segment, this.position, bytes, offset, n);
+		this.position += n;
+		return n;
+	}
+
+	@Override
+	public int available(){
+		return this.count - this.position;
+	}
+
+	@Override
+	public boolean markSupported(){
+		return false;
+	}
+
+	/**
+	 * Reads and decodes the next segment.
+	 * @return false at the end marker
+	 * @throws IOException if the stream is corrupt or ends without an end marker
+	 */
+	private boolean nextSegment() throws IOException{
+		if(this.finished){
+			return false;
+		}
+		int rawLength = this.data.readInt();
+		if(rawLength == 0){
+			this.finished = true;
+			return false;
+		}
+		int length = this.data.readInt();
+		// a byte never takes more than MAX_LENGTH bits or less than one, anything else is not ours
+		if(rawLength < 0 || rawLength > AdaptiveOutputStream.MAX_SEGMENT_SIZE || length < 0
+				|| length > ((long) rawLength * AdaptiveModel.MAX_LENGTH + 7) / 8 || rawLength > 8L * length){
+			throw new IOException("Corrupt segment header");
+		}
+		if(this.bits.length < length){
+			this.bits = new byte[length];
+		}
+		if(this.segment.length < rawLength){
+			this.segment = new byte[rawLength];
+		}
+		this.data.readFully(this.bits, 0, length);
+
+		BitReader reader = new BitReader(this.bits, 0, length);
+		for(int i = 0; i < rawLength; i++){
+			int symbol = this.model.decode(reader);
+			if(symbol < 0){
+				throw new IOException("Corrupt segment: bits are not a code");
+			}
+			this.segment[i] = (byte) symbol;
+		}
+		if(reader.exhausted()){
+			throw new IOException("Corrupt segment: ran out of bits");
+		}
+		this.count = rawLength;
+		this.position = 0;
+		return true;
+	}
+}
@@ -0,0 +1,123 @@
+package huffman;
+
+import java.io.IOException;
+import java.util.ArrayList;
+
+/**
+ * The model behind the one pass adaptive mode. Nothing is known about the data up front so every byte
+ * starts with a count of one (an 8 bit code each), then every byte coded is counted and the code is
+ * rebuilt from the running counts every so often. The encoder and decoder run the same model on the same
+ * bytes in the same order, so they rebuild the same code at the same moment and no table is ever sent.
+ *
+ * Rebuilding is a package-merge over 256 symbols, far too slow to do per byte (which is what FGK and
+ * Vitter's algorithm avoid) but cheap once per few thousand bytes. The first rebuilds come quickly so
+ * the code settles fast, then the gap doubles up to MAX_INTERVAL. Counts are halved once they add up to
+ * AGE_LIMIT so the code follows data whose statistics drift.
+ */
+public class AdaptiveModel {
+
+	// the longest code the model builds, short enough for a quick decode table
+	protected static final int MAX_LENGTH = 15;
+
+	// the bytes coded before the first rebuild
+	protected static final int FIRST_INTERVAL = 1 << 8;
+
+	// the most bytes coded between rebuilds
+	protected static final int MAX_INTERVAL = 1 << 13;
+
+	// once the counts add up to this they are halved
+	protected static final long AGE_LIMIT = 1L << 20;
+
+	// the running counts and what they add up to
+	private long[] counts = new long[Histogram.BYTES];
+	private long total;
+
+	// how many bytes between rebuilds and how many are left until the next one
+	private int interval = FIRST_INTERVAL;
+	private int remaining = FIRST_INTERVAL;
+
+	// which side we are on, only that side's table is built
+	private boolean encoding;
+
+	// the current code
+	private EncodeTable encodeTable;
+	private DecodeTable decodeTable;
+
+	/**
+	 * Creates a model with every byte equally likely
+	 * @param encoding true for the encoder's side, false for the decoder's
+	 */
+	public AdaptiveModel(boolean encoding){
+		this.encoding = encoding;
+		for(int symbol = 0; symbol < this.counts.length; symbol++){
+			this.counts[symbol] = 1;
+		}
+		this.total = this.counts.length;
+		this.build();
+	}
+
+	/**
+	 * Writes the code for a byte and counts it.
+	 * @param writer where to write the code
+	 * @param symbol the byte, 0 to 255
+	 * @throws IOException if the code can not be written
+	 */
+	protected void encode(BitWriter writer, int symbol) throws IOException{
+		this.encodeTable.write(writer, symbol);
+		this.update(symbol);
+	}
+
+	/**
+	 * Reads the code for a byte and counts it.
+	 * @param reader where to read the code
+	 * @return the byte, or -1 if the bits are not a code
+	 */
+	protected int decode(BitReader reader){
+		int symbol = this.decodeTable.decode(reader);
+		if(symbol >= 0){
+			this.update(symbol);
+		}
+		return symbol;
+	}
+
+	/**
+	 * Counts a byte and rebuilds the code when it is time.
+	 * @param symbol the byte
+	 */
+	private void update(int symbol){
+		this.counts[symbol]++;
+		this.total++;
+		if(--this.remaining == 0){
+			this.rebuild();
+		}
+	}
+
+	/**
+	 * Ages the counts if they have grown too big, rebuilds the code and schedules the next rebuild.
+	 */
+	private void rebuild(){
+		if(this.total >= AGE_LIMIT){
+			// halve, but never down to 0 since every byte needs a code
+			this.total = 0;
+			for(int symbol = 0; symbol < this.counts.length; symbol++){
+				this.counts[symbol] = (this.counts[symbol] + 1) >>> 1;
+				this.total += this.counts[symbol];
+			}
+		}
+		this.build();
+		this.interval = Math.min(this.interval * 2, MAX_INTERVAL);
+		this.remaining = this.interval;
+	}
+
+	/**
+	 * Builds this side's table from the current counts.
+	 */
+	private void build(){
+		CodeTable code = HuffmanUtilities.huffmanCodes(this.counts, MAX_LENGTH);
+		if(this.encoding){
+			this.encodeTable = code.encodeTable();
+		}else{
+			this.decodeTable = code.decodeTable();
+		}
+	}
+}
@@ -0,0 +1,163 @@
+package huffman;
+
+import java.io.ByteArrayOutputStream;
+import java.io.DataOutputStream;
+import java.io.FilterOutputStream;
+import java.io.IOException;
+import java.io.OutputStream;
+
+/**
+ * An output stream that encodes in a single pass with an AdaptiveModel. There is no table to send and
+ * nothing to count first, so it works on pipes and sockets and reads its input just once. Bytes are
+ * collected into a small segment which is encoded and written as soon as it fills (or on flush), so no
+ * byte waits behind more than a segment's worth of others.
+ *
+ * The stream looks like this:
+ *     - 0x00 then 'A'
+ *     - segments, each one the bytes it decodes to (int), the length of its bits (int) and the bits
+ *     - a segment of 0 bytes (int) to mark the end
+ *
+ * The model carries on from one segment to the next, the segments only mark where the bits end.
+ */
+public class AdaptiveOutputStream extends FilterOutputStream {
+
+	// how many bytes go in a segment unless we are told otherwise
+	protected static final int SEGMENT_SIZE = 1 << 12;
+
+	// the biggest segments there can be, AdaptiveInputStream takes a bigger one to be corrupt
+	protected static final int MAX_SEGMENT_SIZE = 1 << 24;
+
+	// where the segments go
+	private DataOutputStream data;
+
+	// the model, shared by every segment
+	private AdaptiveModel model = new AdaptiveModel(true);
+
+	// the segment being collected and how much of it is used
+	private byte[] segment;
+	private int count;
+
+	// the encoded bits of a segment, both reused from segment to segment
+	private ByteArrayOutputStream bits = new ByteArrayOutputStream();
+	private BitWriter writer;
+
+	// whether the header has gone out and whether the end marker has
+	private boolean started;
+	private boolean finished;
+
+	/**
+	 * Creates a stream with the default segment size
+	 * @param out where the encoded bytes go
+	 */
+	public AdaptiveOutputStream(OutputStream out){
+		this(out, SEGMENT_SIZE);
+	}
+
+	/**
+	 * Creates a stream
+	 * @param out where the encoded bytes go
+	 * @param segmentSize how many bytes to collect before encoding them, the most a byte can be held back
+	 */
+	public AdaptiveOutputStream(OutputStream out, int segmentSize){
+		super(out);
+		if(segmentSize <= 0 || segmentSize > MAX_SEGMENT_SIZE){
+			throw new IllegalArgumentException("Segment size must be 1 to " + MAX_SEGMENT_SIZE + ": " + segmentSize);
+		}
+		this.data = new DataOutputStream(out);
+		this.segment = new byte[segmentSize];
+		this.writer = new BitWriter(this.bits, Math.min(BitWriter.BUFFER_SIZE, (segmentSize + 7) & ~3));
+	}
+
+	@Override
+	public void write(int b) throws IOException{
+		this.ensureOpen();
+		if(this.count == this.segment.length){
+			this.writeSegment();
+		}
+		this.segment[this.count++] = (byte) b;
+	}
+
+	@Override
+	public void write(byte[] bytes, int offset, int length) throws IOException{
+		this.ensureOpen();
+		while(length > 0){
+			if(this.count == this.segment.length){
+				this.writeSegment();
+			}
+			int n = Math.min(length, this.segment.length - this.count);
+			System.arraycopy(bytes, offset, this.segment, this.count, n);
+			this.count += n;
+			offset += n;
+			length -= n;
+		}
+	}
+
+	/**
+	 * Encodes whatever has been written so far and flushes the stream below.
+	 */
+	@Override
+	public void flush() throws IOException{
+		this.ensureOpen();
+		this.writeSegment();
+		this.data.flush();
+	}
+
+	/**
+	 * Encodes whatever is left and writes the end marker, without closing the stream below.
+	 * Nothing can be written after this.
+	 * @throws IOException if the stream below can not be written to
+	 */
+	public void finish() throws IOException{
+		if(this.finished){
+			return;
+		}
+		this.writeSegment();
+		this.data.writeInt(0);
+		this.data.flush();
+		this.finished = true;
+	}
+
+	@Override
+	public void close() throws IOException{
+		try{
+			this.finish();
+		}finally{
+			this.out.close();
+		}
+	}
+
+	/**
+	 * Writes the header if it has not gone out yet, then encodes the current segment if there is
+	 * anything in it.
+	 * @throws IOException if the stream below can not be written to
+	 */
+	private void writeSegment() throws IOException{
+		if(!this.started){
+			this.data.write(Container.MARKER);
+			this.data.write(Container.ADAPTIVE);
+			this.started = true;
+		}
+		if(this.count == 0){
+			return;
+		}
+		this.bits.reset();
+		for(int i = 0; i < this.count; i++){
+			this.model.encode(this.writer, this.segment[i] & 0xFF);
+		}
+		this.writer.flush();
+		this.data.writeInt(this.count);
+		this.data.writeInt(this.bits.size());
+		this.bits.writeTo(this.data);
+		this.count = 0;
+	}
+
+	/**
+	 * Makes sure the end marker has not been written yet.
+	 * @throws IOException if it has
+	 */
+	private void ensureOpen() throws IOException{
+		if(this.finished){
+			throw new IOException("Stream finished");
+		}
+	}
+}
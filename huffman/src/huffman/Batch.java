@@ -0,0 +1,405 @@
+package huffman;
+
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Semaphore;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.stream.Collectors;
+import java.util.stream.Stream;
+
+/**
+ * Encodes or decodes many files in one JVM. Every file is its own job, at most a given number run at
+ * once and each one runs on its own (virtual, where the JVM has them) thread, so a slow or huge file
+ * only holds up its own job while the rest carry on. At the end the totals are printed.
+ */
+public class Batch {
+
+	// how many files are worked on at once unless we are told otherwise
+	protected static final int DEFAULT_LIMIT = 4 * Runtime.getRuntime().availableProcessors();
+
+	// what an encoded file's name ends with
+	protected static final String EXTENSION = ".huf";
+
+	// what a decoded file's name ends with when the encoded one did not end with EXTENSION
+	protected static final String DECODED_EXTENSION = ".out";
+
+	// how main exits when some files failed, and when it was not called right
+	protected static final int FAILED_STATUS = 1;
+	protected static final int USAGE_STATUS = 2;
+
+	// what main prints when it is not called right
+	private static final String USAGE = "Usage: java huffman.Batch (encode | decode) [-limit n] [-out directory] [encode options] inputs...";
+
+	// decode rather than encode
+	private boolean decode;
+
+	// how many files at once
+	private int limit;
+
+	// where the output goes, null for next to each input
+	private Path outputDirectory;
+
+	// the options each Encode gets
+	private int blockSize;
+	private boolean raw;
+	private int maxLength;
+	private boolean adaptive;
+	private int checkpointInterval;
+	private boolean context;
+	private boolean pipelined;
+
+	// the totals so far
+	private AtomicInteger done = new AtomicInteger();
+	private AtomicInteger failed = new AtomicInteger();
+	private AtomicLong bytes = new AtomicLong();
+
+	/**
+	 * Creates a batch
+	 * @param decode true to decode the files, false to encode them
+	 * @param limit the most files to work on at once
+	 */
+	public Batch(boolean decode, int limit){
+		if(limit <= 0){
+			throw new IllegalArgumentException("Limit must be positive: " + limit);
+		}
+		this.decode = decode;
+		this.limit = limit;
+	}
+
+	/**
+	 * Write every output file into one directory (keeping the layout of any directories given)
+	 * rather than next to its input.
+	 * @param outputDirectory the directory
+	 */
+	public void setOutputDirectory(String outputDirectory){
+		this.outputDirectory = Paths.get(outputDirectory);
+	}
+
+	/**
+	 * The options every file is encoded with, as Encode takes them.
+	 * @param blockSize the block size, 0 for a single stream
+	 * @param raw whether to encode raw bytes
+	 * @param maxLength the longest code allowed, 0 for no limit
+	 * @param adaptive whether to encode in one pass
+	 */
+	public void setEncodeOptions(int blockSize, boolean raw, int maxLength, boolean adaptive){
+		this.blockSize = blockSize;
+		this.raw = raw;
+		this.maxLength = maxLength;
+		this.adaptive = adaptive;
+	}
+
+	/**
+	 * The container options every file is encoded with, as Encode takes them.
+	 * @param checkpointInterval the bytes between checkpoints in a raw file, 0 for none
+	 * @param context whether to try an order-1 model for every block
+	 * @param pipelined whether to overlap the reads and writes with encoding
+	 */
+	public void setContainerOptions(int checkpointInterval, boolean context, boolean pipelined){
+		this.checkpointInterval = checkpointInterval;
+		this.context = context;
+		this.pipelined = pipelined;
+	}
+
+	/**
+	 * Usage: java huffman.Batch (encode | decode) [-limit n] [-out directory] [encode options] inputs...
+	 *     -limit n             work on at most n files at once (default 4 per processor)
+	 *     -out directory       write the output files here rather than next to the inputs
+	 *     encode options       any of Encode's but -stats: -raw, -maxlen bits, -blocks, -blocksize bytes,
+	 *                          -index bytes, -context, -pipeline, -adaptive
+	 *     inputs               files, directories (every file under them) and @lists (a file per line)
+	 * Exits with 1 if any file failed and 2 if it was not called right (an unknown option or a bad value).
+	 */
+	public static void main(String[] args) throws IOException{
+		int status = execute(args);
+		if(status != 0){
+			System.exit(status);
+		}
+	}
+
+	/**
+	 * Does what main does, returning the status main exits with rather than exiting.
+	 * @param args main's arguments
+	 * @return 0 if every file worked, FAILED_STATUS if any failed, USAGE_STATUS if the arguments are wrong
+	 * @throws IOException if an input directory or list can not be read
+	 */
+	protected static int execute(String[] args) throws IOException{
+		// encode or decode, anything else (a typo) must not fall through to encoding everything
+		if(args.length == 0 || !(args[0].equals("encode") || args[0].equals("decode"))){
+			System.err.println(USAGE);
+			return USAGE_STATUS;
+		}
+		boolean decode = args[0].equals("decode");
+		int limit = DEFAULT_LIMIT;
+		String out = null;
+		int blockSize = 0;
+		boolean raw = false;
+		int maxLength = 0;
+		boolean adaptive = false;
+		int checkpointInterval = 0;
+		boolean context = false;
+		boolean pipelined = false;
+		int arg = 1;
+		try{
+			while(arg < args.length && args[arg].startsWith("-")){
+				switch(args[arg++]){
+				case "-limit":
+					limit = number(args, arg++, 1, Integer.MAX_VALUE);
+					break;
+				case "-out":
+					out = value(args, arg++);
+					break;
+				case "-raw":
+					raw = true;
+					break;
+				case "-maxlen":
+					maxLength = number(args, arg++, 0, Integer.MAX_VALUE);
+					break;
+				case "-blocks":
+					blockSize = BlockCodec.DEFAULT_BLOCK_SIZE;
+					break;
+				case "-blocksize":
+					blockSize = number(args, arg++, 1, BlockCodec.MAX_BLOCK_SIZE);
+					break;
+				case "-index":
+					checkpointInterval = number(args, arg++, 1, Integer.MAX_VALUE);
+					break;
+				case "-context":
+					context = true;
+					break;
+				case "-pipeline":
+					pipelined = true;
+					break;
+				case "-adaptive":
+					adaptive = true;
+					break;
+				default:
+					throw new IllegalArgumentException("Unknown option " + args[arg - 1]);
+				}
+			}
+		}catch(IllegalArgumentException e){
+			// a missing or bad value must not throw out of main or fall back to a default
+			System.err.println(e.getMessage());
+			System.err.println(USAGE);
+			return USAGE_STATUS;
+		}
+		Batch batch = new Batch(decode, limit);
+		if(out != null){
+			batch.setOutputDirectory(out);
+		}
+		batch.setEncodeOptions(blockSize, raw, maxLength, adaptive);
+		batch.setContainerOptions(checkpointInterval, context, pipelined);
+
+		// every file to work on, with the path its output keeps under the output directory
+		List<Path[]> jobs = new ArrayList<>();
+		for(; arg < args.length; arg++){
+			batch.addInput(args[arg], jobs);
+		}
+		return batch.run(jobs) > 0 ? FAILED_STATUS : 0;
+	}
+
+	/**
+	 * Gets an option's value.
+	 * @param args main's arguments
+	 * @param arg where the value is
+	 * @return the value
+	 * @throws IllegalArgumentException if the arguments end before it
+	 */
+	private static String value(String[] args, int arg){
+		if(arg >= args.length){
+			throw new IllegalArgumentException("Option " + args[arg - 1] + " needs a value");
+		}
+		return args[arg];
+	}
+
+	/**
+	 * Gets an option's value as a number.
+	 * @param args main's arguments
+	 * @param arg where the value is
+	 * @param minimum the smallest the number may be
+	 * @param maximum the biggest the number may be
+	 * @return the number
+	 * @throws IllegalArgumentException if the arguments end before it or it is not a number in range
+	 */
+	private static int number(String[] args, int arg, int minimum, int maximum){
+		String value = value(args, arg);
+		try{
+			int number = Integer.parseInt(value);
+			if(number >= minimum && number <= maximum){
+				return number;
+			}
+		}catch(NumberFormatException e){
+			// reported below like a number out of range
+		}
+		throw new IllegalArgumentException("Option " + args[arg - 1] + " must be " + minimum + " to " + maximum + ": " + value);
+	}
+
+	/**
+	 * Runs a job per file, at most limit at a time, then prints the totals.
+	 * @param jobs each file and its path relative to the output directory
+	 * @return how many files failed
+	 * @throws IOException if the output directory can not be created
+	 */
+	public int run(List<Path[]> jobs) throws IOException{
+		if(this.outputDirectory != null){
+			Files.createDirectories(this.outputDirectory);
+		}
+		ExecutorService executor = newExecutor(this.limit);
+		Semaphore permits = new Semaphore(this.limit);
+		long start = System.nanoTime();
+		try{
+			for(Path[] job: jobs){
+				// wait for a free slot so only limit files are ever open at once
+				permits.acquireUninterruptibly();
+				executor.execute(() -> {
+					try{
+						this.runJob(job[0], job[1]);
+					}finally{
+						permits.release();
+					}
+				});
+			}
+		}finally{
+			executor.shutdown();
+			try{
+				while(!executor.awaitTermination(1, TimeUnit.MINUTES)){
+					System.out.println(this.done.get() + " of " + jobs.size() + " files done...");
+				}
+			}catch(InterruptedException e){
+				Thread.currentThread().interrupt();
+			}
+		}
+		double seconds = (System.nanoTime() - start) / 1e9;
+		double megabytes = this.bytes.get() / 1e6;
+		System.out.printf("%s %d files (%d failed), %.1f MB in %.2f s, %.1f MB/s, %.0f files/s%n",
+				this.decode ? "Decoded" : "Encoded", this.done.get(), this.failed.get(), megabytes, seconds,
+				megabytes / seconds, this.done.get() / seconds);
+		return this.failed.get();
+	}
+
+	/**
+	 * Encodes or decodes one file. Encode and Decode print their own errors and keep them (getFailure),
+	 * a job fails if they kept one, it throws or it leaves no output behind. A failed job's output is
+	 * deleted so a half written or empty file is never left looking like a good one.
+	 * @param source the file
+	 * @param relative its path under the output directory
+	 */
+	private void runJob(Path source, Path relative){
+		Path target = this.target(source, relative);
+		try{
+			if(target.getParent() != null){
+				Files.createDirectories(target.getParent());
+			}
+			Exception failure;
+			if(this.decode){
+				Decode decode = new Decode(source.toString(), target.toString());
+				decode.decode();
+				failure = decode.getFailure();
+			}else{
+				Encode encode = new Encode(source.toString(), target.toString(), this.blockSize);
+				encode.setRaw(this.raw);
+				encode.setMaxLength(this.maxLength);
+				encode.setAdaptive(this.adaptive);
+				encode.setCheckpointInterval(this.checkpointInterval);
+				encode.setContext(this.context);
+				encode.setPipelined(this.pipelined);
+				encode.encode();
+				failure = encode.getFailure();
+			}
+			if(failure != null || !Files.exists(target)){
+				this.fail(target);
+			}else{
+				// throughput is counted in plain bytes either way
+				this.bytes.addAndGet(Files.size(this.decode ? target : source));
+			}
+		}catch(IOException | RuntimeException e){
+			System.err.println("Error: " + source + ": " + e);
+			this.fail(target);
+		}finally{
+			this.done.incrementAndGet();
+		}
+	}
+
+	/**
+	 * Counts a failed job and deletes whatever output it left.
+	 * @param target the job's output file
+	 */
+	private void fail(Path target){
+		this.failed.incrementAndGet();
+		try{
+			Files.deleteIfExists(target);
+		}catch(IOException e){
+			System.err.println("Error: could not delete " + target + ": " + e);
+		}
+	}
+
+	/**
+	 * Works out where a file's output goes.
+	 * @param source the file
+	 * @param relative its path under the output directory
+	 * @return the output file
+	 */
+	private Path target(Path source, Path relative){
+		Path base = this.outputDirectory == null ? source : this.outputDirectory.resolve(relative);
+		String name = base.getFileName().toString();
+		if(!this.decode){
+			name += EXTENSION;
+		}else if(name.endsWith(EXTENSION) && name.length() > EXTENSION.length()){
+			name = name.substring(0, name.length() - EXTENSION.length());
+		}else{
+			name += DECODED_EXTENSION;
+		}
+		return base.resolveSibling(name);
+	}
+
+	/**
+	 * Adds the jobs for an input: a file, every file under a directory or every file named in an @list.
+	 * @param input the input
+	 * @param jobs where the jobs go
+	 * @throws IOException if a directory or list can not be read
+	 */
+	private void addInput(String input, List<Path[]> jobs) throws IOException{
+		if(input.startsWith("@")){
+			for(String line: Files.readAllLines(Paths.get(input.substring(1)))){
+				if(!line.isBlank()){
+					this.addInput(line.trim(), jobs);
+				}
+			}
+			return;
+		}
+		Path path = Paths.get(input);
+		if(Files.isDirectory(path)){
+			List<Path> files;
+			try(Stream<Path> walk = Files.walk(path)){
+				files = walk.filter(Files::isRegularFile).sorted().collect(Collectors.toList());
+			}
+			for(Path file: files){
+				jobs.add(new Path[]{file, path.relativize(file)});
+			}
+		}else{
+			jobs.add(new Path[]{path, path.getFileName()});
+		}
+	}
+
+	/**
+	 * Gets a thread per task executor on virtual threads if this JVM has them (21 and up), otherwise a
+	 * pool of limit platform threads. Looked up by reflection so the code still builds for 17.
+	 * @param limit how many tasks will run at once
+	 * @return the executor
+	 */
+	protected static ExecutorService newExecutor(int limit){
+		try{
+			return (ExecutorService) Executors.class.getMethod("newVirtualThreadPerTaskExecutor").invoke(null);
+		}catch(ReflectiveOperationException e){
+			return Executors.newFixedThreadPool(limit);
+		}
+	}
+}
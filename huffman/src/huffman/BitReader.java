@@ -0,0 +1,187 @@
+package huffman;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.UncheckedIOException;
+
+/**
+ * Reads a stream of bits most significant bit first, the same order the encoder packs them.
+ * Bits are kept left-aligned in a 64 bit buffer so the decoder can peek at the next few bits
+ * as a plain int and index a table with them. Reading past the end of the data yields zero
+ * bits, exhausted() tells the caller when that has happened.
+ * 
+ * The bits either come from a byte array or from a stream, which is read a fixed size chunk at a
+ * time so decoding a huge file never needs more memory than one chunk.
+ */
+public class BitReader {
+
+	// the default number of bytes read from a stream at a time
+	protected static final int CHUNK_SIZE = 1 << 16;
+
+	// where more chunks come from, null for an array (or once the stream is done)
+	private InputStream in;
+
+	// the bytes we are reading bits from
+	private byte[] data;
+
+	// the next byte to load into the buffer
+	private int position;
+
+	// one past the last byte we may read
+	private int limit;
+
+	// the bits not yet consumed, left-aligned
+	private long buffer;
+
+	// how many bits in the buffer are valid (including any zero padding)
+	private int count;
+
+	// how many zero bits were padded on after the real data ran out
+	private int padding;
+
+	// where reading started in the array, and the bytes in the chunks before this one
+	private int start;
+	private long previous;
+
+	/**
+	 * Creates a reader over part of a byte array
+	 * @param data the bytes to read
+	 * @param offset where to start reading
+	 * @param length how many bytes to read
+	 */
+	public BitReader(byte[] data, int offset, int length){
+		this.reset(data, offset, length);
+	}
+
+	/**
+	 * Creates a reader over an entire byte array
+	 * @param data the bytes to read
+	 */
+	public BitReader(byte[] data){
+		this(data, 0, data.length);
+	}
+
+	/**
+	 * Creates a reader that pulls its bytes from a stream a chunk at a time.
+	 * @param in the stream to read
+	 * @param chunkSize how many bytes to read at a time
+	 */
+	public BitReader(InputStream in, int chunkSize){
+		this.in = in;
+		this.data = new byte[chunkSize];
+	}
+
+	/**
+	 * Creates a reader over a stream with the default chunk size.
+	 * @param in the stream to read
+	 */
+	public BitReader(InputStream in){
+		this(in, CHUNK_SIZE);
+	}
+
+	/**
+	 * Starts reading another part of an array (or another array) from scratch, so one reader can be
+	 * used over and over.
+	 * @param data the bytes to read
+	 * @param offset where to start reading
+	 * @param length how many bytes to read
+	 */
+	protected void reset(byte[] data, int offset, int length){
+		this.in = null;
+		this.data = data;
+		this.position = offset;
+		this.limit = offset + length;
+		this.start = offset;
+		this.previous = 0;
+		this.buffer = 0;
+		this.count = 0;
+		this.padding = 0;
+	}
+
+	/**
+	 * Returns the next n bits without consuming them.
+	 * @param n the number of bits to look at, 0 to 32
+	 * @return the bits right-aligned in an int
+	 */
+	protected int peek(int n){
+		if(this.count < n){
+			this.refill();
+		}
+		// a shift of 64 is a shift of 0 in java so zero bits needs its own case
+		if(n == 0){
+			return 0;
+		}
+		return (int) (this.buffer >>> (64 - n));
+	}
+
+	/**
+	 * Consumes n bits, they must have been peeked first.
+	 * @param n the number of bits to drop
+	 */
+	protected void skip(int n){
+		this.buffer <<= n;
+		this.count -= n;
+	}
+
+	/**
+	 * Reads and consumes a single bit.
+	 * @return 0 or 1
+	 */
+	protected int readBit(){
+		int bit = this.peek(1);
+		this.skip(1);
+		return bit;
+	}
+
+	/**
+	 * Have we consumed bits that were not in the data?
+	 * @return true once the reader has gone past the end of the data
+	 */
+	protected boolean exhausted(){
+		return this.count < this.padding;
+	}
+
+	/**
+	 * How many bytes have been taken from the array or stream so far, including any read ahead into the buffer.
+	 * @return the number of bytes
+	 */
+	protected long bytesRead(){
+		return this.previous + this.position - this.start;
+	}
+
+	/**
+	 * Tops the buffer up a byte at a time until there is no room for another byte.
+	 * Once the data runs out we pad with zeros and remember how many we made up.
+	 */
+	private void refill(){
+		while(this.count <= 56){
+			if(this.position == this.limit && this.in != null){
+				this.nextChunk();
+			}
+			if(this.position < this.limit){
+				this.buffer |= (this.data[this.position++] & 0xFFL) << (56 - this.count);
+			}else{
+				this.padding += 8;
+			}
+			this.count += 8;
+		}
+	}
+
+	/**
+	 * Reads the next chunk from the stream into our array.
+	 */
+	private void nextChunk(){
+		try{
+			int read = this.in.read(this.data, 0, this.data.length);
+			this.previous += this.limit;
+			this.position = 0;
+			this.limit = Math.max(read, 0);
+			// nothing more to come
+			if(read < 0){
+				this.in = null;
+			}
+		}catch(IOException e){
+			throw new UncheckedIOException(e);
+		}
+	}
+}
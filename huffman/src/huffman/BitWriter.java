@@ -0,0 +1,179 @@
+package huffman;
+
+import java.io.IOException;
+import java.io.OutputStream;
+
+/**
+ * Writes a stream of bits most significant bit first. Codes are shifted into a 64 bit accumulator
+ * and whenever 32 bits have built up they are moved into a large byte buffer as a whole word, the
+ * buffer only goes to the underlying stream when it fills up. That way the per symbol cost is a shift
+ * and an or, no strings and no call into the stream per byte.
+ *
+ * A writer can also write straight into the caller's array with no stream behind it, and be reset to
+ * another array, so encoding into a buffer the caller owns allocates nothing.
+ */
+public class BitWriter {
+
+	// the default size of the output buffer
+	protected static final int BUFFER_SIZE = 1 << 16;
+
+	// where full buffers go, null when writing straight into an array
+	private OutputStream out;
+
+	// the bytes waiting to be written
+	private byte[] bytes;
+
+	// how many bytes in the buffer are used
+	private int position;
+
+	// the bits not yet moved to the buffer, right-aligned (anything above count is junk)
+	private long bits;
+
+	// how many bits the accumulator holds
+	private int count;
+
+	// how many bytes have gone to the stream
+	private long written;
+
+	/**
+	 * Creates a writer with the default buffer size
+	 * @param out where the bytes end up
+	 */
+	public BitWriter(OutputStream out){
+		this(out, BUFFER_SIZE);
+	}
+
+	/**
+	 * Creates a writer
+	 * @param out where the bytes end up
+	 * @param bufferSize how many bytes to collect before writing them out, a multiple of 4
+	 */
+	public BitWriter(OutputStream out, int bufferSize){
+		this.out = out;
+		this.bytes = new byte[bufferSize];
+	}
+
+	/**
+	 * Creates a writer that writes into an array, running out of room is an IOException
+	 * @param bytes where the bytes end up
+	 * @param offset where the first byte goes
+	 */
+	public BitWriter(byte[] bytes, int offset){
+		this.reset(bytes, offset);
+	}
+
+	/**
+	 * Starts writing into another array, dropping anything not yet flushed.
+	 * @param bytes where the bytes end up
+	 * @param offset where the first byte goes
+	 */
+	protected void reset(byte[] bytes, int offset){
+		this.out = null;
+		this.bytes = bytes;
+		this.position = offset;
+		this.count = 0;
+		// so bytesWritten counts from the offset
+		this.written = -offset;
+	}
+
+	/**
+	 * Writes the low length bits of code.
+	 * @param code the bits to write, nothing may be set above length
+	 * @param length how many bits to write, 0 to 64
+	 * @throws IOException if the stream can not be written to
+	 */
+	protected void write(long code, int length) throws IOException{
+		// the accumulator only has room for 32 more bits, longer codes go in two halves
+		if(length > 32){
+			this.write(code >>> 32, length - 32);
+			this.write(code & 0xFFFFFFFFL, 32);
+			return;
+		}
+		this.bits = (this.bits << length) | code;
+		this.count += length;
+
+		// move a whole word into the buffer
+		if(this.count >= 32){
+			this.count -= 32;
+			int word = (int) (this.bits >>> this.count);
+			if(this.position > this.bytes.length - 4){
+				this.drain();
+			}
+			this.bytes[this.position] = (byte) (word >>> 24);
+			this.bytes[this.position + 1] = (byte) (word >>> 16);
+			this.bytes[this.position + 2] = (byte) (word >>> 8);
+			this.bytes[this.position + 3] = (byte) word;
+			this.position += 4;
+		}
+	}
+
+	/**
+	 * Pads any partial byte with zeros so the next bits start on a byte, nothing is written out.
+	 * @throws IOException if the stream can not be written to
+	 */
+	protected void align() throws IOException{
+		this.write(0, (8 - (this.count & 7)) & 7);
+	}
+
+	/**
+	 * Pads any partial byte with zeros and writes everything out to the stream (or the array).
+	 * @throws IOException if the stream can not be written to
+	 */
+	protected void flush() throws IOException{
+		// pad up to a whole byte
+		int pad = (8 - (this.count & 7)) & 7;
+		this.bits <<= pad;
+		this.count += pad;
+
+		// then move the bytes left in the accumulator
+		while(this.count > 0){
+			if(this.position == this.bytes.length){
+				this.drain();
+			}
+			this.count -= 8;
+			this.bytes[this.position++] = (byte) (this.bits >>> this.count);
+		}
+		if(this.out != null){
+			this.drain();
+			this.out.flush();
+		}
+	}
+
+	/**
+	 * How many bytes have been written so far, counting the partial byte in the accumulator.
+	 * @return the number of bytes
+	 */
+	protected long bytesWritten(){
+		return this.written + this.position + (this.count + 7) / 8;
+	}
+
+	/**
+	 * How many bits have been written so far, which is where the next code will start.
+	 * @return the number of bits
+	 */
+	protected long bitsWritten(){
+		return 8 * (this.written + this.position) + this.count;
+	}
+
+	/**
+	 * Where the next byte goes when writing into an array, after a flush that is where the next code
+	 * will start.
+	 * @return the position in the array
+	 */
+	protected int position(){
+		return this.position;
+	}
+
+	/**
+	 * Writes the buffer to the stream and empties it.
+	 * @throws IOException if the stream can not be written to, or the array is full
+	 */
+	private void drain() throws IOException{
+		if(this.out == null){
+			throw new IOException("No room left in the output array");
+		}
+		this.out.write(this.bytes, 0, this.position);
+		this.written += this.position;
+		this.position = 0;
+	}
+}
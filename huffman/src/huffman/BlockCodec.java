@@ -0,0 +1,312 @@
+package huffman;
+
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.nio.ByteBuffer;
+import java.util.Arrays;
+
+/**
+ * Static methods for the block container format. The input is cut into fixed size blocks of raw bytes
+ * and every block is encoded on its own with its own code, so blocks can be encoded (and decoded) in any
+ * order and on as many threads as we like. Since we know how many bytes each block holds there is no
+ * end of file character, every byte value is a symbol.
+ *
+ * The file looks like this:
+ *     - 0x00 (no single stream file starts with an alphabet of 0) then 'B'
+ *     - the block size (int), the number of blocks (int) and the input length (long)
+ *     - each block: its raw length (int), the length of the rest of the block (int), its mode (byte),
+ *       the table as HuffmanUtilities.writeTable writes it and the encoded bits
+ *     - the index: where each block starts in this file and in the decoded file (long, long)
+ *     - where the index starts (long), always the last eight bytes
+ *
+ * The mode says how a block's bits are laid out. A single stream is one code after another. Four
+ * streams split the block into four quarters, each encoded as its own byte aligned stream, with the
+ * lengths of the first three (int each) in front of them. With one stream every code's position
+ * depends on the length of the code before it, so the decoder can not start on a symbol until it has
+ * finished the last one. Four streams are four independent chains the decoder steps through in the
+ * same loop, so the processor can work on all of them at once (the same trick as huff0). The jump
+ * table costs twelve bytes so only blocks of INTERLEAVE_SIZE and up are split. A context block is a
+ * single stream written with an order-1 ContextModel rather than one code, its header in place of the
+ * table; it is only used when asked for and when it comes out smaller.
+ *
+ * Before a block is coded its size is worked out from its counts and code lengths, and a block that
+ * would not come out smaller (already compressed or random bytes) is stored: the mode and the bytes
+ * as they are, no table and no time spent coding. A block whose statistics change part way through
+ * (see BlockSplitter) is split: the mode followed by its pieces, each laid out like a block of its
+ * own (raw length, length, mode, ...) but never split again.
+ *
+ * The blocks themselves are encoded by HuffmanEncoder and decoded by HuffmanDecoder, these methods
+ * use a fresh one each time.
+ */
+public class BlockCodec {
+
+	// how big blocks are unless we are told otherwise
+	protected static final int DEFAULT_BLOCK_SIZE = 1 << 20;
+
+	// the biggest blocks a container may have, a header asking for more is taken to be corrupt
+	protected static final int MAX_BLOCK_SIZE = 1 << 28;
+
+	// the bytes in front of the first block
+	protected static final int HEADER_SIZE = 2 + 4 + 4 + 8;
+
+	// the bytes in front of each block's table
+	protected static final int BLOCK_HEADER_SIZE = 4 + 4;
+
+	// a block's symbols are bytes
+	protected static final int ALPHABET_SIZE = 256;
+
+	// the modes, how a block's bits are laid out
+	protected static final int SINGLE_STREAM = 0;
+	protected static final int FOUR_STREAMS = 1;
+	protected static final int CONTEXT = 2;
+	protected static final int STORED = 3;
+	protected static final int SPLIT = 4;
+
+	// how many streams an interleaved block is split into
+	protected static final int STREAMS = 4;
+
+	// the smallest block worth splitting into streams
+	protected static final int INTERLEAVE_SIZE = 1 << 14;
+
+	/**
+	 * Prevent construction since all methods will be static
+	 */
+	private BlockCodec() {}
+
+	/**
+	 * Writes the container header.
+	 * @param out where to write it
+	 * @param blockSize the block size
+	 * @param blockCount how many blocks follow
+	 * @param length the length of the input
+	 * @throws IOException if it can not be written
+	 */
+	protected static void writeHeader(DataOutputStream out, int blockSize, int blockCount, long length) throws IOException{
+		out.write(Container.MARKER);
+		out.write(Container.BLOCKS);
+		out.writeInt(blockSize);
+		out.writeInt(blockCount);
+		out.writeLong(length);
+	}
+
+	/**
+	 * Writes the block index and the trailer that points at it.
+	 * @param out where to write it
+	 * @param offsets where each block starts in the container
+	 * @param outputOffsets where each block starts in the decoded file
+	 * @param indexOffset where in the container the index starts
+	 * @throws IOException if it can not be written
+	 */
+	protected static void writeIndex(DataOutputStream out, long[] offsets, long[] outputOffsets, long indexOffset) throws IOException{
+		for(int i = 0; i < offsets.length; i++){
+			out.writeLong(offsets[i]);
+			out.writeLong(outputOffsets[i]);
+		}
+		out.writeLong(indexOffset);
+	}
+
+	/**
+	 * Encodes one block held in an array.
+	 *
+	 * @param data the bytes holding the block
+	 * @param offset where the block starts
+	 * @param length how many bytes are in the block
+	 * @param maxLength the longest code allowed, 0 for no limit
+	 * @return the encoded block, ready to be written to the container
+	 */
+	protected static byte[] encodeBlock(byte[] data, int offset, int length, int maxLength){
+		return encodeBlock(ByteBuffer.wrap(data, offset, length).slice(), maxLength);
+	}
+
+	/**
+	 * Encodes one block, in four streams if it is big enough to be worth it.
+	 *
+	 * @param data the block, from 0 to its limit
+	 * @param maxLength the longest code allowed, 0 for no limit
+	 * @return the encoded block, ready to be written to the container
+	 */
+	protected static byte[] encodeBlock(ByteBuffer data, int maxLength){
+		return encodeBlock(data, maxLength, defaultMode(data.limit()));
+	}
+
+	/**
+	 * The mode a block is written in unless we are told otherwise.
+	 * @param length how many bytes are in the block
+	 * @return FOUR_STREAMS for blocks big enough to be worth splitting, SINGLE_STREAM for the rest
+	 */
+	protected static int defaultMode(int length){
+		return length >= INTERLEAVE_SIZE ? FOUR_STREAMS : SINGLE_STREAM;
+	}
+
+	/**
+	 * Encodes one block: counts its bytes, builds a canonical code for them and writes the block
+	 * header, the mode, the table and the encoded bits. The buffer is read with absolute gets so a
+	 * slice of a mapped file is encoded without being copied.
+	 *
+	 * @param data the block, from 0 to its limit
+	 * @param maxLength the longest code allowed, 0 for no limit
+	 * @param mode SINGLE_STREAM, FOUR_STREAMS or CONTEXT (which falls back to the default mode when an
+	 *        order-1 model does not make the block smaller)
+	 * @return the encoded block, ready to be written to the container
+	 */
+	protected static byte[] encodeBlock(ByteBuffer data, int maxLength, int mode){
+		int length = data.limit();
+		byte[] block = new byte[HuffmanEncoder.maxBlockLength(length)];
+		int blockLength = new HuffmanEncoder().encodeBlock(data, 0, length, maxLength, mode, block, 0);
+		return Arrays.copyOf(block, blockLength);
+	}
+
+	/**
+	 * Decodes one block (everything after the block header).
+	 *
+	 * @param block the bytes holding the mode, table and encoded bits
+	 * @param offset where the mode starts
+	 * @param length how many bytes the mode, table and bits take up
+	 * @param out where the decoded bytes go
+	 * @param outOffset where the first decoded byte goes
+	 * @param rawLength how many bytes the block decodes to
+	 * @throws IOException if the block is corrupt
+	 */
+	protected static void decodeBlock(byte[] block, int offset, int length, byte[] out, int outOffset, int rawLength) throws IOException{
+		new HuffmanDecoder().decodeBlock(block, offset, length, out, outOffset, rawLength);
+	}
+
+	/**
+	 * Decodes one block as it sits in the container, block header and all.
+	 *
+	 * @param block the block
+	 * @return the decoded bytes
+	 * @throws IOException if the block is corrupt
+	 */
+	protected static byte[] decodeBlock(byte[] block) throws IOException{
+		int rawLength = getInt(block, 0);
+		int length = getInt(block, 4);
+		if(rawLength < 0 || rawLength > MAX_BLOCK_SIZE || length < 0 || length > block.length - BLOCK_HEADER_SIZE){
+			throw new IOException("Corrupt block header");
+		}
+		byte[] raw = new byte[rawLength];
+		decodeBlock(block, BLOCK_HEADER_SIZE, length, raw, 0, rawLength);
+		return raw;
+	}
+
+	/**
+	 * Decodes a whole container, one block after another. The marker and kind have already been read.
+	 *
+	 * @param in the container, just after the kind
+	 * @param out where the decoded bytes go
+	 * @throws IOException if the container can not be read or is corrupt
+	 */
+	protected static void decodeContainer(DataInputStream in, OutputStream out) throws IOException{
+		int blockSize = in.readInt();
+		int blockCount = in.readInt();
+		long length = in.readLong();
+		// the header says how much to allocate, so it is checked before anything is
+		if(blockSize <= 0 || blockSize > MAX_BLOCK_SIZE || blockCount < 0 || length < 0 || length > (long) blockCount * blockSize){
+			throw new IOException("Corrupt container header");
+		}
+
+		// reused for every block, no block decodes to more than the whole file
+		HuffmanDecoder decoder = new HuffmanDecoder();
+		byte[] raw = new byte[(int) Math.min(blockSize, length)];
+		byte[] block = new byte[0];
+		int maxLength = HuffmanEncoder.maxBlockLength(blockSize);
+		long decoded = 0;
+		for(int i = 0; i < blockCount; i++){
+			int rawLength = in.readInt();
+			int encodedLength = in.readInt();
+			if(rawLength < 0 || rawLength > raw.length || rawLength > length - decoded || encodedLength < 0 || encodedLength > maxLength){
+				throw new IOException("Corrupt block header");
+			}
+			block = readBlock(in, block, encodedLength);
+			decoder.decodeBlock(block, 0, encodedLength, raw, 0, rawLength);
+			out.write(raw, 0, rawLength);
+			decoded += rawLength;
+		}
+		if(decoded != length){
+			throw new IOException("Corrupt container: blocks do not add up to its length");
+		}
+		out.flush();
+	}
+
+	/**
+	 * Reads a block into an array, growing the array as the bytes arrive rather than all at once, so a
+	 * block header claiming more than the input holds runs out of input before it runs out of memory.
+	 *
+	 * @param in the container, just after the block header
+	 * @param block the array to read into, if it is big enough
+	 * @param length how many bytes the block takes
+	 * @return the array holding the block
+	 * @throws IOException if the container can not be read or ends first
+	 */
+	private static byte[] readBlock(DataInputStream in, byte[] block, int length) throws IOException{
+		int read = 0;
+		while(read < length){
+			if(read == block.length){
+				block = Arrays.copyOf(block, (int) Math.min(length, Math.max(2L * block.length, 1 << 16)));
+			}
+			int n = Math.min(length, block.length) - read;
+			in.readFully(block, read, n);
+			read += n;
+		}
+		return block;
+	}
+
+	/**
+	 * How many bytes a container takes with every block stored, the header, each block's header and mode,
+	 * the bytes themselves, the index and the trailer. No container of the same blocks is bigger, a block
+	 * is only coded or split when that comes out smaller than storing it.
+	 * @param length how many bytes go in the container
+	 * @param blockSize how big the blocks are
+	 * @return the size of the container
+	 */
+	protected static long storedSize(long length, int blockSize){
+		long blocks = (length + blockSize - 1) / blockSize;
+		return HEADER_SIZE + blocks * (BLOCK_HEADER_SIZE + 1 + 16) + length + 8;
+	}
+
+	/**
+	 * Puts an int into a byte array, big-endian like DataOutputStream.
+	 * @param bytes the array
+	 * @param offset where the int goes
+	 * @param value the int
+	 */
+	protected static void putInt(byte[] bytes, int offset, int value){
+		bytes[offset] = (byte) (value >>> 24);
+		bytes[offset + 1] = (byte) (value >>> 16);
+		bytes[offset + 2] = (byte) (value >>> 8);
+		bytes[offset + 3] = (byte) value;
+	}
+
+	/**
+	 * Gets an int from a byte array, big-endian like DataInputStream.
+	 * @param bytes the array
+	 * @param offset where the int is
+	 * @return the int
+	 */
+	protected static int getInt(byte[] bytes, int offset){
+		return (bytes[offset] & 0xFF) << 24 | (bytes[offset + 1] & 0xFF) << 16 | (bytes[offset + 2] & 0xFF) << 8 | (bytes[offset + 3] & 0xFF);
+	}
+
+	/**
+	 * Puts a long into a byte array, big-endian like DataOutputStream.
+	 * @param bytes the array
+	 * @param offset where the long goes
+	 * @param value the long
+	 */
+	protected static void putLong(byte[] bytes, int offset, long value){
+		putInt(bytes, offset, (int) (value >>> 32));
+		putInt(bytes, offset + 4, (int) value);
+	}
+
+	/**
+	 * Gets a long from a byte array, big-endian like DataInputStream.
+	 * @param bytes the array
+	 * @param offset where the long is
+	 * @return the long
+	 */
+	protected static long getLong(byte[] bytes, int offset){
+		return (long) getInt(bytes, offset) << 32 | (getInt(bytes, offset + 4) & 0xFFFFFFFFL);
+	}
+}
@@ -0,0 +1,152 @@
+package huffman;
+
+import java.io.EOFException;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.util.Arrays;
+
+/**
+ * The index of a block container, read from the end of the file. For every block it knows where the
+ * block starts in the container and where its bytes go in the decoded file, which is all a decoder
+ * needs to hand the blocks out to different threads (blocks are byte aligned so a byte offset is as
+ * good as a bit offset).
+ */
+public class BlockIndex {
+
+	// the block size the container was written with
+	protected int blockSize;
+
+	// the length of the decoded file
+	protected long length;
+
+	// where each block starts in the container
+	protected long[] offsets;
+
+	// where each block's bytes go in the decoded file
+	protected long[] outputOffsets;
+
+	// where the index starts, which is also where the last block ends
+	protected long indexOffset;
+
+	/**
+	 * Reads the header and index of a container.
+	 * @param channel the container
+	 * @return its index
+	 * @throws IOException if the file is not a block container or can not be read
+	 */
+	protected static BlockIndex read(FileChannel channel) throws IOException{
+		BlockIndex index = new BlockIndex();
+
+		ByteBuffer header = readFully(channel, 0, BlockCodec.HEADER_SIZE);
+		if(header.get() != Container.MARKER || header.get() != Container.BLOCKS){
+			throw new IOException("Not a block container");
+		}
+		index.blockSize = header.getInt();
+		int blockCount = header.getInt();
+		index.length = header.getLong();
+		if(index.blockSize <= 0 || index.blockSize > BlockCodec.MAX_BLOCK_SIZE || blockCount < 0 || index.length < 0){
+			throw new IOException("Corrupt container header");
+		}
+
+		// the last eight bytes tell us where the index is
+		index.indexOffset = readFully(channel, channel.size() - 8, 8).getLong();
+		if(index.indexOffset < BlockCodec.HEADER_SIZE || index.indexOffset + 16L * blockCount + 8 != channel.size()){
+			throw new IOException("Corrupt block index");
+		}
+
+		ByteBuffer entries = readFully(channel, index.indexOffset, 16 * blockCount);
+		index.offsets = new long[blockCount];
+		index.outputOffsets = new long[blockCount];
+		for(int i = 0; i < blockCount; i++){
+			index.offsets[i] = entries.getLong();
+			index.outputOffsets[i] = entries.getLong();
+		}
+		return index;
+	}
+
+	/**
+	 * How many blocks the container holds.
+	 * @return the number of blocks
+	 */
+	protected int blockCount(){
+		return this.offsets.length;
+	}
+
+	/**
+	 * Where a block ends in the container.
+	 * @param block the block
+	 * @return the offset just past the block
+	 */
+	protected long end(int block){
+		return block + 1 < this.offsets.length ? this.offsets[block + 1] : this.indexOffset;
+	}
+
+	/**
+	 * Reads a block from the container. Positional reads are safe to do from many threads at once.
+	 * @param channel the container
+	 * @param block the block to read
+	 * @return the block, header and all
+	 * @throws IOException if it can not be read
+	 */
+	protected byte[] readBlock(FileChannel channel, int block) throws IOException{
+		long size = this.end(block) - this.offsets[block];
+		if(size < BlockCodec.BLOCK_HEADER_SIZE || size > Integer.MAX_VALUE){
+			throw new IOException("Corrupt block index");
+		}
+		return readFully(channel, this.offsets[block], (int) size).array();
+	}
+
+	/**
+	 * Decodes a range of the decoded file, only the blocks the range touches are read and decoded.
+	 * @param channel the container
+	 * @param offset where in the decoded file the range starts
+	 * @param out where the decoded bytes go
+	 * @param outOffset where the first decoded byte goes
+	 * @param length how many bytes to decode, the range must be inside the file
+	 * @throws IOException if the container can not be read or is corrupt
+	 */
+	protected void decode(FileChannel channel, long offset, byte[] out, int outOffset, int length) throws IOException{
+		// the last block starting at or before the range
+		int block = Arrays.binarySearch(this.outputOffsets, offset);
+		if(block < 0){
+			block = -block - 2;
+		}
+		long end = offset + length;
+		while(offset < end){
+			if(block < 0 || block >= this.offsets.length){
+				throw new IOException("Corrupt block index");
+			}
+			byte[] raw = BlockCodec.decodeBlock(this.readBlock(channel, block));
+			long blockStart = this.outputOffsets[block];
+			int from = (int) (offset - blockStart);
+			int count = (int) Math.min(end - offset, raw.length - from);
+			if(from < 0 || count <= 0){
+				throw new IOException("Corrupt block index");
+			}
+			System.arraycopy(raw, from, out, outOffset, count);
+			outOffset += count;
+			offset += count;
+			block++;
+		}
+	}
+
+	/**
+	 * Reads bytes from a position in a channel.
+	 * @param channel where to read
+	 * @param position where to start
+	 * @param length how many bytes
+	 * @return a buffer holding the bytes, ready to read
+	 * @throws IOException if the channel ends first
+	 */
+	protected static ByteBuffer readFully(FileChannel channel, long position, int length) throws IOException{
+		ByteBuffer buffer = ByteBuffer.allocate(length);
+		while(buffer.hasRemaining()){
+			if(channel.read(buffer, position + buffer.position()) < 0){
+				throw new EOFException();
+			}
+		}
+		buffer.flip();
+		return buffer;
+	}
+}
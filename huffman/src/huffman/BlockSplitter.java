@@ -0,0 +1,131 @@
+package huffman;
+
+import java.nio.ByteBuffer;
+import java.util.Arrays;
+
+/**
+ * Static methods that find where a block's statistics change, so the block can be cut into pieces
+ * that each get their own code. A tar of text and JPEGs coded with one table pays for the JPEGs' bytes
+ * in the text and the text's short codes are spent on the JPEGs; cut where one ends and the other
+ * starts, the text gets a tight code and the JPEGs are stored.
+ *
+ * The block is counted a chunk at a time. Each chunk is either added to the piece in front of it or
+ * starts a new one, whichever the estimate says is cheaper: the entropy of the bytes (what a Huffman
+ * code gets within a bit a symbol of) plus what a piece costs on its own, its block header, mode and
+ * table. The counts are kept per piece so the encoder does not count the bytes again.
+ */
+public class BlockSplitter {
+
+	// the bytes counted together, the smallest piece worth cutting off
+	protected static final int CHUNK_SIZE = 1 << 14;
+
+	// the most pieces a block is cut into (so the split block stays inside HuffmanEncoder's bound)
+	protected static final int MAX_PIECES = 32;
+
+	// what a piece costs besides its bits: the block header and mode
+	private static final double PIECE_BITS = 8 * (BlockCodec.BLOCK_HEADER_SIZE + 1);
+
+	// and roughly what each symbol in its table costs, a gap and a length
+	private static final double SYMBOL_BITS = 6;
+
+	/**
+	 * Prevent construction since all methods will be static
+	 */
+	private BlockSplitter() {}
+
+	/**
+	 * Counts a block's bytes and cuts it into pieces where its statistics change. Blocks shorter than
+	 * two chunks are never cut.
+	 * @param data the bytes holding the block
+	 * @param from where the block starts
+	 * @param to one past where it ends
+	 * @param cuts where each piece starts, followed by to, MAX_PIECES + 1 ints
+	 * @param counts each piece's counts, MAX_PIECES tables of Histogram.BYTES (cleared first)
+	 * @param kernel what counts the bytes
+	 * @return how many pieces there are
+	 */
+	protected static int split(ByteBuffer data, int from, int to, int[] cuts, long[][] counts, ByteKernel kernel){
+		cuts[0] = from;
+		Arrays.fill(counts[0], 0);
+		if(to - from < 2 * CHUNK_SIZE){
+			kernel.count(data, from, to, counts[0]);
+			cuts[1] = to;
+			return 1;
+		}
+
+		// the first chunk starts the first piece
+		int piece = 0;
+		kernel.count(data, from, from + CHUNK_SIZE, counts[0]);
+		long pieceLength = CHUNK_SIZE;
+		double pieceCost = cost(counts[0], pieceLength);
+		for(int start = from + CHUNK_SIZE; start < to; start += CHUNK_SIZE){
+			int end = Math.min(start + CHUNK_SIZE, to);
+			// out of pieces, the rest of the block goes in the last one
+			if(piece == MAX_PIECES - 1){
+				kernel.count(data, start, to, counts[piece]);
+				break;
+			}
+
+			// count the chunk into the next piece's table, it stays there if the chunk starts one
+			long[] chunk = counts[piece + 1];
+			Arrays.fill(chunk, 0);
+			kernel.count(data, start, end, chunk);
+			double chunkCost = cost(chunk, end - start);
+			double mergedCost = mergedCost(counts[piece], chunk, pieceLength + end - start);
+			if(pieceCost + chunkCost < mergedCost){
+				cuts[++piece] = start;
+				pieceLength = end - start;
+				pieceCost = chunkCost;
+			}else{
+				long[] counted = counts[piece];
+				for(int symbol = 0; symbol < Histogram.BYTES; symbol++){
+					counted[symbol] += chunk[symbol];
+				}
+				pieceLength += end - start;
+				pieceCost = mergedCost;
+			}
+		}
+		cuts[++piece] = to;
+		return piece;
+	}
+
+	/**
+	 * Estimates what a piece costs coded on its own.
+	 * @param counts how often each byte appears in it
+	 * @param length how many bytes it holds
+	 * @return the estimate in bits
+	 */
+	private static double cost(long[] counts, long length){
+		// n log n - sum(f log f) is the entropy times n, in nats until the end
+		double bits = length * Math.log(length);
+		int symbols = 0;
+		for(int symbol = 0; symbol < Histogram.BYTES; symbol++){
+			long count = counts[symbol];
+			if(count > 0){
+				bits -= count * Math.log(count);
+				symbols++;
+			}
+		}
+		return bits / Math.log(2) + symbols * SYMBOL_BITS + PIECE_BITS;
+	}
+
+	/**
+	 * Estimates what two pieces cost coded together.
+	 * @param first how often each byte appears in one
+	 * @param second how often each byte appears in the other
+	 * @param length how many bytes they hold between them
+	 * @return the estimate in bits
+	 */
+	private static double mergedCost(long[] first, long[] second, long length){
+		double bits = length * Math.log(length);
+		int symbols = 0;
+		for(int symbol = 0; symbol < Histogram.BYTES; symbol++){
+			long count = first[symbol] + second[symbol];
+			if(count > 0){
+				bits -= count * Math.log(count);
+				symbols++;
+			}
+		}
+		return bits / Math.log(2) + symbols * SYMBOL_BITS + PIECE_BITS;
+	}
+}
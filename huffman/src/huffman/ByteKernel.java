@@ -0,0 +1,120 @@
+package huffman;
+
+import java.io.IOException;
+import java.lang.reflect.Constructor;
+import java.nio.ByteBuffer;
+
+/**
+ * The two loops that touch every byte when encoding: counting the bytes and writing each one's code.
+ * This is the plain Java version that runs on any JVM. VectorByteKernel counts with the incubating
+ * Vector API (jdk.incubator.vector), and create hands that out instead when the JVM was started with
+ * --add-modules jdk.incubator.vector. Without the module the vector class can not even be loaded, so
+ * it is only ever named here by reflection and everything falls back to this one. Running with
+ * -Dhuffman.vector=false keeps this one even when the module is there.
+ *
+ * A kernel keeps scratch space between calls so it is not thread safe, keep one per encoder or task.
+ */
+public class ByteKernel {
+
+	// the system property that turns the vector kernel off
+	protected static final String VECTOR_PROPERTY = "huffman.vector";
+
+	// the vector kernel, only ever loaded by name
+	private static final String VECTOR_KERNEL = "huffman.VectorByteKernel";
+
+	// how to make a vector kernel, null when it can not be loaded here
+	private static final Constructor<? extends ByteKernel> VECTOR = vectorConstructor();
+
+	// the four tables countBytesUnrolled counts into
+	private final int[] tables = new int[4 * Histogram.BYTES];
+
+	/**
+	 * The fastest kernel this JVM can run: the vector one if it loads, otherwise the scalar one.
+	 * @return a new kernel
+	 */
+	public static ByteKernel create(){
+		ByteKernel kernel = vector();
+		return kernel != null ? kernel : new ByteKernel();
+	}
+
+	/**
+	 * The scalar kernel, whatever the JVM can run.
+	 * @return a new kernel
+	 */
+	public static ByteKernel scalar(){
+		return new ByteKernel();
+	}
+
+	/**
+	 * The vector kernel.
+	 * @return a new kernel, null when jdk.incubator.vector is not there (or has been turned off)
+	 */
+	public static ByteKernel vector(){
+		if(VECTOR == null){
+			return null;
+		}
+		try{
+			return VECTOR.newInstance();
+		}catch(ReflectiveOperationException e){
+			return null;
+		}
+	}
+
+	/**
+	 * Loads the vector kernel and makes one to be sure it works. Anything that goes wrong (no module, a
+	 * machine whose vectors are too narrow, the property set to false) just leaves it out.
+	 * @return its constructor, or null
+	 */
+	private static Constructor<? extends ByteKernel> vectorConstructor(){
+		if(!Boolean.parseBoolean(System.getProperty(VECTOR_PROPERTY, "true"))){
+			return null;
+		}
+		try{
+			Constructor<? extends ByteKernel> constructor = Class.forName(VECTOR_KERNEL).asSubclass(ByteKernel.class).getDeclaredConstructor();
+			constructor.newInstance();
+			return constructor;
+		}catch(ReflectiveOperationException | LinkageError | RuntimeException e){
+			return null;
+		}
+	}
+
+	/**
+	 * Counts some of a buffer's bytes.
+	 * @param bytes the bytes, read with absolute gets
+	 * @param from the first byte to count
+	 * @param to one past the last byte to count
+	 * @param counts the table to add to
+	 */
+	protected void count(ByteBuffer bytes, int from, int to, long[] counts){
+		Histogram.countBytesUnrolled(bytes, from, to, counts, this.tables);
+	}
+
+	/**
+	 * Writes the code of each of some of a buffer's bytes.
+	 * @param bytes the bytes, read with absolute gets
+	 * @param from the first byte to encode
+	 * @param to one past the last byte to encode
+	 * @param table the code of every byte
+	 * @param writer where the codes go
+	 * @throws IOException if the writer can not write
+	 */
+	protected void encode(ByteBuffer bytes, int from, int to, EncodeTable table, BitWriter writer) throws IOException{
+		for(int i = from; i < to; i++){
+			table.write(writer, bytes.get(i) & 0xFF);
+		}
+	}
+
+	/**
+	 * Writes the same codes as encode, several packed together per write where the kernel can (see
+	 * VectorByteKernel). This one has nothing to pack with and just encodes.
+	 * @param bytes the bytes, read with absolute gets
+	 * @param from the first byte to encode
+	 * @param to one past the last byte to encode
+	 * @param table the code of every byte
+	 * @param writer where the codes go
+	 * @throws IOException if the writer can not write
+	 */
+	protected void encodePacked(ByteBuffer bytes, int from, int to, EncodeTable table, BitWriter writer) throws IOException{
+		this.encode(bytes, from, to, table, writer);
+	}
+}
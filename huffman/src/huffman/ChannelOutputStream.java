@@ -0,0 +1,93 @@
+package huffman;
+
+import java.io.IOException;
+import java.io.OutputStream;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.file.Paths;
+import java.nio.file.StandardOpenOption;
+
+/**
+ * An output stream that writes a file through a FileChannel. Small writes are collected in a large
+ * direct buffer so the channel only sees big writes, and writes bigger than the buffer go straight
+ * to the channel without being copied.
+ */
+public class ChannelOutputStream extends OutputStream {
+
+	// how much we collect before writing
+	protected static final int BUFFER_SIZE = 1 << 20;
+
+	// the file
+	private FileChannel channel;
+
+	// the bytes waiting to be written
+	private ByteBuffer buffer = ByteBuffer.allocateDirect(BUFFER_SIZE);
+
+	/**
+	 * Creates (or truncates) a file and opens it for writing.
+	 * @param file the file to write
+	 * @throws IOException if it can not be opened
+	 */
+	public ChannelOutputStream(String file) throws IOException{
+		this.channel = FileChannel.open(Paths.get(file), StandardOpenOption.WRITE, StandardOpenOption.CREATE, StandardOpenOption.TRUNCATE_EXISTING);
+	}
+
+	@Override
+	public void write(int b) throws IOException{
+		if(!this.buffer.hasRemaining()){
+			this.drain();
+		}
+		this.buffer.put((byte) b);
+	}
+
+	@Override
+	public void write(byte[] bytes, int offset, int length) throws IOException{
+		// too big to be worth copying, get what we have out of the way and write it directly
+		if(length >= this.buffer.capacity()){
+			this.drain();
+			this.writeFully(ByteBuffer.wrap(bytes, offset, length));
+			return;
+		}
+		if(length > this.buffer.remaining()){
+			this.drain();
+		}
+		this.buffer.put(bytes, offset, length);
+	}
+
+	@Override
+	public void flush() throws IOException{
+		this.drain();
+	}
+
+	@Override
+	public void close() throws IOException{
+		if(this.channel.isOpen()){
+			try{
+				this.drain();
+			}finally{
+				this.channel.close();
+			}
+		}
+	}
+
+	/**
+	 * Writes whatever is in the buffer and empties it.
+	 * @throws IOException if the channel can not be written
+	 */
+	private void drain() throws IOException{
+		this.buffer.flip();
+		this.writeFully(this.buffer);
+		this.buffer.clear();
+	}
+
+	/**
+	 * Writes a whole buffer to the channel.
+	 * @param bytes the bytes to write
+	 * @throws IOException if the channel can not be written
+	 */
+	private void writeFully(ByteBuffer bytes) throws IOException{
+		while(bytes.hasRemaining()){
+			this.channel.write(bytes);
+		}
+	}
+}
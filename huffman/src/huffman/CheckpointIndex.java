@@ -0,0 +1,171 @@
+package huffman;
+
+import java.io.ByteArrayInputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+
+/**
+ * The checkpoint index of an indexed raw file (Container.INDEXED), read from the end of the file. A
+ * checkpoint is the bit where the code of every interval-th byte starts, so to decode a range of the
+ * file we only need to start at the checkpoint before it rather than at the beginning of the bits.
+ * Reading a few kilobytes out of the middle of a huge file costs at most one interval of decoding.
+ *
+ * The file looks like this:
+ *     - 0x00 and 'I'
+ *     - the checkpoint interval (int) and the length of the input (long)
+ *     - the table as writeTable writes it (left out for an empty file)
+ *     - the codes for every byte packed into bytes
+ *     - the index: for every checkpoint k, the bit (counted from the start of the file) where the
+ *       code of byte k * interval starts (long)
+ *     - where the index starts (long), always the last eight bytes
+ */
+public class CheckpointIndex {
+
+	// the bytes in front of the table
+	protected static final int HEADER_SIZE = 2 + 4 + 8;
+
+	// how many bytes apart the checkpoints are
+	protected int interval;
+
+	// the length of the decoded file
+	protected long length;
+
+	// the bit each checkpoint's code starts at
+	protected long[] checkpoints;
+
+	// where the index starts, which is also where the bits end
+	protected long indexOffset;
+
+	// the file's code
+	protected DecodeTable table;
+
+	/**
+	 * How many checkpoints a file has, one at the start of every interval.
+	 * @param length the length of the input
+	 * @param interval how many bytes apart the checkpoints are
+	 * @return the number of checkpoints
+	 * @throws IllegalArgumentException if there would be too many to index
+	 */
+	protected static int count(long length, int interval){
+		long count = (length + interval - 1) / interval;
+		if(count > Integer.MAX_VALUE / 8){
+			throw new IllegalArgumentException("A checkpoint every " + interval + " bytes is too many for " + length + " bytes");
+		}
+		return (int) count;
+	}
+
+	/**
+	 * Writes the checkpoints and the trailer that points at them.
+	 * @param out where to write them
+	 * @param checkpoints the bit each checkpoint's code starts at
+	 * @param indexOffset where in the file the index starts
+	 * @throws IOException if they can not be written
+	 */
+	protected static void write(DataOutputStream out, long[] checkpoints, long indexOffset) throws IOException{
+		for(long checkpoint: checkpoints){
+			out.writeLong(checkpoint);
+		}
+		out.writeLong(indexOffset);
+		out.flush();
+	}
+
+	/**
+	 * Reads the header, table and index of an indexed file.
+	 * @param channel the file
+	 * @return its index
+	 * @throws IOException if the file is not an indexed file or can not be read
+	 */
+	protected static CheckpointIndex read(FileChannel channel) throws IOException{
+		CheckpointIndex index = new CheckpointIndex();
+
+		ByteBuffer header = BlockIndex.readFully(channel, 0, HEADER_SIZE);
+		if(header.get() != Container.MARKER || header.get() != Container.INDEXED){
+			throw new IOException("Not an indexed file");
+		}
+		index.interval = header.getInt();
+		index.length = header.getLong();
+		if(index.interval <= 0 || index.length < 0 || channel.size() < HEADER_SIZE + 8){
+			throw new IOException("Corrupt checkpoint index");
+		}
+		// a corrupt header can ask for more checkpoints than count allows, that is corrupt too
+		int count;
+		try{
+			count = count(index.length, index.interval);
+		}catch(IllegalArgumentException e){
+			throw new IOException("Corrupt checkpoint index", e);
+		}
+
+		// the last eight bytes tell us where the index is
+		index.indexOffset = BlockIndex.readFully(channel, channel.size() - 8, 8).getLong();
+		if(index.indexOffset < HEADER_SIZE || index.indexOffset + 8L * count + 8 != channel.size()){
+			throw new IOException("Corrupt checkpoint index");
+		}
+		ByteBuffer entries = BlockIndex.readFully(channel, index.indexOffset, 8 * count);
+		index.checkpoints = new long[count];
+		for(int i = 0; i < count; i++){
+			index.checkpoints[i] = entries.getLong();
+		}
+
+		// the table is no longer than its largest possible size or what is left before the bits end
+		if(index.length > 0){
+			int tableSize = (int) Math.min(HuffmanUtilities.MAX_TABLE_SIZE, index.indexOffset - HEADER_SIZE);
+			byte[] table = BlockIndex.readFully(channel, HEADER_SIZE, tableSize).array();
+			index.table = HuffmanUtilities.readTable(new DataInputStream(new ByteArrayInputStream(table)), Histogram.BYTES).decodeTable();
+		}
+		return index;
+	}
+
+	/**
+	 * Decodes a range of the file, starting at the checkpoint at or before it. Only the bits from that
+	 * checkpoint to the one after the range are read.
+	 * @param channel the file
+	 * @param offset where in the decoded file the range starts
+	 * @param out where the decoded bytes go
+	 * @param outOffset where the first decoded byte goes
+	 * @param length how many bytes to decode, the range must be inside the file
+	 * @throws IOException if the file can not be read or is corrupt
+	 */
+	protected void decode(FileChannel channel, long offset, byte[] out, int outOffset, int length) throws IOException{
+		if(length == 0){
+			return;
+		}
+		long start = System.nanoTime();
+		int first = (int) (offset / this.interval);
+		int last = (int) ((offset + length - 1) / this.interval);
+
+		// the bits from the first checkpoint up to the next one past the range
+		long fromBit = this.checkpoints[first];
+		long toBit = last + 1 < this.checkpoints.length ? this.checkpoints[last + 1] : 8 * this.indexOffset;
+		if(fromBit < 8L * HEADER_SIZE || fromBit > toBit || toBit > 8 * this.indexOffset || toBit - fromBit > 8L * Integer.MAX_VALUE - 8){
+			throw new IOException("Corrupt checkpoint index");
+		}
+		long fromByte = fromBit >>> 3;
+		int size = (int) (((toBit + 7) >>> 3) - fromByte);
+		BitReader reader = new BitReader(BlockIndex.readFully(channel, fromByte, size).array());
+		int skip = (int) (fromBit & 7);
+		reader.peek(skip);
+		reader.skip(skip);
+
+		// decode and drop everything between the checkpoint and the range, then the range itself
+		long drop = offset - (long) first * this.interval;
+		for(long i = 0; i < drop; i++){
+			if(this.table.decode(reader) < 0){
+				throw new IOException("Corrupt file: bits are not a code");
+			}
+		}
+		for(int i = outOffset; i < outOffset + length; i++){
+			int symbol = this.table.decode(reader);
+			if(symbol < 0){
+				throw new IOException("Corrupt file: bits are not a code");
+			}
+			out[i] = (byte) symbol;
+		}
+		if(reader.exhausted()){
+			throw new IOException("Corrupt file: ran out of bits");
+		}
+		Metrics.record(Phase.DECODE, start, size, length, drop + length);
+	}
+}
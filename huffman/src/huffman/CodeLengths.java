@@ -0,0 +1,239 @@
+package huffman;
+
+import java.util.Arrays;
+import java.util.Comparator;
+
+/**
+ * Static methods that work out code lengths straight from frequency counts, without building a tree.
+ *
+ * huffmanLengths finds the lengths of an optimal (Huffman) code with the in-place method of Moffat and
+ * Katajainen: the weights are sorted into an array of primitives and the same array is reused for the
+ * parent pointers and then the depths, so there are no node objects, no priority queue and no strings,
+ * and the work is linear after the sort. That is cheap enough to rebuild a code per block or per message.
+ *
+ * limitedLengths uses the package-merge algorithm (Larmore and Hirschberg) to find the best code whose
+ * lengths are no longer than a given maximum. A plain Huffman tree can get as deep as the number of
+ * symbols on skewed inputs (think Fibonacci frequencies), a limit keeps the decode table small and
+ * every code inside one peek of the bit reader, usually for a tiny loss in size.
+ */
+public class CodeLengths {
+
+	/**
+	 * Prevent construction since all methods will be static
+	 */
+	private CodeLengths() {}
+
+	/**
+	 * Works out optimal code lengths no longer than maxLength.
+	 *
+	 * The idea: each symbol is a coin whose value is its frequency and whose face value is 2^-length.
+	 * Starting from the longest length, pair up (package) the cheapest items and merge the packages with
+	 * the symbols for the next length up. The 2n - 2 cheapest items at length 1 make the code, and the
+	 * number of lists a symbol is picked from is its length. The symbols are always picked cheapest first
+	 * so for each list we only need to remember which items were symbols, not which ones.
+	 *
+	 * @param frequencies how often each symbol appears, indexed by symbol (0 for symbols that do not)
+	 * @param maxLength the longest code allowed (raised if there are too many symbols to fit)
+	 * @return the code length of each symbol, indexed by symbol (0 for symbols that do not appear, and
+	 *         for a lone symbol which needs no bits at all)
+	 */
+	protected static int[] limitedLengths(long[] frequencies, int maxLength){
+		int[] lengths = new int[frequencies.length];
+
+		// the symbols that appear, cheapest first
+		int[] symbols = new int[frequencies.length];
+		int n = sortedSymbols(frequencies, symbols, new long[frequencies.length]);
+		if(n < 2){
+			return lengths;
+		}
+		// n symbols need at least log2(n) bits, a limit below that is raised to it
+		maxLength = Math.max(maxLength, 64 - Long.numberOfLeadingZeros(n - 1));
+		long[] weights = new long[n];
+		for(int i = 0; i < n; i++){
+			weights[i] = frequencies[symbols[i]];
+		}
+
+		// a limit longer than n - 1 is no limit at all
+		int levels = Math.min(maxLength, n - 1);
+
+		// for every list, which of its items are symbols (the rest are packages)
+		boolean[][] isSymbol = new boolean[levels][];
+
+		// the longest length's list is just the symbols
+		long[] previous = weights;
+		isSymbol[levels - 1] = new boolean[n];
+		Arrays.fill(isSymbol[levels - 1], true);
+
+		// then each shorter length merges the symbols with packages of the list below
+		for(int level = levels - 1; level >= 1; level--){
+			int packages = previous.length / 2;
+			long[] current = new long[n + packages];
+			boolean[] symbolFlags = new boolean[n + packages];
+			int i = 0;
+			int j = 0;
+			for(int k = 0; k < current.length; k++){
+				long packageWeight = j < packages ? previous[2 * j] + previous[2 * j + 1] : Long.MAX_VALUE;
+				if(i < n && weights[i] <= packageWeight){
+					current[k] = weights[i++];
+					symbolFlags[k] = true;
+				}else{
+					current[k] = packageWeight;
+					j++;
+				}
+			}
+			isSymbol[level - 1] = symbolFlags;
+			previous = current;
+		}
+
+		// now unpack: take the cheapest 2n - 2 items at length 1, every package taken means two items below
+		int take = 2 * n - 2;
+		for(int level = 0; level < levels; level++){
+			int taken = 0;
+			for(int k = 0; k < take; k++){
+				if(isSymbol[level][k]){
+					taken++;
+				}
+			}
+			// the symbols taken are always the cheapest ones
+			for(int i = 0; i < taken; i++){
+				lengths[symbols[i]]++;
+			}
+			take = 2 * (take - taken);
+		}
+		return lengths;
+	}
+
+	/**
+	 * Works out optimal code lengths, the same lengths (give or take ties) a Huffman tree would give.
+	 *
+	 * The sorted weights go in an array and three passes over it do the rest:
+	 *     - left to right, pair the two cheapest of the leaves and the merged nodes (the merged nodes are
+	 *       made in order of weight so they form a second sorted queue behind the leaves), each merged
+	 *       node's weight goes in the next slot and the nodes it used up get a pointer to it
+	 *     - right to left, turn the parent pointers into the depths of the merged nodes
+	 *     - right to left, count how many nodes there are at each depth and hand out the leaf depths,
+	 *       deepest to the cheapest leaves
+	 *
+	 * @param frequencies how often each symbol appears, indexed by symbol (0 for symbols that do not)
+	 * @return the code length of each symbol, indexed by symbol (0 for symbols that do not appear, and
+	 *         for a lone symbol which needs no bits at all)
+	 */
+	protected static int[] huffmanLengths(long[] frequencies){
+		int[] lengths = new int[frequencies.length];
+		huffmanLengths(frequencies, lengths, new int[frequencies.length], new long[frequencies.length]);
+		return lengths;
+	}
+
+	/**
+	 * Works out optimal code lengths into arrays the caller owns, so a caller that keeps its arrays
+	 * allocates nothing (see huffmanLengths above for how).
+	 * @param frequencies how often each symbol appears, indexed by symbol (0 for symbols that do not)
+	 * @param lengths where the code length of each symbol goes, indexed by symbol, as long as frequencies
+	 * @param symbols scratch space as long as frequencies
+	 * @param a scratch space as long as frequencies
+	 */
+	protected static void huffmanLengths(long[] frequencies, int[] lengths, int[] symbols, long[] a){
+		Arrays.fill(lengths, 0, frequencies.length, 0);
+		int n = sortedSymbols(frequencies, symbols, a);
+		if(n < 2){
+			return;
+		}
+		for(int i = 0; i < n; i++){
+			a[i] = frequencies[symbols[i]];
+		}
+
+		// first pass: merge, leaving parent pointers behind (root is the next merged node to use,
+		// leaf the next leaf)
+		a[0] += a[1];
+		int root = 0;
+		int leaf = 2;
+		for(int next = 1; next < n - 1; next++){
+			// the first of the pair
+			if(leaf >= n || a[root] < a[leaf]){
+				a[next] = a[root];
+				a[root++] = next;
+			}else{
+				a[next] = a[leaf++];
+			}
+			// and the second
+			if(leaf >= n || (root < next && a[root] < a[leaf])){
+				a[next] += a[root];
+				a[root++] = next;
+			}else{
+				a[next] += a[leaf++];
+			}
+		}
+
+		// second pass: the root is at n - 2, every other merged node is one deeper than its parent
+		a[n - 2] = 0;
+		for(int next = n - 3; next >= 0; next--){
+			a[next] = a[(int) a[next]] + 1;
+		}
+
+		// third pass: at each depth the slots not taken by merged nodes are leaves
+		int available = 1;
+		int used = 0;
+		int depth = 0;
+		root = n - 2;
+		int next = n - 1;
+		while(available > 0){
+			while(root >= 0 && a[root] == depth){
+				used++;
+				root--;
+			}
+			while(available > used){
+				a[next--] = depth;
+				available--;
+			}
+			available = 2 * used;
+			depth++;
+			used = 0;
+		}
+
+		// a[i] is now the length of the i-th cheapest symbol
+		for(int i = 0; i < n; i++){
+			lengths[symbols[i]] = (int) a[i];
+		}
+	}
+
+	/**
+	 * Sorts the symbols that appear cheapest first, ties by symbol so the result does not wander.
+	 * The frequency and symbol are packed into one long so the sort is on primitives, only counts too big
+	 * to leave room for the symbol (petabytes of input) fall back to sorting boxed symbols.
+	 * @param frequencies how often each symbol appears, indexed by symbol
+	 * @param symbols where the symbols with a frequency above 0 go, in order
+	 * @param keys scratch space as long as frequencies
+	 * @return how many symbols there are
+	 */
+	private static int sortedSymbols(long[] frequencies, int[] symbols, long[] keys){
+		int bits = 32 - Integer.numberOfLeadingZeros(Math.max(frequencies.length - 1, 1));
+		int n = 0;
+		boolean packed = true;
+		for(int symbol = 0; symbol < frequencies.length; symbol++){
+			if(frequencies[symbol] > 0){
+				keys[n++] = frequencies[symbol] << bits | symbol;
+				packed &= frequencies[symbol] >>> (63 - bits) == 0;
+			}
+		}
+		if(packed){
+			Arrays.sort(keys, 0, n);
+			long mask = (1L << bits) - 1;
+			for(int i = 0; i < n; i++){
+				symbols[i] = (int) (keys[i] & mask);
+			}
+			return n;
+		}
+		Integer[] boxed = new Integer[n];
+		n = 0;
+		for(int symbol = 0; symbol < frequencies.length; symbol++){
+			if(frequencies[symbol] > 0){
+				boxed[n++] = symbol;
+			}
+		}
+		Arrays.sort(boxed, Comparator.comparingLong((Integer symbol) -> frequencies[symbol]).thenComparingInt(symbol -> symbol));
+		for(int i = 0; i < n; i++){
+			symbols[i] = boxed[i];
+		}
+		return n;
+	}
+}
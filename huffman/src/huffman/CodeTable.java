@@ -0,0 +1,261 @@
+package huffman;
+
+import java.io.IOException;
+import java.util.Arrays;
+
+/**
+ * A canonical Huffman code held in arrays of primitives. The code is fully described by which symbols
+ * appear and how long their codes are, everything else is worked out from that:
+ *     - the symbols and lengths in canonical order (longest codes first, ties broken by the smaller
+ *       symbol), which is what a header holds
+ *     - the code and length of every symbol, indexed by the symbol, for the encoder
+ *     - per length: the first code, how many codes and where their symbols start, for the decoder
+ *
+ * Codes are numbers (right-aligned in a long since an unlimited code can be longer than 32 bits), there
+ * are no strings anywhere, and putting the symbols in canonical order is a counting sort on the lengths.
+ *
+ * A table made with room for the whole alphabet can be set to one code after another without
+ * allocating, which is what HuffmanEncoder and HuffmanDecoder do for every block.
+ */
+public class CodeTable {
+
+	// the symbols in canonical order and the length of each one's code (only the first size are used)
+	protected int[] symbols;
+	protected int[] lengths;
+
+	// how many symbols have a code
+	private int size;
+
+	// the code of each symbol (right-aligned) and its length, 0 for symbols that do not appear
+	protected long[] code;
+	protected byte[] length;
+
+	// the longest code length
+	protected int maxLength;
+
+	// per length: the first code, how many codes and where their symbols start in canonical order
+	protected long[] firstCode;
+	protected int[] count;
+	protected int[] offset;
+
+	/**
+	 * Builds the code for some symbols and their code lengths, in any order.
+	 * @param symbols the symbols that appear, each once
+	 * @param lengths the length of each symbol's code
+	 * @param alphabetSize one more than the largest symbol
+	 * @throws IllegalArgumentException if a symbol is repeated or out of range, or the lengths are not a prefix code
+	 */
+	public CodeTable(int[] symbols, int[] lengths, int alphabetSize){
+		this.code = new long[alphabetSize];
+		this.length = new byte[alphabetSize];
+		this.size = symbols.length;
+
+		// how many codes of each length, and the longest
+		this.maxLength = maxLength(lengths, this.size);
+		this.count = new int[this.maxLength + 1];
+		this.offset = new int[this.maxLength + 1];
+		this.firstCode = new long[this.maxLength + 1];
+		this.countLengths(lengths);
+
+		// mark which symbols appear, then walk them in order dropping each into its length's slots
+		boolean[] present = new boolean[alphabetSize];
+		for(int i = 0; i < symbols.length; i++){
+			if(symbols[i] < 0 || symbols[i] >= alphabetSize || present[symbols[i]]){
+				throw new IllegalArgumentException("Symbol " + symbols[i] + " is repeated or out of range");
+			}
+			present[symbols[i]] = true;
+			this.length[symbols[i]] = (byte) lengths[i];
+		}
+		this.symbols = new int[this.size];
+		this.lengths = new int[this.size];
+		for(int symbol = 0; symbol < alphabetSize; symbol++){
+			if(present[symbol]){
+				this.place(symbol, this.length[symbol]);
+			}
+		}
+		this.assignCodes();
+	}
+
+	/**
+	 * Makes an empty code with room for every symbol of an alphabet, to be filled in by set.
+	 * @param alphabetSize one more than the largest symbol
+	 */
+	protected CodeTable(int alphabetSize){
+		this.code = new long[alphabetSize];
+		this.length = new byte[alphabetSize];
+		this.symbols = new int[alphabetSize];
+		this.lengths = new int[alphabetSize];
+		this.count = new int[DecodeTable.MAX_LENGTH + 1];
+		this.offset = new int[DecodeTable.MAX_LENGTH + 1];
+		this.firstCode = new long[DecodeTable.MAX_LENGTH + 1];
+	}
+
+	/**
+	 * Replaces the code of a table made with room for the whole alphabet, reusing its arrays.
+	 * @param symbols the symbols that appear, in increasing order
+	 * @param lengths the length of each symbol's code
+	 * @param size how many symbols there are
+	 * @throws IllegalArgumentException if the symbols are out of order or range, or the lengths are not a prefix code
+	 */
+	protected void set(int[] symbols, int[] lengths, int size){
+		Arrays.fill(this.length, (byte) 0);
+		Arrays.fill(this.code, 0);
+		Arrays.fill(this.count, 0);
+		this.size = size;
+		this.maxLength = maxLength(lengths, size);
+		this.countLengths(lengths);
+
+		// the symbols are in order already, so they drop straight into their length's slots
+		int previous = -1;
+		for(int i = 0; i < size; i++){
+			if(symbols[i] <= previous || symbols[i] >= this.code.length){
+				throw new IllegalArgumentException("Symbol " + symbols[i] + " is repeated or out of range");
+			}
+			previous = symbols[i];
+			this.length[symbols[i]] = (byte) lengths[i];
+			this.place(symbols[i], lengths[i]);
+		}
+		this.assignCodes();
+	}
+
+	/**
+	 * Finds the longest of some code lengths, checking them on the way.
+	 * @param lengths the lengths
+	 * @param size how many there are
+	 * @return the longest
+	 * @throws IllegalArgumentException if a length is negative or too long to decode
+	 */
+	private static int maxLength(int[] lengths, int size){
+		int maxLength = 0;
+		for(int i = 0; i < size; i++){
+			if(lengths[i] < 0 || lengths[i] > DecodeTable.MAX_LENGTH){
+				throw new IllegalArgumentException("Code length " + lengths[i] + " is too long to decode");
+			}
+			maxLength = Math.max(maxLength, lengths[i]);
+		}
+		return maxLength;
+	}
+
+	/**
+	 * Counts the codes of each length and works out where each length starts in canonical order.
+	 * @param lengths the code lengths, size of them
+	 */
+	private void countLengths(int[] lengths){
+		for(int i = 0; i < this.size; i++){
+			this.count[lengths[i]]++;
+		}
+		// the longest codes come first, so each length starts after all the longer ones
+		int position = 0;
+		for(int length = this.maxLength; length >= 0; length--){
+			this.offset[length] = position;
+			position += this.count[length];
+		}
+	}
+
+	/**
+	 * Puts a symbol in the next free slot for its length. Symbols must come in increasing order, and
+	 * the offsets are left pointing past each length's slots until assignCodes puts them back.
+	 * @param symbol the symbol
+	 * @param length its code length
+	 */
+	private void place(int symbol, int length){
+		int slot = this.offset[length]++;
+		this.symbols[slot] = symbol;
+		this.lengths[slot] = length;
+	}
+
+	/**
+	 * Works out the canonical codes once every symbol is in its slot: longest codes first, each code
+	 * one more than the last shifted down to the next length.
+	 * @throws IllegalArgumentException if the lengths do not make a prefix code
+	 */
+	private void assignCodes(){
+		for(int length = 0; length <= this.maxLength; length++){
+			this.offset[length] -= this.count[length];
+		}
+		//  our starting point: 0
+		long number = 0;
+		for(int i = 0; i < this.size; i++){
+			int length = this.lengths[i];
+			// lengths that do not make a prefix code (a corrupt header) run out of codes
+			if(number >= 1L << length){
+				throw new IllegalArgumentException("Code lengths do not make a prefix code");
+			}
+			if(i == this.offset[length]){
+				this.firstCode[length] = number;
+			}
+			this.code[this.symbols[i]] = number;
+			if(i + 1 < this.size){
+				number = (number + 1) >> (length - this.lengths[i + 1]);
+			}
+		}
+	}
+
+	/**
+	 * Builds the code for the symbols that appear in some counts.
+	 * @param frequencies how often each symbol appears, indexed by symbol
+	 * @param lengths the code length of each symbol, indexed by symbol
+	 * @return the code
+	 */
+	protected static CodeTable fromFrequencies(long[] frequencies, int[] lengths){
+		int n = 0;
+		for(long frequency: frequencies){
+			if(frequency > 0){
+				n++;
+			}
+		}
+		int[] symbols = new int[n];
+		int[] symbolLengths = new int[n];
+		n = 0;
+		for(int symbol = 0; symbol < frequencies.length; symbol++){
+			if(frequencies[symbol] > 0){
+				symbols[n] = symbol;
+				symbolLengths[n++] = lengths[symbol];
+			}
+		}
+		return new CodeTable(symbols, symbolLengths, frequencies.length);
+	}
+
+	/**
+	 * How many symbols have a code.
+	 * @return the number of symbols
+	 */
+	protected int size(){
+		return this.size;
+	}
+
+	/**
+	 * Does a symbol have a code? Only a lone symbol has a code of length 0.
+	 * @param symbol the symbol
+	 * @return true if it appears
+	 */
+	protected boolean has(int symbol){
+		return this.length[symbol] > 0 || (this.size == 1 && this.symbols[0] == symbol);
+	}
+
+	/**
+	 * Writes a symbol's code.
+	 * @param writer where the code goes
+	 * @param symbol the symbol to write
+	 * @throws IOException if the writer can not write
+	 */
+	protected void write(BitWriter writer, int symbol) throws IOException{
+		writer.write(this.code[symbol], this.length[symbol]);
+	}
+
+	/**
+	 * The encoder's view of this code.
+	 * @return an encode table sharing this code's arrays
+	 */
+	protected EncodeTable encodeTable(){
+		return new EncodeTable(this);
+	}
+
+	/**
+	 * Builds the decoder's lookup tables for this code.
+	 * @return a decode table
+	 */
+	protected DecodeTable decodeTable(){
+		return new DecodeTable(this);
+	}
+}
@@ -0,0 +1,38 @@
+package huffman;
+
+/**
+ * The kinds of file we can write besides the original single stream. A single stream starts with the
+ * size of its alphabet, which is never 0 since the end of file character is always in it, so every
+ * other kind starts with a 0x00 marker followed by a byte saying what kind it is.
+ */
+public class Container {
+
+	// the first byte of every container
+	protected static final int MARKER = 0x00;
+
+	// independently encoded blocks of raw bytes, see BlockCodec
+	protected static final int BLOCKS = 'B';
+
+	// a single stream of raw bytes with its length up front rather than an end of file character
+	protected static final int RAW = 'R';
+
+	// frames of encoded blocks ending with an empty one, see HuffmanOutputStream
+	protected static final int STREAM = 'S';
+
+	// a message encoded with a shared dictionary instead of its own table, see HuffmanDictionary
+	protected static final int DICTIONARY = 'D';
+
+	// segments coded in one pass with codes rebuilt from running counts, see AdaptiveOutputStream
+	protected static final int ADAPTIVE = 'A';
+
+	// characters and an end of file character like the single stream, with a compact table
+	protected static final int TEXT = 'T';
+
+	// a raw stream with checkpoints for decoding a range of it, see CheckpointIndex
+	protected static final int INDEXED = 'I';
+
+	/**
+	 * Prevent construction, this only holds constants
+	 */
+	private Container() {}
+}
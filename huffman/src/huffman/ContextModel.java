@@ -0,0 +1,321 @@
+package huffman;
+
+import java.io.DataInput;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.util.Arrays;
+
+/**
+ * An order-1 model for a block of bytes: rather than one code for the whole block, the byte before
+ * each symbol picks which code it is written with. In text and structured logs the previous byte says a
+ * lot about the next one (a digit follows a digit, a space follows a comma) so each code can be much
+ * sharper than a single one for everything.
+ *
+ * A code per previous byte would cost up to 256 tables in every block, so the previous bytes are
+ * grouped into classes that share a table:
+ *     - the busiest previous bytes each start a class of their own, the rest share one
+ *     - then every previous byte moves to whichever class's code writes its symbols in the fewest bits
+ *       and the codes are rebuilt from the new classes, a few times over (k-means, with the code
+ *       length as the distance)
+ *
+ * Its header is the number of classes less one (byte), the class of every previous byte (256 bytes)
+ * and each class's table as writeTable writes it. The first symbol of a block follows a 0.
+ */
+public class ContextModel {
+
+	// the most classes (tables) a block may have
+	protected static final int MAX_CLASSES = 32;
+
+	// a previous byte needs this many symbols after it to start a class of its own
+	protected static final int MIN_CLASS_COUNT = 256;
+
+	// how many times the classes are refined
+	private static final int ROUNDS = 3;
+
+	// which class each previous byte belongs to
+	private int[] classes;
+
+	// each class's code and the tables built from it (only the side in use)
+	private CodeTable[] codes;
+	private EncodeTable[] encodeTables;
+	private DecodeTable[] decodeTables;
+
+	/**
+	 * Builds a model for a block.
+	 * @param data the block, from 0 to its limit
+	 * @param maxLength the longest code allowed, 0 for no limit
+	 * @return the model
+	 */
+	protected static ContextModel build(ByteBuffer data, int maxLength){
+		// how often each symbol follows each previous byte
+		long start = System.nanoTime();
+		long[][] counts = new long[Histogram.BYTES][Histogram.BYTES];
+		long[] totals = new long[Histogram.BYTES];
+		int length = data.limit();
+		int previous = 0;
+		for(int i = 0; i < length; i++){
+			int symbol = data.get(i) & 0xFF;
+			counts[previous][symbol]++;
+			previous = symbol;
+		}
+		for(int context = 0; context < Histogram.BYTES; context++){
+			for(long count: counts[context]){
+				totals[context] += count;
+			}
+		}
+		Metrics.record(Phase.HISTOGRAM, start, length, 0, length);
+
+		// the busiest previous bytes start their own classes, class 0 takes the rest
+		start = System.nanoTime();
+		Integer[] busiest = new Integer[Histogram.BYTES];
+		for(int context = 0; context < busiest.length; context++){
+			busiest[context] = context;
+		}
+		Arrays.sort(busiest, (a, b) -> Long.compare(totals[b], totals[a]));
+		int[] classes = new int[Histogram.BYTES];
+		int classCount = 1;
+		for(int context: busiest){
+			if(classCount == MAX_CLASSES || totals[context] < MIN_CLASS_COUNT){
+				break;
+			}
+			classes[context] = classCount++;
+		}
+
+		// move every previous byte to the class that suits it best, then rebuild the codes
+		int[][] lengths = classLengths(counts, classes, classCount, maxLength);
+		for(int round = 0; round < ROUNDS; round++){
+			for(int context = 0; context < Histogram.BYTES; context++){
+				if(totals[context] > 0){
+					classes[context] = bestClass(counts[context], lengths);
+				}
+			}
+			classCount = renumber(classes, totals);
+			lengths = classLengths(counts, classes, classCount, maxLength);
+		}
+		Metrics.record(Phase.TREE, start, 0, 0, 0);
+		start = System.nanoTime();
+
+		ContextModel model = new ContextModel();
+		model.classes = classes;
+		model.codes = new CodeTable[classCount];
+		long[][] classCounts = classCounts(counts, classes, classCount);
+		for(int i = 0; i < classCount; i++){
+			model.codes[i] = CodeTable.fromFrequencies(classCounts[i], lengths[i]);
+		}
+		Metrics.record(Phase.CODES, start, 0, 0, model.symbols());
+		return model;
+	}
+
+	/**
+	 * Works out the code lengths of every class from the counts of the previous bytes in it.
+	 * @param counts how often each symbol follows each previous byte
+	 * @param classes the class of each previous byte
+	 * @param classCount how many classes there are
+	 * @param maxLength the longest code allowed, 0 for no limit
+	 * @return the code length of every symbol in every class, -1 for symbols the class never sees
+	 */
+	private static int[][] classLengths(long[][] counts, int[] classes, int classCount, int maxLength){
+		long[][] classCounts = classCounts(counts, classes, classCount);
+		int[][] lengths = new int[classCount][];
+		for(int i = 0; i < classCount; i++){
+			long[] frequencies = classCounts[i];
+			lengths[i] = maxLength > 0 ? CodeLengths.limitedLengths(frequencies, maxLength) : CodeLengths.huffmanLengths(frequencies);
+			// a lone symbol's length is 0 too, so mark the ones with no code
+			for(int symbol = 0; symbol < Histogram.BYTES; symbol++){
+				if(frequencies[symbol] == 0){
+					lengths[i][symbol] = -1;
+				}
+			}
+		}
+		return lengths;
+	}
+
+	/**
+	 * Adds up the counts of the previous bytes in each class.
+	 * @param counts how often each symbol follows each previous byte
+	 * @param classes the class of each previous byte
+	 * @param classCount how many classes there are
+	 * @return how often each symbol follows a previous byte in each class
+	 */
+	private static long[][] classCounts(long[][] counts, int[] classes, int classCount){
+		long[][] frequencies = new long[classCount][Histogram.BYTES];
+		for(int context = 0; context < Histogram.BYTES; context++){
+			long[] sum = frequencies[classes[context]];
+			for(int symbol = 0; symbol < Histogram.BYTES; symbol++){
+				sum[symbol] += counts[context][symbol];
+			}
+		}
+		return frequencies;
+	}
+
+	/**
+	 * Finds the class whose code writes a previous byte's symbols in the fewest bits. A class with no
+	 * code for one of its symbols can not write it at all.
+	 * @param counts how often each symbol follows the previous byte
+	 * @param lengths the code length of every symbol in every class
+	 * @return the best class
+	 */
+	private static int bestClass(long[] counts, int[][] lengths){
+		int best = -1;
+		long bestBits = Long.MAX_VALUE;
+		for(int i = 0; i < lengths.length; i++){
+			long bits = 0;
+			for(int symbol = 0; symbol < Histogram.BYTES && bits < bestBits; symbol++){
+				if(counts[symbol] > 0){
+					bits = lengths[i][symbol] < 0 ? Long.MAX_VALUE : bits + counts[symbol] * lengths[i][symbol];
+				}
+			}
+			if(bits < bestBits){
+				best = i;
+				bestBits = bits;
+			}
+		}
+		return best;
+	}
+
+	/**
+	 * Drops classes nobody is in any more and numbers the rest from 0.
+	 * @param classes the class of each previous byte, renumbered in place
+	 * @param totals how many symbols follow each previous byte
+	 * @return how many classes are left
+	 */
+	private static int renumber(int[] classes, long[] totals){
+		int[] number = new int[Histogram.BYTES];
+		Arrays.fill(number, -1);
+		int classCount = 0;
+		for(int context = 0; context < Histogram.BYTES; context++){
+			if(totals[context] > 0 && number[classes[context]] < 0){
+				number[classes[context]] = classCount++;
+			}
+		}
+		// previous bytes that never occur can go anywhere
+		for(int context = 0; context < Histogram.BYTES; context++){
+			classes[context] = totals[context] > 0 ? number[classes[context]] : 0;
+		}
+		return classCount;
+	}
+
+	/**
+	 * How many codes the model's tables hold between them.
+	 * @return the number of codes
+	 */
+	protected int symbols(){
+		int symbols = 0;
+		for(CodeTable code: this.codes){
+			symbols += code.size();
+		}
+		return symbols;
+	}
+
+	/**
+	 * How many bytes the model's header and the block's bits will take.
+	 * @param data the block
+	 * @return the encoded size in bytes
+	 */
+	protected long size(ByteBuffer data){
+		long bits = 8 * (1 + Histogram.BYTES);
+		for(CodeTable code: this.codes){
+			bits += 8 * HuffmanUtilities.tableSize(code);
+		}
+		int previous = 0;
+		for(int i = 0; i < data.limit(); i++){
+			int symbol = data.get(i) & 0xFF;
+			bits += this.codes[this.classes[previous]].length[symbol];
+			previous = symbol;
+		}
+		return (bits + 7) / 8;
+	}
+
+	/**
+	 * Writes the header.
+	 * @param writer where to write it
+	 * @throws IOException if it can not be written
+	 */
+	protected void writeHeader(BitWriter writer) throws IOException{
+		writer.write(this.codes.length - 1, 8);
+		for(int context = 0; context < Histogram.BYTES; context++){
+			writer.write(this.classes[context], 8);
+		}
+		for(CodeTable code: this.codes){
+			HuffmanUtilities.writeTable(writer, code);
+		}
+	}
+
+	/**
+	 * Reads a header written by writeHeader.
+	 * @param in where to read it
+	 * @return the model, ready to decode
+	 * @throws IOException if it can not be read or is corrupt
+	 */
+	protected static ContextModel readHeader(DataInput in) throws IOException{
+		ContextModel model = new ContextModel();
+		int classCount = in.readUnsignedByte() + 1;
+		model.classes = new int[Histogram.BYTES];
+		for(int context = 0; context < Histogram.BYTES; context++){
+			model.classes[context] = in.readUnsignedByte();
+			if(model.classes[context] >= classCount){
+				throw new IOException("Corrupt context model: class " + model.classes[context] + " of " + classCount);
+			}
+		}
+		model.codes = new CodeTable[classCount];
+		model.decodeTables = new DecodeTable[classCount];
+		for(int i = 0; i < classCount; i++){
+			model.codes[i] = HuffmanUtilities.readTable(in, Histogram.BYTES);
+			model.decodeTables[i] = model.codes[i].decodeTable();
+		}
+		return model;
+	}
+
+	/**
+	 * Encodes a block, each symbol with the code its previous byte's class picks.
+	 * @param writer where the bits go
+	 * @param data the block, from 0 to its limit
+	 * @throws IOException if the writer can not write
+	 */
+	protected void encode(BitWriter writer, ByteBuffer data) throws IOException{
+		if(this.encodeTables == null){
+			this.encodeTables = new EncodeTable[this.codes.length];
+			for(int i = 0; i < this.codes.length; i++){
+				this.encodeTables[i] = this.codes[i].encodeTable();
+			}
+		}
+		// the table for each previous byte, so the loop does one lookup rather than two
+		EncodeTable[] tables = new EncodeTable[Histogram.BYTES];
+		for(int context = 0; context < Histogram.BYTES; context++){
+			tables[context] = this.encodeTables[this.classes[context]];
+		}
+		int previous = 0;
+		for(int i = 0; i < data.limit(); i++){
+			int symbol = data.get(i) & 0xFF;
+			tables[previous].write(writer, symbol);
+			previous = symbol;
+		}
+	}
+
+	/**
+	 * Decodes a block.
+	 * @param reader the block's bits
+	 * @param out where the decoded bytes go
+	 * @param from where the first decoded byte goes
+	 * @param to one past where the last decoded byte goes
+	 * @throws IOException if the bits are corrupt
+	 */
+	protected void decode(BitReader reader, byte[] out, int from, int to) throws IOException{
+		DecodeTable[] tables = new DecodeTable[Histogram.BYTES];
+		for(int context = 0; context < Histogram.BYTES; context++){
+			tables[context] = this.decodeTables[this.classes[context]];
+		}
+		int previous = 0;
+		for(int i = from; i < to; i++){
+			int symbol = tables[previous].decode(reader);
+			if(symbol < 0){
+				throw new IOException("Corrupt block: bits are not a code");
+			}
+			out[i] = (byte) symbol;
+			previous = symbol;
+		}
+		if(reader.exhausted()){
+			throw new IOException("Corrupt block: ran out of bits");
+		}
+	}
+}
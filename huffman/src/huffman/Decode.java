@@ -1,13 +1,21 @@
 package huffman;
 
+import java.io.BufferedInputStream;
 import java.io.DataInputStream;
 import java.io.EOFException;
 import java.io.FileInputStream;
 import java.io.IOException;
-import java.util.ArrayList;
-import java.util.HashMap;
-import java.util.List;
-import java.util.Map;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.io.UncheckedIOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.Channels;
+import java.nio.channels.FileChannel;
+import java.nio.file.Paths;
+import java.nio.file.StandardOpenOption;
+import java.util.Arrays;
+import java.util.concurrent.ForkJoinTask;
+import java.util.concurrent.RecursiveAction;
 
 /**
  * A class to decode a file using Huffman's Algorithm
@@ -26,8 +34,11 @@ public class Decode {
 	// the number of characters in input file
 	private int characterLength;
 	
-	// The binary bits to be decoded
-	private List<String> binaryStrings = new ArrayList<>();
+	// decode block containers through a Pipeline
+	private boolean pipelined;
+	
+	// what went wrong the last time the file was decoded, null if nothing did
+	private Exception failure;
 	
 	protected static boolean EOF;
 	
@@ -41,87 +52,422 @@ public class Decode {
 		this.output = output;
 	}
 	
+	/**
+	 * Decode block containers through a Pipeline: a thread reading the blocks in order, the fork/join
+	 * pool decoding and a thread writing them, all at the same time. Other files decode as usual.
+	 * @param pipelined whether to overlap the reads and writes with decoding
+	 */
+	public void setPipelined(boolean pipelined){
+		this.pipelined = pipelined;
+	}
+	
+	/**
+	 * What went wrong the last time decode ran. Decode prints its errors rather than throwing them, this
+	 * is how a caller decoding many files (Batch) tells which ones failed.
+	 * @return the error, null if the file was decoded
+	 */
+	public Exception getFailure(){
+		return this.failure;
+	}
+	
+	/**
+	 * Usage: java huffman.Decode [-stats] [-pipeline] [-range offset length] source target
+	 *     -stats               print the time, bytes and symbols of every phase when done
+	 *     -pipeline            read, decode and write the blocks of a block container at the same time
+	 *     -range offset length only decode these bytes (block containers and files encoded with -index)
+	 */
 	public static void main(String[] args){
+		// pick up any options in front of the files
+		boolean stats = false;
+		boolean pipelined = false;
+		long offset = -1;
+		int length = 0;
+		int arg = 0;
+		while(args[arg].startsWith("-") && !args[arg].equals(Encode.STANDARD)){
+			switch(args[arg++]){
+			case "-stats":
+				// -stats asks for the phase counters at the end
+				stats = true;
+				break;
+			case "-pipeline":
+				pipelined = true;
+				break;
+			case "-range":
+				offset = Long.parseLong(args[arg++]);
+				length = Integer.parseInt(args[arg++]);
+				break;
+			default:
+				System.err.println("Unknown option " + args[arg - 1]);
+				return;
+			}
+		}
+		args = Arrays.copyOfRange(args, arg, args.length);
 		// create our object
 		Decode decode = new Decode(args[0], args[1]);
+		decode.setPipelined(pipelined);
 		// call our method that does the decoding
-		decode.decode();
-		// yep we are done.
-		System.out.println("DONE");
+		if(offset >= 0){
+			decode.decodeRangeFile(offset, length);
+		}else{
+			decode.decode();
+		}
+		// yep we are done (unless the decoded bytes went to standard output).
+		if(!args[1].equals(Encode.STANDARD)){
+			System.out.println("DONE");
+		}
+		if(stats){
+			Encode.printStatistics();
+		}
 	}
 	
 	/**
 	 * A simple method that puts all the pieces together in one location
-	 * It will decode an encrypted huffman file.
+	 * It will decode an encrypted huffman file into our output file.
 	 */
 	public void decode(){
-		// a map that will contain chars and their values after the input is read
-		Map<Character, Integer> inputMap = this.readInputFile(this.input);
-		// we put those into a list for easy sorting by overriding the compare method
-		List<Huffman> huffmanList = HuffmanUtilities.sortInputMap(inputMap);
-		// after that we can now canonicalize the list and create a lookup map
-		huffmanList = HuffmanUtilities.canonicalize(huffmanList);
-		// a lookup map for quick lookup
-		Map<String, Character> lookup = HuffmanUtilities.lookupMap(huffmanList);
-		// givin the lookupmap, the array of binarystrings to decode (done during readInputFile)
-		// and an output file, decode the file.
-		HuffmanUtilities.writeFile(lookup, this.binaryStrings, this.output);
-	}
-	
-	/**
-	 * Given an input file it will create a map of which the key will be a character length
-	 * And the value will be a list of characters with that length
-	 * @param inputFile
-	 * @return
-	 */
-	private HashMap<Character, Integer> readInputFile(String inputFile){
-		
-		// the map to return with the read file
-		HashMap<Character, Integer> returnMap = new HashMap<>();
-		
-		try{
-			// to handle the file stream
-		    FileInputStream fileIn = new FileInputStream(inputFile);
-		    DataInputStream dataIn = new DataInputStream(fileIn);
-		    
-		    // first byte tells us the number of characters to decode.
-		    this.setFileLength(dataIn);
-		    
-		    // now let us fill our map with the characters
-		    for(int i = 0; i < this.characterLength; i++){
-		    	
-		    	// first byte is the char
-		    	char cValue = (char) dataIn.read();
-		    	// second byte is the length
-		    	int length = dataIn.read();  	
-		    	// finally put this in the map.
-		    	returnMap.put(cValue, length);
-		    }
-		    
-		    // now let us fill the binary array that keeps the decoding binary string
-		    int data;
-		    
-	        while((data = dataIn.read()) != -1){
-	        	String paddedBitString = HuffmanUtilities.padRight(Integer.toBinaryString(data), 8);
-	        	binaryStrings.add(paddedBitString);
-	        }
-		}catch(Exception exception){	
-			if(exception instanceof EOFException){
+		long start = System.nanoTime();
+		this.failure = null;
+		this.decodeFile();
+		Metrics.record(Phase.DECODE_FILE, start, Encode.fileSize(this.input), Encode.fileSize(this.output), 0);
+	}
+	
+	/**
+	 * Decodes whichever kind of file the input is, printing any error.
+	 */
+	private void decodeFile(){
+		// standard input and output, only the streaming containers can be decoded from a pipe
+		if(this.input.equals(Encode.STANDARD) || this.output.equals(Encode.STANDARD)){
+			try{
+				this.decodeStandard();
+			}catch(EOFException exception){
+				// the input ran out part way, it is cut short
 				EOF = true;
+				this.failed(exception);
+			}catch(IOException | RuntimeException exception){
+				this.failed(exception);
+			}
+			return;
+		}
+		// block containers can be decoded a block per thread
+		try{
+			if(this.isBlockContainer()){
+				if(this.pipelined){
+					Pipeline.decode(this.input, this.output);
+				}else{
+					this.decodeBlocks();
+				}
+				return;
+			}
+		}catch(IOException | RuntimeException exception){
+			this.failed(exception);
+			return;
+		}
+		// the output file, written through a channel in large chunks
+		try(OutputStream outFile = new ChannelOutputStream(this.output)){
+			this.decode(outFile);
+		}catch(EOFException exception){
+			// the input ran out part way, it is cut short
+			EOF = true;
+			this.failed(exception);
+		}catch(IOException | RuntimeException exception){
+			this.failed(exception);
+		}
+	}
+	
+	/**
+	 * Reports a file that could not be decoded. The message goes to standard error since standard output
+	 * may be where the decoded bytes go. Corrupt data can throw more than IOException (an index out of
+	 * bounds where a length was wrong), those are reported the same way rather than as a stack trace.
+	 * @param exception what went wrong
+	 */
+	private void failed(Exception exception){
+		this.failure = exception;
+		System.err.println("Error: " + exception);
+		Metrics.failed(this.input, exception);
+	}
+	
+	/**
+	 * Decodes a range of our input file into a byte array. Only block containers and files encoded with
+	 * a checkpoint index (Encode -index) can be read part way through: a block container decodes just the
+	 * blocks the range touches, an indexed file starts at the checkpoint before the range. A range that
+	 * runs past the end of the file is cut short.
+	 * 
+	 * @param offset where in the decoded file the range starts
+	 * @param length how many bytes to decode
+	 * @return the decoded bytes, fewer than length if the file ends first
+	 * @throws IOException if the input can not be read, is corrupt or has no index
+	 */
+	public byte[] decodeRange(long offset, int length) throws IOException{
+		if(offset < 0 || length < 0){
+			throw new IllegalArgumentException("Bad range: " + offset + " for " + length);
+		}
+		try(FileChannel in = FileChannel.open(Paths.get(this.input), StandardOpenOption.READ)){
+			ByteBuffer header = BlockIndex.readFully(in, 0, 2);
+			int kind = header.get() == Container.MARKER ? header.get() : -1;
+			switch(kind){
+			case Container.BLOCKS:{
+				BlockIndex index = BlockIndex.read(in);
+				byte[] out = new byte[rangeLength(offset, length, index.length)];
+				index.decode(in, offset, out, 0, out.length);
+				return out;
+			}
+			case Container.INDEXED:{
+				CheckpointIndex index = CheckpointIndex.read(in);
+				byte[] out = new byte[rangeLength(offset, length, index.length)];
+				index.decode(in, offset, out, 0, out.length);
+				return out;
+			}
+			default:
+				throw new IOException("Only block containers and indexed files can be decoded a range at a time");
+			}
+		}
+	}
+	
+	/**
+	 * How much of a range is inside the file.
+	 * @param offset where the range starts
+	 * @param length how long the range is
+	 * @param fileLength how long the decoded file is
+	 * @return the length of the range, cut short at the end of the file
+	 */
+	private static int rangeLength(long offset, int length, long fileLength){
+		return (int) Math.max(0, Math.min(length, fileLength - offset));
+	}
+	
+	/**
+	 * Decodes a range of our input file into our output file (or standard output), printing any error.
+	 * @param offset where in the decoded file the range starts
+	 * @param length how many bytes to decode
+	 */
+	private void decodeRangeFile(long offset, int length){
+		long start = System.nanoTime();
+		this.failure = null;
+		try{
+			byte[] range = this.decodeRange(offset, length);
+			if(this.output.equals(Encode.STANDARD)){
+				System.out.write(range);
+				System.out.flush();
 			}else{
-				System.out.println("Error: " + exception);
+				try(OutputStream outFile = new ChannelOutputStream(this.output)){
+					outFile.write(range);
+				}
+			}
+		}catch(IOException | RuntimeException exception){
+			this.failed(exception);
+		}
+		Metrics.record(Phase.DECODE_FILE, start, Encode.fileSize(this.input), Encode.fileSize(this.output), 0);
+	}
+	
+	/**
+	 * Decodes our input file straight into a stream. Only the header is held in memory, the encoded
+	 * bits are read and decoded a chunk at a time so memory use does not grow with the file.
+	 * 
+	 * @param out where the decoded characters go
+	 * @throws IOException if the input can not be read or the output written
+	 */
+	public void decode(OutputStream out) throws IOException{
+		InputStream in = this.input.equals(Encode.STANDARD) ? System.in
+				: Channels.newInputStream(FileChannel.open(Paths.get(this.input), StandardOpenOption.READ));
+		try(DataInputStream dataIn = new DataInputStream(new BufferedInputStream(in, BitReader.CHUNK_SIZE))){
+			// a single stream never starts with an alphabet of 0 so that marks a container
+			dataIn.mark(2);
+			if(dataIn.read() == Container.MARKER){
+				this.decodeContainer(dataIn, out);
+				return;
+			}
+			dataIn.reset();
+			
+			long start = System.nanoTime();
+			// the characters and their lengths from the header, canonical codes worked out from them
+			CodeTable code = this.readInputFile(dataIn);
+			// a decode table for quick lookup
+			DecodeTable table = code.decodeTable();
+			Metrics.record(Phase.HEADER_READ, start, 1 + 2 * this.characterLength, 0, code.size());
+			// givin the decode table, the rest of the input (the bits to decode)
+			// and an output stream, decode the file.
+			HuffmanUtilities.writeFile(table, dataIn, out);
+		}
+	}
+	
+	/**
+	 * Decodes from standard input or to standard output (or both). Standard output is flushed but left open.
+	 * @throws IOException if the input can not be read or the output written
+	 */
+	private void decodeStandard() throws IOException{
+		if(this.output.equals(Encode.STANDARD)){
+			this.decode(System.out);
+			System.out.flush();
+			return;
+		}
+		try(OutputStream outFile = new ChannelOutputStream(this.output)){
+			this.decode(outFile);
+		}
+	}
+	
+	/**
+	 * Decodes any kind of container into a stream, the marker has already been read.
+	 * @param dataIn the input, just after the marker
+	 * @param out where the decoded bytes go
+	 * @throws IOException if the input can not be read, is corrupt or the output can not be written
+	 */
+	private void decodeContainer(DataInputStream dataIn, OutputStream out) throws IOException{
+		int kind = dataIn.readUnsignedByte();
+		switch(kind){
+		case Container.BLOCKS:
+			BlockCodec.decodeContainer(dataIn, out);
+			break;
+		case Container.TEXT:{
+			long start = System.nanoTime();
+			CodeTable code = HuffmanUtilities.readTable(dataIn, Histogram.CHARS);
+			Metrics.record(Phase.HEADER_READ, start, 0, 0, code.size());
+			HuffmanUtilities.writeFile(code.decodeTable(), dataIn, out);
+			break;
+		}
+		case Container.RAW:
+			HuffmanUtilities.writeBytes(dataIn, out);
+			break;
+		case Container.INDEXED:
+			// a raw file with the checkpoint interval in front, the index after the bits is not needed
+			dataIn.readInt();
+			HuffmanUtilities.writeBytes(dataIn, out);
+			break;
+		case Container.STREAM:
+			new HuffmanInputStream(dataIn, dataIn.readInt()).transferTo(out);
+			out.flush();
+			break;
+		case Container.ADAPTIVE:
+			new AdaptiveInputStream(dataIn).transferTo(out);
+			out.flush();
+			break;
+		case Container.DICTIONARY:
+			// the table is not in the file, only a DictionaryStore knows it
+			throw new IOException("Encoded with a dictionary, decode it through a DictionaryStore");
+		default:
+			throw new IOException("Unknown kind of container: " + kind);
+		}
+	}
+	
+	/**
+	 * Decodes a block container in parallel. The index at the end of the container tells us where every
+	 * block is and where its bytes belong in the output, so each block is read, decoded and written
+	 * straight to its place in the output file by its own task on the fork/join pool.
+	 * 
+	 * @throws IOException if the input can not be read or the output written
+	 */
+	public void decodeBlocks() throws IOException{
+		try(FileChannel in = FileChannel.open(Paths.get(this.input), StandardOpenOption.READ);
+			FileChannel out = FileChannel.open(Paths.get(this.output), StandardOpenOption.WRITE, StandardOpenOption.CREATE, StandardOpenOption.TRUNCATE_EXISTING)){
+			
+			BlockIndex index = BlockIndex.read(in);
+			BlockTask[] tasks = new BlockTask[index.blockCount()];
+			for(int i = 0; i < tasks.length; i++){
+				tasks[i] = new BlockTask(index, i, in, out);
+			}
+			ForkJoinTask.invokeAll(tasks);
+		}catch(UncheckedIOException e){
+			throw e.getCause();
+		}
+	}
+	
+	/**
+	 * Is our input file a block container?
+	 * @return true if it starts with the container marker and the block kind
+	 * @throws IOException if the input can not be read
+	 */
+	private boolean isBlockContainer() throws IOException{
+		try(FileInputStream fileIn = new FileInputStream(this.input)){
+			return fileIn.read() == Container.MARKER && fileIn.read() == Container.BLOCKS;
+		}
+	}
+	
+	/**
+	 * Reads, decodes and writes one block of a container.
+	 */
+	private static class BlockTask extends RecursiveAction {
+		
+		private static final long serialVersionUID = 1L;
+		
+		// the container's index
+		private final BlockIndex index;
+		// which block this is
+		private final int block;
+		// the container and the output file, positional reads and writes are safe from many threads
+		private final FileChannel in;
+		private final FileChannel out;
+		
+		BlockTask(BlockIndex index, int block, FileChannel in, FileChannel out){
+			this.index = index;
+			this.block = block;
+			this.in = in;
+			this.out = out;
+		}
+		
+		@Override
+		protected void compute(){
+			try{
+				byte[] raw = BlockCodec.decodeBlock(this.index.readBlock(this.in, this.block));
+				ByteBuffer buffer = ByteBuffer.wrap(raw);
+				long position = this.index.outputOffsets[this.block];
+				while(buffer.hasRemaining()){
+					this.out.write(buffer, position + buffer.position());
+				}
+			}catch(IOException e){
+				throw new UncheckedIOException(e);
 			}
 		}
-		return returnMap;
 	}
 	
 	/**
-	 * Sets the number of characters in the input file.
-	 * TODO: Not fully happy with this yet ... 
+	 * Given an input file it will read each character's length and work out the canonical code
+	 * from them. It only reads the header, the stream is left at the start of the encoded bits.
+	 * @param dataIn the input file's stream
+	 * @return the code of the characters in the header
+	 * @throws IOException if the header can not be read or is not a prefix code
+	 */
+	private CodeTable readInputFile(DataInputStream dataIn) throws IOException{
+		
+		// the length of each character, -1 for the ones not in the header (a lone character has length 0)
+		int[] lengths = new int[Histogram.BYTES];
+		Arrays.fill(lengths, -1);
+		
+		// first byte tells us the number of characters to decode.
+		this.setFileLength(dataIn);
+		
+		// now let us fill in the lengths of the characters
+		int size = 0;
+		for(int i = 0; i < this.characterLength; i++){
+			
+			// first byte is the char
+			int cValue = dataIn.readUnsignedByte();
+			// second byte is the length, a character seen twice keeps the last one
+			size += lengths[cValue] < 0 ? 1 : 0;
+			lengths[cValue] = dataIn.readUnsignedByte();
+		}
+		
+		// the characters that made it in
+		int[] symbols = new int[size];
+		int[] symbolLengths = new int[size];
+		size = 0;
+		for(int symbol = 0; symbol < lengths.length; symbol++){
+			if(lengths[symbol] >= 0){
+				symbols[size] = symbol;
+				symbolLengths[size++] = lengths[symbol];
+			}
+		}
+		try{
+			return new CodeTable(symbols, symbolLengths, Histogram.BYTES);
+		}catch(IllegalArgumentException e){
+			throw new IOException("Corrupt header: " + e.getMessage());
+		}
+	}
+	
+	/**
+	 * Sets the number of characters in the input file. The byte is unsigned, an alphabet of 128 to 255
+	 * characters used to come out negative and decode to nothing.
 	 * @param ds the datastream to read from
 	 * @throws IOException if data scream is null
 	 */
 	private void setFileLength(DataInputStream ds) throws IOException{
-		this.characterLength = ds.readByte();
+		this.characterLength = ds.readUnsignedByte();
 	}	
 }
\ No newline at end of file
@@ -0,0 +1,355 @@
+package huffman;
+
+import java.util.Arrays;
+
+/**
+ * A table driven decoder for a canonical Huffman code. Rather than trying one more bit at a time
+ * until a code matches, we peek at the next PRIMARY_BITS bits and use them as an index into a table
+ * that already knows which symbol those bits start with and how long its code is. Codes longer than
+ * the primary table hang off a second level table reached through the first, so nearly every symbol
+ * is a single table hit. Codes too long for even the second level (only very skewed inputs produce
+ * them) fall back to a walk over the code lengths.
+ *
+ * A decode table can be set to a new code, reusing its arrays whenever they are big enough, so a
+ * decoder that keeps one stops allocating once it has seen its biggest table.
+ *
+ * Each table entry is packed into an int:
+ *     bits 8-31 the symbol, or the offset of a second level table
+ *     bits 6-7  what kind of entry this is
+ *     bits 0-5  the code length, or the number of bits indexing the second level table
+ */
+public class DecodeTable {
+
+	// how many bits index the first level table
+	protected static final int PRIMARY_BITS = 10;
+
+	// the most bits a second level table may be indexed by
+	protected static final int SECONDARY_BITS = 12;
+
+	// the longest code we can decode (it has to fit in a long)
+	protected static final int MAX_LENGTH = 63;
+
+	// the kinds of entries
+	private static final int SYMBOL = 0;
+	private static final int SUBTABLE = 1 << 6;
+	private static final int SLOW = 2 << 6;
+	private static final int KIND_MASK = 3 << 6;
+	private static final int LENGTH_MASK = (1 << 6) - 1;
+
+	// unused slots (only an incomplete code leaves any) are all ones, a kind of 3
+	private static final int INVALID = -1;
+
+	// both levels of the table, second level tables follow the first
+	private int[] table;
+
+	// how many bits index the first level
+	private int primaryBits;
+
+	// the longest code length
+	private int maxLength;
+
+	// per length: the first code, how many codes and where the symbols start (for the slow path)
+	private long[] firstCode;
+	private int[] count;
+	private int[] offset;
+
+	// the symbols in canonical order
+	private int[] symbols;
+
+	// per first level slot while the table is built: the bits and offset of its second level table
+	private int[] secondaryBits;
+	private int[] secondaryOffset;
+
+	/**
+	 * Builds the tables for a code. The slow path uses the code's own per length arrays.
+	 * @param code the code
+	 */
+	public DecodeTable(CodeTable code){
+		this.set(code);
+	}
+
+	/**
+	 * Rebuilds the tables for another code, reusing the arrays of the last one if they are big enough.
+	 * @param code the code
+	 */
+	protected void set(CodeTable code){
+		this.symbols = code.symbols;
+		this.maxLength = code.maxLength;
+		this.firstCode = code.firstCode;
+		this.count = code.count;
+		this.offset = code.offset;
+		this.primaryBits = Math.min(this.maxLength, PRIMARY_BITS);
+		this.buildTable(code);
+	}
+
+	/**
+	 * Decodes the next symbol from the reader, consuming its code.
+	 * @param reader where the bits come from
+	 * @return the symbol, or -1 if the bits are not a code
+	 */
+	protected int decode(BitReader reader){
+		int entry = this.table[reader.peek(this.primaryBits)];
+
+		// a long code, look the rest of it up in the second level table
+		if((entry & KIND_MASK) == SUBTABLE){
+			int bits = entry & LENGTH_MASK;
+			int index = reader.peek(this.primaryBits + bits) & ((1 << bits) - 1);
+			entry = this.table[(entry >>> 8) + index];
+		}
+
+		switch(entry & KIND_MASK){
+		case SYMBOL:
+			reader.skip(entry & LENGTH_MASK);
+			return entry >>> 8;
+		case SLOW:
+			return this.decodeSlow(reader);
+		default:
+			return -1;
+		}
+	}
+
+	/**
+	 * Decodes four streams in lockstep, a symbol from each per pass, for as long as every stream has a
+	 * whole word of bits left to load. Each stream's bit buffer lives in local variables rather than a
+	 * BitReader so the four chains of shift, lookup and shift have nothing in common and the processor
+	 * can overlap them. A word is loaded whenever a buffer drops below 32 bits, which is always enough
+	 * for the next code since the fast path is only taken when no code needs the slow walk. The caller
+	 * finishes whatever is left with BitReaders started where this leaves off.
+	 *
+	 * @param in the bytes holding the streams
+	 * @param positions the bit each stream starts at, updated to where it got to
+	 * @param ends one past the last byte of each stream
+	 * @param out where the decoded bytes go
+	 * @param outOffsets where each stream's first decoded byte goes
+	 * @param symbols how many symbols at most to decode from each stream
+	 * @return how many symbols were decoded from each stream, or -1 if the bits are not a code
+	 */
+	protected int decodeStreams(byte[] in, long[] positions, int[] ends, byte[] out, int[] outOffsets, int symbols){
+		// each stream: the next byte and the last byte a word can be loaded from
+		int position0 = (int) (positions[0] >>> 3);
+		int position1 = (int) (positions[1] >>> 3);
+		int position2 = (int) (positions[2] >>> 3);
+		int position3 = (int) (positions[3] >>> 3);
+		int limit0 = ends[0] - 4;
+		int limit1 = ends[1] - 4;
+		int limit2 = ends[2] - 4;
+		int limit3 = ends[3] - 4;
+
+		// a lone symbol has no bits to look at, codes for the slow walk do not fit in a word, and a
+		// stream without a whole word left is all tail
+		if(this.maxLength == 0 || this.maxLength > this.primaryBits + SECONDARY_BITS
+				|| position0 > limit0 || position1 > limit1 || position2 > limit2 || position3 > limit3){
+			return 0;
+		}
+		int[] table = this.table;
+		int shift = 64 - this.primaryBits;
+		int out0 = outOffsets[0];
+		int out1 = outOffsets[1];
+		int out2 = outOffsets[2];
+		int out3 = outOffsets[3];
+
+		// load the first word of each, dropping any bits before the stream's start
+		int skip0 = (int) (positions[0] & 7);
+		int skip1 = (int) (positions[1] & 7);
+		int skip2 = (int) (positions[2] & 7);
+		int skip3 = (int) (positions[3] & 7);
+		long bits0 = word(in, position0) << 32 << skip0;
+		long bits1 = word(in, position1) << 32 << skip1;
+		long bits2 = word(in, position2) << 32 << skip2;
+		long bits3 = word(in, position3) << 32 << skip3;
+		int count0 = 32 - skip0;
+		int count1 = 32 - skip1;
+		int count2 = 32 - skip2;
+		int count3 = 32 - skip3;
+		position0 += 4;
+		position1 += 4;
+		position2 += 4;
+		position3 += 4;
+
+		int i = 0;
+		while(i < symbols && position0 <= limit0 && position1 <= limit1 && position2 <= limit2 && position3 <= limit3){
+			if(count0 < 32){
+				bits0 |= word(in, position0) << (32 - count0);
+				position0 += 4;
+				count0 += 32;
+			}
+			if(count1 < 32){
+				bits1 |= word(in, position1) << (32 - count1);
+				position1 += 4;
+				count1 += 32;
+			}
+			if(count2 < 32){
+				bits2 |= word(in, position2) << (32 - count2);
+				position2 += 4;
+				count2 += 32;
+			}
+			if(count3 < 32){
+				bits3 |= word(in, position3) << (32 - count3);
+				position3 += 4;
+				count3 += 32;
+			}
+
+			int entry0 = table[(int) (bits0 >>> shift)];
+			int entry1 = table[(int) (bits1 >>> shift)];
+			int entry2 = table[(int) (bits2 >>> shift)];
+			int entry3 = table[(int) (bits3 >>> shift)];
+			// long codes go through their second level table
+			if((entry0 & KIND_MASK) == SUBTABLE){
+				entry0 = this.secondary(entry0, bits0);
+			}
+			if((entry1 & KIND_MASK) == SUBTABLE){
+				entry1 = this.secondary(entry1, bits1);
+			}
+			if((entry2 & KIND_MASK) == SUBTABLE){
+				entry2 = this.secondary(entry2, bits2);
+			}
+			if((entry3 & KIND_MASK) == SUBTABLE){
+				entry3 = this.secondary(entry3, bits3);
+			}
+			// only a symbol entry is left with a clear kind, any other makes the or non zero
+			if(((entry0 | entry1 | entry2 | entry3) & KIND_MASK) != SYMBOL){
+				return -1;
+			}
+
+			int length0 = entry0 & LENGTH_MASK;
+			int length1 = entry1 & LENGTH_MASK;
+			int length2 = entry2 & LENGTH_MASK;
+			int length3 = entry3 & LENGTH_MASK;
+			bits0 <<= length0;
+			bits1 <<= length1;
+			bits2 <<= length2;
+			bits3 <<= length3;
+			count0 -= length0;
+			count1 -= length1;
+			count2 -= length2;
+			count3 -= length3;
+
+			out[out0 + i] = (byte) (entry0 >>> 8);
+			out[out1 + i] = (byte) (entry1 >>> 8);
+			out[out2 + i] = (byte) (entry2 >>> 8);
+			out[out3 + i] = (byte) (entry3 >>> 8);
+			i++;
+		}
+
+		// where each stream got to, the bits still in a buffer have not been used
+		positions[0] = 8L * position0 - count0;
+		positions[1] = 8L * position1 - count1;
+		positions[2] = 8L * position2 - count2;
+		positions[3] = 8L * position3 - count3;
+		return i;
+	}
+
+	/**
+	 * Looks a long code up in its second level table.
+	 * @param entry the first level entry pointing at the second level table
+	 * @param bits the stream's bits, left-aligned
+	 * @return the second level entry
+	 */
+	private int secondary(int entry, long bits){
+		int extra = entry & LENGTH_MASK;
+		int index = (int) ((bits << this.primaryBits) >>> (64 - extra));
+		return this.table[(entry >>> 8) + index];
+	}
+
+	/**
+	 * Loads four bytes big-endian.
+	 * @param in the bytes
+	 * @param position where the word starts
+	 * @return the word in the low 32 bits
+	 */
+	private static long word(byte[] in, int position){
+		return (in[position] & 0xFFL) << 24 | (in[position + 1] & 0xFFL) << 16 | (in[position + 2] & 0xFFL) << 8 | (in[position + 3] & 0xFFL);
+	}
+
+	/**
+	 * Decodes a code that is too long for the tables one bit at a time. Codes of the same length are
+	 * consecutive numbers so we only need to check whether we have landed in the range for this length.
+	 * @param reader where the bits come from
+	 * @return the symbol, or -1 if the bits are not a code
+	 */
+	private int decodeSlow(BitReader reader){
+		long code = 0;
+		for(int length = 1; length <= this.maxLength; length++){
+			code = (code << 1) | reader.readBit();
+			long index = code - this.firstCode[length];
+			if(index >= 0 && index < this.count[length]){
+				return this.symbols[this.offset[length] + (int) index];
+			}
+		}
+		return -1;
+	}
+
+	/**
+	 * Fills both levels of the table.
+	 * @param code the code, its lengths and symbols in canonical order
+	 */
+	private void buildTable(CodeTable code){
+		int primarySize = 1 << this.primaryBits;
+		int[] lengths = code.lengths;
+		int symbolCount = code.size();
+
+		// first find out how big a second level table each prefix needs
+		if(this.secondaryBits == null || this.secondaryBits.length < primarySize){
+			this.secondaryBits = new int[primarySize];
+			this.secondaryOffset = new int[primarySize];
+		}
+		int[] secondaryBits = this.secondaryBits;
+		int[] secondaryOffset = this.secondaryOffset;
+		Arrays.fill(secondaryBits, 0, primarySize, 0);
+		for(int i = 0; i < symbolCount; i++){
+			int extra = lengths[i] - this.primaryBits;
+			if(extra > 0){
+				int prefix = (int) (code.code[this.symbols[i]] >>> extra);
+				secondaryBits[prefix] = Math.max(secondaryBits[prefix], Math.min(extra, SECONDARY_BITS));
+			}
+		}
+
+		// lay the second level tables out after the first
+		int size = primarySize;
+		for(int prefix = 0; prefix < primarySize; prefix++){
+			if(secondaryBits[prefix] > 0){
+				secondaryOffset[prefix] = size;
+				size += 1 << secondaryBits[prefix];
+			}
+		}
+		if(this.table == null || this.table.length < size){
+			this.table = new int[size];
+		}
+		Arrays.fill(this.table, 0, size, INVALID);
+		for(int prefix = 0; prefix < primarySize; prefix++){
+			if(secondaryBits[prefix] > 0){
+				this.table[prefix] = (secondaryOffset[prefix] << 8) | SUBTABLE | secondaryBits[prefix];
+			}
+		}
+
+		// now every code fills all the slots that start with it
+		for(int i = 0; i < symbolCount; i++){
+			int length = lengths[i];
+			long codeBits = code.code[this.symbols[i]];
+			int entry = (this.symbols[i] << 8) | SYMBOL | length;
+			int extra = length - this.primaryBits;
+
+			if(extra <= 0){
+				int first = (int) codeBits << -extra;
+				for(int j = 0; j < 1 << -extra; j++){
+					this.table[first + j] = entry;
+				}
+				continue;
+			}
+
+			int prefix = (int) (codeBits >>> extra);
+			int bits = secondaryBits[prefix];
+			int base = secondaryOffset[prefix];
+			if(extra <= bits){
+				int first = (int) (codeBits & ((1L << extra) - 1)) << (bits - extra);
+				for(int j = 0; j < 1 << (bits - extra); j++){
+					this.table[base + first + j] = entry;
+				}
+			}else{
+				// too long for the second level, mark where it starts and take the slow path
+				int index = (int) ((codeBits >>> (extra - bits)) & ((1L << bits) - 1));
+				this.table[base + index] = SLOW;
+			}
+		}
+	}
+}
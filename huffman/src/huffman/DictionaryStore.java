@@ -0,0 +1,122 @@
+package huffman;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.nio.file.Files;
+import java.nio.file.NoSuchFileException;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.util.LinkedHashMap;
+import java.util.Map;
+
+/**
+ * A directory of saved dictionaries, one file per id, with the most recently used ones kept in memory
+ * with their tables built. Decoding a message looks its dictionary up by the id in the message, so
+ * after the first message from a dictionary the rest cost nothing but the decoding itself.
+ *
+ * Safe to use from many threads, the cache is locked while it is looked up or changed.
+ */
+public class DictionaryStore {
+
+	// how many dictionaries are cached unless we are told otherwise
+	protected static final int DEFAULT_CAPACITY = 64;
+
+	// what a saved dictionary's file name ends with
+	protected static final String EXTENSION = ".dict";
+
+	// where the dictionaries are saved
+	private Path directory;
+
+	// the cached dictionaries by id, least recently used first
+	private Map<Integer, HuffmanDictionary> cache;
+
+	/**
+	 * Creates a store with the default cache size
+	 * @param directory where the dictionaries are saved
+	 */
+	public DictionaryStore(String directory){
+		this(directory, DEFAULT_CAPACITY);
+	}
+
+	/**
+	 * Creates a store
+	 * @param directory where the dictionaries are saved
+	 * @param capacity how many dictionaries to keep in memory
+	 */
+	public DictionaryStore(String directory, int capacity){
+		this.directory = Paths.get(directory);
+		// access order makes this an LRU, the eldest entry goes once we are over capacity
+		this.cache = new LinkedHashMap<Integer, HuffmanDictionary>(16, 0.75f, true){
+			private static final long serialVersionUID = 1L;
+
+			@Override
+			protected boolean removeEldestEntry(Map.Entry<Integer, HuffmanDictionary> eldest){
+				return this.size() > capacity;
+			}
+		};
+	}
+
+	/**
+	 * Saves a dictionary under its id, replacing any saved with the same id.
+	 * @param dictionary the dictionary
+	 * @throws IOException if it can not be written
+	 */
+	public void save(HuffmanDictionary dictionary) throws IOException{
+		Files.createDirectories(this.directory);
+		try(OutputStream out = Files.newOutputStream(this.file(dictionary.id()))){
+			dictionary.save(out);
+		}
+		synchronized(this.cache){
+			this.cache.put(dictionary.id(), dictionary);
+		}
+	}
+
+	/**
+	 * Gets a dictionary, from the cache if it is there or else from its file.
+	 * @param id the dictionary's id
+	 * @return the dictionary
+	 * @throws IOException if there is no such dictionary or it can not be read
+	 */
+	public HuffmanDictionary get(int id) throws IOException{
+		synchronized(this.cache){
+			HuffmanDictionary dictionary = this.cache.get(id);
+			if(dictionary != null){
+				return dictionary;
+			}
+		}
+		// loaded outside the lock, two threads may both load it but they get the same tables
+		HuffmanDictionary dictionary;
+		try(InputStream in = Files.newInputStream(this.file(id))){
+			dictionary = HuffmanDictionary.load(in);
+		}catch(NoSuchFileException e){
+			throw new IOException("No dictionary " + id, e);
+		}
+		if(dictionary.id() != id){
+			throw new IOException("The dictionary file for " + id + " holds dictionary " + dictionary.id());
+		}
+		synchronized(this.cache){
+			this.cache.put(id, dictionary);
+		}
+		return dictionary;
+	}
+
+	/**
+	 * Decodes a message with whichever dictionary it was encoded with.
+	 * @param message the encoded message
+	 * @return the decoded bytes
+	 * @throws IOException if the message is corrupt or its dictionary can not be found
+	 */
+	public byte[] decode(byte[] message) throws IOException{
+		return this.get(HuffmanDictionary.messageId(message)).decode(message);
+	}
+
+	/**
+	 * Where a dictionary is saved.
+	 * @param id its id
+	 * @return its file
+	 */
+	private Path file(int id){
+		return this.directory.resolve(id + EXTENSION);
+	}
+}
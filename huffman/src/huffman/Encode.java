@@ -1,13 +1,18 @@
 package huffman;
 
-import java.io.BufferedReader;
-import java.io.FileInputStream;
-import java.io.FileNotFoundException;
+import java.io.DataOutputStream;
 import java.io.IOException;
-import java.io.InputStreamReader;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.io.UncheckedIOException;
+import java.nio.file.Files;
+import java.nio.file.NoSuchFileException;
+import java.nio.file.Paths;
+import java.util.ArrayDeque;
 import java.util.ArrayList;
-import java.util.HashMap;
-import java.util.Map;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.ForkJoinTask;
+import java.util.concurrent.RecursiveTask;
 
 /**
  * A class to encode a file using Huffman's Algorithm
@@ -19,6 +24,33 @@ public class Encode {
 	private String source;
 	private String destination;
 	
+	// the block size for the block container, 0 for a single stream
+	private int blockSize;
+	
+	// encode raw bytes rather than UTF-8 characters
+	private boolean raw;
+	
+	// the longest code allowed, 0 for no limit
+	private int maxLength;
+	
+	// encode in one pass with codes rebuilt from running counts
+	private boolean adaptive;
+	
+	// how many bytes apart the checkpoints of an indexed raw file are, 0 for no index
+	private int checkpointInterval;
+	
+	// write blocks with an order-1 context model where it helps
+	private boolean context;
+	
+	// read, encode and write the blocks on separate threads at the same time
+	private boolean pipelined;
+	
+	// what went wrong the last time the file was encoded, null if nothing did
+	private Exception failure;
+	
+	// a source or destination of "-" means standard input or output (adaptive mode only)
+	protected static final String STANDARD = "-";
+	
 	/**
 	 * Constructor that sets the source and destination files
 	 * 
@@ -26,79 +58,464 @@ public class Encode {
 	 * @param destination the encoded file
 	 */
 	public Encode(String source, String destination){
+		this(source, destination, 0);
+	}
+	
+	/**
+	 * Constructor that sets the source and destination files and the block size
+	 * 
+	 * @param source the file to encode
+	 * @param destination the encoded file
+	 * @param blockSize the size of each block in a block container, 0 to write a single stream
+	 */
+	public Encode(String source, String destination, int blockSize){
 		this.source = source;
 		this.destination = destination;
+		this.blockSize = blockSize;
 	}
 	
+	/**
+	 * Encode the file as raw bytes rather than UTF-8 characters. Any file (binary, mixed encodings) comes
+	 * back exactly as it was and there is no charset decoding to pay for. Block containers are always raw.
+	 * 
+	 * @param raw whether to encode raw bytes
+	 */
+	public void setRaw(boolean raw){
+		this.raw = raw;
+	}
+	
+	/**
+	 * Limit how long a code may get. The best codes within the limit are worked out with package-merge,
+	 * which keeps the decoder's tables small on skewed inputs for next to no loss in size.
+	 * 
+	 * @param maxLength the longest code allowed in bits, 0 for no limit
+	 */
+	public void setMaxLength(int maxLength){
+		this.maxLength = maxLength;
+	}
+	
+	/**
+	 * Encode in a single pass: no counting first, the codes adapt as the bytes go by (see AdaptiveModel).
+	 * The source is read once, so it can be a pipe, and like raw mode any file comes back exactly.
+	 * 
+	 * @param adaptive whether to encode in one pass
+	 */
+	public void setAdaptive(boolean adaptive){
+		this.adaptive = adaptive;
+	}
+	
+	/**
+	 * Write a raw file with a checkpoint every so many bytes, so Decode.decodeRange can start decoding
+	 * near any offset rather than at the beginning. Each checkpoint costs eight bytes, so an interval of
+	 * 64 KB adds about one byte in eight thousand. Implies raw.
+	 * 
+	 * @param checkpointInterval how many bytes apart the checkpoints are, 0 for no index
+	 */
+	public void setCheckpointInterval(int checkpointInterval){
+		this.checkpointInterval = checkpointInterval;
+	}
+	
+	/**
+	 * Write a block container whose blocks use an order-1 ContextModel (a code per class of previous
+	 * byte) wherever that comes out smaller than a single code. Implies blocks.
+	 * 
+	 * @param context whether to try an order-1 model for every block
+	 */
+	public void setContext(boolean context){
+		this.context = context;
+	}
+	
+	/**
+	 * Write a block container through a Pipeline: a thread reading the source, the fork/join pool
+	 * encoding and a thread writing the container, all at the same time, so the disk is never idle while
+	 * the blocks are encoded. Worth it where reads and writes are slow. Implies blocks.
+	 * 
+	 * @param pipelined whether to overlap the reads and writes with encoding
+	 */
+	public void setPipelined(boolean pipelined){
+		this.pipelined = pipelined;
+	}
+	
+	/**
+	 * What went wrong the last time encode ran. Encode prints its errors rather than throwing them, this
+	 * is how a caller encoding many files (Batch) tells which ones failed.
+	 * 
+	 * @return the error, null if the file was encoded
+	 */
+	public Exception getFailure(){
+		return this.failure;
+	}
+	
+	/**
+	 * Usage: java huffman.Encode [-raw] [-maxlen bits] [-blocks] [-blocksize bytes] [-index bytes] [-context] [-pipeline] [-adaptive] source target
+	 *     -raw                 encode raw bytes rather than UTF-8 characters
+	 *     -maxlen bits         limit codes to this many bits (11 to 15 is plenty)
+	 *     -blocks              write a block container, encoding the blocks in parallel
+	 *     -blocksize bytes     the block size (implies -blocks)
+	 *     -index bytes         write a raw file with a checkpoint this often, for Decode -range
+	 *     -context             write blocks with an order-1 model where it is smaller (implies -blocks)
+	 *     -pipeline            read, encode and write the blocks at the same time (implies -blocks)
+	 *     -adaptive            encode in one pass, source and target may be - for standard input and output
+	 *     -stats               print the time, bytes and symbols of every phase when done
+	 */
 	public static void main(String args[]){
+		// pick up any options in front of the files
+		int blockSize = 0;
+		boolean raw = false;
+		int maxLength = 0;
+		boolean adaptive = false;
+		int checkpointInterval = 0;
+		boolean context = false;
+		boolean pipelined = false;
+		boolean stats = false;
+		int arg = 0;
+		while(args[arg].startsWith("-") && !args[arg].equals(STANDARD)){
+			switch(args[arg++]){
+			case "-raw":
+				raw = true;
+				break;
+			case "-maxlen":
+				maxLength = Integer.parseInt(args[arg++]);
+				break;
+			case "-blocks":
+				blockSize = BlockCodec.DEFAULT_BLOCK_SIZE;
+				break;
+			case "-blocksize":
+				blockSize = Integer.parseInt(args[arg++]);
+				if(blockSize <= 0 || blockSize > BlockCodec.MAX_BLOCK_SIZE){
+					System.err.println("Block size must be 1 to " + BlockCodec.MAX_BLOCK_SIZE);
+					return;
+				}
+				break;
+			case "-index":
+				checkpointInterval = Integer.parseInt(args[arg++]);
+				break;
+			case "-context":
+				context = true;
+				break;
+			case "-pipeline":
+				pipelined = true;
+				break;
+			case "-adaptive":
+				adaptive = true;
+				break;
+			case "-stats":
+				stats = true;
+				break;
+			default:
+				System.err.println("Unknown option " + args[arg - 1]);
+				return;
+			}
+		}
 		// create an object
-		Encode encode = new Encode(args[0], args[1]);
+		Encode encode = new Encode(args[arg], args[arg + 1], blockSize);
+		encode.setRaw(raw);
+		encode.setMaxLength(maxLength);
+		encode.setAdaptive(adaptive);
+		encode.setCheckpointInterval(checkpointInterval);
+		encode.setContext(context);
+		encode.setPipelined(pipelined);
 		// call our "wrapper method" that encapsulates all the gross pieces
 		encode.encode();
-		//  yep say we are done.
-		System.out.println("DONE");
+		//  yep say we are done (unless the encoded bytes went to standard output).
+		if(!args[arg + 1].equals(STANDARD)){
+			System.out.println("DONE");
+		}
+		if(stats){
+			printStatistics();
+		}
 	}
 	
 	/**
 	 * A method that runs all the pieces to make the plain text file be encoded
 	 */
 	public void encode(){
-		// first we need to create a frequency map
-		Map<Character, Integer> frequencyMap = this.readInputMap(this.source);
-		// now we need to build our tree
-		Node root = HuffmanUtilities.huffmanTree(frequencyMap);
-		// we are going to build our tree in an array list given our wrapper class <Huffman>
-		ArrayList<Huffman> huffmanWrapper = new ArrayList<>();
-		// we are going to walk the tree putting the nodes into our wrapper ArrayList with Binary
-		HuffmanUtilities.inorder(root, "", huffmanWrapper);
-		// for easy lookups it would be best if we sorted the list
-		HuffmanUtilities.sortHuffmanList(huffmanWrapper);
-		// now we are going to canonicalize the huffman codes
-		HuffmanUtilities.canonicalize(huffmanWrapper);
-		// finally we are going to write the file.
-		HuffmanUtilities.writeEncodedFile(huffmanWrapper, this.destination, this.source);
-	}
-	
-	/**
-	 * This will read over the file adding characters to a map if the
-	 * character already exists, it will increase the frequency.
-	 * 
-	 * @param source the source file to read
-	 * @return the source file converted to a frequency map
-	 */
-	private Map<Character, Integer> readInputMap(String source){
-		// first create our return map
-		Map<Character, Integer> returnFrequencyMap = new HashMap<>();
-		// add the EOF character and its frequency ... better only be one.
-		returnFrequencyMap.put((char)0x00,1);
-		
-		// Java 7 changes how to close the streams by allowing auto-close.
-		// We pass the inputstreamreader here to utilize the character-set constructor
-		// UTF-8: Eight-bit UCS Trasformation Format (https:docs.oracle.com/javase/7/docs/api/java/nio/charset/Charset.html)
-		try(BufferedReader bufferedReader = new BufferedReader(new InputStreamReader(new FileInputStream(source), "UTF-8"))){
-            
-			// so we loop over the entire file adding our chars to the map
-			int current;
-			while((current = bufferedReader.read()) != -1){
-				// first convert the int to char ... might be smarter to use Character class here.
-				char readChar = (char) current;
-				// does the character already exist ? if so inc the frequency
-				if(returnFrequencyMap.containsKey(readChar)){
-					returnFrequencyMap.put(readChar, (returnFrequencyMap.get(readChar) + 1));
-			    // no? let us add it with frequency of one.
-				}else{
-					returnFrequencyMap.put(readChar, 1);
+		long start = System.nanoTime();
+		this.failure = null;
+		// one pass straight from the source
+		if(this.adaptive){
+			this.encodeAdaptive();
+		// blocks are a whole different file
+		}else if(this.pipelined){
+			this.encodePipelined();
+		}else if(this.blockSize > 0 || this.context){
+			this.encodeBlocks();
+		}else{
+			this.encodeStream();
+		}
+		Metrics.record(Phase.ENCODE_FILE, start, fileSize(this.source), fileSize(this.destination), 0);
+	}
+	
+	/**
+	 * Writes a single stream, the original format or a raw one.
+	 */
+	private void encodeStream(){
+		// the source is mapped once and both passes read it out of memory
+		try(MappedInput input = new MappedInput(this.source)){
+			// raw bytes skip the charset altogether, count the bytes and write them
+			if(this.raw || this.checkpointInterval > 0){
+				this.encodeBytes(input);
+				return;
+			}
+			// first we need to count the characters
+			long[] frequencies = this.readInputMap(input);
+			if(!isText(frequencies)){
+				this.encodeBytes(input);
+				return;
+			}
+			// the code lengths straight from the counts (package-merge with a length limit), then the canonical codes
+			CodeTable code = HuffmanUtilities.huffmanCodes(frequencies, this.maxLength);
+			// the marker and kind in front of the table
+			if(!pays(code, frequencies, input.size(), 2)){
+				this.encodeBlocks();
+				return;
+			}
+			// finally we are going to write the file.
+			HuffmanUtilities.writeEncodedFile(code, this.destination, input);
+		// file does not exist
+		} catch (NoSuchFileException e) {
+			System.err.println("File does not exist...");
+			e.printStackTrace();
+			this.failed(e);
+		} catch (IOException e) {
+			System.err.println("IO Error has occured...");
+			e.printStackTrace();
+			this.failed(e);
+		}
+	}
+	
+	/**
+	 * Writes a raw file (with a checkpoint index if there is an interval), or a block container if one
+	 * code would not make the file smaller.
+	 * @param input the mapped source
+	 * @throws IOException if the file can not be written
+	 */
+	private void encodeBytes(MappedInput input) throws IOException{
+		long[] frequencies = Histogram.countBytes(input);
+		CodeTable code = HuffmanUtilities.huffmanCodes(frequencies, this.maxLength);
+		// the marker, kind and length in front of the table
+		if(this.checkpointInterval == 0 && !pays(code, frequencies, input.size(), 2 + 8)){
+			this.encodeBlocks();
+			return;
+		}
+		HuffmanUtilities.writeEncodedBytes(code, this.destination, input, this.checkpointInterval);
+	}
+	
+	/**
+	 * Whether a file decodes back to the same bytes encoded as characters. The characters are read as
+	 * UTF-8 and written back as UTF-8, which only gives the same bytes for well formed UTF-8 (anything
+	 * else is read as the replacement character U+FFFD) without a NUL in it (that ends the file). Binary
+	 * files and other charsets are encoded as bytes instead.
+	 * @param frequencies how often each character appears, with the end of file character added
+	 * @return true if the characters can be encoded as they are
+	 */
+	private static boolean isText(long[] frequencies){
+		return frequencies[0x00] == 1 && frequencies[0xFFFD] == 0;
+	}
+	
+	/**
+	 * Remembers and counts a file that could not be encoded, its error has already been printed.
+	 * @param e what went wrong
+	 */
+	private void failed(Exception e){
+		this.failure = e;
+		Metrics.failed(this.source, e);
+	}
+	
+	/**
+	 * Whether one code for the whole file beats the block container. Already compressed or random bytes
+	 * come out bigger, near eight bit codes and a table on top, and are better off in a block container
+	 * where each block is stored or coded (or cut into pieces) as it suits. The container has a header,
+	 * block headers and an index of its own, so it is only taken when even with every block stored it is
+	 * smaller than the stream, which keeps small files in the stream.
+	 * @param code the file's code
+	 * @param frequencies how often each symbol appears
+	 * @param length the length of the file
+	 * @param header the bytes the stream's container header takes
+	 * @return true if the stream's header, table and bits take no more bytes than the stored container
+	 */
+	private static boolean pays(CodeTable code, long[] frequencies, long length, int header){
+		long stream = header + HuffmanUtilities.encodedSize(code, frequencies);
+		return length == 0 || stream <= BlockCodec.storedSize(length, BlockCodec.DEFAULT_BLOCK_SIZE);
+	}
+	
+	/**
+	 * Encodes in a single pass through an AdaptiveOutputStream. The source is only read once, a buffer at
+	 * a time, so standard input works as well as a file.
+	 */
+	public void encodeAdaptive(){
+		InputStream in = null;
+		try{
+			in = this.source.equals(STANDARD) ? System.in : Files.newInputStream(Paths.get(this.source));
+			OutputStream out = this.destination.equals(STANDARD) ? System.out : new ChannelOutputStream(this.destination);
+			AdaptiveOutputStream adaptiveOut = new AdaptiveOutputStream(out);
+			byte[] buffer = new byte[AdaptiveOutputStream.SEGMENT_SIZE];
+			int n;
+			while((n = in.read(buffer)) >= 0){
+				adaptiveOut.write(buffer, 0, n);
+				// whoever reads standard output gets each segment as soon as it is encoded, not when
+				// System.out's buffer happens to fill
+				if(out == System.out){
+					adaptiveOut.flush();
 				}
 			}
-	    // file does not exist
-		} catch (FileNotFoundException e) {
-            System.out.println("File does not exist...");
+			// standard output stays open, a file is closed
+			if(out == System.out){
+				adaptiveOut.finish();
+			}else{
+				adaptiveOut.close();
+			}
+		// file does not exist
+		} catch (NoSuchFileException e) {
+			System.err.println("File does not exist...");
 			e.printStackTrace();
+			this.failed(e);
 		} catch (IOException e) {
-			System.out.println("IO Error has occured...");
+			System.err.println("IO Error has occured...");
 			e.printStackTrace();
+			this.failed(e);
+		} finally {
+			try{
+				if(in != null && in != System.in){
+					in.close();
+				}
+			}catch(IOException e){
+				e.printStackTrace();
+			}
 		}
-		// and we finally return the map.
-		return returnFrequencyMap;
+	}
+	
+	/**
+	 * Writes a block container. The blocks are encoded in parallel on the fork/join pool, each task
+	 * takes its own slice of the mapped source, and the encoded blocks are written out in order as they finish.
+	 * Only a few blocks per thread are in flight at any time so memory use does not grow with the file.
+	 */
+	public void encodeBlocks(){
+		try(MappedInput input = new MappedInput(this.source);
+			DataOutputStream out = new DataOutputStream(new ChannelOutputStream(this.destination))){
+			
+			long length = input.size();
+			int blockSize = this.blockSize > 0 ? this.blockSize : BlockCodec.DEFAULT_BLOCK_SIZE;
+			int blockCount = (int) ((length + blockSize - 1) / blockSize);
+			BlockCodec.writeHeader(out, blockSize, blockCount, length);
+			
+			// where each block ends up in the container and in the decoded file
+			long[] offsets = new long[blockCount];
+			long[] outputOffsets = new long[blockCount];
+			long position = BlockCodec.HEADER_SIZE;
+			
+			// keep the pool busy but do not read the whole file in at once
+			ForkJoinPool pool = ForkJoinPool.commonPool();
+			int window = pool.getParallelism() * 2;
+			ArrayDeque<ForkJoinTask<byte[]>> pending = new ArrayDeque<>();
+			
+			int next = 0;
+			for(int i = 0; i < blockCount; i++){
+				// start as many blocks as the window allows
+				while(next < blockCount && pending.size() < window){
+					long start = (long) next * blockSize;
+					int size = (int) Math.min(blockSize, length - start);
+					int mode = this.context ? BlockCodec.CONTEXT : BlockCodec.defaultMode(size);
+					pending.add(pool.submit(new BlockTask(input, start, size, this.maxLength, mode)));
+					next++;
+				}
+				// and write the oldest one once it is done
+				byte[] block = pending.poll().join();
+				offsets[i] = position;
+				outputOffsets[i] = (long) i * blockSize;
+				out.write(block);
+				position += block.length;
+			}
+			BlockCodec.writeIndex(out, offsets, outputOffsets, position);
+		} catch (IOException | UncheckedIOException e) {
+			System.err.println("IO Error has occured...");
+			e.printStackTrace();
+			this.failed(e);
+		}
+	}
+	
+	/**
+	 * Writes the same block container as encodeBlocks through a Pipeline, reading and writing on their
+	 * own threads while the blocks in between are encoded.
+	 */
+	public void encodePipelined(){
+		int blockSize = this.blockSize > 0 ? this.blockSize : BlockCodec.DEFAULT_BLOCK_SIZE;
+		try{
+			Pipeline.encode(this.source, this.destination, blockSize, this.maxLength, this.context);
+		} catch (IOException e) {
+			System.err.println("IO Error has occured...");
+			e.printStackTrace();
+			this.failed(e);
+		}
+	}
+	
+	/**
+	 * Encodes one block of the source.
+	 */
+	private static class BlockTask extends RecursiveTask<byte[]> {
+		
+		private static final long serialVersionUID = 1L;
+		
+		// the mapped source file
+		private final MappedInput input;
+		// where the block starts in the source
+		private final long start;
+		// how many bytes are in it
+		private final int length;
+		// the longest code allowed
+		private final int maxLength;
+		// how to lay the block out
+		private final int mode;
+		
+		BlockTask(MappedInput input, long start, int length, int maxLength, int mode){
+			this.input = input;
+			this.start = start;
+			this.length = length;
+			this.maxLength = maxLength;
+			this.mode = mode;
+		}
+		
+		@Override
+		protected byte[] compute(){
+			return BlockCodec.encodeBlock(this.input.slice(this.start, this.length), this.maxLength, this.mode);
+		}
+	}
+	
+	/**
+	 * Prints the counters of every phase that has run to standard error (standard output may be the data).
+	 */
+	protected static void printStatistics(){
+		for(PhaseStatistics statistics: Metrics.get().getPhases().values()){
+			System.err.println(statistics);
+		}
+	}
+	
+	/**
+	 * The size of a file, for the metrics.
+	 * @param file the file
+	 * @return its size, 0 for standard input or output or a file that is not there
+	 */
+	protected static long fileSize(String file){
+		try{
+			return file.equals(STANDARD) ? 0 : Files.size(Paths.get(file));
+		}catch(IOException e){
+			return 0;
+		}
+	}
+	
+	/**
+	 * This will count how often every character in the file appears. The counts are a long[] indexed
+	 * by the character, and the chunks of the mapped file are counted in parallel.
+	 * 
+	 * @param input the mapped source file to read
+	 * @return the source file converted to frequency counts
+	 */
+	protected long[] readInputMap(MappedInput input){
+		// UTF-8: Eight-bit UCS Trasformation Format (https:docs.oracle.com/javase/7/docs/api/java/nio/charset/Charset.html)
+		long[] frequencies = Histogram.countChars(input);
+		// add the EOF character and its frequency ... better only be one (encodeStream checks the text had none).
+		frequencies[0x00]++;
+		// and we finally return the counts.
+		return frequencies;
 	}
 }
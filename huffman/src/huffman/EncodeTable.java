@@ -0,0 +1,36 @@
+package huffman;
+
+import java.io.IOException;
+
+/**
+ * The encoder's side of a canonical Huffman code: the code and its length for every symbol, kept in
+ * arrays indexed by the symbol itself. Looking a symbol up is two array reads and the code goes straight
+ * into a BitWriter.
+ */
+public class EncodeTable {
+
+	// the code of each symbol (right-aligned)
+	protected long[] code;
+
+	// the length of each symbol's code, 0 for symbols that do not appear
+	protected byte[] length;
+
+	/**
+	 * Builds the table for a code, sharing its arrays.
+	 * @param table the code
+	 */
+	public EncodeTable(CodeTable table){
+		this.code = table.code;
+		this.length = table.length;
+	}
+
+	/**
+	 * Writes a symbol's code.
+	 * @param writer where the code goes
+	 * @param symbol the symbol to write
+	 * @throws IOException if the writer can not write
+	 */
+	protected void write(BitWriter writer, int symbol) throws IOException{
+		writer.write(this.code[symbol], this.length[symbol]);
+	}
+}
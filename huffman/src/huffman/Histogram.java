@@ -0,0 +1,180 @@
+package huffman;
+
+import java.nio.ByteBuffer;
+import java.nio.CharBuffer;
+import java.nio.charset.CharsetDecoder;
+import java.nio.charset.CodingErrorAction;
+import java.nio.charset.StandardCharsets;
+import java.util.Arrays;
+import java.util.concurrent.ForkJoinTask;
+import java.util.concurrent.RecursiveTask;
+
+/**
+ * Static methods that count how often each symbol appears. Counts live in a long[] indexed by the
+ * symbol, so counting one is a single increment with no boxing and no hashing.
+ *
+ * Bytes are counted four at a time into four separate tables that are added together at the end.
+ * Runs of the same byte (very common in text) would otherwise make every increment wait on the one
+ * before it to be stored, with four tables neighbouring increments never touch the same slot.
+ *
+ * Mapped files can be counted in parallel, each chunk of the file is counted on its own thread into
+ * its own table and the tables are added together.
+ */
+public class Histogram {
+
+	// how many symbols a byte can be
+	protected static final int BYTES = 256;
+
+	// how many symbols a char can be
+	protected static final int CHARS = Character.MAX_VALUE + 1;
+
+	/**
+	 * Prevent construction since all methods will be static
+	 */
+	private Histogram() {}
+
+	/**
+	 * Counts bytes one at a time.
+	 * @param bytes the bytes, from 0 to the limit
+	 * @param counts the table to add to
+	 */
+	protected static void countBytes(ByteBuffer bytes, long[] counts){
+		int length = bytes.limit();
+		for(int i = 0; i < length; i++){
+			counts[bytes.get(i) & 0xFF]++;
+		}
+	}
+
+	/**
+	 * Counts bytes four at a time into four tables, then adds the tables together.
+	 * @param bytes the bytes, from 0 to the limit
+	 * @param counts the table to add to
+	 */
+	protected static void countBytesUnrolled(ByteBuffer bytes, long[] counts){
+		// four tables one after another, ints are plenty for a buffer and half the cache lines
+		countBytesUnrolled(bytes, 0, bytes.limit(), counts, new int[4 * BYTES]);
+	}
+
+	/**
+	 * Counts some of a buffer's bytes four at a time, with four tables the caller owns.
+	 * @param bytes the bytes
+	 * @param from the first byte to count
+	 * @param to one past the last byte to count
+	 * @param counts the table to add to
+	 * @param tables scratch space for the four tables, 4 * BYTES ints (cleared first)
+	 */
+	protected static void countBytesUnrolled(ByteBuffer bytes, int from, int to, long[] counts, int[] tables){
+		Arrays.fill(tables, 0);
+		int i = from;
+		for(; i + 4 <= to; i += 4){
+			tables[bytes.get(i) & 0xFF]++;
+			tables[BYTES + (bytes.get(i + 1) & 0xFF)]++;
+			tables[2 * BYTES + (bytes.get(i + 2) & 0xFF)]++;
+			tables[3 * BYTES + (bytes.get(i + 3) & 0xFF)]++;
+		}
+		// the few left over
+		for(; i < to; i++){
+			tables[bytes.get(i) & 0xFF]++;
+		}
+		for(int symbol = 0; symbol < BYTES; symbol++){
+			counts[symbol] += (long) tables[symbol] + tables[BYTES + symbol] + tables[2 * BYTES + symbol] + tables[3 * BYTES + symbol];
+		}
+	}
+
+	/**
+	 * Counts the bytes of a mapped file, a chunk per task on the fork/join pool.
+	 * @param input the mapped file
+	 * @return how often each byte appears
+	 */
+	protected static long[] countBytes(MappedInput input){
+		return countChunks(input, false);
+	}
+
+	/**
+	 * Counts the UTF-8 characters of a mapped file, a chunk per task on the fork/join pool. Chunks end on
+	 * a character so this counts exactly the characters the file's reader returns.
+	 * @param input the mapped file
+	 * @return how often each char appears
+	 */
+	protected static long[] countChars(MappedInput input){
+		return countChunks(input, true);
+	}
+
+	/**
+	 * Counts every chunk of a file in parallel and adds the tables together.
+	 * @param input the mapped file
+	 * @param chars whether to count UTF-8 characters rather than bytes
+	 * @return the counts
+	 */
+	private static long[] countChunks(MappedInput input, boolean chars){
+		long start = System.nanoTime();
+		ChunkTask[] tasks = new ChunkTask[input.chunkCount()];
+		for(int i = 0; i < tasks.length; i++){
+			tasks[i] = new ChunkTask(input, i, chars);
+		}
+		ForkJoinTask.invokeAll(tasks);
+
+		long[] counts = new long[chars ? CHARS : BYTES];
+		for(ChunkTask task: tasks){
+			long[] chunkCounts = task.join();
+			for(int symbol = 0; symbol < counts.length; symbol++){
+				counts[symbol] += chunkCounts[symbol];
+			}
+		}
+		long symbols = 0;
+		for(long count: counts){
+			symbols += count;
+		}
+		Metrics.record(Phase.HISTOGRAM, start, input.size(), 0, symbols);
+		return counts;
+	}
+
+	/**
+	 * Counts a single chunk of a mapped file into its own table.
+	 */
+	private static class ChunkTask extends RecursiveTask<long[]> {
+
+		private static final long serialVersionUID = 1L;
+
+		// the file, which chunk and what to count
+		private final MappedInput input;
+		private final int chunk;
+		private final boolean chars;
+
+		ChunkTask(MappedInput input, int chunk, boolean chars){
+			this.input = input;
+			this.chunk = chunk;
+			this.chars = chars;
+		}
+
+		@Override
+		protected long[] compute(){
+			ByteBuffer bytes = this.input.chunk(this.chunk);
+			if(!this.chars){
+				long[] counts = new long[BYTES];
+				ByteKernel.create().count(bytes, 0, bytes.limit(), counts);
+				return counts;
+			}
+
+			// decode the chunk the same way the reader does, a buffer at a time
+			long[] counts = new long[CHARS];
+			CharsetDecoder decoder = StandardCharsets.UTF_8.newDecoder()
+				.onMalformedInput(CodingErrorAction.REPLACE)
+				.onUnmappableCharacter(CodingErrorAction.REPLACE);
+			CharBuffer out = CharBuffer.allocate(BitWriter.BUFFER_SIZE);
+			boolean flushed = false;
+			while(!flushed){
+				decoder.decode(bytes, out, true);
+				if(!bytes.hasRemaining()){
+					flushed = decoder.flush(out).isUnderflow();
+				}
+				out.flip();
+				while(out.hasRemaining()){
+					counts[out.get()]++;
+				}
+				out.clear();
+			}
+			return counts;
+		}
+	}
+}
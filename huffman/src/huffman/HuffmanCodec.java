@@ -0,0 +1,168 @@
+package huffman;
+
+import java.io.ByteArrayOutputStream;
+import java.io.DataOutputStream;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.util.concurrent.ForkJoinTask;
+import java.util.concurrent.RecursiveTask;
+
+/**
+ * Encodes and decodes in memory, no files involved. The encoded bytes are a block container (see
+ * BlockCodec), exactly what Encode writes with -blocks, so a buffer encoded here can be saved and
+ * decoded by Decode and the other way around. Blocks are encoded on the fork/join pool.
+ *
+ * For data that arrives a piece at a time use HuffmanOutputStream and HuffmanInputStream instead, and
+ * to encode and decode over and over into arrays you own without allocating, HuffmanEncoder and
+ * HuffmanDecoder.
+ */
+public class HuffmanCodec {
+
+	/**
+	 * Prevent construction since all methods will be static
+	 */
+	private HuffmanCodec() {}
+
+	/**
+	 * Encodes a byte array.
+	 * @param data the bytes to encode
+	 * @return the encoded bytes
+	 */
+	public static byte[] encode(byte[] data){
+		return encode(data, 0, data.length);
+	}
+
+	/**
+	 * Encodes part of a byte array.
+	 * @param data the array holding the bytes to encode
+	 * @param offset where they start
+	 * @param length how many there are
+	 * @return the encoded bytes
+	 */
+	public static byte[] encode(byte[] data, int offset, int length){
+		return encode(ByteBuffer.wrap(data, offset, length), BlockCodec.DEFAULT_BLOCK_SIZE, 0);
+	}
+
+	/**
+	 * Encodes the remaining bytes of a buffer, heap or direct. The buffer's position is moved to its limit.
+	 * @param data the bytes to encode
+	 * @return the encoded bytes, in a heap buffer ready to read
+	 */
+	public static ByteBuffer encode(ByteBuffer data){
+		byte[] encoded = encode(data, BlockCodec.DEFAULT_BLOCK_SIZE, 0);
+		return ByteBuffer.wrap(encoded);
+	}
+
+	/**
+	 * Encodes the remaining bytes of a buffer into a block container.
+	 * @param data the bytes to encode, its position is moved to its limit
+	 * @param blockSize how many bytes go in each block
+	 * @param maxLength the longest code allowed, 0 for no limit
+	 * @return the encoded bytes
+	 */
+	public static byte[] encode(ByteBuffer data, int blockSize, int maxLength){
+		if(blockSize <= 0 || blockSize > BlockCodec.MAX_BLOCK_SIZE){
+			throw new IllegalArgumentException("Block size must be 1 to " + BlockCodec.MAX_BLOCK_SIZE + ": " + blockSize);
+		}
+		int length = data.remaining();
+		int blockCount = (int) (((long) length + blockSize - 1) / blockSize);
+
+		// every block is encoded from its own slice of the buffer
+		BlockTask[] tasks = new BlockTask[blockCount];
+		for(int i = 0; i < blockCount; i++){
+			int start = data.position() + i * blockSize;
+			ByteBuffer block = data.duplicate();
+			block.position(start).limit(start + Math.min(blockSize, length - i * blockSize));
+			tasks[i] = new BlockTask(block.slice(), maxLength);
+		}
+		ForkJoinTask.invokeAll(tasks);
+		data.position(data.limit());
+
+		try{
+			ByteArrayOutputStream bytes = new ByteArrayOutputStream(length / 2 + BlockCodec.HEADER_SIZE + 16 * blockCount + 8);
+			DataOutputStream out = new DataOutputStream(bytes);
+			BlockCodec.writeHeader(out, blockSize, blockCount, length);
+
+			// the blocks in order, remembering where each one goes
+			long[] offsets = new long[blockCount];
+			long[] outputOffsets = new long[blockCount];
+			for(int i = 0; i < blockCount; i++){
+				offsets[i] = out.size();
+				outputOffsets[i] = (long) i * blockSize;
+				out.write(tasks[i].join());
+			}
+			BlockCodec.writeIndex(out, offsets, outputOffsets, out.size());
+			return bytes.toByteArray();
+		}catch(IOException e){
+			// a ByteArrayOutputStream does not throw
+			throw new IllegalStateException(e);
+		}
+	}
+
+	/**
+	 * Decodes a byte array.
+	 * @param data the encoded bytes
+	 * @return the decoded bytes
+	 * @throws IOException if the bytes are not a block container or are corrupt
+	 */
+	public static byte[] decode(byte[] data) throws IOException{
+		return decode(data, 0, data.length);
+	}
+
+	/**
+	 * Decodes the remaining bytes of a buffer. The buffer's position is moved to its limit.
+	 * @param data the encoded bytes
+	 * @return the decoded bytes, in a heap buffer ready to read
+	 * @throws IOException if the bytes are not a block container or are corrupt
+	 */
+	public static ByteBuffer decode(ByteBuffer data) throws IOException{
+		byte[] decoded;
+		if(data.hasArray()){
+			decoded = decode(data.array(), data.arrayOffset() + data.position(), data.remaining());
+			data.position(data.limit());
+		}else{
+			// direct buffers have to be copied out first
+			byte[] encoded = new byte[data.remaining()];
+			data.get(encoded);
+			decoded = decode(encoded);
+		}
+		return ByteBuffer.wrap(decoded);
+	}
+
+	/**
+	 * Decodes part of a byte array, a block after another. The blocks are read in place, nothing is
+	 * copied but the decoded bytes.
+	 * @param data the array holding the encoded bytes
+	 * @param offset where they start
+	 * @param length how many there are
+	 * @return the decoded bytes
+	 * @throws IOException if the bytes are not a block container or are corrupt
+	 */
+	public static byte[] decode(byte[] data, int offset, int length) throws IOException{
+		byte[] decoded = new byte[HuffmanDecoder.decodedLength(data, offset, length)];
+		new HuffmanDecoder().decode(data, offset, length, decoded, 0);
+		return decoded;
+	}
+
+	/**
+	 * Encodes one block of the buffer.
+	 */
+	private static class BlockTask extends RecursiveTask<byte[]> {
+
+		private static final long serialVersionUID = 1L;
+
+		// the block and the code length limit
+		private final ByteBuffer block;
+		private final int maxLength;
+
+		BlockTask(ByteBuffer block, int maxLength){
+			this.block = block;
+			this.maxLength = maxLength;
+		}
+
+		@Override
+		protected byte[] compute(){
+			return BlockCodec.encodeBlock(this.block, this.maxLength);
+		}
+	}
+}
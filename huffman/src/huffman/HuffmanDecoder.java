@@ -0,0 +1,305 @@
+package huffman;
+
+import java.io.ByteArrayInputStream;
+import java.io.DataInputStream;
+import java.io.IOException;
+
+/**
+ * A decoder that can be used over and over without allocating, the other half of HuffmanEncoder. It
+ * keeps a code table with room for every byte, a decode table whose arrays are reused whenever they
+ * are big enough, a bit reader and the four streams' positions, and decodes into an array the caller
+ * owns. Once it has seen its biggest table, decode allocates nothing.
+ *
+ * It reads any block container (HuffmanCodec, HuffmanEncoder or Encode -blocks). Context blocks are
+ * decoded too, but their models are built afresh for every block.
+ *
+ * A decoder is not thread safe. Keep one per thread (forThread hands each thread its own) or pool them.
+ */
+public class HuffmanDecoder {
+
+	// each thread's decoder
+	private static final ThreadLocal<HuffmanDecoder> DECODERS = ThreadLocal.withInitial(HuffmanDecoder::new);
+
+	// the block's code and its decode table, set afresh for every block
+	private final CodeTable code = new CodeTable(Histogram.BYTES);
+	private final DecodeTable table = new DecodeTable(this.code);
+
+	// reads the table and the scratch space its symbols and lengths go in
+	private final HuffmanUtilities.TableReader tableReader = new HuffmanUtilities.TableReader();
+	private final int[] symbols = new int[Histogram.BYTES];
+	private final int[] lengths = new int[Histogram.BYTES];
+
+	// reads the bits
+	private final BitReader reader = new BitReader(new byte[0]);
+
+	// for four streams: where each one is in the block and where its bytes go
+	private final long[] positions = new long[BlockCodec.STREAMS];
+	private final int[] ends = new int[BlockCodec.STREAMS];
+	private final int[] outOffsets = new int[BlockCodec.STREAMS];
+	private final int[] outEnds = new int[BlockCodec.STREAMS];
+
+	/**
+	 * The calling thread's decoder, made the first time it asks.
+	 * @return the decoder
+	 */
+	public static HuffmanDecoder forThread(){
+		return DECODERS.get();
+	}
+
+	/**
+	 * How many bytes a block container decodes to, from its header, so the caller can size the array.
+	 * The callers allocate what this says, so the whole header is checked against the bytes there are
+	 * first: every block has a header of its own and the blocks have to hold the whole length.
+	 * @param data the array holding the container
+	 * @param offset where it starts
+	 * @param length how many bytes it takes
+	 * @return the decoded length
+	 * @throws IOException if the bytes are not a block container, its header is corrupt or it decodes to
+	 * more than an array holds
+	 */
+	public static int decodedLength(byte[] data, int offset, int length) throws IOException{
+		if(length < BlockCodec.HEADER_SIZE || data[offset] != Container.MARKER || data[offset + 1] != Container.BLOCKS){
+			throw new IOException("Not a block container");
+		}
+		int blockSize = BlockCodec.getInt(data, offset + 2);
+		int blockCount = BlockCodec.getInt(data, offset + 6);
+		long rawLength = BlockCodec.getLong(data, offset + 10);
+		if(blockSize <= 0 || blockSize > BlockCodec.MAX_BLOCK_SIZE || blockCount < 0
+				|| blockCount > (length - BlockCodec.HEADER_SIZE) / BlockCodec.BLOCK_HEADER_SIZE
+				|| rawLength < 0 || rawLength > (long) blockCount * blockSize){
+			throw new IOException("Corrupt container header");
+		}
+		if(rawLength > Integer.MAX_VALUE - 8){
+			throw new IOException("Container too large to decode in memory: " + rawLength);
+		}
+		return (int) rawLength;
+	}
+
+	/**
+	 * Decodes a block container into an array, a block after another. The blocks are read in place.
+	 * @param data the array holding the container
+	 * @param offset where it starts
+	 * @param length how many bytes it takes
+	 * @param out where the decoded bytes go, at least decodedLength bytes from outOffset
+	 * @param outOffset where the first decoded byte goes
+	 * @return how many bytes were decoded
+	 * @throws IOException if the bytes are not a block container or are corrupt
+	 * @throws IllegalArgumentException if the array is too small
+	 */
+	public int decode(byte[] data, int offset, int length, byte[] out, int outOffset) throws IOException{
+		int rawLength = decodedLength(data, offset, length);
+		if(outOffset < 0 || out.length - outOffset < rawLength){
+			throw new IllegalArgumentException("Decoding needs " + rawLength + " bytes of room");
+		}
+		// decodedLength has checked the header
+		int blockSize = BlockCodec.getInt(data, offset + 2);
+		int blockCount = BlockCodec.getInt(data, offset + 6);
+
+		int position = offset + BlockCodec.HEADER_SIZE;
+		int end = offset + length;
+		int decoded = 0;
+		for(int i = 0; i < blockCount; i++){
+			if(end - position < BlockCodec.BLOCK_HEADER_SIZE){
+				throw new IOException("Corrupt block header");
+			}
+			int blockLength = BlockCodec.getInt(data, position);
+			int encodedLength = BlockCodec.getInt(data, position + 4);
+			position += BlockCodec.BLOCK_HEADER_SIZE;
+			if(blockLength < 0 || blockLength > blockSize || blockLength > rawLength - decoded
+					|| encodedLength < 0 || encodedLength > end - position){
+				throw new IOException("Corrupt block header");
+			}
+			this.decodeBlock(data, position, encodedLength, out, outOffset + decoded, blockLength);
+			position += encodedLength;
+			decoded += blockLength;
+		}
+		if(decoded != rawLength){
+			throw new IOException("Corrupt container: blocks do not add up to its length");
+		}
+		return rawLength;
+	}
+
+	/**
+	 * Decodes one block (everything after the block header).
+	 *
+	 * @param block the bytes holding the mode, table and encoded bits
+	 * @param offset where the mode starts
+	 * @param length how many bytes the mode, table and bits take up
+	 * @param out where the decoded bytes go
+	 * @param outOffset where the first decoded byte goes
+	 * @param rawLength how many bytes the block decodes to
+	 * @throws IOException if the block is corrupt
+	 */
+	protected void decodeBlock(byte[] block, int offset, int length, byte[] out, int outOffset, int rawLength) throws IOException{
+		if(length < 1){
+			throw new IOException("Corrupt block: no mode");
+		}
+		int mode = block[offset] & 0xFF;
+		// a stored block is the bytes themselves, a split one is blocks of its own
+		if(mode == BlockCodec.STORED){
+			if(length - 1 != rawLength){
+				throw new IOException("Corrupt block: stored bytes do not match its length");
+			}
+			long start = System.nanoTime();
+			System.arraycopy(block, offset + 1, out, outOffset, rawLength);
+			Metrics.record(Phase.DECODE, start, rawLength, rawLength, rawLength);
+			return;
+		}
+		if(mode == BlockCodec.SPLIT){
+			this.readPieces(block, offset + 1, length - 1, out, outOffset, rawLength);
+			return;
+		}
+
+		// read the table back
+		long start = System.nanoTime();
+		ContextModel model = null;
+		int tableLength;
+		if(mode == BlockCodec.CONTEXT){
+			DataInputStream tableIn = new DataInputStream(new ByteArrayInputStream(block, offset + 1, length - 1));
+			model = ContextModel.readHeader(tableIn);
+			tableLength = length - tableIn.available();
+		}else{
+			this.tableReader.reset(block, offset + 1, length - 1);
+			HuffmanUtilities.readByteCode(this.tableReader, this.code, this.symbols, this.lengths);
+			this.table.set(this.code);
+			tableLength = this.tableReader.position() - offset;
+		}
+		Metrics.record(Phase.HEADER_READ, start, tableLength, 0, model != null ? model.symbols() : this.code.size());
+		start = System.nanoTime();
+
+		// then the bits, we know exactly how many symbols there are
+		switch(mode){
+		case BlockCodec.SINGLE_STREAM:
+			this.reader.reset(block, offset + tableLength, length - tableLength);
+			this.readStream(out, outOffset, outOffset + rawLength);
+			break;
+		case BlockCodec.FOUR_STREAMS:
+			this.readStreams(block, offset + tableLength, length - tableLength, out, outOffset, rawLength);
+			break;
+		case BlockCodec.CONTEXT:
+			this.reader.reset(block, offset + tableLength, length - tableLength);
+			model.decode(this.reader, out, outOffset, outOffset + rawLength);
+			break;
+		default:
+			throw new IOException("Corrupt block: unknown mode " + mode);
+		}
+		Metrics.record(Phase.DECODE, start, length - tableLength, rawLength, rawLength);
+	}
+
+	/**
+	 * Decodes the pieces of a split block, each one a block with its own header.
+	 * @param block the bytes holding the pieces
+	 * @param offset where the first piece's header starts
+	 * @param length how many bytes the pieces take up
+	 * @param out where the decoded bytes go
+	 * @param outOffset where the first decoded byte goes
+	 * @param rawLength how many bytes the pieces decode to between them
+	 * @throws IOException if the block is corrupt
+	 */
+	private void readPieces(byte[] block, int offset, int length, byte[] out, int outOffset, int rawLength) throws IOException{
+		int position = offset;
+		int end = offset + length;
+		int decoded = 0;
+		while(position < end){
+			if(end - position < BlockCodec.BLOCK_HEADER_SIZE + 1){
+				throw new IOException("Corrupt block: bad piece header");
+			}
+			int pieceLength = BlockCodec.getInt(block, position);
+			int encodedLength = BlockCodec.getInt(block, position + 4);
+			position += BlockCodec.BLOCK_HEADER_SIZE;
+			if(pieceLength < 0 || pieceLength > rawLength - decoded || encodedLength < 1 || encodedLength > end - position
+					|| (block[position] & 0xFF) == BlockCodec.SPLIT){
+				throw new IOException("Corrupt block: bad piece header");
+			}
+			this.decodeBlock(block, position, encodedLength, out, outOffset + decoded, pieceLength);
+			position += encodedLength;
+			decoded += pieceLength;
+		}
+		if(decoded != rawLength){
+			throw new IOException("Corrupt block: pieces do not add up to its length");
+		}
+	}
+
+	/**
+	 * Decodes one stream from the reader.
+	 * @param out where the decoded bytes go
+	 * @param from where the first decoded byte goes
+	 * @param to one past where the last decoded byte goes
+	 * @throws IOException if the stream is corrupt
+	 */
+	private void readStream(byte[] out, int from, int to) throws IOException{
+		DecodeTable table = this.table;
+		BitReader reader = this.reader;
+		for(int i = from; i < to; i++){
+			int symbol = table.decode(reader);
+			if(symbol < 0){
+				throw new IOException("Corrupt block: bits are not a code");
+			}
+			out[i] = (byte) symbol;
+		}
+		if(reader.exhausted()){
+			throw new IOException("Corrupt block: ran out of bits");
+		}
+	}
+
+	/**
+	 * Decodes a block written as four streams. DecodeTable.decodeStreams steps through all four at once
+	 * for as long as it can, then each stream's tail (the last few bytes of bits, and the extra symbols
+	 * the first three have when the block does not split evenly) is finished with the bit reader.
+	 * @param block the bytes holding the jump table and streams
+	 * @param offset where the jump table starts
+	 * @param length how many bytes the jump table and streams take up
+	 * @param out where the decoded bytes go
+	 * @param outOffset where the first decoded byte goes
+	 * @param rawLength how many bytes the block decodes to
+	 * @throws IOException if the block is corrupt
+	 */
+	private void readStreams(byte[] block, int offset, int length, byte[] out, int outOffset, int rawLength) throws IOException{
+		int streams = BlockCodec.STREAMS;
+		long[] positions = this.positions;
+		int[] ends = this.ends;
+		int[] outOffsets = this.outOffsets;
+		int[] outEnds = this.outEnds;
+
+		// where each stream starts and ends
+		int jumpLength = 4 * (streams - 1);
+		if(length < jumpLength){
+			throw new IOException("Corrupt block: no jump table");
+		}
+		int position = offset + jumpLength;
+		int remaining = length - jumpLength;
+		for(int stream = 0; stream < streams; stream++){
+			int streamLength = stream < streams - 1 ? BlockCodec.getInt(block, offset + 4 * stream) : remaining;
+			if(streamLength < 0 || streamLength > remaining){
+				throw new IOException("Corrupt block: bad jump table");
+			}
+			positions[stream] = 8L * position;
+			position += streamLength;
+			ends[stream] = position;
+			remaining -= streamLength;
+		}
+
+		// where each stream's bytes go, a quarter of the block each with the last one short
+		int quarter = (rawLength + streams - 1) / streams;
+		for(int stream = 0; stream < streams; stream++){
+			outOffsets[stream] = outOffset + Math.min(stream * quarter, rawLength);
+			outEnds[stream] = outOffset + Math.min((stream + 1) * quarter, rawLength);
+		}
+
+		// all four together while they last
+		int decoded = this.table.decodeStreams(block, positions, ends, out, outOffsets, outEnds[streams - 1] - outOffsets[streams - 1]);
+		if(decoded < 0){
+			throw new IOException("Corrupt block: bits are not a code");
+		}
+
+		// then the tails one at a time
+		for(int stream = 0; stream < streams; stream++){
+			int start = (int) (positions[stream] >>> 3);
+			int skip = (int) (positions[stream] & 7);
+			this.reader.reset(block, start, ends[stream] - start);
+			this.reader.peek(skip);
+			this.reader.skip(skip);
+			this.readStream(out, outOffsets[stream] + decoded, outEnds[stream]);
+		}
+	}
+}
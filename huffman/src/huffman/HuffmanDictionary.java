@@ -0,0 +1,282 @@
+package huffman;
+
+import java.io.ByteArrayOutputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.nio.ByteBuffer;
+
+/**
+ * A code trained once on sample data and shared by many small messages. A message encoded with a
+ * dictionary carries only the dictionary's id and its length instead of a table, and decoding it needs
+ * no table to be read or built, so messages of a few hundred bytes are not swamped by their headers.
+ *
+ * Every byte value gets a code (each count starts at one) so a message can hold bytes the samples never
+ * had, they just cost more bits. Codes are limited to MAX_LENGTH bits.
+ *
+ * A message looks like this:
+ *     - 0x00 then 'D'
+ *     - the dictionary id and the message length, each as a variable length int (7 bits a byte, low
+ *       bits first, the top bit set on every byte but the last) so small values take a byte or two
+ *     - the codes for every byte packed into bytes
+ *
+ * A saved dictionary is its id (int) followed by its table as writeTable writes it.
+ */
+public class HuffmanDictionary {
+
+	// the longest code a dictionary uses
+	protected static final int MAX_LENGTH = 15;
+
+	// the id messages refer to the dictionary by
+	private int id;
+
+	// the canonical codes and the tables built from them
+	private CodeTable codes;
+	private EncodeTable encodeTable;
+	private DecodeTable decodeTable;
+
+	/**
+	 * Builds the tables for a set of codes.
+	 * @param id the dictionary's id
+	 * @param codes the canonical code, one per byte value
+	 * @throws IllegalArgumentException if the id is negative
+	 */
+	private HuffmanDictionary(int id, CodeTable codes){
+		checkId(id);
+		this.id = id;
+		this.codes = codes;
+		this.encodeTable = codes.encodeTable();
+		this.decodeTable = codes.decodeTable();
+	}
+
+	/**
+	 * Trains a dictionary on some sample messages.
+	 * @param id the id to give it
+	 * @param samples messages like the ones it will encode
+	 * @return the dictionary
+	 * @throws IllegalArgumentException if the id is negative
+	 */
+	public static HuffmanDictionary train(int id, byte[]... samples){
+		checkId(id);
+		long[] frequencies = new long[Histogram.BYTES];
+		for(byte[] sample: samples){
+			Histogram.countBytesUnrolled(ByteBuffer.wrap(sample), frequencies);
+		}
+		return train(id, frequencies);
+	}
+
+	/**
+	 * Trains a dictionary on a sample corpus file.
+	 * @param id the id to give it
+	 * @param corpus a file of data like the messages it will encode
+	 * @return the dictionary
+	 * @throws IOException if the file can not be read
+	 * @throws IllegalArgumentException if the id is negative
+	 */
+	public static HuffmanDictionary train(int id, String corpus) throws IOException{
+		checkId(id);
+		try(MappedInput input = new MappedInput(corpus)){
+			return train(id, Histogram.countBytes(input));
+		}
+	}
+
+	/**
+	 * Checks an id. Messages carry it as a variable length int, which is only read back if it is not
+	 * negative, so a negative one would make messages nothing can decode.
+	 * @param id the id to give a dictionary
+	 * @throws IllegalArgumentException if it is negative
+	 */
+	private static void checkId(int id){
+		if(id < 0){
+			throw new IllegalArgumentException("Dictionary id must not be negative: " + id);
+		}
+	}
+
+	/**
+	 * Builds a dictionary from byte counts.
+	 * @param id the id to give it
+	 * @param frequencies how often each byte appeared in the samples
+	 * @return the dictionary
+	 */
+	private static HuffmanDictionary train(int id, long[] frequencies){
+		// every byte needs a code, even ones the samples never had
+		long[] counts = new long[Histogram.BYTES];
+		for(int symbol = 0; symbol < counts.length; symbol++){
+			counts[symbol] = frequencies[symbol] + 1;
+		}
+		return new HuffmanDictionary(id, HuffmanUtilities.huffmanCodes(counts, MAX_LENGTH));
+	}
+
+	/**
+	 * The id messages refer to this dictionary by.
+	 * @return the id
+	 */
+	public int id(){
+		return this.id;
+	}
+
+	/**
+	 * Encodes a message.
+	 * @param message the bytes to encode
+	 * @return the encoded message
+	 */
+	public byte[] encode(byte[] message){
+		return this.encode(message, 0, message.length);
+	}
+
+	/**
+	 * Encodes part of an array as a message.
+	 * @param message the array holding the bytes to encode
+	 * @param offset where they start
+	 * @param length how many there are
+	 * @return the encoded message
+	 */
+	public byte[] encode(byte[] message, int offset, int length){
+		try{
+			// sized for the message so short messages do not drag a big buffer around
+			ByteArrayOutputStream bytes = new ByteArrayOutputStream(length + 16);
+			bytes.write(Container.MARKER);
+			bytes.write(Container.DICTIONARY);
+			writeVarint(bytes, this.id);
+			writeVarint(bytes, length);
+
+			BitWriter writer = new BitWriter(bytes, Math.min(BitWriter.BUFFER_SIZE, (length + 7) & ~3));
+			for(int i = offset; i < offset + length; i++){
+				this.encodeTable.write(writer, message[i] & 0xFF);
+			}
+			writer.flush();
+			return bytes.toByteArray();
+		}catch(IOException e){
+			// a ByteArrayOutputStream does not throw
+			throw new IllegalStateException(e);
+		}
+	}
+
+	/**
+	 * Decodes a message encoded with this dictionary.
+	 * @param message the encoded message
+	 * @return the decoded bytes
+	 * @throws IOException if the message is corrupt or was encoded with another dictionary
+	 */
+	public byte[] decode(byte[] message) throws IOException{
+		ByteBuffer in = ByteBuffer.wrap(message);
+		int messageId = readId(in);
+		if(messageId != this.id){
+			throw new IOException("Message was encoded with dictionary " + messageId + ", not " + this.id);
+		}
+		int length = readVarint(in);
+		// every byte has a code of at least a bit, so a length the bits left can not hold is corrupt
+		if(length > 8L * in.remaining()){
+			throw new IOException("Corrupt message: " + length + " bytes do not fit in " + in.remaining() + " encoded");
+		}
+
+		// we know exactly how many bytes there are
+		byte[] decoded = new byte[length];
+		BitReader reader = new BitReader(message, in.position(), in.remaining());
+		for(int i = 0; i < length; i++){
+			int symbol = this.decodeTable.decode(reader);
+			if(symbol < 0){
+				throw new IOException("Corrupt message: bits are not a code");
+			}
+			decoded[i] = (byte) symbol;
+		}
+		if(reader.exhausted()){
+			throw new IOException("Corrupt message: ran out of bits");
+		}
+		return decoded;
+	}
+
+	/**
+	 * Writes the dictionary out.
+	 * @param out where to write it
+	 * @throws IOException if it can not be written
+	 */
+	public void save(OutputStream out) throws IOException{
+		DataOutputStream dataOut = new DataOutputStream(out);
+		dataOut.writeInt(this.id);
+		BitWriter writer = new BitWriter(dataOut, 4 * Histogram.BYTES);
+		HuffmanUtilities.writeTable(writer, this.codes);
+		writer.flush();
+	}
+
+	/**
+	 * Reads a dictionary written by save and builds its tables.
+	 * @param in where to read it
+	 * @return the dictionary
+	 * @throws IOException if it can not be read or is corrupt
+	 */
+	public static HuffmanDictionary load(InputStream in) throws IOException{
+		DataInputStream dataIn = new DataInputStream(in);
+		int id = dataIn.readInt();
+		if(id < 0){
+			throw new IOException("Corrupt dictionary: id " + id);
+		}
+		CodeTable codes = HuffmanUtilities.readTable(dataIn, Histogram.BYTES);
+		if(codes.size() != Histogram.BYTES){
+			throw new IOException("Corrupt dictionary: " + codes.size() + " codes rather than one per byte");
+		}
+		return new HuffmanDictionary(id, codes);
+	}
+
+	/**
+	 * Reads the dictionary id from the front of a message.
+	 * @param message the encoded message
+	 * @return the id of the dictionary it was encoded with
+	 * @throws IOException if it is not a dictionary message
+	 */
+	protected static int messageId(byte[] message) throws IOException{
+		return readId(ByteBuffer.wrap(message));
+	}
+
+	/**
+	 * Reads the marker, kind and dictionary id of a message.
+	 * @param in the message
+	 * @return the dictionary id
+	 * @throws IOException if it is not a dictionary message
+	 */
+	private static int readId(ByteBuffer in) throws IOException{
+		if(in.remaining() < 2 || in.get() != Container.MARKER || in.get() != Container.DICTIONARY){
+			throw new IOException("Not a dictionary message");
+		}
+		return readVarint(in);
+	}
+
+	/**
+	 * Writes a variable length int, 7 bits a byte.
+	 * @param out where to write it
+	 * @param value the int, not negative
+	 */
+	private static void writeVarint(ByteArrayOutputStream out, int value){
+		while((value & ~0x7F) != 0){
+			out.write((value & 0x7F) | 0x80);
+			value >>>= 7;
+		}
+		out.write(value);
+	}
+
+	/**
+	 * Reads a variable length int written by writeVarint.
+	 * @param in where to read it
+	 * @return the int
+	 * @throws IOException if it runs off the end or is too long
+	 */
+	private static int readVarint(ByteBuffer in) throws IOException{
+		int value = 0;
+		for(int shift = 0; shift < 32; shift += 7){
+			if(!in.hasRemaining()){
+				throw new IOException("Corrupt message header");
+			}
+			int b = in.get() & 0xFF;
+			value |= (b & 0x7F) << shift;
+			if((b & 0x80) == 0){
+				if(value < 0){
+					throw new IOException("Corrupt message header");
+				}
+				return value;
+			}
+		}
+		throw new IOException("Corrupt message header");
+	}
+}
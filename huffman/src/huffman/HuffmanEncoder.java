@@ -0,0 +1,357 @@
+package huffman;
+
+import java.io.IOException;
+import java.nio.ByteBuffer;
+
+/**
+ * An encoder that can be used over and over without allocating. HuffmanCodec builds a new histogram,
+ * code, table and output buffer for every call, which is fine for files but shows up as garbage (and
+ * GC pauses) on a request path that encodes thousands of small messages a second. An encoder keeps all
+ * of those between calls instead: the histogram tables, the code lengths and the scratch space they are
+ * worked out in, the code table and a bit writer that writes straight into an array the caller owns.
+ * Once it has run, encode allocates nothing.
+ *
+ * The output is the same block container HuffmanCodec writes, the blocks encoded one after another on
+ * the calling thread, so HuffmanCodec.decode, Decode and HuffmanDecoder all read it.
+ *
+ * An encoder is not thread safe. Keep one per thread (forThread hands each thread its own) or pool
+ * them. A code length limit works the same but still allocates, package-merge builds its own lists.
+ */
+public class HuffmanEncoder {
+
+	// the most a block can take on top of its bytes: block header, mode, table and jump table (the
+	// bits themselves are never more than a byte a symbol, a Huffman code is never worse than eight
+	// bits for everything). A piece that would not come out smaller is stored, a block header and mode
+	// on top of its bytes, so even a block cut into BlockSplitter.MAX_PIECES pieces stays inside this.
+	private static final int BLOCK_OVERHEAD = BlockCodec.BLOCK_HEADER_SIZE + 1 + HuffmanUtilities.MAX_TABLE_SIZE + 4 * (BlockCodec.STREAMS - 1);
+
+	// every block's index entry (where it starts here and in the decoded bytes)
+	private static final int INDEX_ENTRY_SIZE = 8 + 8;
+
+	// each thread's encoder
+	private static final ThreadLocal<HuffmanEncoder> ENCODERS = ThreadLocal.withInitial(HuffmanEncoder::new);
+
+	// how many bytes go in each block and the longest code allowed, 0 for no limit
+	private final int blockSize;
+	private final int maxLength;
+
+	// where the block is cut and each piece's counts
+	private final int[] cuts = new int[BlockSplitter.MAX_PIECES + 1];
+	private final long[][] counts = new long[BlockSplitter.MAX_PIECES][Histogram.BYTES];
+
+	// counts the bytes and writes their codes, with vectors when the JVM has them
+	private final ByteKernel kernel = ByteKernel.create();
+
+	// the code length of each byte and the scratch space it is worked out in
+	private final int[] lengths = new int[Histogram.BYTES];
+	private final int[] symbols = new int[Histogram.BYTES];
+	private final long[] weights = new long[Histogram.BYTES];
+
+	// the bytes that appear and their lengths, in order, to set the code from
+	private final int[] symbolLengths = new int[Histogram.BYTES];
+
+	// the block's code, set afresh for every block, and the encoder's view of it
+	private final CodeTable code = new CodeTable(Histogram.BYTES);
+	private final EncodeTable table = this.code.encodeTable();
+
+	// writes into the caller's array
+	private final BitWriter writer = new BitWriter(new byte[0], 0);
+
+	/**
+	 * Creates an encoder with the default block size and no code length limit, like HuffmanCodec.
+	 */
+	public HuffmanEncoder(){
+		this(BlockCodec.DEFAULT_BLOCK_SIZE, 0);
+	}
+
+	/**
+	 * Creates an encoder.
+	 * @param blockSize how many bytes go in each block
+	 * @param maxLength the longest code allowed, 0 for no limit
+	 */
+	public HuffmanEncoder(int blockSize, int maxLength){
+		if(blockSize <= 0 || blockSize > BlockCodec.MAX_BLOCK_SIZE){
+			throw new IllegalArgumentException("Block size must be 1 to " + BlockCodec.MAX_BLOCK_SIZE + ": " + blockSize);
+		}
+		if(maxLength < 0 || maxLength > DecodeTable.MAX_LENGTH){
+			throw new IllegalArgumentException("Maximum code length must be 0 to " + DecodeTable.MAX_LENGTH + ": " + maxLength);
+		}
+		this.blockSize = blockSize;
+		this.maxLength = maxLength;
+	}
+
+	/**
+	 * The calling thread's encoder (default block size, no limit), made the first time it asks.
+	 * @return the encoder
+	 */
+	public static HuffmanEncoder forThread(){
+		return ENCODERS.get();
+	}
+
+	/**
+	 * How big an array encode needs, whatever the bytes are.
+	 * @param length how many bytes will be encoded
+	 * @return the most bytes the container can take
+	 * @throws IllegalArgumentException if that is more than an array can hold
+	 */
+	public int maxEncodedLength(int length){
+		long blockCount = ((long) length + this.blockSize - 1) / this.blockSize;
+		long size = BlockCodec.HEADER_SIZE + blockCount * (BLOCK_OVERHEAD + INDEX_ENTRY_SIZE) + length + 8;
+		if(size > Integer.MAX_VALUE - 8){
+			throw new IllegalArgumentException(length + " bytes are too many to encode into one array");
+		}
+		return (int) size;
+	}
+
+	/**
+	 * How big an array encodeBlock needs for a block, whatever its bytes are.
+	 * @param length how many bytes are in the block
+	 * @return the most bytes the block can take
+	 */
+	protected static int maxBlockLength(int length){
+		return BLOCK_OVERHEAD + length;
+	}
+
+	/**
+	 * Encodes the remaining bytes of a buffer, heap or direct, into an array. The buffer is read with
+	 * absolute gets, only its position is moved (to its limit).
+	 * @param data the bytes to encode
+	 * @param out where the block container goes, at least maxEncodedLength bytes from offset
+	 * @param offset where the container starts
+	 * @return how many bytes the container takes
+	 * @throws IllegalArgumentException if the array is too small
+	 */
+	public int encode(ByteBuffer data, byte[] out, int offset){
+		int length = data.remaining();
+		int needed = this.maxEncodedLength(length);
+		if(offset < 0 || out.length - offset < needed){
+			throw new IllegalArgumentException("Encoding " + length + " bytes needs " + needed + " bytes of room");
+		}
+		int blockCount = (int) (((long) length + this.blockSize - 1) / this.blockSize);
+		out[offset] = Container.MARKER;
+		out[offset + 1] = Container.BLOCKS;
+		BlockCodec.putInt(out, offset + 2, this.blockSize);
+		BlockCodec.putInt(out, offset + 6, blockCount);
+		BlockCodec.putLong(out, offset + 10, length);
+
+		// the blocks in order
+		int position = offset + BlockCodec.HEADER_SIZE;
+		int start = data.position();
+		for(int i = 0; i < blockCount; i++){
+			int from = start + i * this.blockSize;
+			int to = from + Math.min(this.blockSize, length - i * this.blockSize);
+			position += this.encodeBlock(data, from, to, this.maxLength, BlockCodec.defaultMode(to - from), out, position);
+		}
+		data.position(data.limit());
+
+		// the index, each block's start found from the lengths in the block headers
+		int indexOffset = position - offset;
+		int block = offset + BlockCodec.HEADER_SIZE;
+		for(int i = 0; i < blockCount; i++){
+			BlockCodec.putLong(out, position, block - offset);
+			BlockCodec.putLong(out, position + 8, (long) i * this.blockSize);
+			position += INDEX_ENTRY_SIZE;
+			block += BlockCodec.BLOCK_HEADER_SIZE + BlockCodec.getInt(out, block + 4);
+		}
+		BlockCodec.putLong(out, position, indexOffset);
+		return position + 8 - offset;
+	}
+
+	/**
+	 * Encodes one block into an array, block header and all (see BlockCodec for the layout). Where the
+	 * block's statistics change it is cut into pieces (BlockSplitter) written as a SPLIT block, and
+	 * each piece that coding would not make smaller is stored as it is.
+	 * @param data the bytes holding the block
+	 * @param from where the block starts
+	 * @param to one past where it ends
+	 * @param maxLength the longest code allowed, 0 for no limit
+	 * @param mode SINGLE_STREAM, FOUR_STREAMS or CONTEXT (which falls back to the default mode when an
+	 *        order-1 model does not make the block smaller)
+	 * @param out where the block goes, with room for maxBlockLength bytes
+	 * @param offset where the block starts
+	 * @return how many bytes the block takes
+	 */
+	protected int encodeBlock(ByteBuffer data, int from, int to, int maxLength, int mode, byte[] out, int offset){
+		int length = to - from;
+		// count the bytes, a piece at a time if the block is cut
+		long start = System.nanoTime();
+		int pieces = BlockSplitter.split(data, from, to, this.cuts, this.counts, this.kernel);
+		Metrics.record(Phase.HISTOGRAM, start, length, 0, length);
+		if(pieces == 1){
+			return this.encodePiece(data, from, to, this.counts[0], maxLength, mode, out, offset);
+		}
+
+		// the pieces one after another behind the SPLIT mode, each a block of its own
+		int position = offset + BlockCodec.BLOCK_HEADER_SIZE;
+		out[position++] = (byte) BlockCodec.SPLIT;
+		for(int piece = 0; piece < pieces; piece++){
+			int pieceFrom = this.cuts[piece];
+			int pieceTo = this.cuts[piece + 1];
+			int pieceMode = mode == BlockCodec.CONTEXT ? mode : BlockCodec.defaultMode(pieceTo - pieceFrom);
+			position += this.encodePiece(data, pieceFrom, pieceTo, this.counts[piece], maxLength, pieceMode, out, position);
+		}
+		BlockCodec.putInt(out, offset, length);
+		BlockCodec.putInt(out, offset + 4, position - offset - BlockCodec.BLOCK_HEADER_SIZE);
+		return position - offset;
+	}
+
+	/**
+	 * Encodes a block (or a piece of one) that has been counted, block header and all. The code is
+	 * built first and the size it would come to worked out from the counts, if that is no smaller than
+	 * the bytes themselves they are stored and never run through the code.
+	 * @param data the bytes holding the block
+	 * @param from where the block starts
+	 * @param to one past where it ends
+	 * @param frequencies how often each byte appears in it
+	 * @param maxLength the longest code allowed, 0 for no limit
+	 * @param mode SINGLE_STREAM, FOUR_STREAMS or CONTEXT
+	 * @param out where the block goes
+	 * @param offset where the block starts
+	 * @return how many bytes the block takes
+	 */
+	private int encodePiece(ByteBuffer data, int from, int to, long[] frequencies, int maxLength, int mode, byte[] out, int offset){
+		int length = to - from;
+		this.buildCode(frequencies, maxLength);
+		long size = HuffmanUtilities.encodedSize(this.code, frequencies);
+
+		// an order-1 model has to beat the plain code, header and all
+		ContextModel model = null;
+		ByteBuffer block = null;
+		if(mode == BlockCodec.CONTEXT){
+			block = data.duplicate();
+			block.position(from).limit(to);
+			block = block.slice();
+			model = ContextModel.build(block, maxLength);
+			long modelSize = model.size(block);
+			if(modelSize >= size){
+				model = null;
+				mode = BlockCodec.defaultMode(length);
+			}else{
+				size = modelSize;
+			}
+		}
+		// four streams add the jump table and may each end on a part byte
+		if(mode == BlockCodec.FOUR_STREAMS){
+			size += 4 * (BlockCodec.STREAMS - 1) + BlockCodec.STREAMS - 1;
+		}
+
+		// not worth coding, the bytes go in as they are
+		if(size >= length){
+			long start = System.nanoTime();
+			out[offset + BlockCodec.BLOCK_HEADER_SIZE] = (byte) BlockCodec.STORED;
+			data.get(from, out, offset + BlockCodec.BLOCK_HEADER_SIZE + 1, length);
+			BlockCodec.putInt(out, offset, length);
+			BlockCodec.putInt(out, offset + 4, 1 + length);
+			Metrics.record(Phase.ENCODE, start, length, length, length);
+			return BlockCodec.BLOCK_HEADER_SIZE + 1 + length;
+		}
+
+		try{
+			// the block header goes in last, once we know how long the block is
+			BitWriter writer = this.writer;
+			writer.reset(out, offset + BlockCodec.BLOCK_HEADER_SIZE);
+			writer.write(mode, 8);
+
+			// the table (or the model's tables)
+			long start = System.nanoTime();
+			if(model != null){
+				model.writeHeader(writer);
+			}else{
+				HuffmanUtilities.writeTable(writer, this.code);
+			}
+			long header = writer.bytesWritten() - 1;
+			Metrics.record(Phase.HEADER_WRITE, start, 0, header, model != null ? model.symbols() : this.code.size());
+
+			// and the bits
+			start = System.nanoTime();
+			if(model != null){
+				model.encode(writer, block);
+				writer.flush();
+			}else if(mode == BlockCodec.FOUR_STREAMS){
+				this.writeStreams(data, from, to, out);
+			}else{
+				this.writeStream(data, from, to);
+				writer.flush();
+			}
+			int blockLength = (int) writer.bytesWritten();
+			Metrics.record(Phase.ENCODE, start, length, blockLength - 1 - header, length);
+
+			BlockCodec.putInt(out, offset, length);
+			BlockCodec.putInt(out, offset + 4, blockLength);
+			return BlockCodec.BLOCK_HEADER_SIZE + blockLength;
+		}catch(IOException e){
+			// the array has room for the worst case, the writer only throws when it runs out
+			throw new IllegalStateException(e);
+		}
+	}
+
+	/**
+	 * Works out the block's code from its counts, into the arrays we keep.
+	 * @param frequencies how often each byte appears in the block
+	 * @param maxLength the longest code allowed, 0 for no limit
+	 */
+	private void buildCode(long[] frequencies, int maxLength){
+		long start = System.nanoTime();
+		if(maxLength > 0){
+			System.arraycopy(CodeLengths.limitedLengths(frequencies, maxLength), 0, this.lengths, 0, Histogram.BYTES);
+		}else{
+			CodeLengths.huffmanLengths(frequencies, this.lengths, this.symbols, this.weights);
+		}
+		Metrics.record(Phase.TREE, start, 0, 0, 0);
+
+		// every byte that appears gets the code for its length
+		start = System.nanoTime();
+		int size = 0;
+		for(int symbol = 0; symbol < Histogram.BYTES; symbol++){
+			if(frequencies[symbol] > 0){
+				this.symbols[size] = symbol;
+				this.symbolLengths[size++] = this.lengths[symbol];
+			}
+		}
+		this.code.set(this.symbols, this.symbolLengths, size);
+		Metrics.record(Phase.CODES, start, 0, 0, size);
+	}
+
+	/**
+	 * Encodes some of a block's bytes one code after another.
+	 * @param data the bytes holding the block
+	 * @param from the first byte to encode
+	 * @param to one past the last byte to encode
+	 * @throws IOException if the writer runs out of room
+	 */
+	private void writeStream(ByteBuffer data, int from, int to) throws IOException{
+		this.kernel.encode(data, from, to, this.table, this.writer);
+	}
+
+	/**
+	 * Encodes a block as four streams, a quarter of the block each (the last may be shorter). Room is
+	 * left for the jump table, each stream is written and flushed straight after the one before it and
+	 * the jump table is filled in at the end, so nothing is copied.
+	 * @param data the bytes holding the block
+	 * @param from where the block starts
+	 * @param to one past where it ends
+	 * @param out the array the writer writes into
+	 * @throws IOException if the writer runs out of room
+	 */
+	private void writeStreams(ByteBuffer data, int from, int to, byte[] out) throws IOException{
+		BitWriter writer = this.writer;
+		int length = to - from;
+		int quarter = (length + BlockCodec.STREAMS - 1) / BlockCodec.STREAMS;
+		writer.flush();
+		int jumpTable = writer.position();
+		for(int stream = 0; stream < BlockCodec.STREAMS - 1; stream++){
+			writer.write(0, 32);
+		}
+		int streamStart = writer.position();
+		for(int stream = 0; stream < BlockCodec.STREAMS; stream++){
+			int start = Math.min(stream * quarter, length);
+			this.writeStream(data, from + start, from + Math.min(start + quarter, length));
+			writer.flush();
+			// the last stream's length is whatever is left of the block
+			if(stream < BlockCodec.STREAMS - 1){
+				BlockCodec.putInt(out, jumpTable + 4 * stream, writer.position() - streamStart);
+				streamStart = writer.position();
+			}
+		}
+	}
+}
@@ -0,0 +1,157 @@
+package huffman;
+
+import java.io.DataInputStream;
+import java.io.EOFException;
+import java.io.FilterInputStream;
+import java.io.IOException;
+import java.io.InputStream;
+
+/**
+ * An input stream that decodes what a HuffmanOutputStream wrote. Frames are read and decoded one at a
+ * time as the bytes are asked for, so only one block is ever held in memory.
+ */
+public class HuffmanInputStream extends FilterInputStream {
+
+	// where the encoded frames come from
+	private DataInputStream data;
+
+	// the largest a frame can decode to
+	private int blockSize;
+
+	// the current frame, encoded and decoded (both reused from frame to frame)
+	private byte[] frame = new byte[0];
+	private byte[] block;
+
+	// decodes every frame
+	private HuffmanDecoder decoder = new HuffmanDecoder();
+
+	// how much of the decoded frame there is and how much has been read
+	private int count;
+	private int position;
+
+	// whether the end marker has been read
+	private boolean finished;
+
+	/**
+	 * Creates a stream, reading the header straight away.
+	 * @param in the encoded bytes
+	 * @throws IOException if they do not start with a stream header
+	 */
+	public HuffmanInputStream(InputStream in) throws IOException{
+		this(new DataInputStream(in));
+	}
+
+	/**
+	 * Reads the header through the given data stream.
+	 * @param data the encoded bytes
+	 * @throws IOException if they do not start with a stream header
+	 */
+	private HuffmanInputStream(DataInputStream data) throws IOException{
+		this(data, readHeader(data));
+	}
+
+	/**
+	 * Creates a stream whose header has already been read (Decode reads the marker and kind itself).
+	 * @param data the encoded bytes, just after the header
+	 * @param blockSize the block size from the header
+	 * @throws IOException if the block size is not positive or bigger than a container's can be
+	 */
+	protected HuffmanInputStream(DataInputStream data, int blockSize) throws IOException{
+		super(data);
+		if(blockSize <= 0 || blockSize > BlockCodec.MAX_BLOCK_SIZE){
+			throw new IOException("Corrupt stream header");
+		}
+		this.data = data;
+		this.blockSize = blockSize;
+		this.block = new byte[blockSize];
+	}
+
+	@Override
+	public int read() throws IOException{
+		if(this.position == this.count && !this.nextFrame()){
+			return -1;
+		}
+		return this.block[this.position++] & 0xFF;
+	}
+
+	@Override
+	public int read(byte[] bytes, int offset, int length) throws IOException{
+		if(length == 0){
+			return 0;
+		}
+		if(this.position == this.count && !this.nextFrame()){
+			return -1;
+		}
+		int n = Math.min(length, this.count - this.position);
+		System.arraycopy(this.block, this.position, bytes, offset, n);
+		this.position += n;
+		return n;
+	}
+
+	@Override
+	public int available(){
+		return this.count - this.position;
+	}
+
+	@Override
+	public long skip(long n) throws IOException{
+		long skipped = 0;
+		while(skipped < n && (this.position < this.count || this.nextFrame())){
+			int step = (int) Math.min(n - skipped, this.count - this.position);
+			this.position += step;
+			skipped += step;
+		}
+		return skipped;
+	}
+
+	@Override
+	public boolean markSupported(){
+		return false;
+	}
+
+	/**
+	 * Reads and decodes the next frame.
+	 * @return false at the end marker
+	 * @throws IOException if the stream is corrupt or ends without an end marker
+	 */
+	private boolean nextFrame() throws IOException{
+		if(this.finished){
+			return false;
+		}
+		int rawLength = this.data.readInt();
+		if(rawLength == 0){
+			this.finished = true;
+			return false;
+		}
+		int length = this.data.readInt();
+		// no encoder writes a frame longer than this, a longer one would have us allocate whatever it says
+		if(rawLength < 0 || rawLength > this.blockSize || length < 0 || length > HuffmanEncoder.maxBlockLength(this.blockSize)){
+			throw new IOException("Corrupt frame header");
+		}
+		if(this.frame.length < length){
+			this.frame = new byte[length];
+		}
+		this.data.readFully(this.frame, 0, length);
+		this.decoder.decodeBlock(this.frame, 0, length, this.block, 0, rawLength);
+		this.count = rawLength;
+		this.position = 0;
+		return true;
+	}
+
+	/**
+	 * Reads the stream header.
+	 * @param data the encoded bytes
+	 * @return the block size
+	 * @throws IOException if they do not start with a stream header
+	 */
+	private static int readHeader(DataInputStream data) throws IOException{
+		try{
+			if(data.readUnsignedByte() != Container.MARKER || data.readUnsignedByte() != Container.STREAM){
+				throw new IOException("Not a Huffman stream");
+			}
+			return data.readInt();
+		}catch(EOFException e){
+			throw new IOException("Not a Huffman stream", e);
+		}
+	}
+}
@@ -0,0 +1,28 @@
+package huffman;
+
+/**
+ * Told about every phase as it finishes, for logging, tracing or metrics of your own.
+ * Register one with Metrics.addListener. Listeners are called on whichever thread did the work (block
+ * containers use many) so they have to be thread safe, and they should be quick since the next phase
+ * waits for them.
+ */
+public interface HuffmanListener {
+
+	/**
+	 * A phase has finished.
+	 * @param phase which phase
+	 * @param nanos how long it took
+	 * @param bytesIn how many bytes it read (0 where that does not apply)
+	 * @param bytesOut how many bytes it wrote (0 where that does not apply)
+	 * @param symbols how many symbols it handled
+	 */
+	void phaseCompleted(Phase phase, long nanos, long bytesIn, long bytesOut, long symbols);
+
+	/**
+	 * A file could not be encoded or decoded.
+	 * @param file the file
+	 * @param cause what went wrong
+	 */
+	default void failed(String file, Exception cause){
+	}
+}
@@ -0,0 +1,161 @@
+package huffman;
+
+import java.io.DataOutputStream;
+import java.io.FilterOutputStream;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.nio.ByteBuffer;
+
+/**
+ * An output stream that encodes everything written to it. Bytes are collected into a block and every
+ * full block is encoded with its own code (see BlockCodec) and written out as a frame, so memory use is
+ * one block no matter how much goes through and the other end can start decoding before we are done.
+ *
+ * The stream looks like this:
+ *     - 0x00 then 'S' and the block size (int)
+ *     - frames, each one an encoded block exactly as it sits in a block container
+ *     - a raw length of 0 (int) to mark the end
+ *
+ * flush() encodes whatever is in the current block as a short frame so nothing sits in the buffer,
+ * useful on a socket but it costs a table per flush. close() (or finish()) writes the end marker, after
+ * that writes throw and flushes do nothing.
+ */
+public class HuffmanOutputStream extends FilterOutputStream {
+
+	// where the encoded frames go
+	private DataOutputStream data;
+
+	// the block being collected, and a buffer over it for the encoder
+	private byte[] block;
+	private ByteBuffer blockBuffer;
+
+	// encodes every frame into the same array
+	private HuffmanEncoder encoder = new HuffmanEncoder();
+	private byte[] frame;
+
+	// how many bytes of it are used
+	private int count;
+
+	// the longest code allowed, 0 for no limit
+	private int maxLength;
+
+	// whether the header has gone out and whether the end marker has
+	private boolean started;
+	private boolean finished;
+
+	/**
+	 * Creates a stream with the default block size
+	 * @param out where the encoded bytes go
+	 */
+	public HuffmanOutputStream(OutputStream out){
+		this(out, BlockCodec.DEFAULT_BLOCK_SIZE, 0);
+	}
+
+	/**
+	 * Creates a stream
+	 * @param out where the encoded bytes go
+	 * @param blockSize how many bytes to collect before encoding them as a frame
+	 * @param maxLength the longest code allowed, 0 for no limit
+	 */
+	public HuffmanOutputStream(OutputStream out, int blockSize, int maxLength){
+		super(out);
+		if(blockSize <= 0 || blockSize > BlockCodec.MAX_BLOCK_SIZE){
+			throw new IllegalArgumentException("Block size must be 1 to " + BlockCodec.MAX_BLOCK_SIZE + ": " + blockSize);
+		}
+		this.data = new DataOutputStream(out);
+		this.block = new byte[blockSize];
+		this.blockBuffer = ByteBuffer.wrap(this.block);
+		this.frame = new byte[HuffmanEncoder.maxBlockLength(blockSize)];
+		this.maxLength = maxLength;
+	}
+
+	@Override
+	public void write(int b) throws IOException{
+		this.ensureOpen();
+		if(this.count == this.block.length){
+			this.writeFrame();
+		}
+		this.block[this.count++] = (byte) b;
+	}
+
+	@Override
+	public void write(byte[] bytes, int offset, int length) throws IOException{
+		this.ensureOpen();
+		while(length > 0){
+			if(this.count == this.block.length){
+				this.writeFrame();
+			}
+			int n = Math.min(length, this.block.length - this.count);
+			System.arraycopy(bytes, offset, this.block, this.count, n);
+			this.count += n;
+			offset += n;
+			length -= n;
+		}
+	}
+
+	/**
+	 * Encodes whatever has been written so far and flushes the stream below. Once the stream is finished
+	 * everything has gone out already, so this does nothing (wrappers often flush before they close).
+	 */
+	@Override
+	public void flush() throws IOException{
+		if(this.finished){
+			return;
+		}
+		this.writeFrame();
+		this.data.flush();
+	}
+
+	/**
+	 * Encodes whatever is left and writes the end marker, without closing the stream below.
+	 * Nothing can be written after this.
+	 * @throws IOException if the stream below can not be written to
+	 */
+	public void finish() throws IOException{
+		if(this.finished){
+			return;
+		}
+		this.writeFrame();
+		this.data.writeInt(0);
+		this.data.flush();
+		this.finished = true;
+	}
+
+	@Override
+	public void close() throws IOException{
+		try{
+			this.finish();
+		}finally{
+			this.out.close();
+		}
+	}
+
+	/**
+	 * Writes the header if it has not gone out yet, then encodes the current block as a frame if there
+	 * is anything in it.
+	 * @throws IOException if the stream below can not be written to
+	 */
+	private void writeFrame() throws IOException{
+		if(!this.started){
+			this.data.write(Container.MARKER);
+			this.data.write(Container.STREAM);
+			this.data.writeInt(this.block.length);
+			this.started = true;
+		}
+		if(this.count > 0){
+			int length = this.encoder.encodeBlock(this.blockBuffer, 0, this.count, this.maxLength, BlockCodec.defaultMode(this.count), this.frame, 0);
+			this.data.write(this.frame, 0, length);
+			this.count = 0;
+		}
+	}
+
+	/**
+	 * Makes sure the end marker has not been written yet.
+	 * @throws IOException if it has
+	 */
+	private void ensureOpen() throws IOException{
+		if(this.finished){
+			throw new IOException("Stream finished");
+		}
+	}
+}
@@ -1,18 +1,15 @@
 package huffman;
 
-import java.io.BufferedReader;
-import java.io.File;
-import java.io.FileInputStream;
-import java.io.FileOutputStream;
+import java.io.DataInput;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.EOFException;
 import java.io.IOException;
-import java.io.InputStreamReader;
-import java.util.ArrayList;
-import java.util.Collections;
-import java.util.Comparator;
-import java.util.HashMap;
-import java.util.List;
-import java.util.Map;
-import java.util.PriorityQueue;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.io.Reader;
+import java.io.UncheckedIOException;
+import java.nio.ByteBuffer;
 
 /**
  * A class that will contain static methods for performing functions related to Huffman's Algorithm.
@@ -28,392 +25,616 @@ public class HuffmanUtilities {
 	 */
 	private HuffmanUtilities() {}
 	
-	/**
-	 * Given a map, it will convert it to an array list of Huffman which is a wrapper class
-	 * that contains a char, its length and its binary representation
-	 * This will sort the tree in reverse order. The expected tree is bottom up which would 
-	 * put the last character first, however here we put the last character last.
-	 * Reason being - sanity while coding, I have adjusted for this throughout. 
-	 * 
-	 * @param unSortedMap the map to be sorted and converted to ArrayList<Huffman>
-	 * @return a sorted ArrayList<Huffman> to perform Huffman Algorithms on
-	 */
-	protected static ArrayList<Huffman> sortInputMap(Map<Character, Integer> unSortedMap){
-		
-		// the array that we are going to fill and return
-		ArrayList<Huffman> returnArray = new ArrayList<>();
-		
-		// first we need to fill the list
-		for(Map.Entry<Character,Integer> map: unSortedMap.entrySet()){
-			returnArray.add(new Huffman(map.getKey(), map.getValue()));
-		}
-		
-		// pass our list into our sort-method and then return it!
-		return sortHuffmanList(returnArray);
-        
- /////////////////// WE HAVE FACTORED OUT SOME CODE HERE ///////////////////////////////
- /////////////////// IF OUR RETURN FAILS - COPY PASTE   ///////////////////////////////
- /////////////////// FROM OUR sortHuffmanList(list)    ////////////////////////////////
-	}
+	// more bytes than any byte table takes (256 symbols as (symbol, length) pairs and a count)
+	protected static final int MAX_TABLE_SIZE = 1 + 2 * Histogram.BYTES;
 	
 	/**
-	 * This will sort an array of our wrapper class <Huffman> this used
-	 * to be contained within sortInputMap(Map<Character, Integer>) but
-	 * seems we will need it for Encode as well as Decode, so rather then
-	 * have two methods contain a sorting algorithm we factored it out
+	 * Runs all the steps that turn frequency counts into canonical codes: work out the lengths and build
+	 * the code table. The same steps Encode runs, for callers that just want the codes.
 	 * 
-	 * Based on our sorting rules:
-	 *     Shorter lengths to right
-	 *     Tie breaker is char smaller char to left
-	 *     
-	 * @params list<Huffman> our unsorted wrapper class
-	 * @return list<Huffman> our sorted wrapper class    
-	 */
-	protected static ArrayList<Huffman> sortHuffmanList(ArrayList<Huffman> unSortedHuffman){
-
-		// we will sort based on characters
-        Collections.sort(unSortedHuffman, new Comparator<Huffman>(){
-
-			@Override
-			public int compare(Huffman one, Huffman two) {
-				
-				// first we need to know if the lengths are different
-				if(one.length < two.length){
-					return 1;
-				}else if(one.length > two.length){
-					return -1;
-				}else{ // else we have a tie, break with char value
-				    if(one.character < two.character){
-				    	return -1;
-				    }else if(one.character > two.character){
-				    	return 1;
-				    }
-				}
-				// of course if nothing else ...
-				return 0;
-			}
-        });
-        // well that is misleading since it is now sorted :)
-        return unSortedHuffman;
-	}
-	
-	/**
-	 * This will pad a binary string with zeros. It appends the zero to the front
-	 * so not sure if "pad left" is a better name or not?
-	 * @param toPad the sting we want to pad
-	 * @param length how long the string should be
-	 * @return the string padded to the length desired OR the original string if equal or less than length
-	 */
-	protected static String padRight(String toPad, int length){
-		
-		// simple loop that puts 0 in front of the incoming string
-		for(int i = toPad.length(); i < length; i ++){
-			toPad = "0" + toPad;
-		}
-		// the string to return
-		return toPad;
-		
-	}
-	
-	/**
-	 * Given List<Huffman> it will canonicalize that list. This is based off the Huffman Algorithm
-	 * if the List<Huffman> is sorted according to these rules but reversed: 
-	 *        - Longer codes will be to the left of the shorter codes
-	 *        - Matching codes the character will decided with a coming before b
-	 *        
-	 * Our incoming list must meet the following criteria based off the sortInputMap(Map<Character, Integer>) method
-	 * provided within this class. That sorts the Huffman Tree in such a way that bottom up is reversed IE:
-	 *        - Given sample0.huf with equal lengths and input null, a, b, c
-	 *        - A bottom up approach would sort this list c, b, a, null however we our bottom up is actually top-down
-	 *        - I did this for readability (and sanity) while sorting and creating the Canonical Huffman code here.
-	 *        
-	 * TODO: maybe use the node class and put those into a list rather than a separate class Huffman.
-	 *        
-	 * @param list the list to canonicalize
-	 * @return a canonicalized list of Huffman codes
+	 * @param frequencies how often each character appears, indexed by the character
+	 * @return the canonical code
 	 */
-	protected static List<Huffman> canonicalize(List<Huffman> list){
-		
-		//  our starting point: 0
-		int number = 0;
-		// loop through our list assigning binary values to characters
-		for(int i = 0; i < list.size(); i++){
-			// the binaryString to assign
-			String binaryString = Integer.toBinaryString(number);
-			// the length of this char (IE: how long binary)
-			int length = list.get(i).length;
-			// pad the binary string with 0's as needed to get the true number
-			binaryString = HuffmanUtilities.padRight(binaryString, length);
-			// assign the binary value
-			list.get(i).binary = binaryString;
-			
-			// first we need to ensure the next loop will happen
-			// if so, we can shift (or add) to the binary number
-			// TODO: I do not like this check -- must be a better way but I keep throwing nulls because
-			//       I am checking the next element which could not exist.
-			if(i + 1 < list.size()){
-				int nextLen = list.get(i + 1).length;
-				number = (number + 1) >> (length - nextLen);
-			}
-		}
-		// finally return the canonicalized list
-		return list;
+	protected static CodeTable huffmanCodes(long[] frequencies){
+		return huffmanCodes(frequencies, 0);
 	}
 	
 	/**
-	 * This creates a look-up map from our List<Huffman> which could also be looked at like our list of nodes.
-	 * Should probably just use nodes rather than Huffman, however we never actually build a tree Per Se.
-	 * Anyway, given the binary representation to create a key, we assign that a code. Using a lookup map is faster.
+	 * Turns frequency counts into canonical codes no longer than maxLength bits. The lengths come straight
+	 * from the counts (see CodeLengths), with package-merge when there is a limit, then the code table is
+	 * built from them.
 	 * 
-	 * @param list to be placed in a look-up map.
-	 * @return A map to be used to look up codes
+	 * @param frequencies how often each character appears, indexed by the character
+	 * @param maxLength the longest code allowed, 0 for no limit (plain Huffman lengths)
+	 * @return the canonical code, its alphabet as big as the counts
 	 */
-	protected static Map<String, Character> lookupMap(List<Huffman> list){
-		// the map we are going to return with the binary ==> code 
-		Map<String, Character> returnMap = new HashMap<>();
-		
-		// simply loop through the list putting each element into the map
-		for(Huffman huffman: list){
-			returnMap.put(huffman.binary, huffman.character);
-		}
+	protected static CodeTable huffmanCodes(long[] frequencies, int maxLength){
+		long start = System.nanoTime();
+		int[] lengths = maxLength > 0 ? CodeLengths.limitedLengths(frequencies, maxLength) : CodeLengths.huffmanLengths(frequencies);
+		Metrics.record(Phase.TREE, start, 0, 0, 0);
+		start = System.nanoTime();
 		
-		// return the map
-		return returnMap;
+		// every character that appears gets the code for its length
+		CodeTable table = CodeTable.fromFrequencies(frequencies, lengths);
+		Metrics.record(Phase.CODES, start, 0, 0, table.size());
+		return table;
 	}
 	
 	/**
-	 * This creates an encoding map to provide a key value store of Map<Char, String>
-	 * @param ArrayList<Huffman> the wrapper class to convert to a lookupMap for encodings
-	 */
-	protected static Map<Character, String> lookupMapEncodings(List<Huffman> list){
-		// the map we are going to return with the binary ==> code 
-		Map<Character, String> returnMap = new HashMap<>();
-		
-		// simply loop through the list putting each element into the map
-		for(Huffman huffman: list){
-			returnMap.put(huffman.character, huffman.binary);
-		}
-		
-		// return the map
-		return returnMap;
-	}
-	
-	/**
-	 * This method will create a huffman tree (not canonized).
-	 * This is based off the algorithm found on page 431 of Intro to Algorithms by Cormen, Leiserson, Rivest, Stein
+	 * This will write a file and decode at the same time. Given a decode table, the bytes of binary to
+	 * decode and the file to write, it peeks at the next few bits, looks them up in the table to get the
+	 * character they start with and how many bits its code is, writes the character and drops those bits.
+	 * Simple example:
 	 * 
-	 * Direct quote:
+	 *     - Given 01101100 in sample0.huf to tell us we have a, b, c and null to write to the file.
+	 *     - Given a table built from a=01, b=10, c=11, null=00 (so two bits index it)
+	 *       - We peek 01 and the table tells us 'a' with length 2, write 'a' and drop two bits
+	 *       - We peek 10 to find 'b', then 11 to find 'c'
+	 *       - Finally we peek 00 which is the null terminator and we stop
+	 *       
+	 *      - Codes may run across bytes, the bit reader takes care of that for us.
+	 *      
+	 * The bits are read from the stream a chunk at a time and the characters are collected in a buffer
+	 * that is written out whenever it fills, so memory use stays the same however big the file is.
 	 * 
-	 * The algorithm uses a min-priority queue Q, keyed on the freq attribute, to identify the two least-frequent objects to
-     * merge together. When we merge two objects, the result is a new object whose frequency is the sum of the frequencies 
-     * of the two objects that were merged.
-     * 
-     * @param input - the map we created while reading the file which contains our frequencies and characters
-     * @return a root node to a huffman tree that has yet to be canonized.
+	 * The encoder read the characters as UTF-8 so they go back out as UTF-8, a character past 0x7F is
+	 * two or three bytes and a surrogate pair four. Writing each one as a single byte turned anything
+	 * but ASCII into something else.
+	 *        
+	 * @param table The decode table needed to determine the codes.
+	 * @param bits The stream of binary needed to decode.
+	 * @param out The stream to write-out too.
+	 * @throws IOException if the bits can not be read, are not codes or end before the end of file
+	 * character, or the output can not be written
 	 */
-	protected static Node huffmanTree(Map<Character, Integer> input){
+ 	protected static void writeFile(DecodeTable table, InputStream bits, OutputStream out) throws IOException{
 		
-		// first let us put our input map into a list
-		ArrayList<Node> list = new ArrayList<>();
-		// iterate through the map creating Nodes and adding them to our list
-		for(Map.Entry<Character, Integer> entry: input.entrySet()){
-			list.add(new Node(entry.getKey(), entry.getValue()));
-		}
-		// now we follow the given althorithm from page 431
-		// we use a priority queue == "min-priority queue Q"
-		PriorityQueue<Node> pQueue = new PriorityQueue<>(list);
-		// for i = 1 to n - 1 (n being our list of nodes)
-		for(int i = 1; i < list.size(); i++){
-			// allocate new node z
-			Node z = new Node();
-			// z.left = x = Extract-Min(q);
-			Node x = pQueue.poll();
-			z.left = x;
-			// z.right = y = Extraxt-Min(q);
-			Node y = pQueue.poll();
-			z.right = y;
-			//  z.frequency = x.frequency + y.frequency
-			z.frequency = x.frequency + y.frequency;
-
-			// represent that it is interior node.
-			// setting it in nodes constructor did not work here. ugh.
-			z.character = (char) 0x01;
-			
-			//Insert(q, z)
-			pQueue.add(z);
-		}
-		// return Extract-Min(q) // the room
-		return pQueue.poll();
-	}
-	
-	/**
-	 * Performs an in-order walk on a huffman tree given a root and the list
-	 * of huffmans to build
-	 * @param root - the root node of a huffman tree
-	 * @param binary - the binary representation we are build
-	 * @param list - the list to build our huffman wrapper class with 
-	 */
-	protected static void inorder(Node node, String binary, ArrayList<Huffman> huffmanWrapperList){
-		// our base case, we passed a null node
-		if(node == null){
-			return;
-		}
+		// where the bits come from
+		BitReader reader = new BitReader(bits);
 		
-		// for our lefty nodes
-		inorder(node.left, (binary + "0"), huffmanWrapperList);
+		// the decoded characters waiting to be written, as UTF-8
+		byte[] buffer = new byte[BitReader.CHUNK_SIZE];
+		int position = 0;
+		long written = 0;
+		long symbols = 0;
+		// the first half of a surrogate pair, waiting for the second
+		int high = -1;
+		long start = System.nanoTime();
 		
-		// are we an interior node? if not add it to the list
-		if(node.character != (char) 0x01){
-			huffmanWrapperList.add(new Huffman(node.character, binary, binary.length()));
+		try{
+			while(true){
+				// what does the next code decode to?
+				int character = table.decode(reader);
+				
+				// the bits ran out before the end of file character, the file has been cut short
+				if(reader.exhausted()){
+					throw new EOFException("Corrupt file: ran out of bits");
+				}
+				if(character < 0){
+					throw new IOException("Corrupt file: bits are not a code");
+				}
+				// is that our end of file character? If so .. bail!
+				if(character == '\u0000'){
+					break;
+				}
+				symbols++;
+				// the buffer goes out when a character might not fit
+				if(position > buffer.length - 4){
+					out.write(buffer, 0, position);
+					written += position;
+					position = 0;
+				}
+				// if not, it goes in the buffer, ASCII as it is and anything else as UTF-8
+				if(character < 0x80 && high < 0){
+					buffer[position++] = (byte) character;
+				}else if(Character.isHighSurrogate((char) character)){
+					position = putUtf8(buffer, position, high);
+					high = character;
+				}else if(Character.isLowSurrogate((char) character) && high >= 0){
+					position = putUtf8(buffer, position, Character.toCodePoint((char) high, (char) character));
+					high = -1;
+				}else{
+					position = putUtf8(buffer, position, high);
+					position = putUtf8(buffer, position, character);
+					high = -1;
+				}
+			}
+		}catch(UncheckedIOException e){
+			// the reader can not throw a checked exception from inside the decode loop
+			throw e.getCause();
 		}
-		
-		// for our righty nodes
-		inorder(node.right, (binary + "1"), huffmanWrapperList);
+		out.write(buffer, 0, position);
+		written += position;
+		// and half a pair left over at the end
+		position = putUtf8(buffer, 0, high);
+		out.write(buffer, 0, position);
+		out.flush();
+		written += position;
+		Metrics.record(Phase.DECODE, start, reader.bytesRead(), written, symbols);
 	}
 	
 	/**
-	 * This will write a file and decode at the same time. Given a lookup map, a list of binary codes to
-	 * decode and the file to write, it will search each binary bit and determine if a code exists, if not
-	 * it will increment a counter and try a longer piece of the binary byte until it finds a code. It will
-	 * then chop and continue. Since we are in 8 bit chunks but the code could be across two, we do preserve
-	 * any endings and add it to the next incoming binary byte. Simple example:
+	 * Puts a character into a buffer as UTF-8. Half a surrogate pair on its own (which the encoder never
+	 * reads out of a file, it only turns up in a corrupt one) goes out as '?', as String.getBytes does.
 	 * 
-	 *     - Given 01101100 in sample0.huf to tell us we have a, b, c and null to write to the file.
-	 *     - Given a look up map that contains a=01, b=10, c=11, null=00
-	 *       - We would start at 0 and check the map to determine there is no result.
-	 *       - We would then inc and try 01 to determine there is a key and write 'a' to the file
-	 *       - We would then substring and start decoding with 101100
-	 *       - Reset our counter we try 1 to find no keys
-	 *       - Inc our counter we try 10 to find 'b' and write that to file
-	 *       - Reset our counter and trim our binary string to return 1100
-	 *       - The process continues to get c then the null terminator
-	 *       
-	 *      - If we had remaining bits but no more look ups, it would append that string to the front of the next
-	 *        incoming binary byte.
-	 *        
-	 * @param map The lookup map needed to determine the codes.
-	 * @param bits The bits of binary needed to decode.
-	 * @param file The file to write-out too.
+	 * @param buffer where the bytes go, with room for four
+	 * @param position where the first byte goes
+	 * @param character the character or code point, -1 for none
+	 * @return where the next byte goes
 	 */
- 	protected static void writeFile(Map<String, Character> map, List<String> bits, String file){
-		
-		try{
-			// First we need to create an output stream.
-			FileOutputStream outFile = new FileOutputStream(new File(file));
-		    
-			// our pointer of where we are in the binary string
-		    int pointer = 1;
-		    // our tested set of bits
-            String testingBits = "";
-            
-            // outer loop goes through each binary byte
-		    for(String bit: bits){
-		    	
-		    	// append any "left-over" bits to our new incoming bits
-		    	bit = testingBits + bit;
-			
-		    	// inner loop tests the bits and writes the chars to the file when
-		    	// we find matches
-			    while(true){
-			    	
-			    	try{
-			    		// first we assign the bits to test
-			    		testingBits = bit.substring(0, pointer);
-			    		
-			    		// do we have a key that matches out bits ?
-			    		if(map.containsKey(testingBits)){
-			    	        
-			    			// is that our end of file bit string ? If so .. bail!
-			    			if(map.get(testingBits) == '\u0000')
-			    		        break;
-			    			// if not, we need to write that output file
-			    			outFile.write(map.get(testingBits));
-			    			// we need to trim our bit and keep going...could be more codes in them bits
-			    			bit = bit.substring(pointer);
-			    			// just in case we need to hold onto bit - will be overwritten if not.
-			    			testingBits = bit;
-			    			// reset our pointer
-				            pointer = 1;
-			    		}else{
-			        	// no match, just in our pointer 
-				        pointer++;
-			    		}	
-			    	}catch(IndexOutOfBoundsException ex){
-			    		// yep, I hate every last bit of this
-			    		break;
-			    	}
-			    }
-		    }
-		    // close the stream
-		    outFile.close();
-		}catch(Exception e){
-			e.printStackTrace();
+	private static int putUtf8(byte[] buffer, int position, int character){
+		if(character < 0){
+			return position;
 		}
+		if(character < 0x80){
+			buffer[position++] = (byte) character;
+		}else if(character < 0x800){
+			buffer[position++] = (byte) (0xC0 | character >>> 6);
+			buffer[position++] = (byte) (0x80 | character & 0x3F);
+		}else if(Character.isSurrogate((char) character) && character <= Character.MAX_VALUE){
+			buffer[position++] = '?';
+		}else if(character <= Character.MAX_VALUE){
+			buffer[position++] = (byte) (0xE0 | character >>> 12);
+			buffer[position++] = (byte) (0x80 | character >>> 6 & 0x3F);
+			buffer[position++] = (byte) (0x80 | character & 0x3F);
+		}else{
+			buffer[position++] = (byte) (0xF0 | character >>> 18);
+			buffer[position++] = (byte) (0x80 | character >>> 12 & 0x3F);
+			buffer[position++] = (byte) (0x80 | character >>> 6 & 0x3F);
+			buffer[position++] = (byte) (0x80 | character & 0x3F);
+		}
+		return position;
 	}
     
  	/**
- 	 * This will write an encoded file
+ 	 * This will write an encoded file of characters (Container.TEXT): 0x00 and 'T', the table as
+ 	 * writeTable writes it, then the codes for every character in the input file and the end of file
+ 	 * character packed into bytes through a BitWriter. The original single stream had a byte for the
+ 	 * size of the alphabet and a (character, length) byte pair per character, which could not hold
+ 	 * 256 characters or any above 0xFF, Decode still reads those.
+ 	 * 
+ 	 * @param code the canonical code
+ 	 * @param outFile the file to write
+ 	 * @param inFile the mapped file to encode
+ 	 * @throws IOException if the file can not be written
  	 */
- 	protected static void writeEncodedFile(ArrayList<Huffman> huffList, String outFile, String inFile){
- 		// first let us create a lookupMap for faster time
- 		Map<Character, String> lookup = HuffmanUtilities.lookupMapEncodings(huffList);
+ 	protected static void writeEncodedFile(CodeTable code, String outFile, MappedInput inFile) throws IOException{
+ 		// first let us create an encode table for faster time
+ 		EncodeTable table = code.encodeTable();
  		
+ 		// create a stream for our output file, the writer does the buffering
+ 		try(OutputStream fileWriter = new ChannelOutputStream(outFile);
+ 			Reader reader = inFile.reader()){
+ 			
+ 			BitWriter writer = new BitWriter(fileWriter);
+ 			long start = System.nanoTime();
+ 			
+ 			// the container header and the characters' code lengths
+ 			writer.write(Container.MARKER, 8);
+ 			writer.write(Container.TEXT, 8);
+ 			writeTable(writer, code);
+ 			long header = writer.bytesWritten();
+ 			Metrics.record(Phase.HEADER_WRITE, start, 0, header, code.size());
+ 			start = System.nanoTime();
+ 			
+ 			// now we have to go back over our file writing the code of each character
+ 			char[] chars = new char[BitWriter.BUFFER_SIZE];
+ 			int read;
+ 			long symbols = 1;
+ 			while((read = reader.read(chars)) != -1){
+ 				for(int i = 0; i < read; i++){
+ 					table.write(writer, chars[i]);
+ 				}
+ 				symbols += read;
+ 			}
+ 			// now we add the end of file, the writer pads out the last byte
+ 			table.write(writer, 0x00);
+ 			writer.flush();
+ 			Metrics.record(Phase.ENCODE, start, inFile.size(), writer.bytesWritten() - header, symbols);
+ 		}
+ 	}
+ 	
+ 	/**
+ 	 * Writes a table compactly. The codes are canonical so only the lengths are needed, and the symbols
+ 	 * go in order so each one is just the gap from the one before it:
+ 	 *     - how many symbols there are (Elias gamma, so a handful take a few bits and 256 take 17)
+ 	 *     - how many bits each length takes (3 bits), 0 for a lone symbol whose code has no bits
+ 	 *     - per symbol in order: the gap from the last symbol plus one (Elias gamma) and its length
+ 	 *     - zeros up to a whole byte, so whatever follows starts on a byte
+ 	 * A run of symbols that do not appear costs one gap however long it is and a run that do appear
+ 	 * costs a bit each on top of its lengths, so a full byte alphabet with 15 bit codes takes 162 bytes
+ 	 * rather than 513 as (symbol, length) pairs and a small message's table a few bytes.
+ 	 * 
+ 	 * @param writer where to write the table, at a byte boundary
+ 	 * @param code the canonical code
+ 	 * @throws IOException if the table can not be written
+ 	 */
+ 	protected static void writeTable(BitWriter writer, CodeTable code) throws IOException{
+ 		int width = 32 - Integer.numberOfLeadingZeros(code.maxLength);
+ 		writeGamma(writer, code.size());
+ 		writer.write(width, 3);
+ 		int previous = -1;
+ 		for(int symbol = 0; symbol < code.length.length; symbol++){
+ 			if(code.has(symbol)){
+ 				writeGamma(writer, symbol - previous);
+ 				writer.write(code.length[symbol], width);
+ 				previous = symbol;
+ 			}
+ 		}
+ 		writer.align();
+ 	}
+ 	
+ 	/**
+ 	 * How many bytes writeTable takes for a code, for weighing one encoding against another.
+ 	 * 
+ 	 * @param code the canonical code
+ 	 * @return the size of its table in bytes
+ 	 */
+ 	protected static int tableSize(CodeTable code){
+ 		int width = 32 - Integer.numberOfLeadingZeros(code.maxLength);
+ 		long bits = gammaBits(code.size()) + 3;
+ 		int previous = -1;
+ 		for(int symbol = 0; symbol < code.length.length; symbol++){
+ 			if(code.has(symbol)){
+ 				bits += gammaBits(symbol - previous) + width;
+ 				previous = symbol;
+ 			}
+ 		}
+ 		return (int) ((bits + 7) / 8);
+ 	}
+ 	
+ 	/**
+ 	 * How many bytes a single stream takes coded with a code, table and all, worked out from the counts
+ 	 * without encoding anything.
+ 	 *
+ 	 * @param code the canonical code
+ 	 * @param frequencies how often each symbol appears
+ 	 * @return the size of the table and the bits in bytes
+ 	 */
+ 	protected static long encodedSize(CodeTable code, long[] frequencies){
+ 		long bits = 0;
+ 		for(int symbol = 0; symbol < frequencies.length; symbol++){
+ 			bits += frequencies[symbol] * code.length[symbol];
+ 		}
+ 		return tableSize(code) + (bits + 7) / 8;
+ 	}
+ 	
+ 	/**
+ 	 * Reads a table written by writeTable. Only whole bytes are taken from the input, never more than
+ 	 * the table, so the input is left where the table ends.
+ 	 * 
+ 	 * @param in where to read the table
+ 	 * @param alphabetSize one more than the largest symbol allowed
+ 	 * @return the code
+ 	 * @throws IOException if the table can not be read, is corrupt or is not a prefix code
+ 	 */
+ 	protected static CodeTable readTable(DataInput in, int alphabetSize) throws IOException{
+ 		TableReader reader = new TableReader();
+ 		reader.reset(in);
+ 		int size = readSize(reader, alphabetSize);
+ 		int[] symbols = new int[size];
+ 		int[] lengths = new int[size];
+ 		readSymbols(reader, size, alphabetSize, symbols, lengths);
  		try{
- 			// create a stream for our output file
- 			FileOutputStream fileWriter = new FileOutputStream(new File(outFile));
+ 			return new CodeTable(symbols, lengths, alphabetSize);
+ 		}catch(IllegalArgumentException e){
+ 			throw new IOException("Corrupt table: " + e.getMessage());
+ 		}
+ 	}
+ 	
+ 	/**
+ 	 * Reads a byte table written by writeTable into a code table made with room for every byte, so
+ 	 * nothing is allocated. The reader is left just past the table.
+ 	 * 
+ 	 * @param reader where to read the table, reset to the bytes holding it
+ 	 * @param code the code table to set
+ 	 * @param symbols scratch space for every byte
+ 	 * @param lengths scratch space for every byte
+ 	 * @throws IOException if the table can not be read, is corrupt or is not a prefix code
+ 	 */
+ 	protected static void readByteCode(TableReader reader, CodeTable code, int[] symbols, int[] lengths) throws IOException{
+ 		int size = readSize(reader, Histogram.BYTES);
+ 		readSymbols(reader, size, Histogram.BYTES, symbols, lengths);
+ 		try{
+ 			code.set(symbols, lengths, size);
+ 		}catch(IllegalArgumentException e){
+ 			throw new IOException("Corrupt table: " + e.getMessage());
+ 		}
+ 	}
+ 	
+ 	/**
+ 	 * Reads how many symbols a table has.
+ 	 * 
+ 	 * @param reader where to read the table
+ 	 * @param alphabetSize one more than the largest symbol allowed
+ 	 * @return how many symbols there are
+ 	 * @throws IOException if it can not be read or is more than the alphabet
+ 	 */
+ 	private static int readSize(TableReader reader, int alphabetSize) throws IOException{
+ 		int size = reader.readGamma();
+ 		if(size > alphabetSize){
+ 			throw new IOException("Corrupt table: " + size + " symbols");
+ 		}
+ 		return size;
+ 	}
+ 	
+ 	/**
+ 	 * Reads the symbols of a table and their lengths, after its size.
+ 	 * 
+ 	 * @param reader where to read the table
+ 	 * @param size how many symbols there are
+ 	 * @param alphabetSize one more than the largest symbol allowed
+ 	 * @param symbols where the symbols go, in increasing order
+ 	 * @param lengths where their lengths go
+ 	 * @throws IOException if they can not be read or a symbol is out of range
+ 	 */
+ 	private static void readSymbols(TableReader reader, int size, int alphabetSize, int[] symbols, int[] lengths) throws IOException{
+ 		int width = reader.read(3);
+ 		int symbol = -1;
+ 		for(int i = 0; i < size; i++){
+ 			symbol += reader.readGamma();
+ 			if(symbol >= alphabetSize){
+ 				throw new IOException("Corrupt table: symbol " + symbol);
+ 			}
+ 			symbols[i] = symbol;
+ 			lengths[i] = reader.read(width);
+ 		}
+ 	}
+ 	
+ 	/**
+ 	 * Writes a number of 1 or more as an Elias gamma code: as many zeros as it has bits after its top
+ 	 * bit, then the number itself.
+ 	 * 
+ 	 * @param writer where to write it
+ 	 * @param value the number
+ 	 * @throws IOException if it can not be written
+ 	 */
+ 	private static void writeGamma(BitWriter writer, int value) throws IOException{
+ 		int bits = 31 - Integer.numberOfLeadingZeros(value);
+ 		writer.write(0, bits);
+ 		writer.write(value, bits + 1);
+ 	}
+ 	
+ 	/**
+ 	 * How many bits writeGamma takes for a number.
+ 	 * 
+ 	 * @param value the number, 1 or more
+ 	 * @return the length of its gamma code
+ 	 */
+ 	private static int gammaBits(int value){
+ 		return 2 * (31 - Integer.numberOfLeadingZeros(value)) + 1;
+ 	}
+ 	
+ 	/**
+ 	 * Reads the bits of a table a byte at a time, so nothing after the table is taken from the input.
+ 	 * The bytes come from a DataInput or straight from an array, and a reader can be reset and used
+ 	 * again.
+ 	 */
+ 	protected static class TableReader {
+ 		
+ 		// where the bytes come from, a stream or an array
+ 		private DataInput in;
+ 		private byte[] data;
+ 		// the next byte in the array and one past the last
+ 		private int position;
+ 		private int limit;
+ 		// the bits not yet read, right-aligned, and how many there are
+ 		private long bits;
+ 		private int count;
+ 		
+ 		/**
+ 		 * Starts reading from a stream.
+ 		 * @param in where the bytes come from
+ 		 */
+ 		void reset(DataInput in){
+ 			this.in = in;
+ 			this.data = null;
+ 			this.count = 0;
+ 		}
+ 		
+ 		/**
+ 		 * Starts reading from part of an array.
+ 		 * @param data the bytes
+ 		 * @param offset where the table starts
+ 		 * @param length how many bytes the table may take at most
+ 		 */
+ 		void reset(byte[] data, int offset, int length){
+ 			this.in = null;
+ 			this.data = data;
+ 			this.position = offset;
+ 			this.limit = offset + length;
+ 			this.count = 0;
+ 		}
+ 		
+ 		/**
+ 		 * Where the next byte of the array is, just past the table once it has been read.
+ 		 * @return the position in the array
+ 		 */
+ 		int position(){
+ 			return this.position;
+ 		}
+ 		
+ 		/**
+ 		 * Reads a number.
+ 		 * @param n how many bits it takes, 0 to 32
+ 		 * @return the number
+ 		 * @throws IOException if the input ends first
+ 		 */
+ 		int read(int n) throws IOException{
+ 			while(this.count < n){
+ 				this.bits = (this.bits << 8) | this.nextByte();
+ 				this.count += 8;
+ 			}
+ 			this.count -= n;
+ 			return (int) ((this.bits >>> this.count) & ((1L << n) - 1));
+ 		}
+ 		
+ 		/**
+ 		 * Reads an Elias gamma code.
+ 		 * @return the number, 1 or more
+ 		 * @throws IOException if the input ends first or the code is too long for an int
+ 		 */
+ 		int readGamma() throws IOException{
+ 			int zeros = 0;
+ 			while(this.read(1) == 0){
+ 				if(++zeros > 30){
+ 					throw new IOException("Corrupt table: number too long");
+ 				}
+ 			}
+ 			return (1 << zeros) | this.read(zeros);
+ 		}
+ 		
+ 		/**
+ 		 * Takes the next byte from the stream or array.
+ 		 * @return the byte
+ 		 * @throws IOException if there are no more
+ 		 */
+ 		private int nextByte() throws IOException{
+ 			if(this.data == null){
+ 				return this.in.readUnsignedByte();
+ 			}
+ 			if(this.position == this.limit){
+ 				throw new EOFException("Corrupt table: ran out of bytes");
+ 			}
+ 			return this.data[this.position++] & 0xFF;
+ 		}
+ 	}
+ 	
+ 	/**
+ 	 * This will write an encoded file of raw bytes (Container.RAW). No charset decoding is done, every byte
+ 	 * is a character, so any file comes back exactly as it was. Since every byte value can appear there
+ 	 * is no end of file character, the length goes in the header instead:
+ 	 *     - 0x00 and 'R'
+ 	 *     - the length of the input (long)
+ 	 *     - the table as writeTable writes it (left out for an empty file)
+ 	 *     - the codes for every byte packed into bytes
+ 	 * 
+ 	 * @param code the canonical code of the bytes
+ 	 * @param outFile the file to write
+ 	 * @param inFile the mapped file to encode
+ 	 * @throws IOException if the file can not be written
+ 	 */
+ 	protected static void writeEncodedBytes(CodeTable code, String outFile, MappedInput inFile) throws IOException{
+ 		writeEncodedBytes(code, outFile, inFile, 0);
+ 	}
+ 	
+ 	/**
+ 	 * This will write an encoded file of raw bytes, with a checkpoint every interval bytes if asked
+ 	 * for (Container.INDEXED). An indexed file is the same as a raw one except for the kind, the
+ 	 * interval (int) in front of the length and the checkpoint index after the bits, see CheckpointIndex.
+ 	 * 
+ 	 * @param code the canonical code of the bytes
+ 	 * @param outFile the file to write
+ 	 * @param inFile the mapped file to encode
+ 	 * @param interval how many bytes apart the checkpoints are, 0 for a plain raw file
+ 	 * @throws IOException if the file can not be written
+ 	 */
+ 	protected static void writeEncodedBytes(CodeTable code, String outFile, MappedInput inFile, int interval) throws IOException{
+ 		// first let us create an encode table for faster time, and what writes the codes with it
+ 		EncodeTable table = code.encodeTable();
+ 		ByteKernel kernel = ByteKernel.create();
+ 		
+ 		try(OutputStream fileWriter = new ChannelOutputStream(outFile)){
+ 			BitWriter writer = new BitWriter(fileWriter);
  			
- 			// first write the length of our alphabet
- 			String binLen = HuffmanUtilities.padRight(Integer.toBinaryString(huffList.size()), 8);
- 			fileWriter.write(Integer.parseInt(binLen, 2));
+ 			// the container header and the length
+ 			long start = System.nanoTime();
+ 			writer.write(Container.MARKER, 8);
+ 			if(interval > 0){
+ 				writer.write(Container.INDEXED, 8);
+ 				writer.write(interval, 32);
+ 			}else{
+ 				writer.write(Container.RAW, 8);
+ 			}
+ 			writer.write(inFile.size(), 64);
  			
- 			// now we continue through the alphabet adding charcodes and lengths
- 			for(int i = 0; i < huffList.size(); i++){
- 				String binaryChar = HuffmanUtilities.padRight(Integer.toBinaryString(huffList.get(i).character), 8);
- 				String binaryLen = HuffmanUtilities.padRight(Integer.toBinaryString(huffList.get(i).length), 8);
- 				fileWriter.write(Integer.parseInt(binaryChar, 2));
- 				fileWriter.write(Integer.parseInt(binaryLen, 2));
+ 			if(inFile.size() > 0){
+ 				writeTable(writer, code);
  			}
+ 			long header = writer.bytesWritten();
+ 			Metrics.record(Phase.HEADER_WRITE, start, 0, header, code.size());
+ 			start = System.nanoTime();
  			
- 			// now we have to go back over our file converting it to 8-bit binary encodings
- 			try(BufferedReader buffReader = new BufferedReader(new InputStreamReader(new FileInputStream(inFile), "UTF-8"))){
- 			    // our string to build we will write
- 				String eightBit = "";
- 				// as previously we are just reading the input file
- 				int activeByte;
- 				while((activeByte = buffReader.read()) != -1){
- 					// so let us look up and get the binary of the char
- 					eightBit = eightBit + lookup.get((char) activeByte);
- 					// if (or once) the binary is greater than eight
- 					if(eightBit.length() > 8){
- 						// trim it to 8 (not this might leave some remaining bits
- 		 		        String write = eightBit.substring(0, 8);
- 		 		        // write it
- 		 				fileWriter.write(Integer.parseInt(write,2));
- 		 				// and trim and return our string
- 		 				eightBit = eightBit.substring(8);
- 		 			}
+ 			// where the code of every interval-th byte starts
+ 			long[] checkpoints = new long[interval > 0 ? CheckpointIndex.count(inFile.size(), interval) : 0];
+ 			int checkpoint = 0;
+ 			
+ 			// now the code of each byte, straight out of the mapping
+ 			long offset = 0;
+ 			for(int chunk = 0; chunk < inFile.chunkCount(); chunk++){
+ 				ByteBuffer bytes = inFile.chunk(chunk);
+ 				int length = bytes.limit();
+ 				int i = 0;
+ 				while(i < length){
+ 					// up to the next checkpoint or the end of the chunk, whichever is first
+ 					int end = length;
+ 					if(checkpoint < checkpoints.length){
+ 						long next = (long) checkpoint * interval - offset;
+ 						if(next == i){
+ 							checkpoints[checkpoint++] = writer.bitsWritten();
+ 							continue;
+ 						}
+ 						end = (int) Math.min(length, next);
+ 					}
+ 					kernel.encode(bytes, i, end, table, writer);
+ 					i = end;
  				}
- 				// now we pad any bits that are remaining plus add the end of file.
- 				eightBit = eightBit + lookup.get((char) 0x00);
- 				
- 				// are we in 8 bit chunks? (keeping in mind we might be over 8 at this point)
- 				while(eightBit.length() % 8 != 0){
- 				    eightBit = eightBit + "0";		
+ 				offset += length;
+ 			}
+ 			writer.flush();
+ 			Metrics.record(Phase.ENCODE, start, inFile.size(), writer.bytesWritten() - header, inFile.size());
+ 			
+ 			// the checkpoints go after the bits
+ 			if(interval > 0){
+ 				CheckpointIndex.write(new DataOutputStream(fileWriter), checkpoints, writer.bytesWritten());
+ 			}
+ 		}
+ 	}
+ 	
+ 	/**
+ 	 * This will decode raw bytes (Container.RAW) into a stream, the marker and kind have already been read.
+ 	 * Like writeFile the bits are read a chunk at a time and the output goes out a buffer at a time, but
+ 	 * rather than stopping at an end of file character we stop once we have the right number of bytes.
+ 	 * 
+ 	 * @param in the stream, just after the kind
+ 	 * @param out The stream to write-out too.
+ 	 * @throws IOException if the bits can not be read or the output written
+ 	 */
+ 	protected static void writeBytes(DataInputStream in, OutputStream out) throws IOException{
+ 		long remaining = in.readLong();
+ 		if(remaining == 0){
+ 			return;
+ 		}
+ 		long start = System.nanoTime();
+ 		DecodeTable table = readTable(in, Histogram.BYTES).decodeTable();
+ 		Metrics.record(Phase.HEADER_READ, start, 0, 0, 0);
+ 		start = System.nanoTime();
+ 		BitReader reader = new BitReader(in);
+ 		long total = remaining;
+ 		
+ 		// the decoded bytes waiting to be written
+ 		byte[] buffer = new byte[BitReader.CHUNK_SIZE];
+ 		try{
+ 			while(remaining > 0){
+ 				int length = (int) Math.min(buffer.length, remaining);
+ 				for(int i = 0; i < length; i++){
+ 					int character = table.decode(reader);
+ 					if(character < 0){
+ 						throw new IOException("Corrupt file: bits are not a code");
+ 					}
+ 					buffer[i] = (byte) character;
  				}
- 				
- 				// now we can add the ending part to our file
- 				while(eightBit.length() > 0){
- 					// again grabbing 8 bit chunks
- 					String write = eightBit.substring(0, 8);
- 					// writing it
- 					fileWriter.write(Integer.parseInt(write,2));
- 					// trimming for next round
- 					eightBit = eightBit.substring(8);
+ 				if(reader.exhausted()){
+ 					throw new EOFException("Corrupt file: ran out of bits");
  				}
+ 				out.write(buffer, 0, length);
+ 				remaining -= length;
  			}
- 			fileWriter.close();
- 		}catch(IOException e){
- 			e.printStackTrace();
+ 		}catch(UncheckedIOException e){
+ 			// the reader can not throw a checked exception from inside the decode loop
+ 			throw e.getCause();
  		}
+ 		out.flush();
+ 		Metrics.record(Phase.DECODE, start, reader.bytesRead(), total, total);
  	}
-}
\ No newline at end of file
+}
@@ -0,0 +1,216 @@
+package huffman;
+
+import java.io.Closeable;
+import java.io.IOException;
+import java.io.Reader;
+import java.nio.ByteBuffer;
+import java.nio.CharBuffer;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.charset.CharsetDecoder;
+import java.nio.charset.CodingErrorAction;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Paths;
+import java.nio.file.StandardOpenOption;
+
+/**
+ * A source file mapped into memory. The file is mapped once and every pass over it (counting the
+ * characters, then encoding them) reads straight out of the page cache, nothing is copied into our
+ * own buffers and the second pass does not go back to the disk.
+ *
+ * The file is split into chunks of about CHUNK_SIZE bytes, each ending just before the start of a
+ * UTF-8 character so every chunk can be decoded on its own. The reader decodes them one after another
+ * and the parallel histogram hands them out to threads, both see exactly the same characters.
+ * A mapping can only be 2 GB so bigger files are mapped in segments of whole chunks.
+ */
+public class MappedInput implements Closeable {
+
+	// how big a chunk is, give or take the end of a character
+	protected static final long CHUNK_SIZE = 1L << 23;
+
+	// how many chunks are mapped together in one segment
+	protected static final int SEGMENT_CHUNKS = 128;
+
+	// the file
+	private FileChannel channel;
+
+	// the mapped segments in order
+	private MappedByteBuffer[] segments;
+
+	// where each segment starts in the file
+	private long[] starts;
+
+	// where each chunk starts in the file, plus the end of the file
+	private long[] chunks;
+
+	// the length of the file
+	private long size;
+
+	/**
+	 * Maps a file.
+	 * @param file the file to map
+	 * @throws IOException if it can not be opened or mapped
+	 */
+	public MappedInput(String file) throws IOException{
+		this.channel = FileChannel.open(Paths.get(file), StandardOpenOption.READ);
+		try{
+			this.size = this.channel.size();
+			this.map();
+		}catch(IOException e){
+			this.channel.close();
+			throw e;
+		}
+	}
+
+	/**
+	 * The length of the file.
+	 * @return the number of bytes
+	 */
+	protected long size(){
+		return this.size;
+	}
+
+	/**
+	 * Gets bytes out of the file without copying them if they are in one segment.
+	 * Every call gets its own buffer so many threads can read at once.
+	 * @param position where to start
+	 * @param length how many bytes
+	 * @return a buffer holding the bytes
+	 */
+	protected ByteBuffer slice(long position, int length){
+		int segment = this.segmentOf(position);
+		int offset = (int) (position - this.starts[segment]);
+		ByteBuffer buffer = this.segments[segment].duplicate();
+		if(offset + length <= buffer.limit()){
+			buffer.position(offset).limit(offset + length);
+			return buffer.slice();
+		}
+		// runs across two segments (rare), copy the bytes together
+		ByteBuffer copy = ByteBuffer.allocate(length);
+		while(copy.hasRemaining()){
+			buffer = this.segments[segment].duplicate();
+			buffer.position(offset);
+			buffer.limit(Math.min(buffer.limit(), offset + copy.remaining()));
+			copy.put(buffer);
+			segment++;
+			offset = 0;
+		}
+		copy.flip();
+		return copy;
+	}
+
+	/**
+	 * How many chunks the file is split into.
+	 * @return the number of chunks (an empty file has none)
+	 */
+	protected int chunkCount(){
+		return this.chunks.length - 1;
+	}
+
+	/**
+	 * Gets one chunk of the file, a chunk always ends just before a character starts.
+	 * @param chunk the chunk
+	 * @return a buffer holding its bytes
+	 */
+	protected ByteBuffer chunk(int chunk){
+		return this.slice(this.chunks[chunk], (int) (this.chunks[chunk + 1] - this.chunks[chunk]));
+	}
+
+	/**
+	 * Gets a reader that decodes the mapped bytes as UTF-8. Malformed bytes become the replacement
+	 * character, the same as an InputStreamReader would do.
+	 * @return a new reader positioned at the start of the file
+	 */
+	protected Reader reader(){
+		return new Reader(){
+			// the charset decoder, reset at the end of each segment
+			private CharsetDecoder decoder = StandardCharsets.UTF_8.newDecoder()
+				.onMalformedInput(CodingErrorAction.REPLACE)
+				.onUnmappableCharacter(CodingErrorAction.REPLACE);
+			// which chunk we are on and our own view of it
+			private int chunk = 0;
+			private ByteBuffer bytes = chunkCount() > 0 ? chunk(0) : null;
+
+			@Override
+			public int read(char[] chars, int offset, int length){
+				if(this.bytes == null){
+					return -1;
+				}
+				CharBuffer out = CharBuffer.wrap(chars, offset, length);
+				while(out.hasRemaining() && this.bytes != null){
+					// chunks end on a character so each one is the end of the input for the decoder
+					this.decoder.decode(this.bytes, out, true);
+					if(this.bytes.hasRemaining()){
+						break;
+					}
+					this.decoder.flush(out);
+					this.decoder.reset();
+					this.chunk++;
+					this.bytes = this.chunk < chunkCount() ? chunk(this.chunk) : null;
+				}
+				int read = out.position() - offset;
+				return read == 0 && this.bytes == null ? -1 : read;
+			}
+
+			@Override
+			public void close(){
+				this.bytes = null;
+			}
+		};
+	}
+
+	/**
+	 * Unmaps the file (as soon as the garbage collector gets to it) and closes it.
+	 */
+	@Override
+	public void close() throws IOException{
+		this.segments = new MappedByteBuffer[0];
+		this.channel.close();
+	}
+
+	/**
+	 * Splits the file into chunks, pulling each chunk's end back to the start of a character,
+	 * then maps the chunks a segment at a time.
+	 * @throws IOException if the file can not be read or mapped
+	 */
+	private void map() throws IOException{
+		int count = (int) ((this.size + CHUNK_SIZE - 1) / CHUNK_SIZE);
+		this.chunks = new long[count + 1];
+		ByteBuffer tail = ByteBuffer.allocate(4);
+		for(int i = 1; i < count; i++){
+			long end = i * CHUNK_SIZE;
+			// UTF-8 continuation bytes look like 10xxxxxx, back up (at most three) until we are not on one
+			tail.clear();
+			this.channel.read(tail, end - 3);
+			for(int j = 3; j > 0 && (tail.get(j) & 0xC0) == 0x80; j--){
+				end--;
+			}
+			this.chunks[i] = end;
+		}
+		this.chunks[count] = this.size;
+
+		// a segment is SEGMENT_CHUNKS whole chunks (an empty file still gets an empty one)
+		int segmentCount = Math.max(1, (count + SEGMENT_CHUNKS - 1) / SEGMENT_CHUNKS);
+		this.segments = new MappedByteBuffer[segmentCount];
+		this.starts = new long[segmentCount];
+		for(int i = 0; i < segmentCount; i++){
+			long start = this.chunks[Math.min(i * SEGMENT_CHUNKS, count)];
+			long end = this.chunks[Math.min((i + 1) * SEGMENT_CHUNKS, count)];
+			this.starts[i] = start;
+			this.segments[i] = this.channel.map(FileChannel.MapMode.READ_ONLY, start, end - start);
+		}
+	}
+
+	/**
+	 * Finds the segment holding a position.
+	 * @param position a position in the file
+	 * @return the segment it is in
+	 */
+	private int segmentOf(long position){
+		int segment = 0;
+		while(segment + 1 < this.starts.length && this.starts[segment + 1] <= position){
+			segment++;
+		}
+		return segment;
+	}
+}
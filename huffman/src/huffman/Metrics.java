@@ -0,0 +1,179 @@
+package huffman;
+
+import java.lang.management.ManagementFactory;
+import java.util.Arrays;
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.concurrent.atomic.LongAdder;
+
+import javax.management.JMException;
+import javax.management.ObjectName;
+
+/**
+ * Timings and counters for every phase of encoding and decoding. Each phase adds its time, bytes and
+ * symbols to cumulative counters and tells any listeners. The counters are exposed over JMX as
+ * huffman:type=Metrics (jconsole, VisualVM or any JMX agent can read them).
+ *
+ * Phases are recorded once per file or block, not per symbol, and the counters are LongAdders so many
+ * threads can add to them without fighting over a lock. That keeps the cost to a couple of nanoTime
+ * calls per phase and no allocation at all, cheap enough to leave on.
+ */
+public class Metrics implements MetricsMXBean {
+
+	// the name the counters are registered under
+	protected static final String OBJECT_NAME = "huffman:type=Metrics";
+
+	// the one set of counters, registered when the class loads
+	private static final Metrics METRICS = new Metrics();
+
+	// who to tell about each phase, copied on every change and never changed in place so a phase walks
+	// the array as it was without a lock or an iterator (a CopyOnWriteArrayList's for-each allocates
+	// one, which was most of what a small message cost after warm-up)
+	private static volatile HuffmanListener[] listeners = new HuffmanListener[0];
+
+	static{
+		// starting the platform MBean server takes a few hundred milliseconds, too long to hold up the
+		// first file, so it is done on a daemon thread
+		Thread register = new Thread(() -> {
+			try{
+				ManagementFactory.getPlatformMBeanServer().registerMBean(METRICS, new ObjectName(OBJECT_NAME));
+			}catch(JMException | SecurityException e){
+				// no JMX (or already registered by another class loader), the counters still work
+			}
+		}, "huffman-metrics");
+		register.setDaemon(true);
+		register.start();
+	}
+
+	// the counters of each phase, indexed by ordinal
+	private final Counters[] counters = new Counters[Phase.values().length];
+
+	// how many files failed
+	private final LongAdder failures = new LongAdder();
+
+	/**
+	 * Sets up a counter per phase
+	 */
+	private Metrics(){
+		for(int i = 0; i < this.counters.length; i++){
+			this.counters[i] = new Counters();
+		}
+	}
+
+	/**
+	 * Records a phase that started at start (a System.nanoTime) and has just finished.
+	 * @param phase which phase
+	 * @param start when it started
+	 * @param bytesIn how many bytes it read
+	 * @param bytesOut how many bytes it wrote
+	 * @param symbols how many symbols it handled
+	 */
+	protected static void record(Phase phase, long start, long bytesIn, long bytesOut, long symbols){
+		long nanos = System.nanoTime() - start;
+		Counters counter = METRICS.counters[phase.ordinal()];
+		counter.count.increment();
+		counter.nanos.add(nanos);
+		counter.bytesIn.add(bytesIn);
+		counter.bytesOut.add(bytesOut);
+		counter.symbols.add(symbols);
+		for(HuffmanListener listener: listeners){
+			listener.phaseCompleted(phase, nanos, bytesIn, bytesOut, symbols);
+		}
+	}
+
+	/**
+	 * Records a file that could not be encoded or decoded.
+	 * @param file the file
+	 * @param cause what went wrong
+	 */
+	protected static void failed(String file, Exception cause){
+		METRICS.failures.increment();
+		for(HuffmanListener listener: listeners){
+			listener.failed(file, cause);
+		}
+	}
+
+	/**
+	 * Starts telling a listener about every phase.
+	 * @param listener the listener
+	 */
+	public static synchronized void addListener(HuffmanListener listener){
+		HuffmanListener[] more = Arrays.copyOf(listeners, listeners.length + 1);
+		more[listeners.length] = listener;
+		listeners = more;
+	}
+
+	/**
+	 * Stops telling a listener about phases.
+	 * @param listener the listener
+	 */
+	public static synchronized void removeListener(HuffmanListener listener){
+		HuffmanListener[] current = listeners;
+		for(int i = 0; i < current.length; i++){
+			if(current[i].equals(listener)){
+				HuffmanListener[] fewer = Arrays.copyOf(current, current.length - 1);
+				System.arraycopy(current, i + 1, fewer, i, current.length - i - 1);
+				listeners = fewer;
+				return;
+			}
+		}
+	}
+
+	/**
+	 * The counters, the same object JMX sees.
+	 * @return the counters
+	 */
+	public static MetricsMXBean get(){
+		return METRICS;
+	}
+
+	/**
+	 * A snapshot of one phase's counters.
+	 * @param phase the phase
+	 * @return its statistics so far
+	 */
+	public static PhaseStatistics statistics(Phase phase){
+		Counters counter = METRICS.counters[phase.ordinal()];
+		return new PhaseStatistics(phase.name(), counter.count.sum(), counter.nanos.sum(), counter.bytesIn.sum(),
+				counter.bytesOut.sum(), counter.symbols.sum());
+	}
+
+	@Override
+	public Map<String, PhaseStatistics> getPhases(){
+		Map<String, PhaseStatistics> phases = new LinkedHashMap<>();
+		for(Phase phase: Phase.values()){
+			if(this.counters[phase.ordinal()].count.sum() > 0){
+				phases.put(phase.name(), statistics(phase));
+			}
+		}
+		return phases;
+	}
+
+	@Override
+	public long getFailures(){
+		return this.failures.sum();
+	}
+
+	@Override
+	public void reset(){
+		for(Counters counter: this.counters){
+			counter.count.reset();
+			counter.nanos.reset();
+			counter.bytesIn.reset();
+			counter.bytesOut.reset();
+			counter.symbols.reset();
+		}
+		this.failures.reset();
+	}
+
+	/**
+	 * The cumulative counters of one phase.
+	 */
+	private static class Counters {
+		private final LongAdder count = new LongAdder();
+		private final LongAdder nanos = new LongAdder();
+		private final LongAdder bytesIn = new LongAdder();
+		private final LongAdder bytesOut = new LongAdder();
+		private final LongAdder symbols = new LongAdder();
+	}
+}
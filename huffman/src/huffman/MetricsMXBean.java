@@ -0,0 +1,26 @@
+package huffman;
+
+import java.util.Map;
+
+/**
+ * The cumulative counters of Metrics as seen over JMX, registered as huffman:type=Metrics.
+ */
+public interface MetricsMXBean {
+
+	/**
+	 * The counters of every phase that has run.
+	 * @return the phase statistics by phase name
+	 */
+	Map<String, PhaseStatistics> getPhases();
+
+	/**
+	 * How many files could not be encoded or decoded.
+	 * @return the number of failures
+	 */
+	long getFailures();
+
+	/**
+	 * Sets every counter back to zero.
+	 */
+	void reset();
+}
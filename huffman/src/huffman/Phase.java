@@ -0,0 +1,34 @@
+package huffman;
+
+/**
+ * The steps of encoding and decoding that are timed and counted, see Metrics.
+ */
+public enum Phase {
+
+	// counting the symbols (readInputMap and the histograms)
+	HISTOGRAM,
+
+	// working out the code lengths (CodeLengths, Huffman or package-merge with a length limit)
+	TREE,
+
+	// turning lengths into canonical codes
+	CODES,
+
+	// writing the header and table of an encoded file
+	HEADER_WRITE,
+
+	// encoding the symbols (writeEncodedFile and friends)
+	ENCODE,
+
+	// reading the header and table of an encoded file and building the decode table
+	HEADER_READ,
+
+	// decoding the symbols (writeFile and friends)
+	DECODE,
+
+	// a whole file encoded, start to finish
+	ENCODE_FILE,
+
+	// a whole file decoded, start to finish
+	DECODE_FILE
+}
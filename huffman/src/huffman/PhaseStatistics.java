@@ -0,0 +1,89 @@
+package huffman;
+
+import javax.management.ConstructorParameters;
+
+/**
+ * A snapshot of the cumulative counters of one phase.
+ */
+public class PhaseStatistics {
+
+	private final String phase;
+	private final long count;
+	private final long nanos;
+	private final long bytesIn;
+	private final long bytesOut;
+	private final long symbols;
+
+	/**
+	 * Creates a snapshot
+	 * @param phase the phase's name
+	 * @param count how many times it ran
+	 * @param nanos how long it took altogether
+	 * @param bytesIn how many bytes it read altogether
+	 * @param bytesOut how many bytes it wrote altogether
+	 * @param symbols how many symbols it handled altogether
+	 */
+	@ConstructorParameters({"phase", "count", "nanos", "bytesIn", "bytesOut", "symbols"})
+	public PhaseStatistics(String phase, long count, long nanos, long bytesIn, long bytesOut, long symbols){
+		this.phase = phase;
+		this.count = count;
+		this.nanos = nanos;
+		this.bytesIn = bytesIn;
+		this.bytesOut = bytesOut;
+		this.symbols = symbols;
+	}
+
+	public String getPhase(){
+		return this.phase;
+	}
+
+	public long getCount(){
+		return this.count;
+	}
+
+	public long getNanos(){
+		return this.nanos;
+	}
+
+	public long getBytesIn(){
+		return this.bytesIn;
+	}
+
+	public long getBytesOut(){
+		return this.bytesOut;
+	}
+
+	public long getSymbols(){
+		return this.symbols;
+	}
+
+	/**
+	 * How many symbols a second the phase handles.
+	 * @return symbols per second, 0 if it has not run
+	 */
+	public double getSymbolsPerSecond(){
+		return this.nanos == 0 ? 0 : this.symbols * 1e9 / this.nanos;
+	}
+
+	/**
+	 * How many megabytes a second the phase reads.
+	 * @return MB per second, 0 if it has not run
+	 */
+	public double getMegabytesPerSecond(){
+		return this.nanos == 0 ? 0 : this.bytesIn * 1e3 / this.nanos;
+	}
+
+	/**
+	 * Bytes in over bytes out, how many times smaller the output is (for the encode phases).
+	 * @return the ratio, 0 if nothing was written
+	 */
+	public double getCompressionRatio(){
+		return this.bytesOut == 0 ? 0 : (double) this.bytesIn / this.bytesOut;
+	}
+
+	@Override
+	public String toString(){
+		return String.format("%s: %d runs, %.3f ms, %d bytes in, %d bytes out, %.0f symbols/s, ratio %.3f",
+				this.phase, this.count, this.nanos / 1e6, this.bytesIn, this.bytesOut, this.getSymbolsPerSecond(), this.getCompressionRatio());
+	}
+}
@@ -0,0 +1,412 @@
+package huffman;
+
+import java.io.BufferedOutputStream;
+import java.io.DataOutputStream;
+import java.io.EOFException;
+import java.io.IOException;
+import java.io.InterruptedIOException;
+import java.io.UncheckedIOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.Channels;
+import java.nio.channels.FileChannel;
+import java.nio.file.Paths;
+import java.nio.file.StandardOpenOption;
+import java.util.ArrayDeque;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.ForkJoinTask;
+
+/**
+ * Encodes and decodes block containers in three stages that run at the same time: a reader thread
+ * reads the blocks one after another, the fork/join pool codes them and a writer thread writes them
+ * out in order. Encode.encodeBlocks codes blocks straight out of a mapped file, so every page the
+ * coder touches for the first time stops it while the disk catches up, and the writes wait for the
+ * coder. On a slow or network attached volume that is half the time spent waiting. Here the disk
+ * reads the next blocks and writes the last ones while the blocks in between are coded.
+ *
+ * The stages pass a fixed set of blocks around through queues: free blocks go to the reader, read
+ * ones to the coders, coded ones to the writer and written ones back to the reader. Each block keeps
+ * its buffers, so once they are allocated nothing is, and the reader can only get as far ahead of the
+ * writer as there are blocks. Encoding reads into direct buffers, which the encoder reads as they are.
+ * Decoding reads into arrays because that is what the decoder reads, the channel copies them once.
+ * The blocks are coded with each pool thread's HuffmanEncoder or HuffmanDecoder.
+ */
+public class Pipeline {
+
+	// how many blocks the reader can be ahead of the coders, and the writer behind them
+	protected static final int DEPTH = 2;
+
+	// the most the blocks' buffers may take between them, big blocks get fewer in flight
+	protected static final long MEMORY = 1L << 28;
+
+	/**
+	 * Prevent construction since all methods will be static
+	 */
+	private Pipeline() {}
+
+	/**
+	 * Encodes a file into a block container, the same one Encode.encodeBlocks writes.
+	 * @param source the file to encode
+	 * @param destination the container to write
+	 * @param blockSize how many bytes go in each block
+	 * @param maxLength the longest code allowed, 0 for no limit
+	 * @param context whether to try an order-1 model for every block
+	 * @throws IOException if the source can not be read or the container written
+	 */
+	public static void encode(String source, String destination, int blockSize, int maxLength, boolean context) throws IOException{
+		try(FileChannel in = FileChannel.open(Paths.get(source), StandardOpenOption.READ);
+			FileChannel out = FileChannel.open(Paths.get(destination), StandardOpenOption.WRITE, StandardOpenOption.CREATE, StandardOpenOption.TRUNCATE_EXISTING)){
+
+			long length = in.size();
+			int blockCount = (int) ((length + blockSize - 1) / blockSize);
+			byte[] header = new byte[BlockCodec.HEADER_SIZE];
+			header[0] = Container.MARKER;
+			header[1] = Container.BLOCKS;
+			BlockCodec.putInt(header, 2, blockSize);
+			BlockCodec.putInt(header, 6, blockCount);
+			BlockCodec.putLong(header, 10, length);
+			writeFully(out, ByteBuffer.wrap(header));
+
+			// where each block ends up in the container and in the decoded file, the writer fills them in
+			long[] offsets = new long[blockCount];
+			long[] outputOffsets = new long[blockCount];
+			// no block is longer than the file
+			int bufferSize = (int) Math.min(blockSize, length);
+			new Stages(blockCount, (long) bufferSize + HuffmanEncoder.maxBlockLength(bufferSize)){
+				// the next block is written here
+				private long position = BlockCodec.HEADER_SIZE;
+
+				@Override
+				protected Block newBlock(){
+					return new Block(ByteBuffer.allocateDirect(bufferSize), new byte[HuffmanEncoder.maxBlockLength(bufferSize)]);
+				}
+
+				@Override
+				protected void read(Block block) throws IOException{
+					long start = (long) block.index * blockSize;
+					block.rawLength = (int) Math.min(blockSize, length - start);
+					block.in.clear().limit(block.rawLength);
+					readFully(in, block.in, start);
+				}
+
+				@Override
+				protected void code(Block block){
+					int mode = context ? BlockCodec.CONTEXT : BlockCodec.defaultMode(block.rawLength);
+					block.outLength = HuffmanEncoder.forThread().encodeBlock(block.in, 0, block.rawLength, maxLength, mode, block.out, 0);
+				}
+
+				@Override
+				protected void write(Block block) throws IOException{
+					offsets[block.index] = this.position;
+					outputOffsets[block.index] = (long) block.index * blockSize;
+					writeFully(out, ByteBuffer.wrap(block.out, 0, block.outLength));
+					this.position += block.outLength;
+				}
+			}.run();
+
+			// the index goes after the last block
+			DataOutputStream indexOut = new DataOutputStream(new BufferedOutputStream(Channels.newOutputStream(out)));
+			BlockCodec.writeIndex(indexOut, offsets, outputOffsets, out.position());
+			indexOut.flush();
+		}
+	}
+
+	/**
+	 * Decodes a block container into a file, the blocks read one after another from the front (the
+	 * index is not needed).
+	 * @param source the container
+	 * @param destination the file to write
+	 * @throws IOException if the container can not be read or is corrupt, or the file can not be written
+	 */
+	public static void decode(String source, String destination) throws IOException{
+		try(FileChannel in = FileChannel.open(Paths.get(source), StandardOpenOption.READ);
+			FileChannel out = FileChannel.open(Paths.get(destination), StandardOpenOption.WRITE, StandardOpenOption.CREATE, StandardOpenOption.TRUNCATE_EXISTING)){
+
+			ByteBuffer header = BlockIndex.readFully(in, 0, BlockCodec.HEADER_SIZE);
+			if(header.get() != Container.MARKER || header.get() != Container.BLOCKS){
+				throw new IOException("Not a block container");
+			}
+			int blockSize = header.getInt();
+			int blockCount = header.getInt();
+			long length = header.getLong();
+			// the header says how much to allocate, so it is checked before anything is, every block
+			// has a header of its own and the blocks have to hold the whole file
+			if(blockSize <= 0 || blockSize > BlockCodec.MAX_BLOCK_SIZE || blockCount < 0 || length < 0
+					|| length > (long) blockCount * blockSize
+					|| blockCount > (in.size() - BlockCodec.HEADER_SIZE) / BlockCodec.BLOCK_HEADER_SIZE){
+				throw new IOException("Corrupt container header");
+			}
+
+			// no block decodes to more than the whole file
+			int bufferSize = (int) Math.min(blockSize, length);
+			long[] decoded = new long[1];
+			new Stages(blockCount, (long) bufferSize + HuffmanEncoder.maxBlockLength(bufferSize)){
+				// how much the blocks read so far decode to
+				private long read;
+				// where the next block's header is
+				private long position = BlockCodec.HEADER_SIZE;
+				private final ByteBuffer blockHeader = ByteBuffer.allocate(BlockCodec.BLOCK_HEADER_SIZE);
+
+				@Override
+				protected Block newBlock(){
+					return new Block(ByteBuffer.allocate(HuffmanEncoder.maxBlockLength(bufferSize)), new byte[bufferSize]);
+				}
+
+				@Override
+				protected void read(Block block) throws IOException{
+					this.blockHeader.clear();
+					readFully(in, this.blockHeader, this.position);
+					block.rawLength = this.blockHeader.getInt(0);
+					int encodedLength = this.blockHeader.getInt(4);
+					// a block can not be longer than what is left before the trailer
+					if(block.rawLength < 0 || block.rawLength > bufferSize || block.rawLength > length - this.read || encodedLength < 0
+							|| encodedLength > in.size() - this.position - BlockCodec.BLOCK_HEADER_SIZE - 8){
+						throw new IOException("Corrupt block header");
+					}
+					// blocks from another encoder may be bigger than ours, give this one more room
+					if(block.in.capacity() < encodedLength){
+						block.in = ByteBuffer.allocate(encodedLength);
+					}
+					block.in.clear().limit(encodedLength);
+					readFully(in, block.in, this.position + BlockCodec.BLOCK_HEADER_SIZE);
+					this.position += BlockCodec.BLOCK_HEADER_SIZE + encodedLength;
+					this.read += block.rawLength;
+				}
+
+				@Override
+				protected void code(Block block) throws IOException{
+					HuffmanDecoder.forThread().decodeBlock(block.in.array(), 0, block.in.limit(), block.out, 0, block.rawLength);
+				}
+
+				@Override
+				protected void write(Block block) throws IOException{
+					writeFully(out, ByteBuffer.wrap(block.out, 0, block.rawLength));
+					decoded[0] += block.rawLength;
+				}
+			}.run();
+
+			if(decoded[0] != length){
+				throw new IOException("Corrupt container: blocks do not add up to its length");
+			}
+		}
+	}
+
+	/**
+	 * Fills a buffer from a channel, from its position to its limit.
+	 * @param channel where to read
+	 * @param buffer where the bytes go
+	 * @param position where in the channel to start
+	 * @throws IOException if the channel can not be read or ends first
+	 */
+	private static void readFully(FileChannel channel, ByteBuffer buffer, long position) throws IOException{
+		while(buffer.hasRemaining()){
+			if(channel.read(buffer, position + buffer.position()) < 0){
+				throw new EOFException("File ends in the middle of a block");
+			}
+		}
+	}
+
+	/**
+	 * Writes a whole buffer to a channel at its position.
+	 * @param channel where to write
+	 * @param buffer the bytes to write
+	 * @throws IOException if the channel can not be written
+	 */
+	private static void writeFully(FileChannel channel, ByteBuffer buffer) throws IOException{
+		while(buffer.hasRemaining()){
+			channel.write(buffer);
+		}
+	}
+
+	/**
+	 * One block on its way through the stages, with the buffers it is read and coded into.
+	 */
+	private static class Block {
+
+		// which block this is
+		int index;
+		// what the reader read and how many bytes the block is decoded
+		ByteBuffer in;
+		int rawLength;
+		// what the coder wrote and how much of it
+		byte[] out;
+		int outLength;
+
+		Block(ByteBuffer in, byte[] out){
+			this.in = in;
+			this.out = out;
+		}
+	}
+
+	/**
+	 * The three stages and the queues between them. The reader and writer each get a thread of their
+	 * own, the caller's thread hands the read blocks to the pool and the coded ones to the writer in
+	 * order, keeping a few blocks per pool thread in flight like Encode.encodeBlocks. Big blocks get
+	 * fewer, so the buffers stay inside MEMORY, and no more are coded at once than there are blocks.
+	 *
+	 * If the reader fails it says so with END and stops, the caller stops too. If the writer fails it
+	 * keeps taking blocks (and handing them back) without writing them so nothing waits on it forever,
+	 * and the caller throws its error at the end. Anything else they throw (a bug, running out of
+	 * memory) is wrapped in an IOException and goes the same way.
+	 */
+	private abstract static class Stages {
+
+		// stands in for a block when the reader has failed
+		private static final Block END = new Block(null, null);
+
+		// how many blocks there are to get through
+		private final int blockCount;
+
+		// how many blocks are coded at once
+		private final int window;
+
+		// blocks waiting to be read into, read and coded
+		private final BlockingQueue<Block> free;
+		private final BlockingQueue<Block> read;
+		private final BlockingQueue<Block> coded;
+
+		// what went wrong in the reader or writer
+		private volatile IOException failure;
+
+		/**
+		 * Sets the stages up with as many blocks as the pool and MEMORY allow.
+		 * @param blockCount how many blocks there are to get through
+		 * @param blockBytes how many bytes a block's buffers take
+		 */
+		Stages(int blockCount, long blockBytes){
+			this.blockCount = blockCount;
+			int parallelism = ForkJoinPool.commonPool().getParallelism();
+			int blocks = (int) Math.max(1, Math.min(2 * parallelism + 2 * DEPTH, MEMORY / Math.max(1, blockBytes)));
+			this.window = Math.min(2 * parallelism, blocks);
+			this.free = new ArrayBlockingQueue<>(blocks);
+			this.read = new ArrayBlockingQueue<>(blocks + 1);
+			this.coded = new ArrayBlockingQueue<>(blocks);
+			for(int i = 0; i < Math.min(blocks, blockCount); i++){
+				this.free.add(this.newBlock());
+			}
+		}
+
+		/**
+		 * Makes a block with its buffers.
+		 * @return the block
+		 */
+		protected abstract Block newBlock();
+
+		/**
+		 * Reads a block in, on the reader thread. The blocks come in order.
+		 * @param block the block, its index set
+		 * @throws IOException if it can not be read
+		 */
+		protected abstract void read(Block block) throws IOException;
+
+		/**
+		 * Codes a block that has been read, on a pool thread.
+		 * @param block the block
+		 * @throws IOException if it is corrupt
+		 */
+		protected abstract void code(Block block) throws IOException;
+
+		/**
+		 * Writes a block out, on the writer thread. The blocks come in order.
+		 * @param block the block
+		 * @throws IOException if it can not be written
+		 */
+		protected abstract void write(Block block) throws IOException;
+
+		/**
+		 * Runs the stages until every block has been written.
+		 * @throws IOException if a block can not be read, coded or written
+		 */
+		protected void run() throws IOException{
+			Thread reader = new Thread(this::readAll, "huffman-reader");
+			Thread writer = new Thread(this::writeAll, "huffman-writer");
+			reader.setDaemon(true);
+			writer.setDaemon(true);
+			reader.start();
+			writer.start();
+			try{
+				ForkJoinPool pool = ForkJoinPool.commonPool();
+				ArrayDeque<ForkJoinTask<Block>> pending = new ArrayDeque<>();
+				int next = 0;
+				for(int i = 0; i < this.blockCount; i++){
+					// start as many blocks as the window allows, as soon as they are read
+					while(next < this.blockCount && pending.size() < this.window){
+						Block block = this.read.take();
+						if(block == END){
+							throw this.failure;
+						}
+						pending.add(pool.submit(() -> {
+							try{
+								this.code(block);
+							}catch(IOException e){
+								throw new UncheckedIOException(e);
+							}
+							return block;
+						}));
+						next++;
+					}
+					// and hand the oldest one to the writer once it is done
+					this.coded.put(pending.poll().join());
+				}
+				writer.join();
+			}catch(InterruptedException e){
+				Thread.currentThread().interrupt();
+				throw new InterruptedIOException("Interrupted waiting on the pipeline");
+			}catch(UncheckedIOException e){
+				throw e.getCause();
+			}finally{
+				reader.interrupt();
+				writer.interrupt();
+			}
+			if(this.failure != null){
+				throw this.failure;
+			}
+		}
+
+		/**
+		 * The reader thread: reads every block into a free one, in order.
+		 */
+		private void readAll(){
+			try{
+				for(int i = 0; i < this.blockCount; i++){
+					Block block = this.free.take();
+					block.index = i;
+					this.read(block);
+					this.read.put(block);
+				}
+			}catch(IOException e){
+				this.failure = e;
+				this.read.add(END);
+			}catch(RuntimeException | Error e){
+				this.failure = new IOException("Reading a block failed", e);
+				this.read.add(END);
+			}catch(InterruptedException e){
+				// the pipeline is being torn down
+			}
+		}
+
+		/**
+		 * The writer thread: writes every coded block, in order, and frees it.
+		 */
+		private void writeAll(){
+			try{
+				for(int i = 0; i < this.blockCount; i++){
+					Block block = this.coded.take();
+					if(this.failure == null){
+						try{
+							this.write(block);
+						}catch(IOException e){
+							this.failure = e;
+						}catch(RuntimeException | Error e){
+							this.failure = new IOException("Writing a block failed", e);
+						}
+					}
+					this.free.put(block);
+				}
+			}catch(InterruptedException e){
+				// the pipeline is being torn down
+			}
+		}
+	}
+}
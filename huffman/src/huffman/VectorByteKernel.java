@@ -0,0 +1,167 @@
+package huffman;
+
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.util.Arrays;
+
+import jdk.incubator.vector.ByteVector;
+import jdk.incubator.vector.IntVector;
+import jdk.incubator.vector.LongVector;
+import jdk.incubator.vector.VectorOperators;
+import jdk.incubator.vector.VectorShape;
+import jdk.incubator.vector.VectorSpecies;
+
+/**
+ * ByteKernel with the Vector API. Only ByteKernel names this class, by reflection, since it can not be
+ * loaded unless the JVM was started with --add-modules jdk.incubator.vector. The API is incubating and
+ * this is written against the one in Java 17.
+ *
+ * Counting: the bytes are copied out of the buffer a batch at a time and widened to ints a vector at
+ * a time, each lane with its own sub-histogram added in (the lane times 256), so neighbouring bytes
+ * never count into the same slot and the increments do not wait on each other. The sub-histograms are
+ * added together at the end. This counts about twice as fast as ByteKernel.
+ *
+ * Packed encoding: four bytes at a time, their codes and lengths are looked up, the lengths summed
+ * into how many bits follow each code (a suffix sum in three shifts and adds), each code shifted to
+ * its place and the four or'ed into one long that goes to the writer in a single write. That only
+ * fits when every code is 16 bits or shorter, any longer and the scalar loop does it. Doing the lookup
+ * with vector gathers (fromArray with an index map) is not compiled to gather instructions on Java 17
+ * and runs at a tenth of the speed, so the codes are looked up one at a time. Even so it comes out
+ * slower than ByteKernel's one write per byte, which is why encode is not overridden and this is
+ * only run by KernelBenchmark, to see whether a later JDK makes it pay.
+ */
+public class VectorByteKernel extends ByteKernel {
+
+	// an int per lane, a sub-histogram per lane
+	private static final VectorSpecies<Integer> INTS = IntVector.SPECIES_PREFERRED;
+
+	// as many bytes as there are int lanes (there is no byte vector under 64 bits)
+	private static final VectorSpecies<Byte> BYTES = INTS.length() >= 8 ? VectorSpecies.of(byte.class, VectorShape.forBitSize(8 * INTS.length())) : null;
+
+	// four codes at a time and the longest code that still fits four to a long
+	private static final VectorSpecies<Long> CODES = LongVector.SPECIES_256;
+	private static final int MAX_PACKED_LENGTH = Long.SIZE / CODES.length();
+
+	// how many bytes are copied out of the buffer at a time
+	private static final int BATCH = 256;
+
+	// the fewest bytes worth the vectors, below this clearing the sub-histograms costs more than it saves
+	private static final int MIN_LENGTH = 1 << 10;
+
+	// the sub-histograms and where each lane's starts
+	private final int[] subTables = new int[INTS.length() * Histogram.BYTES];
+	private final IntVector laneBases = IntVector.zero(INTS).addIndex(Histogram.BYTES);
+
+	// the batch of bytes, as bytes and as ints to index with
+	private final byte[] batch = new byte[BATCH];
+	private final int[] symbols = new int[BATCH];
+
+	// the length of each byte's code as longs, and the batch's codes and lengths to load into long lanes
+	private final long[] lengths = new long[Histogram.BYTES];
+	private final long[] batchCodes = new long[BATCH];
+	private final long[] batchLengths = new long[BATCH];
+
+	/**
+	 * Creates a kernel.
+	 * @throws UnsupportedOperationException if this machine's vectors are too narrow to be worth it
+	 */
+	public VectorByteKernel(){
+		if(BYTES == null){
+			throw new UnsupportedOperationException("Vectors of " + INTS.length() + " ints are too narrow");
+		}
+	}
+
+	@Override
+	protected void count(ByteBuffer bytes, int from, int to, long[] counts){
+		if(to - from < MIN_LENGTH){
+			super.count(bytes, from, to, counts);
+			return;
+		}
+		int[] subTables = this.subTables;
+		int[] symbols = this.symbols;
+		int lanes = INTS.length();
+		Arrays.fill(subTables, 0);
+		int i = from;
+		for(; i + BATCH <= to; i += BATCH){
+			bytes.get(i, this.batch, 0, BATCH);
+			for(int j = 0; j < BATCH; j += lanes){
+				// where each lane's byte is counted
+				((IntVector) ByteVector.fromArray(BYTES, this.batch, j).convertShape(VectorOperators.B2I, INTS, 0))
+					.and(0xFF).add(this.laneBases).intoArray(symbols, j);
+			}
+			for(int j = 0; j < BATCH; j++){
+				subTables[symbols[j]]++;
+			}
+		}
+		// the few left over go in the first sub-histogram
+		for(; i < to; i++){
+			subTables[bytes.get(i) & 0xFF]++;
+		}
+		for(int symbol = 0; symbol < Histogram.BYTES; symbol++){
+			long count = 0;
+			for(int lane = 0; lane < lanes; lane++){
+				count += subTables[lane * Histogram.BYTES + symbol];
+			}
+			counts[symbol] += count;
+		}
+	}
+
+	@Override
+	protected void encodePacked(ByteBuffer bytes, int from, int to, EncodeTable table, BitWriter writer) throws IOException{
+		if(to - from < MIN_LENGTH || !this.setLengths(table)){
+			super.encode(bytes, from, to, table, writer);
+			return;
+		}
+		long[] codes = table.code;
+		long[] lengths = this.lengths;
+		int[] symbols = this.symbols;
+		int lanes = INTS.length();
+		int group = CODES.length();
+		int i = from;
+		for(; i + BATCH <= to; i += BATCH){
+			// the batch's bytes as ints, to gather with
+			bytes.get(i, this.batch, 0, BATCH);
+			for(int j = 0; j < BATCH; j += lanes){
+				((IntVector) ByteVector.fromArray(BYTES, this.batch, j).convertShape(VectorOperators.B2I, INTS, 0))
+					.and(0xFF).intoArray(symbols, j);
+			}
+			for(int j = 0; j < BATCH; j++){
+				this.batchCodes[j] = codes[symbols[j]];
+				this.batchLengths[j] = lengths[symbols[j]];
+			}
+			for(int j = 0; j < BATCH; j += group){
+				LongVector code = LongVector.fromArray(CODES, this.batchCodes, j);
+				LongVector length = LongVector.fromArray(CODES, this.batchLengths, j);
+				// how many bits come after each code, the sum of the lengths behind it
+				LongVector after = length.slice(1);
+				after = after.add(after.slice(1));
+				after = after.add(after.slice(2));
+				long total = this.batchLengths[j] + this.batchLengths[j + 1] + this.batchLengths[j + 2] + this.batchLengths[j + 3];
+				// the first code goes highest, the last one lowest
+				writer.write(code.lanewise(VectorOperators.LSHL, after).reduceLanes(VectorOperators.OR), (int) total);
+			}
+		}
+		for(; i < to; i++){
+			table.write(writer, bytes.get(i) & 0xFF);
+		}
+	}
+
+	/**
+	 * Copies the table's code lengths into longs.
+	 * @param table the code of every byte
+	 * @return false if a code is too long to pack four to a long (or the table is not for bytes)
+	 */
+	private boolean setLengths(EncodeTable table){
+		if(table.length.length < Histogram.BYTES){
+			return false;
+		}
+		for(int symbol = 0; symbol < Histogram.BYTES; symbol++){
+			int length = table.length[symbol];
+			if(length > MAX_PACKED_LENGTH){
+				return false;
+			}
+			this.lengths[symbol] = length;
+		}
+		return true;
+	}
+}
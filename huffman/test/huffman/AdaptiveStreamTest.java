@@ -0,0 +1,171 @@
+package huffman;
+
+import static org.junit.jupiter.api.Assertions.assertArrayEquals;
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertNull;
+import static org.junit.jupiter.api.Assertions.assertThrows;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.PrintStream;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+
+import org.junit.jupiter.api.Test;
+
+/**
+ * Bytes through an AdaptiveOutputStream and back through an AdaptiveInputStream, across many rebuilds
+ * of the code and past the point where the counts are aged.
+ */
+public class AdaptiveStreamTest {
+
+	@Test
+	public void manyRebuildsRoundTrip() throws IOException{
+		// well past the point where the gap between rebuilds stops growing
+		byte[] bytes = BlockCodecTest.sample(20 * AdaptiveModel.MAX_INTERVAL);
+		for(int segmentSize: new int[]{1, 100, AdaptiveOutputStream.SEGMENT_SIZE, bytes.length}){
+			byte[] encoded = encode(bytes, segmentSize);
+			assertArrayEquals(bytes, decode(encoded), segmentSize + " byte segments");
+		}
+	}
+
+	@Test
+	public void theCodeLearnsTheData() throws IOException{
+		// every byte starts at 8 bits, once the code has settled text takes far fewer
+		byte[] bytes = "the code adapts to the text as it goes\n".repeat(5000).getBytes(StandardCharsets.US_ASCII);
+		byte[] encoded = encode(bytes, AdaptiveOutputStream.SEGMENT_SIZE);
+		List<int[]> segments = segments(encoded);
+		int[] first = segments.get(0);
+		int[] last = segments.get(segments.size() - 1);
+		assertTrue(8 * last[1] < 5 * last[0], last[1] + " bytes for " + last[0]);
+		assertTrue(last[1] * first[0] < first[1] * last[0]);
+		assertArrayEquals(bytes, decode(encoded));
+	}
+
+	@Test
+	public void agedCountsFollowTheData() throws IOException{
+		// enough of one byte that the counts are halved, then a different byte from then on
+		int half = (int) (2 * AdaptiveModel.AGE_LIMIT);
+		byte[] bytes = new byte[2 * half];
+		Arrays.fill(bytes, 0, half, (byte) 'a');
+		Arrays.fill(bytes, half, bytes.length, (byte) 'b');
+		byte[] encoded = encode(bytes, AdaptiveOutputStream.SEGMENT_SIZE);
+		List<int[]> segments = segments(encoded);
+		// without aging 'a' would still outweigh 'b' at the end and 'b' would never get the shortest code
+		int[] last = segments.get(segments.size() - 1);
+		assertEquals((last[0] + 7) / 8, last[1]);
+		assertArrayEquals(bytes, decode(encoded));
+	}
+
+	@Test
+	public void flushSendsWhatHasBeenWritten() throws IOException{
+		ByteArrayOutputStream encoded = new ByteArrayOutputStream();
+		AdaptiveOutputStream out = new AdaptiveOutputStream(encoded);
+		out.write("first".getBytes(StandardCharsets.US_ASCII));
+		out.flush();
+		// the other end can decode the first segment before the stream is done
+		AdaptiveInputStream in = new AdaptiveInputStream(new ByteArrayInputStream(encoded.toByteArray()));
+		byte[] first = new byte[5];
+		assertEquals(5, in.read(first));
+		assertArrayEquals("first".getBytes(StandardCharsets.US_ASCII), first);
+
+		out.write(" second".getBytes(StandardCharsets.US_ASCII));
+		out.close();
+		assertArrayEquals("first second".getBytes(StandardCharsets.US_ASCII), decode(encoded.toByteArray()));
+		assertThrows(IOException.class, () -> out.write(1));
+	}
+
+	@Test
+	public void cutShortFails() throws IOException{
+		byte[] bytes = encode(BlockCodecTest.sample(50_000), AdaptiveOutputStream.SEGMENT_SIZE);
+		assertThrows(IOException.class, () -> decode(Arrays.copyOf(bytes, bytes.length / 2)));
+		// without the end marker
+		assertThrows(IOException.class, () -> decode(Arrays.copyOf(bytes, bytes.length - 4)));
+		assertThrows(IOException.class, () -> decode(new byte[]{0, 'B'}));
+		assertThrows(IllegalArgumentException.class, () -> new AdaptiveOutputStream(new ByteArrayOutputStream(), 0));
+	}
+
+	@Test
+	public void standardOutputIsFlushedAfterEverySegment() throws IOException{
+		byte[] bytes = BlockCodecTest.sample(5 * AdaptiveOutputStream.SEGMENT_SIZE);
+		// records how much had been written every time System.out was flushed
+		List<Integer> flushes = new ArrayList<>();
+		ByteArrayOutputStream encoded = new ByteArrayOutputStream(){
+			@Override
+			public void flush(){
+				flushes.add(this.size());
+			}
+		};
+		InputStream in = System.in;
+		PrintStream out = System.out;
+		try{
+			System.setIn(new ByteArrayInputStream(bytes));
+			System.setOut(new PrintStream(encoded));
+			Encode encode = new Encode(Encode.STANDARD, Encode.STANDARD);
+			encode.setAdaptive(true);
+			encode.encode();
+			assertNull(encode.getFailure());
+		}finally{
+			System.setIn(in);
+			System.setOut(out);
+		}
+		assertArrayEquals(bytes, decode(encoded.toByteArray()));
+		// a flush for each segment, and each one after the whole segment had gone out
+		List<int[]> segments = segments(encoded.toByteArray());
+		assertEquals(5, segments.size());
+		int end = 2;
+		for(int[] segment: segments){
+			end += 8 + segment[1];
+			assertTrue(flushes.contains(end), "no flush at " + end + " in " + flushes);
+		}
+	}
+
+	/**
+	 * Encodes bytes through an AdaptiveOutputStream.
+	 * @param bytes the bytes
+	 * @param segmentSize the bytes in each segment
+	 * @return the encoded stream
+	 * @throws IOException if the stream can not be written
+	 */
+	private static byte[] encode(byte[] bytes, int segmentSize) throws IOException{
+		ByteArrayOutputStream encoded = new ByteArrayOutputStream();
+		try(AdaptiveOutputStream out = new AdaptiveOutputStream(encoded, segmentSize)){
+			out.write(bytes);
+		}
+		return encoded.toByteArray();
+	}
+
+	/**
+	 * Decodes an adaptive stream.
+	 * @param encoded what an AdaptiveOutputStream wrote
+	 * @return the decoded bytes
+	 * @throws IOException if it is corrupt
+	 */
+	private static byte[] decode(byte[] encoded) throws IOException{
+		try(AdaptiveInputStream in = new AdaptiveInputStream(new ByteArrayInputStream(encoded))){
+			return in.readAllBytes();
+		}
+	}
+
+	/**
+	 * Reads the segment headers of an adaptive stream.
+	 * @param encoded what an AdaptiveOutputStream wrote
+	 * @return the bytes each segment decodes to and the bytes its bits take
+	 */
+	private static List<int[]> segments(byte[] encoded){
+		List<int[]> segments = new ArrayList<>();
+		int position = 2;
+		int count;
+		while((count = BlockCodec.getInt(encoded, position)) != 0){
+			int bits = BlockCodec.getInt(encoded, position + 4);
+			segments.add(new int[]{count, bits});
+			position += 8 + bits;
+		}
+		return segments;
+	}
+}
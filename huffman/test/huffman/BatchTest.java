@@ -0,0 +1,102 @@
+package huffman;
+
+import static org.junit.jupiter.api.Assertions.assertArrayEquals;
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertFalse;
+
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.Arrays;
+
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.io.TempDir;
+
+/**
+ * Batch's exit status and failure counting, run through execute so nothing exits the test JVM.
+ */
+public class BatchTest {
+
+	@TempDir
+	Path directory;
+
+	@Test
+	public void corruptFilesFailAndLeaveNoOutput() throws IOException{
+		Path in = Files.createDirectories(this.directory.resolve("in"));
+		byte[] text = "the quick brown fox jumps over the lazy dog\n".repeat(2000).getBytes();
+		Files.write(in.resolve("a.txt"), text);
+		Files.write(in.resolve("b.txt"), Arrays.copyOf(text, 500));
+		Path encoded = this.directory.resolve("encoded");
+		assertEquals(0, Batch.execute(new String[]{"encode", "-blocks", "-out", encoded.toString(), in.toString()}));
+
+		// one file that is not encoded at all and one cut short
+		Files.write(encoded.resolve("c.txt.huf"), "garbage!!!".getBytes());
+		byte[] whole = Files.readAllBytes(encoded.resolve("a.txt.huf"));
+		Files.write(encoded.resolve("d.txt.huf"), Arrays.copyOf(whole, whole.length / 2));
+
+		Path decoded = this.directory.resolve("decoded");
+		assertEquals(Batch.FAILED_STATUS, Batch.execute(new String[]{"decode", "-out", decoded.toString(), encoded.toString()}));
+		assertArrayEquals(text, Files.readAllBytes(decoded.resolve("a.txt")));
+		assertArrayEquals(Arrays.copyOf(text, 500), Files.readAllBytes(decoded.resolve("b.txt")));
+		assertFalse(Files.exists(decoded.resolve("c.txt")));
+		assertFalse(Files.exists(decoded.resolve("d.txt")));
+	}
+
+	@Test
+	public void anythingButEncodeOrDecodeIsAUsageError() throws IOException{
+		Path in = Files.createDirectories(this.directory.resolve("in"));
+		Files.write(in.resolve("a.txt"), "hello".getBytes());
+		assertEquals(Batch.USAGE_STATUS, Batch.execute(new String[0]));
+		assertEquals(Batch.USAGE_STATUS, Batch.execute(new String[]{"dcode", in.toString()}));
+		assertEquals(Batch.USAGE_STATUS, Batch.execute(new String[]{"encode", "-bogus", in.toString()}));
+		assertFalse(Files.exists(in.resolve("a.txt.huf")));
+	}
+
+	@Test
+	public void badValuesAreUsageErrors() throws IOException{
+		Path in = Files.createDirectories(this.directory.resolve("in"));
+		Files.write(in.resolve("a.txt"), "hello".getBytes());
+		String[][] bad = {
+				{"encode", "-limit", "many", in.toString()},
+				{"encode", "-limit", "0", in.toString()},
+				{"encode", "-limit", "-4", in.toString()},
+				{"encode", "-limit"},
+				{"encode", "-out"},
+				{"encode", "-maxlen", "x", in.toString()},
+				{"encode", "-blocksize", "0", in.toString()},
+				{"encode", "-blocksize", String.valueOf(BlockCodec.MAX_BLOCK_SIZE + 1), in.toString()},
+				{"encode", "-index", "-1", in.toString()},
+				{"encode", "-stats", in.toString()}};
+		for(String[] args: bad){
+			assertEquals(Batch.USAGE_STATUS, Batch.execute(args), Arrays.toString(args));
+		}
+		assertFalse(Files.exists(in.resolve("a.txt.huf")));
+	}
+
+	@Test
+	public void containerOptionsReachEveryFile() throws IOException{
+		Path in = Files.createDirectories(this.directory.resolve("in"));
+		byte[] text = BlockCodecTest.sample(50_000);
+		Files.write(in.resolve("a.txt"), text);
+		Files.write(in.resolve("b.txt"), text);
+		String[][] options = {{"-context"}, {"-pipeline"}, {"-raw", "-index", "4096"}};
+		int[] kinds = {Container.BLOCKS, Container.BLOCKS, Container.INDEXED};
+		for(int i = 0; i < options.length; i++){
+			Path encoded = this.directory.resolve("encoded" + i);
+			Path decoded = this.directory.resolve("decoded" + i);
+			String[] args = new String[options[i].length + 4];
+			args[0] = "encode";
+			System.arraycopy(options[i], 0, args, 1, options[i].length);
+			args[args.length - 3] = "-out";
+			args[args.length - 2] = encoded.toString();
+			args[args.length - 1] = in.toString();
+			assertEquals(0, Batch.execute(args), Arrays.toString(options[i]));
+			for(String name: new String[]{"a.txt", "b.txt"}){
+				assertEquals(kinds[i], Files.readAllBytes(encoded.resolve(name + Batch.EXTENSION))[1], Arrays.toString(options[i]));
+			}
+			assertEquals(0, Batch.execute(new String[]{"decode", "-out", decoded.toString(), encoded.toString()}));
+			assertArrayEquals(text, Files.readAllBytes(decoded.resolve("a.txt")));
+			assertArrayEquals(text, Files.readAllBytes(decoded.resolve("b.txt")));
+		}
+	}
+}
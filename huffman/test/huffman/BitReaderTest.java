@@ -0,0 +1,58 @@
+package huffman;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertFalse;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+import java.io.ByteArrayInputStream;
+import java.io.FilterInputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.util.Random;
+
+import org.junit.jupiter.api.Test;
+
+/**
+ * Bits read from a stream a chunk at a time, which has to give the same bits as reading the whole array.
+ */
+public class BitReaderTest {
+
+	@Test
+	public void chunksOfAnySizeGiveTheSameBits(){
+		byte[] data = new byte[1000];
+		new Random(3).nextBytes(data);
+		for(int chunkSize: new int[]{1, 3, 7, 8, 64, BitReader.CHUNK_SIZE}){
+			BitReader whole = new BitReader(data);
+			BitReader chunked = new BitReader(new ByteArrayInputStream(data), chunkSize);
+			int n = 0;
+			for(int bits = 0; bits < 8 * data.length; bits += n){
+				n = Math.min(1 + bits % 23, 8 * data.length - bits);
+				assertEquals(whole.peek(n), chunked.peek(n), "chunks of " + chunkSize + " at bit " + bits);
+				whole.skip(n);
+				chunked.skip(n);
+			}
+			assertEquals(data.length, chunked.bytesRead());
+			assertFalse(chunked.exhausted());
+			chunked.readBit();
+			assertTrue(chunked.exhausted());
+		}
+	}
+
+	@Test
+	public void shortReadsAreFilledFromTheNextChunk(){
+		// a stream that never hands over more than two bytes at a time
+		byte[] data = {(byte) 0x12, (byte) 0x34, (byte) 0x56, (byte) 0x78, (byte) 0x9A};
+		InputStream trickle = new FilterInputStream(new ByteArrayInputStream(data)){
+			@Override
+			public int read(byte[] b, int off, int len) throws IOException{
+				return super.read(b, off, Math.min(len, 2));
+			}
+		};
+		BitReader reader = new BitReader(trickle, 16);
+		assertEquals(0x12345678, reader.peek(32));
+		reader.skip(32);
+		assertEquals(0x9A, reader.peek(8));
+		reader.skip(8);
+		assertFalse(reader.exhausted());
+	}
+}
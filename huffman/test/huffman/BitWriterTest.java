@@ -0,0 +1,98 @@
+package huffman;
+
+import static org.junit.jupiter.api.Assertions.assertArrayEquals;
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertFalse;
+import static org.junit.jupiter.api.Assertions.assertThrows;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.util.Random;
+
+import org.junit.jupiter.api.Test;
+
+/**
+ * Bits through a BitWriter and back through a BitReader, with codes that straddle the accumulator's
+ * words and the reader's 64 bit buffer.
+ */
+public class BitWriterTest {
+
+	@Test
+	public void everyLengthRoundTrips() throws IOException{
+		// all lengths from 0 to 64 in a row, so the codes land at every offset in the words
+		Random random = new Random(2);
+		int[] lengths = new int[3 * 65];
+		long[] codes = new long[lengths.length];
+		ByteArrayOutputStream bytes = new ByteArrayOutputStream();
+		BitWriter writer = new BitWriter(bytes, 16);
+		long bits = 0;
+		for(int i = 0; i < lengths.length; i++){
+			lengths[i] = i % 65;
+			codes[i] = lengths[i] == 64 ? random.nextLong() : random.nextLong() & ((1L << lengths[i]) - 1);
+			writer.write(codes[i], lengths[i]);
+			bits += lengths[i];
+			assertEquals(bits, writer.bitsWritten());
+		}
+		writer.flush();
+		assertEquals((bits + 7) / 8, bytes.size());
+
+		BitReader reader = new BitReader(bytes.toByteArray());
+		for(int i = 0; i < lengths.length; i++){
+			assertEquals(codes[i], read(reader, lengths[i]), "code " + i + " of " + lengths[i] + " bits");
+		}
+		assertFalse(reader.exhausted());
+	}
+
+	@Test
+	public void wholeLongsLineUpWithTheBytes() throws IOException{
+		ByteArrayOutputStream bytes = new ByteArrayOutputStream();
+		BitWriter writer = new BitWriter(bytes);
+		writer.write(0x0123456789ABCDEFL, 64);
+		writer.write(1, 1);
+		writer.write(0xFEDCBA9876543210L, 64);
+		writer.flush();
+		byte[] expected = {
+			0x01, 0x23, 0x45, 0x67, (byte) 0x89, (byte) 0xAB, (byte) 0xCD, (byte) 0xEF,
+			(byte) 0xFF, 0x6E, 0x5D, 0x4C, 0x3B, 0x2A, 0x19, 0x08, 0x00
+		};
+		assertArrayEquals(expected, bytes.toByteArray());
+	}
+
+	@Test
+	public void readingPastTheEndIsNoticed(){
+		BitReader reader = new BitReader(new byte[]{(byte) 0xA5});
+		assertEquals(0xA5, reader.peek(8));
+		reader.skip(8);
+		assertFalse(reader.exhausted());
+		assertEquals(0, reader.readBit());
+		assertTrue(reader.exhausted());
+	}
+
+	@Test
+	public void anArrayWithNoRoomLeftThrows() throws IOException{
+		byte[] array = new byte[4];
+		BitWriter writer = new BitWriter(array, 0);
+		writer.write(0xCAFEBABEL, 32);
+		writer.write(1, 8);
+		assertThrows(IOException.class, writer::flush);
+		assertArrayEquals(new byte[]{(byte) 0xCA, (byte) 0xFE, (byte) 0xBA, (byte) 0xBE}, array);
+	}
+
+	/**
+	 * Reads a code of up to 64 bits, at most 32 at a time since that is all peek gives.
+	 * @param reader where the bits come from
+	 * @param length how many bits
+	 * @return the bits right-aligned
+	 */
+	private static long read(BitReader reader, int length){
+		long value = 0;
+		while(length > 0){
+			int n = Math.min(length, 32);
+			value = (value << n) | (reader.peek(n) & 0xFFFFFFFFL);
+			reader.skip(n);
+			length -= n;
+		}
+		return value;
+	}
+}
@@ -0,0 +1,222 @@
+package huffman;
+
+import static org.junit.jupiter.api.Assertions.assertArrayEquals;
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertNull;
+import static org.junit.jupiter.api.Assertions.assertThrows;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.DataInputStream;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.Arrays;
+import java.util.Random;
+
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.io.TempDir;
+
+/**
+ * Files through Encode -blocks and back through BlockCodec one block after another.
+ */
+public class BlockCodecTest {
+
+	@TempDir
+	Path directory;
+
+	@Test
+	public void blocksRoundTrip() throws IOException{
+		byte[] bytes = sample(100_000);
+		int blockSize = 4096;
+		byte[] encoded = this.encode(bytes, blockSize);
+
+		// the header has the block size, how many blocks and the length
+		assertEquals(Container.MARKER, encoded[0]);
+		assertEquals(Container.BLOCKS, encoded[1]);
+		assertEquals(blockSize, BlockCodec.getInt(encoded, 2));
+		assertEquals((bytes.length + blockSize - 1) / blockSize, BlockCodec.getInt(encoded, 6));
+		assertEquals(bytes.length, BlockCodec.getLong(encoded, 10));
+
+		assertArrayEquals(bytes, decode(encoded));
+	}
+
+	@Test
+	public void anEmptyFileHasNoBlocks() throws IOException{
+		byte[] encoded = this.encode(new byte[0], 4096);
+		assertEquals(0, BlockCodec.getInt(encoded, 6));
+		assertArrayEquals(new byte[0], decode(encoded));
+	}
+
+	@Test
+	public void everyBlockSizeRoundTrips() throws IOException{
+		byte[] bytes = sample(10_000);
+		for(int blockSize: new int[]{1, 7, 1000, 9999, 10_000, 10_001, BlockCodec.INTERLEAVE_SIZE}){
+			assertArrayEquals(bytes, decode(this.encode(bytes, blockSize)), "blocks of " + blockSize);
+		}
+	}
+
+	@Test
+	public void cutShortFails() throws IOException{
+		byte[] encoded = this.encode(sample(50_000), 4096);
+		byte[] cut = Arrays.copyOf(encoded, encoded.length / 2);
+		assertThrows(IOException.class, () -> decode(cut));
+	}
+
+	@Test
+	public void bigBlocksAreSplitIntoFourStreams() throws IOException{
+		for(int length: new int[]{BlockCodec.INTERLEAVE_SIZE - 1, BlockCodec.INTERLEAVE_SIZE, BlockCodec.INTERLEAVE_SIZE + 1,
+				BlockCodec.INTERLEAVE_SIZE + 2, BlockCodec.INTERLEAVE_SIZE + 3, 100_000}){
+			byte[] bytes = text(length);
+			byte[] block = BlockCodec.encodeBlock(bytes, 0, length, 0);
+			int mode = length < BlockCodec.INTERLEAVE_SIZE ? BlockCodec.SINGLE_STREAM : BlockCodec.FOUR_STREAMS;
+			assertEquals(mode, block[BlockCodec.BLOCK_HEADER_SIZE], length + " bytes");
+			assertArrayEquals(bytes, BlockCodec.decodeBlock(block), length + " bytes");
+		}
+	}
+
+	@Test
+	public void fourStreamsDecodeWhatOneStreamDoes() throws IOException{
+		Random random = new Random(18);
+		// quarters of nothing or a byte or two, and each length limit
+		for(int length: new int[]{1, 2, 3, 4, 5, 7, 31, 1000, 4099}){
+			for(int maxLength: new int[]{0, 11, 15}){
+				byte[] bytes = new byte[length];
+				for(int i = 0; i < length; i++){
+					bytes[i] = (byte) ('a' + Math.min(random.nextInt(30), random.nextInt(30)));
+				}
+				byte[] single = BlockCodec.encodeBlock(ByteBuffer.wrap(bytes), maxLength, BlockCodec.SINGLE_STREAM);
+				byte[] four = BlockCodec.encodeBlock(ByteBuffer.wrap(bytes), maxLength, BlockCodec.FOUR_STREAMS);
+				// the smallest are stored instead, the table costs more than the bits save
+				if(length >= 1000){
+					assertEquals(BlockCodec.FOUR_STREAMS, four[BlockCodec.BLOCK_HEADER_SIZE]);
+				}
+				assertArrayEquals(bytes, BlockCodec.decodeBlock(single), length + " bytes limited to " + maxLength);
+				assertArrayEquals(bytes, BlockCodec.decodeBlock(four), length + " bytes limited to " + maxLength);
+			}
+		}
+		// and a lone symbol, which has no bits at all
+		byte[] same = new byte[BlockCodec.INTERLEAVE_SIZE];
+		Arrays.fill(same, (byte) 'z');
+		assertArrayEquals(same, BlockCodec.decodeBlock(BlockCodec.encodeBlock(same, 0, same.length, 0)));
+	}
+
+	@Test
+	public void codesTooLongForTheTablesDecodeInFourStreams() throws IOException{
+		// Fibonacci counts give codes longer than both levels of the decode table, shuffled so every
+		// stream has some
+		long[] counts = CodeLengthsTest.fibonacci(28);
+		byte[] bytes = new byte[(int) Arrays.stream(counts).sum()];
+		int position = 0;
+		for(int symbol = 0; symbol < counts.length; symbol++){
+			Arrays.fill(bytes, position, position += (int) counts[symbol], (byte) symbol);
+		}
+		Random random = new Random(28);
+		for(int i = bytes.length - 1; i > 0; i--){
+			int j = random.nextInt(i + 1);
+			byte swap = bytes[i];
+			bytes[i] = bytes[j];
+			bytes[j] = swap;
+		}
+		byte[] block = BlockCodec.encodeBlock(ByteBuffer.wrap(bytes), 0, BlockCodec.FOUR_STREAMS);
+		assertArrayEquals(bytes, BlockCodec.decodeBlock(block));
+	}
+
+	@Test
+	public void aBadJumpTableFails() throws IOException{
+		byte[] bytes = text(100_000);
+		byte[] block = BlockCodec.encodeBlock(bytes, 0, bytes.length, 0);
+		// the jump table is the three stream lengths that, with the last stream, make up the rest of the block
+		int jump = BlockCodec.BLOCK_HEADER_SIZE + 1;
+		while(!isJumpTable(block, jump)){
+			jump++;
+		}
+		byte[] longer = block.clone();
+		BlockCodec.putInt(longer, jump, block.length);
+		assertThrows(IOException.class, () -> BlockCodec.decodeBlock(longer));
+		byte[] negative = block.clone();
+		BlockCodec.putInt(negative, jump + 4, -1);
+		assertThrows(IOException.class, () -> BlockCodec.decodeBlock(negative));
+		// a stream boundary in the wrong place leaves the bits of one stream in another
+		byte[] moved = block.clone();
+		BlockCodec.putInt(moved, jump, BlockCodec.getInt(block, jump) - 100);
+		assertThrows(IOException.class, () -> BlockCodec.decodeBlock(moved));
+	}
+
+	/**
+	 * Is this where a four stream block's jump table is? The three lengths there have to be about a
+	 * quarter of the rest each, and leave the fourth stream about the same.
+	 * @param block the block, header and all
+	 * @param offset where to look
+	 * @return true if the three ints there fit
+	 */
+	private static boolean isJumpTable(byte[] block, int offset){
+		int rest = block.length - offset - 12;
+		int last = rest;
+		for(int stream = 0; stream < 3; stream++){
+			int length = BlockCodec.getInt(block, offset + 4 * stream);
+			if(length < rest / 5 || length > rest / 3){
+				return false;
+			}
+			last -= length;
+		}
+		return last >= rest / 5 && last <= rest / 3;
+	}
+
+	/**
+	 * Text with a run of random bytes in the middle, so some blocks are coded and some stored.
+	 * @param length how many bytes
+	 * @return the bytes
+	 */
+	protected static byte[] sample(int length){
+		byte[] bytes = text(length);
+		byte[] noise = new byte[length / 4];
+		new Random(length).nextBytes(noise);
+		System.arraycopy(noise, 0, bytes, length / 3, noise.length);
+		return bytes;
+	}
+
+	/**
+	 * Text alone, which is always worth coding.
+	 * @param length how many bytes
+	 * @return the bytes
+	 */
+	private static byte[] text(int length){
+		byte[] text = "It was the best of times, it was the worst of times, it was the age of wisdom.\n"
+				.repeat(length / 40 + 1).getBytes(StandardCharsets.US_ASCII);
+		return Arrays.copyOf(text, length);
+	}
+
+	/**
+	 * Encodes bytes into a block container through a file.
+	 * @param bytes the bytes
+	 * @param blockSize how many bytes go in each block
+	 * @return the container
+	 * @throws IOException if the files can not be written or read
+	 */
+	private byte[] encode(byte[] bytes, int blockSize) throws IOException{
+		Path source = Files.write(this.directory.resolve("source"), bytes);
+		Path target = this.directory.resolve("encoded");
+		Encode encode = new Encode(source.toString(), target.toString(), blockSize);
+		encode.encode();
+		assertNull(encode.getFailure());
+		return Files.readAllBytes(target);
+	}
+
+	/**
+	 * Decodes a container one block after another, the way a stream is decoded.
+	 * @param encoded the container
+	 * @return the decoded bytes
+	 * @throws IOException if the container is corrupt
+	 */
+	private static byte[] decode(byte[] encoded) throws IOException{
+		DataInputStream in = new DataInputStream(new ByteArrayInputStream(encoded));
+		assertEquals(Container.MARKER, in.readByte());
+		assertEquals(Container.BLOCKS, in.readByte());
+		ByteArrayOutputStream out = new ByteArrayOutputStream();
+		BlockCodec.decodeContainer(in, out);
+		return out.toByteArray();
+	}
+}
@@ -0,0 +1,108 @@
+package huffman;
+
+import static org.junit.jupiter.api.Assertions.assertArrayEquals;
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertNotNull;
+import static org.junit.jupiter.api.Assertions.assertNull;
+import static org.junit.jupiter.api.Assertions.assertThrows;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+import java.io.IOException;
+import java.nio.channels.FileChannel;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+import java.util.Random;
+
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.io.TempDir;
+
+/**
+ * Block containers decoded a block per task through the index at their end.
+ */
+public class BlockIndexTest {
+
+	@TempDir
+	Path directory;
+
+	@Test
+	public void theIndexPointsAtEveryBlock() throws IOException{
+		byte[] bytes = BlockCodecTest.sample(100_000);
+		int blockSize = 4096;
+		Path container = this.encode(bytes, blockSize);
+		try(FileChannel channel = FileChannel.open(container, StandardOpenOption.READ)){
+			BlockIndex index = BlockIndex.read(channel);
+			assertEquals(blockSize, index.blockSize);
+			assertEquals(bytes.length, index.length);
+			assertEquals((bytes.length + blockSize - 1) / blockSize, index.blockCount());
+			assertEquals(BlockCodec.HEADER_SIZE, index.offsets[0]);
+			for(int i = 0; i < index.blockCount(); i++){
+				assertEquals((long) i * blockSize, index.outputOffsets[i]);
+				assertTrue(index.end(i) > index.offsets[i]);
+				// each block read on its own decodes to its slice of the file
+				byte[] raw = BlockCodec.decodeBlock(index.readBlock(channel, i));
+				int length = Math.min(blockSize, bytes.length - i * blockSize);
+				byte[] slice = new byte[length];
+				System.arraycopy(bytes, i * blockSize, slice, 0, length);
+				assertArrayEquals(slice, raw, "block " + i);
+			}
+			assertEquals(channel.size() - 8 - 16L * index.blockCount(), index.indexOffset);
+		}
+	}
+
+	@Test
+	public void blocksDecodeInParallel() throws IOException{
+		byte[] bytes = BlockCodecTest.sample(300_000);
+		Path container = this.encode(bytes, 4096);
+		Path decoded = this.directory.resolve("decoded");
+		Decode decode = new Decode(container.toString(), decoded.toString());
+		decode.decode();
+		assertNull(decode.getFailure());
+		assertArrayEquals(bytes, Files.readAllBytes(decoded));
+	}
+
+	@Test
+	public void rangesDecodeJustTheBlocksTheyTouch() throws IOException{
+		byte[] bytes = BlockCodecTest.sample(100_000);
+		Decode decode = new Decode(this.encode(bytes, 4096).toString(), this.directory.resolve("decoded").toString());
+		// inside a block, on and across block edges, across many blocks and running past the end
+		long[][] ranges = {{10, 10}, {4096, 4096}, {4095, 2}, {8000, 50_000}, {98_000, 4096}, {100_000, 1}, {200_000, 1}, {7, 0}};
+		for(long[] range: ranges){
+			CheckpointIndexTest.assertRange(bytes, decode, range[0], (int) range[1]);
+		}
+		Random random = new Random(19);
+		for(int i = 0; i < 100; i++){
+			CheckpointIndexTest.assertRange(bytes, decode, random.nextInt(bytes.length), random.nextInt(20_000));
+		}
+	}
+
+	@Test
+	public void aBrokenTrailerFails() throws IOException{
+		Path container = this.encode(BlockCodecTest.sample(20_000), 4096);
+		byte[] bytes = Files.readAllBytes(container);
+		BlockCodec.putLong(bytes, bytes.length - 8, 3);
+		Files.write(container, bytes);
+		try(FileChannel channel = FileChannel.open(container, StandardOpenOption.READ)){
+			assertThrows(IOException.class, () -> BlockIndex.read(channel));
+		}
+		Decode decode = new Decode(container.toString(), this.directory.resolve("decoded").toString());
+		decode.decode();
+		assertNotNull(decode.getFailure());
+	}
+
+	/**
+	 * Encodes bytes into a block container.
+	 * @param bytes the bytes
+	 * @param blockSize how many bytes go in each block
+	 * @return the container
+	 * @throws IOException if the files can not be written
+	 */
+	private Path encode(byte[] bytes, int blockSize) throws IOException{
+		Path source = Files.write(this.directory.resolve("source"), bytes);
+		Path target = this.directory.resolve("encoded");
+		Encode encode = new Encode(source.toString(), target.toString(), blockSize);
+		encode.encode();
+		assertNull(encode.getFailure());
+		return target;
+	}
+}
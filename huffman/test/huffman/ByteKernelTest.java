@@ -0,0 +1,132 @@
+package huffman;
+
+import static org.junit.jupiter.api.Assertions.assertArrayEquals;
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+import static org.junit.jupiter.api.Assumptions.assumeTrue;
+
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.util.Arrays;
+import java.util.Random;
+
+import org.junit.jupiter.api.Test;
+
+/**
+ * The vector kernel against the scalar one: both have to count and write exactly the same.
+ */
+public class ByteKernelTest {
+
+	@Test
+	public void theBuildHasTheVectorKernel(){
+		// the tests run with --add-modules jdk.incubator.vector, so unless this machine's vectors are too
+		// narrow create hands out the vector kernel
+		ByteKernel vector = ByteKernel.vector();
+		assumeTrue(vector != null, "no vector kernel on this machine");
+		assertEquals(VectorByteKernel.class, vector.getClass());
+		assertEquals(VectorByteKernel.class, ByteKernel.create().getClass());
+		assertEquals(ByteKernel.class, ByteKernel.scalar().getClass());
+	}
+
+	@Test
+	public void vectorCountsMatchScalarCounts(){
+		ByteKernel vector = ByteKernel.vector();
+		assumeTrue(vector != null, "no vector kernel on this machine");
+		ByteKernel scalar = ByteKernel.scalar();
+		Random random = new Random(24);
+		// under and over the length the vectors start at, whole and part batches, from odd offsets
+		for(int length: new int[]{0, 1, 255, 1023, 1024, 1025, 4096, 4097, 100_000}){
+			for(boolean direct: new boolean[]{false, true}){
+				byte[] bytes = bytes(random, length + 7);
+				ByteBuffer buffer = direct ? ByteBuffer.allocateDirect(bytes.length).put(bytes) : ByteBuffer.wrap(bytes);
+				int from = random.nextInt(8);
+				int to = Math.min(from + length, bytes.length);
+				long[] expected = new long[Histogram.BYTES];
+				for(int i = from; i < to; i++){
+					expected[bytes[i] & 0xFF]++;
+				}
+				// counts add to what is there already
+				long[] scalarCounts = new long[Histogram.BYTES];
+				long[] vectorCounts = new long[Histogram.BYTES];
+				scalarCounts['q'] = 1000;
+				vectorCounts['q'] = 1000;
+				expected['q'] += 1000;
+				scalar.count(buffer, from, to, scalarCounts);
+				vector.count(buffer, from, to, vectorCounts);
+				assertArrayEquals(expected, scalarCounts, length + " bytes");
+				assertArrayEquals(expected, vectorCounts, length + " bytes");
+			}
+		}
+	}
+
+	@Test
+	public void packedCodesMatchOneAtATime() throws IOException{
+		ByteKernel vector = ByteKernel.vector();
+		assumeTrue(vector != null, "no vector kernel on this machine");
+		ByteKernel scalar = ByteKernel.scalar();
+		Random random = new Random(25);
+		// codes short enough to pack four to a long, the most that are, and too long to pack at all
+		for(int maxLength: new int[]{8, 12, 16, 0}){
+			for(int length: new int[]{1, 1023, 1024, 5000, 65_536}){
+				byte[] bytes = bytes(random, length);
+				long[] counts = new long[Histogram.BYTES];
+				for(byte b: bytes){
+					counts[b & 0xFF]++;
+				}
+				int[] lengths;
+				if(maxLength == 0){
+					// counts that double from byte to byte, so the codes go past what packs and the vector
+					// kernel has to leave them to the scalar one
+					for(int symbol = 0; symbol < counts.length; symbol++){
+						counts[symbol] <<= symbol % 32;
+					}
+					lengths = CodeLengths.huffmanLengths(counts);
+					assertTrue(Arrays.stream(lengths).max().getAsInt() > 16 || length < 1024, length + " bytes");
+				}else{
+					lengths = CodeLengths.limitedLengths(counts, maxLength);
+				}
+				EncodeTable table = CodeTable.fromFrequencies(counts, lengths).encodeTable();
+				ByteBuffer buffer = ByteBuffer.wrap(bytes);
+				byte[] expected = write(scalar, buffer, table, false);
+				assertArrayEquals(expected, write(scalar, buffer, table, true), length + " bytes limited to " + maxLength);
+				assertArrayEquals(expected, write(vector, buffer, table, true), length + " bytes limited to " + maxLength);
+			}
+		}
+	}
+
+	/**
+	 * Writes the codes of a buffer's bytes with a kernel.
+	 * @param kernel the kernel
+	 * @param bytes the bytes
+	 * @param table the code of every byte
+	 * @param packed whether to go through encodePacked rather than encode
+	 * @return the bits, flushed out to whole bytes
+	 * @throws IOException never, the bits go to memory
+	 */
+	private static byte[] write(ByteKernel kernel, ByteBuffer bytes, EncodeTable table, boolean packed) throws IOException{
+		ByteArrayOutputStream out = new ByteArrayOutputStream();
+		BitWriter writer = new BitWriter(out);
+		if(packed){
+			kernel.encodePacked(bytes, 0, bytes.limit(), table, writer);
+		}else{
+			kernel.encode(bytes, 0, bytes.limit(), table, writer);
+		}
+		writer.flush();
+		return out.toByteArray();
+	}
+
+	/**
+	 * Bytes skewed toward the small ones, with every value turning up now and then.
+	 * @param random where the bytes come from
+	 * @param length how many bytes
+	 * @return the bytes
+	 */
+	private static byte[] bytes(Random random, int length){
+		byte[] bytes = new byte[length];
+		for(int i = 0; i < length; i++){
+			bytes[i] = (byte) (random.nextInt(20) == 0 ? random.nextInt(256) : Math.min(random.nextInt(64), random.nextInt(64)));
+		}
+		return bytes;
+	}
+}
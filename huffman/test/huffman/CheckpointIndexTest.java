@@ -0,0 +1,137 @@
+package huffman;
+
+import static org.junit.jupiter.api.Assertions.assertArrayEquals;
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertNull;
+import static org.junit.jupiter.api.Assertions.assertThrows;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+import java.io.IOException;
+import java.nio.channels.FileChannel;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+import java.util.Arrays;
+import java.util.Random;
+
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.io.TempDir;
+
+/**
+ * Raw files encoded with a checkpoint index (Encode -index) and decoded a range at a time.
+ */
+public class CheckpointIndexTest {
+
+	@TempDir
+	Path directory;
+
+	@Test
+	public void theIndexHasACheckpointEveryInterval() throws IOException{
+		byte[] bytes = BlockCodecTest.sample(100_000);
+		Path indexed = this.encode(bytes, 1000);
+		byte[] encoded = Files.readAllBytes(indexed);
+		assertEquals(Container.MARKER, encoded[0]);
+		assertEquals(Container.INDEXED, encoded[1]);
+		assertEquals(1000, BlockCodec.getInt(encoded, 2));
+		assertEquals(bytes.length, BlockCodec.getLong(encoded, 6));
+		try(FileChannel channel = FileChannel.open(indexed, StandardOpenOption.READ)){
+			CheckpointIndex index = CheckpointIndex.read(channel);
+			assertEquals(100, index.checkpoints.length);
+			assertEquals(encoded.length - 8 - 8 * 100, index.indexOffset);
+			// each checkpoint is further on than the one before
+			for(int k = 1; k < index.checkpoints.length; k++){
+				assertTrue(index.checkpoints[k] > index.checkpoints[k - 1], "checkpoint " + k);
+			}
+		}
+	}
+
+	@Test
+	public void rangesDecodeThroughTheIndex() throws IOException{
+		byte[] bytes = BlockCodecTest.sample(100_000);
+		Decode decode = new Decode(this.encode(bytes, 1000).toString(), this.directory.resolve("decoded").toString());
+		// on a checkpoint, either side of one, across many and running past the end
+		long[][] ranges = {{0, 10}, {1000, 1}, {999, 2}, {1001, 998}, {12_345, 40_000}, {99_990, 100}, {100_000, 5}, {5000, 0}};
+		for(long[] range: ranges){
+			assertRange(bytes, decode, range[0], (int) range[1]);
+		}
+		Random random = new Random(19);
+		for(int i = 0; i < 100; i++){
+			assertRange(bytes, decode, random.nextInt(bytes.length), random.nextInt(5000));
+		}
+	}
+
+	@Test
+	public void everyIntervalDecodes() throws IOException{
+		byte[] bytes = BlockCodecTest.sample(5000);
+		for(int interval: new int[]{1, 7, 4999, 5000, 5001, Integer.MAX_VALUE}){
+			Path indexed = this.encode(bytes, interval);
+			Decode decode = new Decode(indexed.toString(), this.directory.resolve("decoded").toString());
+			assertRange(bytes, decode, 0, bytes.length);
+			assertRange(bytes, decode, 2500, 17);
+
+			// the whole file decodes as any raw file does
+			decode.decode();
+			assertNull(decode.getFailure());
+			assertArrayEquals(bytes, Files.readAllBytes(this.directory.resolve("decoded")), "a checkpoint every " + interval);
+		}
+	}
+
+	@Test
+	public void anEmptyFileHasNoRange() throws IOException{
+		Decode decode = new Decode(this.encode(new byte[0], 1000).toString(), this.directory.resolve("decoded").toString());
+		assertArrayEquals(new byte[0], decode.decodeRange(0, 100));
+	}
+
+	@Test
+	public void badRangesAndFilesFail() throws IOException{
+		byte[] bytes = BlockCodecTest.sample(20_000);
+		Path indexed = this.encode(bytes, 1000);
+		Decode decode = new Decode(indexed.toString(), this.directory.resolve("decoded").toString());
+		assertThrows(IllegalArgumentException.class, () -> decode.decodeRange(-1, 10));
+		assertThrows(IllegalArgumentException.class, () -> decode.decodeRange(0, -10));
+
+		// an index that points past the end of the file
+		byte[] encoded = Files.readAllBytes(indexed);
+		BlockCodec.putLong(encoded, encoded.length - 8, encoded.length);
+		Files.write(indexed, encoded);
+		assertThrows(IOException.class, () -> decode.decodeRange(0, 10));
+
+		// a file without an index
+		Path plain = Files.write(this.directory.resolve("plain"), bytes);
+		Path encodedPlain = this.directory.resolve("plain.huf");
+		new Encode(plain.toString(), encodedPlain.toString()).encode();
+		assertThrows(IOException.class, () -> new Decode(encodedPlain.toString(), plain.toString()).decodeRange(0, 10));
+	}
+
+	/**
+	 * Checks a range decodes to the same bytes as that slice of the file.
+	 * @param bytes the whole file
+	 * @param decode a Decode reading the encoded file
+	 * @param offset where the range starts
+	 * @param length how long it is
+	 * @throws IOException if the range can not be decoded
+	 */
+	protected static void assertRange(byte[] bytes, Decode decode, long offset, int length) throws IOException{
+		int from = (int) Math.min(offset, bytes.length);
+		int to = (int) Math.min(offset + length, bytes.length);
+		assertArrayEquals(Arrays.copyOfRange(bytes, from, to), decode.decodeRange(offset, length), offset + " for " + length);
+	}
+
+	/**
+	 * Encodes bytes as a raw file with a checkpoint index.
+	 * @param bytes the bytes
+	 * @param interval how many bytes apart the checkpoints are
+	 * @return the encoded file
+	 * @throws IOException if the files can not be written
+	 */
+	private Path encode(byte[] bytes, int interval) throws IOException{
+		Path source = Files.write(this.directory.resolve("source"), bytes);
+		Path target = this.directory.resolve("encoded");
+		Encode encode = new Encode(source.toString(), target.toString());
+		encode.setRaw(true);
+		encode.setCheckpointInterval(interval);
+		encode.encode();
+		assertNull(encode.getFailure());
+		return target;
+	}
+}
@@ -0,0 +1,241 @@
+package huffman;
+
+import static org.junit.jupiter.api.Assertions.assertArrayEquals;
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+import java.util.Arrays;
+import java.util.PriorityQueue;
+import java.util.Random;
+
+import org.junit.jupiter.api.Test;
+
+/**
+ * Code lengths worked out straight from the counts, checked against brute force on small alphabets.
+ */
+public class CodeLengthsTest {
+
+	@Test
+	public void limitedLengthsStayInsideTheLimit(){
+		// Fibonacci counts make a plain Huffman code as deep as there are symbols
+		long[] frequencies = fibonacci(40);
+		for(int limit = 6; limit <= 40; limit++){
+			int[] lengths = CodeLengths.limitedLengths(frequencies, limit);
+			for(int symbol = 0; symbol < frequencies.length; symbol++){
+				assertTrue(lengths[symbol] >= 1 && lengths[symbol] <= limit, "symbol " + symbol + " with a limit of " + limit);
+			}
+			assertEquals(1.0, kraft(lengths), "limit " + limit);
+		}
+	}
+
+	@Test
+	public void limitedLengthsAreTheBestWithinTheLimit(){
+		Random random = new Random(10);
+		for(int trial = 0; trial < 200; trial++){
+			int n = 2 + random.nextInt(7);
+			long[] frequencies = new long[n];
+			for(int i = 0; i < n; i++){
+				// skewed counts so the limit actually bites
+				frequencies[i] = 1 + (long) Math.pow(random.nextInt(12), random.nextInt(5));
+			}
+			int minimum = 64 - Long.numberOfLeadingZeros(n - 1);
+			int limit = minimum + random.nextInt(4);
+			int[] lengths = CodeLengths.limitedLengths(frequencies, limit);
+			assertTrue(Arrays.stream(lengths).max().getAsInt() <= limit);
+			assertTrue(kraft(lengths) <= 1.0);
+			assertEquals(bestCost(frequencies, limit), cost(frequencies, lengths), Arrays.toString(frequencies) + " limited to " + limit);
+		}
+	}
+
+	@Test
+	public void aLimitTooSmallIsRaised(){
+		// five symbols can not all fit in two bits
+		int[] lengths = CodeLengths.limitedLengths(new long[]{1, 1, 1, 1, 1}, 2);
+		assertEquals(3, Arrays.stream(lengths).max().getAsInt());
+		assertEquals(1.0, kraft(lengths));
+	}
+
+	@Test
+	public void symbolsThatDoNotAppearGetNoCode(){
+		long[] frequencies = new long[Histogram.BYTES];
+		frequencies['a'] = 5;
+		frequencies['z'] = 3;
+		int[] lengths = CodeLengths.limitedLengths(frequencies, 15);
+		assertEquals(1, lengths['a']);
+		assertEquals(1, lengths['z']);
+		assertEquals(2, Arrays.stream(lengths).sum());
+
+		// and a lone symbol needs no bits at all
+		frequencies['z'] = 0;
+		assertEquals(0, Arrays.stream(CodeLengths.limitedLengths(frequencies, 15)).sum());
+	}
+
+	@Test
+	public void huffmanLengthsCostWhatATreeCosts(){
+		Random random = new Random(16);
+		for(int trial = 0; trial < 500; trial++){
+			long[] frequencies = new long[Histogram.BYTES];
+			int n = 2 + random.nextInt(Histogram.BYTES - 1);
+			for(int i = 0; i < n; i++){
+				// plenty of ties, and a few symbols far ahead of the rest
+				frequencies[random.nextInt(frequencies.length)] = 1 + (random.nextInt(10) == 0 ? random.nextInt(1 << 20) : random.nextInt(20));
+			}
+			int[] lengths = CodeLengths.huffmanLengths(frequencies);
+			assertEquals(treeCost(frequencies), cost(frequencies, lengths), "trial " + trial);
+			assertEquals(1.0, kraft(lengths), "trial " + trial);
+		}
+	}
+
+	@Test
+	public void huffmanLengthsAreTheBestThereIs(){
+		Random random = new Random(17);
+		for(int trial = 0; trial < 200; trial++){
+			int n = 2 + random.nextInt(7);
+			long[] frequencies = new long[n];
+			for(int i = 0; i < n; i++){
+				frequencies[i] = 1 + random.nextInt(100);
+			}
+			// no code is ever longer than n - 1 bits, so that limit leaves every code to try
+			assertEquals(bestCost(frequencies, n - 1), cost(frequencies, CodeLengths.huffmanLengths(frequencies)), Arrays.toString(frequencies));
+		}
+	}
+
+	@Test
+	public void fibonacciCountsMakeTheDeepestCode(){
+		int[] lengths = CodeLengths.huffmanLengths(fibonacci(40));
+		assertEquals(39, Arrays.stream(lengths).max().getAsInt());
+		assertEquals(1, lengths[39]);
+		assertEquals(1.0, kraft(lengths));
+	}
+
+	@Test
+	public void reusedArraysGiveTheSameLengths(){
+		Random random = new Random(18);
+		int[] lengths = new int[Histogram.CHARS];
+		int[] symbols = new int[Histogram.CHARS];
+		long[] scratch = new long[Histogram.CHARS];
+		for(int size: new int[]{Histogram.CHARS, Histogram.BYTES, 2, Histogram.BYTES, 1, 0}){
+			long[] frequencies = new long[size];
+			for(int i = 0; i < size; i++){
+				frequencies[i] = random.nextInt(3) == 0 ? 0 : random.nextInt(1000);
+			}
+			CodeLengths.huffmanLengths(frequencies, lengths, symbols, scratch);
+			assertArrayEquals(CodeLengths.huffmanLengths(frequencies), Arrays.copyOf(lengths, size), size + " symbols");
+		}
+	}
+
+	@Test
+	public void countsTooBigToPackStillSort(){
+		// too big to share a long with a byte's symbol, so the boxed sort does the work
+		long[] frequencies = new long[Histogram.BYTES];
+		frequencies['a'] = 1L << 58;
+		frequencies['b'] = 3L << 57;
+		frequencies['c'] = 1L << 59;
+		frequencies['d'] = 1;
+		int[] lengths = CodeLengths.huffmanLengths(frequencies);
+		assertEquals(treeCost(frequencies), cost(frequencies, lengths));
+		assertEquals(1, lengths['c']);
+		assertEquals(3, lengths['d']);
+	}
+
+	/**
+	 * The first n Fibonacci numbers.
+	 * @param n how many
+	 * @return the numbers
+	 */
+	protected static long[] fibonacci(int n){
+		long[] frequencies = new long[n];
+		for(int i = 0; i < n; i++){
+			frequencies[i] = i < 2 ? 1 : frequencies[i - 1] + frequencies[i - 2];
+		}
+		return frequencies;
+	}
+
+	/**
+	 * The sum of 2^-length over the symbols that have a code, exactly 1 for a complete prefix code.
+	 * @param lengths the code lengths
+	 * @return the sum
+	 */
+	protected static double kraft(int[] lengths){
+		double sum = 0;
+		for(int length: lengths){
+			if(length > 0){
+				sum += Math.pow(2, -length);
+			}
+		}
+		return sum;
+	}
+
+	/**
+	 * How many bits a code takes for the counts.
+	 * @param frequencies how often each symbol appears
+	 * @param lengths the code lengths
+	 * @return the bits
+	 */
+	protected static long cost(long[] frequencies, int[] lengths){
+		long bits = 0;
+		for(int symbol = 0; symbol < frequencies.length; symbol++){
+			bits += frequencies[symbol] * lengths[symbol];
+		}
+		return bits;
+	}
+
+	/**
+	 * The fewest bits any prefix code no longer than the limit takes, by trying every set of lengths. The
+	 * most frequent symbols get the shortest codes, so it is enough to try the lengths in order.
+	 * @param frequencies how often each symbol appears, all of them more than 0
+	 * @param limit the longest code
+	 * @return the bits
+	 */
+	private static long bestCost(long[] frequencies, int limit){
+		long[] sorted = frequencies.clone();
+		Arrays.sort(sorted);
+		return bestCost(sorted, sorted.length - 1, 1, limit, 0.0, 0);
+	}
+
+	/**
+	 * Tries every length from shortest up for the next most frequent symbol.
+	 * @param sorted the counts, least frequent first
+	 * @param symbol the next symbol to give a length, counting down
+	 * @param shortest the shortest length it may have, the one before it got
+	 * @param limit the longest code
+	 * @param kraft the Kraft sum so far
+	 * @param bits the bits so far
+	 * @return the fewest bits
+	 */
+	private static long bestCost(long[] sorted, int symbol, int shortest, int limit, double kraft, long bits){
+		if(symbol < 0){
+			return bits;
+		}
+		long best = Long.MAX_VALUE;
+		for(int length = shortest; length <= limit; length++){
+			double sum = kraft + Math.pow(2, -length);
+			if(sum <= 1.0){
+				best = Math.min(best, bestCost(sorted, symbol - 1, length, limit, sum, bits + sorted[symbol] * length));
+			}
+		}
+		return best;
+	}
+
+	/**
+	 * What a Huffman tree built with a priority queue costs: every merge adds its weight once for each
+	 * level it pushes its leaves down.
+	 * @param frequencies how often each symbol appears
+	 * @return the bits
+	 */
+	private static long treeCost(long[] frequencies){
+		PriorityQueue<Long> queue = new PriorityQueue<>();
+		for(long frequency: frequencies){
+			if(frequency > 0){
+				queue.add(frequency);
+			}
+		}
+		long bits = 0;
+		while(queue.size() > 1){
+			long merged = queue.poll() + queue.poll();
+			bits += merged;
+			queue.add(merged);
+		}
+		return bits;
+	}
+}
@@ -0,0 +1,112 @@
+package huffman;
+
+import static org.junit.jupiter.api.Assertions.assertArrayEquals;
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertFalse;
+import static org.junit.jupiter.api.Assertions.assertThrows;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+import java.util.Arrays;
+import java.util.Random;
+
+import org.junit.jupiter.api.Test;
+
+/**
+ * Canonical codes worked out from symbols and lengths, by the constructor and by set on a reused table.
+ */
+public class CodeTableTest {
+
+	@Test
+	public void codesAreCanonicalLongestFirst(){
+		// longest codes first counting up from 0, ties by the smaller symbol
+		CodeTable code = new CodeTable(new int[]{'d', 'a', 'c', 'b'}, new int[]{3, 1, 3, 2}, Histogram.BYTES);
+		assertArrayEquals(new int[]{'c', 'd', 'b', 'a'}, Arrays.copyOf(code.symbols, code.size()));
+		assertArrayEquals(new int[]{3, 3, 2, 1}, Arrays.copyOf(code.lengths, code.size()));
+		assertEquals(0b000, code.code['c']);
+		assertEquals(0b001, code.code['d']);
+		assertEquals(0b01, code.code['b']);
+		assertEquals(0b1, code.code['a']);
+		assertEquals(3, code.maxLength);
+		assertEquals(0, code.length['e']);
+		assertFalse(code.has('e'));
+		assertTrue(code.has('a'));
+	}
+
+	@Test
+	public void noCodeIsThePrefixOfAnother(){
+		Random random = new Random(17);
+		for(int trial = 0; trial < 100; trial++){
+			long[] frequencies = new long[Histogram.BYTES];
+			for(int i = 0; i < frequencies.length; i++){
+				frequencies[i] = random.nextInt(4) == 0 ? 0 : 1 + random.nextInt(1 << random.nextInt(16));
+			}
+			CodeTable code = CodeTable.fromFrequencies(frequencies, CodeLengths.limitedLengths(frequencies, DecodeTable.MAX_LENGTH));
+			for(int a = 0; a < code.size(); a++){
+				for(int b = 0; b < code.size(); b++){
+					int x = code.symbols[a];
+					int y = code.symbols[b];
+					if(x != y && code.length[x] <= code.length[y]){
+						// x is a prefix of y if y's first bits are x
+						assertTrue(code.code[y] >>> (code.length[y] - code.length[x]) != code.code[x], x + " is a prefix of " + y);
+					}
+				}
+			}
+		}
+	}
+
+	@Test
+	public void aReusedTableMatchesANewOne(){
+		Random random = new Random(18);
+		CodeTable reused = new CodeTable(Histogram.BYTES);
+		for(int trial = 0; trial < 50; trial++){
+			long[] frequencies = new long[Histogram.BYTES];
+			// a different number of symbols each time, so stale slots would show
+			int n = 1 + random.nextInt(frequencies.length);
+			for(int i = 0; i < n; i++){
+				frequencies[random.nextInt(frequencies.length)] = 1 + random.nextInt(1000);
+			}
+			int[] lengths = CodeLengths.limitedLengths(frequencies, DecodeTable.MAX_LENGTH);
+			CodeTable code = CodeTable.fromFrequencies(frequencies, lengths);
+			int[] symbols = new int[code.size()];
+			int[] symbolLengths = new int[code.size()];
+			int size = 0;
+			for(int symbol = 0; symbol < frequencies.length; symbol++){
+				if(frequencies[symbol] > 0){
+					symbols[size] = symbol;
+					symbolLengths[size++] = lengths[symbol];
+				}
+			}
+			reused.set(symbols, symbolLengths, size);
+			assertEquals(code.size(), reused.size());
+			assertEquals(code.maxLength, reused.maxLength);
+			assertArrayEquals(code.code, reused.code);
+			assertArrayEquals(code.length, reused.length);
+			assertArrayEquals(Arrays.copyOf(code.symbols, size), Arrays.copyOf(reused.symbols, size));
+			assertArrayEquals(Arrays.copyOf(code.lengths, size), Arrays.copyOf(reused.lengths, size));
+		}
+	}
+
+	@Test
+	public void aLoneSymbolHasACodeOfNoBits(){
+		CodeTable code = new CodeTable(new int[]{'x'}, new int[]{0}, Histogram.BYTES);
+		assertEquals(1, code.size());
+		assertTrue(code.has('x'));
+		assertFalse(code.has('y'));
+		assertEquals(0, code.length['x']);
+	}
+
+	@Test
+	public void lengthsThatAreNotACodeFail(){
+		// three one bit codes, a repeated symbol, one out of range, and lengths no decoder takes
+		assertThrows(IllegalArgumentException.class, () -> new CodeTable(new int[]{1, 2, 3}, new int[]{1, 1, 1}, Histogram.BYTES));
+		assertThrows(IllegalArgumentException.class, () -> new CodeTable(new int[]{1, 1}, new int[]{1, 1}, Histogram.BYTES));
+		assertThrows(IllegalArgumentException.class, () -> new CodeTable(new int[]{1, Histogram.BYTES}, new int[]{1, 1}, Histogram.BYTES));
+		assertThrows(IllegalArgumentException.class, () -> new CodeTable(new int[]{1, 2}, new int[]{-1, 1}, Histogram.BYTES));
+		assertThrows(IllegalArgumentException.class, () -> new CodeTable(new int[]{1, 2}, new int[]{1, DecodeTable.MAX_LENGTH + 1}, Histogram.BYTES));
+
+		// set wants its symbols in order
+		CodeTable reused = new CodeTable(Histogram.BYTES);
+		assertThrows(IllegalArgumentException.class, () -> reused.set(new int[]{2, 1}, new int[]{1, 1}, 2));
+		assertThrows(IllegalArgumentException.class, () -> reused.set(new int[]{1, 2, 3}, new int[]{1, 1, 1}, 3));
+	}
+}
@@ -0,0 +1,106 @@
+package huffman;
+
+import static org.junit.jupiter.api.Assertions.assertArrayEquals;
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertNotEquals;
+import static org.junit.jupiter.api.Assertions.assertThrows;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.DataInputStream;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.charset.StandardCharsets;
+import java.util.Random;
+
+import org.junit.jupiter.api.Test;
+
+/**
+ * Blocks coded with an order-1 ContextModel, on their own and inside a block.
+ */
+public class ContextModelTest {
+
+	@Test
+	public void aModelRoundTripsThroughItsHeader() throws IOException{
+		byte[] bytes = log(50_000);
+		ByteBuffer data = ByteBuffer.wrap(bytes);
+		ContextModel model = ContextModel.build(data, 15);
+		ByteArrayOutputStream encoded = new ByteArrayOutputStream();
+		BitWriter writer = new BitWriter(encoded);
+		model.writeHeader(writer);
+		model.encode(writer, data);
+		writer.flush();
+		byte[] block = encoded.toByteArray();
+		// size works out exactly what writing takes
+		assertEquals(block.length, model.size(data));
+
+		DataInputStream in = new DataInputStream(new ByteArrayInputStream(block));
+		ContextModel read = ContextModel.readHeader(in);
+		int header = block.length - in.available();
+		assertEquals(model.symbols(), read.symbols());
+		byte[] decoded = new byte[bytes.length];
+		read.decode(new BitReader(block, header, block.length - header), decoded, 0, decoded.length);
+		assertArrayEquals(bytes, decoded);
+	}
+
+	@Test
+	public void structuredBlocksAreSmallerWithAContext() throws IOException{
+		byte[] bytes = log(200_000);
+		byte[] plain = BlockCodec.encodeBlock(ByteBuffer.wrap(bytes), 0, BlockCodec.SINGLE_STREAM);
+		for(int maxLength: new int[]{0, 11, 15}){
+			byte[] context = BlockCodec.encodeBlock(ByteBuffer.wrap(bytes), maxLength, BlockCodec.CONTEXT);
+			assertEquals(BlockCodec.CONTEXT, context[BlockCodec.BLOCK_HEADER_SIZE], "limited to " + maxLength);
+			assertTrue(context.length < plain.length, context.length + " bytes against " + plain.length);
+			assertArrayEquals(bytes, BlockCodec.decodeBlock(context), "limited to " + maxLength);
+			// no more tables than a block may have
+			assertTrue((context[BlockCodec.BLOCK_HEADER_SIZE + 1] & 0xFF) + 1 <= ContextModel.MAX_CLASSES);
+		}
+	}
+
+	@Test
+	public void blocksTheModelDoesNotHelpFallBack() throws IOException{
+		// a lone symbol, too few bytes for a class of their own and bytes with no order to them
+		byte[] same = new byte[10_000];
+		byte[] few = "abc".getBytes(StandardCharsets.US_ASCII);
+		byte[] random = new byte[100_000];
+		new Random(20).nextBytes(random);
+		for(byte[] bytes: new byte[][]{same, few, random}){
+			byte[] block = BlockCodec.encodeBlock(ByteBuffer.wrap(bytes), 0, BlockCodec.CONTEXT);
+			assertNotEquals(BlockCodec.CONTEXT, block[BlockCodec.BLOCK_HEADER_SIZE], bytes.length + " bytes");
+			assertArrayEquals(bytes, BlockCodec.decodeBlock(block));
+		}
+	}
+
+	@Test
+	public void aCorruptHeaderFails() throws IOException{
+		byte[] bytes = log(50_000);
+		byte[] block = BlockCodec.encodeBlock(ByteBuffer.wrap(bytes), 0, BlockCodec.CONTEXT);
+		int classes = (block[BlockCodec.BLOCK_HEADER_SIZE + 1] & 0xFF) + 1;
+		// a previous byte in a class there is no table for
+		byte[] corrupt = block.clone();
+		corrupt[BlockCodec.BLOCK_HEADER_SIZE + 2 + 'x'] = (byte) classes;
+		assertThrows(IOException.class, () -> BlockCodec.decodeBlock(corrupt));
+		// and the bits cut short
+		byte[] cut = block.clone();
+		BlockCodec.putInt(cut, 4, BlockCodec.getInt(block, 4) - 100);
+		assertThrows(IOException.class, () -> BlockCodec.decodeBlock(cut));
+	}
+
+	/**
+	 * Lines of a made up log, where each byte says a lot about the next one.
+	 * @param length how many bytes
+	 * @return the bytes
+	 */
+	private static byte[] log(int length){
+		Random random = new Random(length);
+		String[] levels = {"INFO", "WARN", "DEBUG", "ERROR"};
+		StringBuilder log = new StringBuilder();
+		while(log.length() < length){
+			log.append(String.format("2024-05-%02d %02d:%02d:%02d.%03d %s [worker-%d] request %d took %d ms\n", 1 + random.nextInt(28),
+					random.nextInt(24), random.nextInt(60), random.nextInt(60), random.nextInt(1000), levels[random.nextInt(4)],
+					random.nextInt(16), random.nextInt(1_000_000), random.nextInt(5000)));
+		}
+		return log.substring(0, length).getBytes(StandardCharsets.US_ASCII);
+	}
+}
@@ -0,0 +1,134 @@
+package huffman;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertFalse;
+
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.util.Random;
+
+import org.junit.jupiter.api.Test;
+
+/**
+ * Codes short enough for the first level table, long enough for the second level and past both, read
+ * back through a DecodeTable.
+ */
+public class DecodeTableTest {
+
+	@Test
+	public void primaryCodesDecode() throws IOException{
+		// every code fits in the first level
+		int[] lengths = {2, 2, 3, 3, 3, 4, 5, 6, 7, 8, 9, 10, 10};
+		assertDecodes(lengths);
+	}
+
+	@Test
+	public void secondaryCodesDecode() throws IOException{
+		// lengths 1 to 20, the ones past PRIMARY_BITS go through a second level table
+		assertDecodes(skewed(20));
+	}
+
+	@Test
+	public void codesPastBothLevelsDecode() throws IOException{
+		// longer than PRIMARY_BITS + SECONDARY_BITS, those take the slow walk
+		assertDecodes(skewed(DecodeTable.PRIMARY_BITS + DecodeTable.SECONDARY_BITS + 8));
+	}
+
+	@Test
+	public void bitsThatAreNotACodeDecodeToMinusOne(){
+		// a lone symbol has the code 0, a one bit is no code at all
+		CodeTable code = new CodeTable(new int[]{65}, new int[]{1}, Histogram.BYTES);
+		DecodeTable table = code.decodeTable();
+		BitReader reader = new BitReader(new byte[]{0b0100_0000});
+		assertEquals(65, table.decode(reader));
+		assertEquals(-1, table.decode(reader));
+	}
+
+	@Test
+	public void aTableSetToAnotherCodeDecodesThatCode() throws IOException{
+		DecodeTable table = new CodeTable(new int[]{1, 2}, new int[]{1, 1}, Histogram.BYTES).decodeTable();
+		int[] lengths = skewed(30);
+		CodeTable code = canonical(lengths);
+		table.set(code);
+		int[] symbols = sequence(lengths.length);
+		BitReader reader = new BitReader(write(code, symbols));
+		for(int symbol: symbols){
+			assertEquals(symbol, table.decode(reader));
+		}
+	}
+
+	/**
+	 * Writes a long random run of symbols with a code and checks every one of them comes back.
+	 * @param lengths the code length of each symbol, symbol i gets lengths[i]
+	 * @throws IOException never, the bits go to memory
+	 */
+	private static void assertDecodes(int[] lengths) throws IOException{
+		CodeTable code = canonical(lengths);
+		int[] symbols = sequence(lengths.length);
+		BitReader reader = new BitReader(write(code, symbols));
+		DecodeTable table = code.decodeTable();
+		for(int i = 0; i < symbols.length; i++){
+			assertEquals(symbols[i], table.decode(reader), "symbol " + i);
+		}
+		assertFalse(reader.exhausted());
+	}
+
+	/**
+	 * Lengths 1, 2, ... longest - 1, longest, longest: every symbol half as likely as the one before.
+	 * @param longest the longest code
+	 * @return the lengths of longest + 1 symbols
+	 */
+	private static int[] skewed(int longest){
+		int[] lengths = new int[longest + 1];
+		for(int i = 0; i < longest; i++){
+			lengths[i] = i + 1;
+		}
+		lengths[longest] = longest;
+		return lengths;
+	}
+
+	/**
+	 * The code for symbols 0 to lengths.length - 1.
+	 * @param lengths the length of each symbol's code
+	 * @return the code
+	 */
+	private static CodeTable canonical(int[] lengths){
+		int[] symbols = new int[lengths.length];
+		for(int i = 0; i < symbols.length; i++){
+			symbols[i] = i;
+		}
+		return new CodeTable(symbols, lengths, Histogram.BYTES);
+	}
+
+	/**
+	 * Every symbol once, then a few thousand picked at random.
+	 * @param alphabetSize how many symbols there are
+	 * @return the symbols
+	 */
+	private static int[] sequence(int alphabetSize){
+		Random random = new Random(alphabetSize);
+		int[] symbols = new int[alphabetSize + 5000];
+		for(int i = 0; i < symbols.length; i++){
+			symbols[i] = i < alphabetSize ? i : random.nextInt(alphabetSize);
+		}
+		return symbols;
+	}
+
+	/**
+	 * Writes symbols with a code.
+	 * @param code the code
+	 * @param symbols the symbols
+	 * @return the bits, padded to a byte
+	 * @throws IOException never, the bits go to memory
+	 */
+	private static byte[] write(CodeTable code, int[] symbols) throws IOException{
+		ByteArrayOutputStream bytes = new ByteArrayOutputStream();
+		BitWriter writer = new BitWriter(bytes);
+		EncodeTable encodeTable = code.encodeTable();
+		for(int symbol: symbols){
+			encodeTable.write(writer, symbol);
+		}
+		writer.flush();
+		return bytes.toByteArray();
+	}
+}
@@ -0,0 +1,155 @@
+package huffman;
+
+import static org.junit.jupiter.api.Assertions.assertArrayEquals;
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertNotNull;
+import static org.junit.jupiter.api.Assertions.assertNull;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.Arrays;
+import java.util.Random;
+
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.io.TempDir;
+
+/**
+ * Files through Encode and Decode in the default character mode and as raw bytes.
+ */
+public class EncodeTest {
+
+	@TempDir
+	Path directory;
+
+	@Test
+	public void multibyteTextRoundTripsAsText() throws IOException{
+		StringBuilder text = new StringBuilder();
+		for(int i = 0; i < 4000; i++){
+			text.append("привет мир € café 日本語 😀 line ").append(i).append('\n');
+		}
+		byte[] bytes = text.toString().getBytes(StandardCharsets.UTF_8);
+		byte[] encoded = this.encode(bytes);
+		assertEquals(Container.TEXT, encoded[1]);
+		assertArrayEquals(bytes, this.decode(encoded));
+	}
+
+	@Test
+	public void bytesTheCharactersCanNotHoldRoundTrip() throws IOException{
+		// Latin-1 is not UTF-8 and a NUL would end the text, both are encoded as bytes
+		byte[] latin1 = "façade à la crème ".repeat(2000).getBytes(StandardCharsets.ISO_8859_1);
+		assertArrayEquals(latin1, this.decode(this.encode(latin1)));
+		byte[] nul = "abc\0def\n".repeat(5000).getBytes(StandardCharsets.UTF_8);
+		assertArrayEquals(nul, this.decode(this.encode(nul)));
+	}
+
+	@Test
+	public void textCutShortFails() throws IOException{
+		byte[] bytes = "the quick brown fox jumps over the lazy dog\n".repeat(2000).getBytes(StandardCharsets.UTF_8);
+		byte[] encoded = this.encode(bytes);
+		assertEquals(Container.TEXT, encoded[1]);
+		Path source = this.directory.resolve("cut.huf");
+		Files.write(source, Arrays.copyOf(encoded, encoded.length / 2));
+		Decode decode = new Decode(source.toString(), this.directory.resolve("cut.out").toString());
+		decode.decode();
+		assertNotNull(decode.getFailure());
+	}
+
+	@Test
+	public void everyByteValueRoundTripsRaw() throws IOException{
+		// NUL and every other byte, skewed so the code is worth having, then a file of nothing but NUL
+		byte[] bytes = new byte[50_000];
+		for(int i = 0; i < bytes.length; i++){
+			bytes[i] = (byte) (i % 3 == 0 ? i : 0);
+		}
+		byte[] encoded = this.encode(bytes, true);
+		assertEquals(Container.RAW, encoded[1]);
+		assertEquals(bytes.length, BlockCodec.getLong(encoded, 2));
+		assertArrayEquals(bytes, this.decode(encoded));
+
+		byte[] nul = new byte[1000];
+		assertArrayEquals(nul, this.decode(this.encode(nul, true)));
+	}
+
+	@Test
+	public void anEmptyFileRoundTripsRaw() throws IOException{
+		byte[] encoded = this.encode(new byte[0], true);
+		assertEquals(Container.RAW, encoded[1]);
+		assertEquals(2 + 8, encoded.length);
+		assertArrayEquals(new byte[0], this.decode(encoded));
+	}
+
+	@Test
+	public void smallFilesStayInTheStream() throws IOException{
+		// what the original encoder wrote for each, a block container has 50 bytes of headers and index alone
+		String[] texts = {"a", "hello", "hello world", "the quick brown fox"};
+		int[] baseline = {6, 13, 24, 46};
+		for(int i = 0; i < texts.length; i++){
+			byte[] bytes = texts[i].getBytes(StandardCharsets.UTF_8);
+			byte[] encoded = this.encode(bytes);
+			assertEquals(Container.TEXT, encoded[1], texts[i]);
+			assertTrue(encoded.length <= baseline[i], texts[i] + " took " + encoded.length + " bytes");
+			assertArrayEquals(bytes, this.decode(encoded));
+
+			// raw bytes have the length in front of the table as well, but no container
+			byte[] raw = this.encode(bytes, true);
+			assertEquals(Container.RAW, raw[1], texts[i]);
+			assertTrue(raw.length < BlockCodec.storedSize(bytes.length, BlockCodec.DEFAULT_BLOCK_SIZE), texts[i] + " took " + raw.length + " bytes raw");
+			assertArrayEquals(bytes, this.decode(raw));
+		}
+	}
+
+	@Test
+	public void randomBytesFallBackToBlocks() throws IOException{
+		byte[] bytes = new byte[1 << 16];
+		new Random(1).nextBytes(bytes);
+		byte[] encoded = this.encode(bytes, true);
+		assertEquals(Container.BLOCKS, encoded[1]);
+		assertTrue(encoded.length <= BlockCodec.storedSize(bytes.length, BlockCodec.DEFAULT_BLOCK_SIZE));
+		assertArrayEquals(bytes, this.decode(encoded));
+	}
+
+	/**
+	 * Encodes bytes through a file in the default mode.
+	 * @param bytes the bytes
+	 * @return the encoded file
+	 * @throws IOException if the files can not be written or read
+	 */
+	private byte[] encode(byte[] bytes) throws IOException{
+		return this.encode(bytes, false);
+	}
+
+	/**
+	 * Encodes bytes through a file.
+	 * @param bytes the bytes
+	 * @param raw whether they are encoded as raw bytes
+	 * @return the encoded file
+	 * @throws IOException if the files can not be written or read
+	 */
+	private byte[] encode(byte[] bytes, boolean raw) throws IOException{
+		Path source = Files.write(this.directory.resolve("source"), bytes);
+		Path target = this.directory.resolve("encoded");
+		Encode encode = new Encode(source.toString(), target.toString());
+		encode.setRaw(raw);
+		encode.encode();
+		assertNull(encode.getFailure());
+		return Files.readAllBytes(target);
+	}
+
+	/**
+	 * Decodes bytes through a file.
+	 * @param encoded the encoded bytes
+	 * @return the decoded file
+	 * @throws IOException if the files can not be written or read
+	 */
+	private byte[] decode(byte[] encoded) throws IOException{
+		Path source = Files.write(this.directory.resolve("encoded"), encoded);
+		Path target = this.directory.resolve("decoded");
+		Decode decode = new Decode(source.toString(), target.toString());
+		decode.decode();
+		assertNull(decode.getFailure());
+		return Files.readAllBytes(target);
+	}
+}
@@ -0,0 +1,75 @@
+package huffman;
+
+import static org.junit.jupiter.api.Assertions.assertArrayEquals;
+import static org.junit.jupiter.api.Assertions.assertEquals;
+
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.Random;
+
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.io.TempDir;
+
+/**
+ * Byte and character counts, one at a time, unrolled and in parallel over a mapped file.
+ */
+public class HistogramTest {
+
+	@TempDir
+	Path directory;
+
+	@Test
+	public void unrolledCountsMatchOneAtATime(){
+		Random random = new Random(8);
+		// lengths that leave every remainder after the four-way unroll, and long runs of one byte
+		for(int length: new int[]{0, 1, 2, 3, 4, 5, 1023, 100_000}){
+			byte[] bytes = new byte[length];
+			for(int i = 0; i < length; i++){
+				bytes[i] = (byte) (i % 7 == 0 ? random.nextInt(256) : 'e');
+			}
+			long[] expected = new long[Histogram.BYTES];
+			Histogram.countBytes(ByteBuffer.wrap(bytes), expected);
+			long[] counts = new long[Histogram.BYTES];
+			Histogram.countBytesUnrolled(ByteBuffer.wrap(bytes), counts);
+			assertArrayEquals(expected, counts, length + " bytes");
+		}
+	}
+
+	@Test
+	public void countsAddToTheTable(){
+		long[] counts = new long[Histogram.BYTES];
+		counts['a'] = 10;
+		Histogram.countBytesUnrolled(ByteBuffer.wrap("aab".getBytes(StandardCharsets.US_ASCII)), counts);
+		assertEquals(12, counts['a']);
+		assertEquals(1, counts['b']);
+	}
+
+	@Test
+	public void aMappedFileCountsTheSameInParallel() throws IOException{
+		// more than one chunk, so the tables of several tasks are added together
+		byte[] bytes = new byte[(int) (2 * MappedInput.CHUNK_SIZE + 12_345)];
+		new Random(9).nextBytes(bytes);
+		Path file = Files.write(this.directory.resolve("bytes"), bytes);
+		long[] expected = new long[Histogram.BYTES];
+		Histogram.countBytes(ByteBuffer.wrap(bytes), expected);
+		try(MappedInput input = new MappedInput(file.toString())){
+			assertArrayEquals(expected, Histogram.countBytes(input));
+		}
+	}
+
+	@Test
+	public void charactersAreCountedAsTheReaderSeesThem() throws IOException{
+		String text = "naïve café, 日本語 and 😀\n".repeat(1000);
+		Path file = Files.write(this.directory.resolve("text"), text.getBytes(StandardCharsets.UTF_8));
+		long[] expected = new long[Histogram.CHARS];
+		for(int i = 0; i < text.length(); i++){
+			expected[text.charAt(i)]++;
+		}
+		try(MappedInput input = new MappedInput(file.toString())){
+			assertArrayEquals(expected, Histogram.countChars(input));
+		}
+	}
+}
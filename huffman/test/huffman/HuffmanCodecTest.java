@@ -0,0 +1,110 @@
+package huffman;
+
+import static org.junit.jupiter.api.Assertions.assertArrayEquals;
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertNull;
+import static org.junit.jupiter.api.Assertions.assertThrows;
+
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.Arrays;
+
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.io.TempDir;
+
+/**
+ * Messages through HuffmanCodec in memory.
+ */
+public class HuffmanCodecTest {
+
+	@TempDir
+	Path directory;
+
+	@Test
+	public void arraysRoundTrip() throws IOException{
+		for(int length: new int[]{0, 1, 100, 100_000}){
+			byte[] bytes = BlockCodecTest.sample(length);
+			assertArrayEquals(bytes, HuffmanCodec.decode(HuffmanCodec.encode(bytes)), length + " bytes");
+		}
+	}
+
+	@Test
+	public void partsOfArraysRoundTrip() throws IOException{
+		byte[] bytes = BlockCodecTest.sample(10_000);
+		byte[] encoded = HuffmanCodec.encode(bytes, 1000, 5000);
+		assertArrayEquals(Arrays.copyOfRange(bytes, 1000, 6000), HuffmanCodec.decode(encoded));
+
+		// and the container can sit in the middle of a bigger array
+		byte[] padded = new byte[encoded.length + 20];
+		System.arraycopy(encoded, 0, padded, 10, encoded.length);
+		assertArrayEquals(Arrays.copyOfRange(bytes, 1000, 6000), HuffmanCodec.decode(padded, 10, encoded.length));
+	}
+
+	@Test
+	public void heapAndDirectBuffersRoundTrip() throws IOException{
+		byte[] bytes = BlockCodecTest.sample(50_000);
+		ByteBuffer direct = ByteBuffer.allocateDirect(bytes.length);
+		direct.put(bytes).flip();
+		ByteBuffer encoded = HuffmanCodec.encode(direct);
+		assertEquals(direct.limit(), direct.position());
+
+		ByteBuffer encodedDirect = ByteBuffer.allocateDirect(encoded.remaining());
+		encodedDirect.put(encoded.duplicate()).flip();
+		assertEquals(ByteBuffer.wrap(bytes), HuffmanCodec.decode(encoded));
+		assertEquals(ByteBuffer.wrap(bytes), HuffmanCodec.decode(encodedDirect));
+	}
+
+	@Test
+	public void manyBlocksWithALimitRoundTrip() throws IOException{
+		byte[] bytes = BlockCodecTest.sample(100_000);
+		byte[] encoded = HuffmanCodec.encode(ByteBuffer.wrap(bytes), 3000, 12);
+		assertEquals(34, BlockCodec.getInt(encoded, 6));
+		assertArrayEquals(bytes, HuffmanCodec.decode(encoded));
+		assertThrows(IllegalArgumentException.class, () -> HuffmanCodec.encode(ByteBuffer.wrap(bytes), 0, 0));
+	}
+
+	@Test
+	public void encodedBytesAreAContainerDecodeReads() throws IOException{
+		byte[] bytes = BlockCodecTest.sample(100_000);
+		Path container = Files.write(this.directory.resolve("encoded"), HuffmanCodec.encode(bytes));
+		Path decoded = this.directory.resolve("decoded");
+		Decode decode = new Decode(container.toString(), decoded.toString());
+		decode.decode();
+		assertNull(decode.getFailure());
+		assertArrayEquals(bytes, Files.readAllBytes(decoded));
+	}
+
+	@Test
+	public void cutShortFails() throws IOException{
+		byte[] encoded = HuffmanCodec.encode(BlockCodecTest.sample(10_000));
+		assertThrows(IOException.class, () -> HuffmanCodec.decode(Arrays.copyOf(encoded, encoded.length - 30)));
+		assertThrows(IOException.class, () -> HuffmanCodec.decode(new byte[]{1, 2, 3}));
+	}
+
+	@Test
+	public void corruptHeadersFailBeforeAllocating() throws IOException{
+		byte[] encoded = HuffmanCodec.encode("hello".getBytes(StandardCharsets.US_ASCII));
+		assertArrayEquals("hello".getBytes(StandardCharsets.US_ASCII), HuffmanCodec.decode(encoded));
+
+		// a length the one block can not hold
+		byte[] corrupt = encoded.clone();
+		BlockCodec.putLong(corrupt, 10, Integer.MAX_VALUE - 100);
+		assertThrows(IOException.class, () -> HuffmanCodec.decode(corrupt));
+
+		// more blocks than there is room for their headers
+		byte[] blocks = encoded.clone();
+		BlockCodec.putInt(blocks, 6, 1 << 20);
+		assertThrows(IOException.class, () -> HuffmanCodec.decode(blocks));
+
+		// no block size at all, and more than any block may be
+		byte[] empty = encoded.clone();
+		BlockCodec.putInt(empty, 2, 0);
+		assertThrows(IOException.class, () -> HuffmanCodec.decode(empty));
+		byte[] huge = encoded.clone();
+		BlockCodec.putInt(huge, 2, BlockCodec.MAX_BLOCK_SIZE + 1);
+		assertThrows(IOException.class, () -> HuffmanCodec.decode(huge));
+	}
+}
@@ -0,0 +1,137 @@
+package huffman;
+
+import static org.junit.jupiter.api.Assertions.assertArrayEquals;
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertThrows;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.Arrays;
+
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.io.TempDir;
+
+/**
+ * Small messages through a trained HuffmanDictionary and a DictionaryStore.
+ */
+public class HuffmanDictionaryTest {
+
+	private static final byte[] SAMPLE = "{\"user\":42,\"event\":\"click\",\"page\":\"/home\"}".getBytes(StandardCharsets.UTF_8);
+
+	@TempDir
+	Path directory;
+
+	@Test
+	public void messagesRoundTripWithOnlyAFewBytesOfHeader() throws IOException{
+		HuffmanDictionary dictionary = HuffmanDictionary.train(3, SAMPLE, "{\"user\":7,\"event\":\"view\"}".getBytes(StandardCharsets.UTF_8));
+		byte[] encoded = dictionary.encode(SAMPLE);
+		// the marker, kind, id and length, no table, and the bits smaller than the message
+		assertEquals(Container.MARKER, encoded[0]);
+		assertEquals(Container.DICTIONARY, encoded[1]);
+		assertTrue(encoded.length < SAMPLE.length, encoded.length + " bytes");
+		assertArrayEquals(SAMPLE, dictionary.decode(encoded));
+
+		// bytes the samples never had still have a code
+		byte[] unseen = new byte[256];
+		for(int i = 0; i < unseen.length; i++){
+			unseen[i] = (byte) i;
+		}
+		assertArrayEquals(unseen, dictionary.decode(dictionary.encode(unseen)));
+		assertArrayEquals(new byte[0], dictionary.decode(dictionary.encode(new byte[0])));
+		assertArrayEquals(Arrays.copyOfRange(SAMPLE, 5, 15), dictionary.decode(dictionary.encode(SAMPLE, 5, 10)));
+	}
+
+	@Test
+	public void codesStayInsideTheLimit() throws IOException{
+		// every byte but one seen once, that one a million times, a plain code would go past the limit
+		byte[] skewed = new byte[1_000_255];
+		for(int i = 0; i < 255; i++){
+			skewed[i] = (byte) (i + 1);
+		}
+		HuffmanDictionary dictionary = HuffmanDictionary.train(1, skewed);
+		byte[] encoded = dictionary.encode(skewed, 0, 255);
+		// 255 bytes at no more than MAX_LENGTH bits each
+		assertTrue(encoded.length <= 2 + 1 + 2 + (255 * HuffmanDictionary.MAX_LENGTH + 7) / 8);
+		assertArrayEquals(Arrays.copyOf(skewed, 255), dictionary.decode(encoded));
+	}
+
+	@Test
+	public void anotherDictionarysMessageFails(){
+		byte[] encoded = HuffmanDictionary.train(1, SAMPLE).encode(SAMPLE);
+		assertThrows(IOException.class, () -> HuffmanDictionary.train(2, SAMPLE).decode(encoded));
+		assertThrows(IOException.class, () -> HuffmanDictionary.train(1, SAMPLE).decode(Arrays.copyOf(encoded, encoded.length - 3)));
+		assertThrows(IOException.class, () -> HuffmanDictionary.train(1, SAMPLE).decode(new byte[]{0, 'B', 1}));
+	}
+
+	@Test
+	public void aCorpusFileTrainsTheSameDictionary() throws IOException{
+		Path corpus = Files.write(this.directory.resolve("corpus"), SAMPLE);
+		HuffmanDictionary fromFile = HuffmanDictionary.train(9, corpus.toString());
+		HuffmanDictionary fromBytes = HuffmanDictionary.train(9, SAMPLE);
+		assertArrayEquals(fromBytes.encode(SAMPLE), fromFile.encode(SAMPLE));
+		assertArrayEquals(save(fromBytes), save(fromFile));
+	}
+
+	@Test
+	public void theStoreLoadsWhatItNoLongerCaches() throws IOException{
+		// room for one dictionary in memory, the rest come back from their files
+		DictionaryStore store = new DictionaryStore(this.directory.toString(), 1);
+		byte[][] messages = new byte[5][];
+		for(int id = 0; id < messages.length; id++){
+			HuffmanDictionary dictionary = HuffmanDictionary.train(id, SAMPLE, new byte[]{(byte) id});
+			store.save(dictionary);
+			messages[id] = dictionary.encode(SAMPLE);
+		}
+		for(int round = 0; round < 2; round++){
+			for(byte[] message: messages){
+				assertArrayEquals(SAMPLE, store.decode(message));
+			}
+		}
+		assertThrows(IOException.class, () -> store.get(99));
+	}
+
+	@Test
+	public void negativeIdsAreRejected(){
+		assertThrows(IllegalArgumentException.class, () -> HuffmanDictionary.train(-1, SAMPLE));
+		assertThrows(IllegalArgumentException.class, () -> HuffmanDictionary.train(Integer.MIN_VALUE, SAMPLE));
+
+		// nor is one read back from a saved dictionary
+		byte[] saved = save(HuffmanDictionary.train(7, SAMPLE));
+		BlockCodec.putInt(saved, 0, -7);
+		assertThrows(IOException.class, () -> HuffmanDictionary.load(new ByteArrayInputStream(saved)));
+	}
+
+	@Test
+	public void everyIdRoundTripsThroughTheStore() throws IOException{
+		DictionaryStore store = new DictionaryStore(this.directory.toString());
+		for(int id: new int[]{0, 1, 127, 128, Integer.MAX_VALUE}){
+			HuffmanDictionary dictionary = HuffmanDictionary.train(id, SAMPLE);
+			store.save(dictionary);
+			byte[] message = dictionary.encode(SAMPLE);
+			assertArrayEquals(SAMPLE, dictionary.decode(message));
+			assertArrayEquals(SAMPLE, store.decode(message));
+			assertArrayEquals(SAMPLE, new DictionaryStore(this.directory.toString()).decode(message));
+		}
+	}
+
+	/**
+	 * Saves a dictionary to an array.
+	 * @param dictionary the dictionary
+	 * @return what save wrote
+	 */
+	private static byte[] save(HuffmanDictionary dictionary){
+		try{
+			ByteArrayOutputStream bytes = new ByteArrayOutputStream();
+			dictionary.save(bytes);
+			return bytes.toByteArray();
+		}catch(IOException e){
+			// a ByteArrayOutputStream does not throw
+			throw new IllegalStateException(e);
+		}
+	}
+}
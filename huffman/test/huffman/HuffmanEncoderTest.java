@@ -0,0 +1,129 @@
+package huffman;
+
+import static org.junit.jupiter.api.Assertions.assertArrayEquals;
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertSame;
+import static org.junit.jupiter.api.Assertions.assertThrows;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+import static org.junit.jupiter.api.Assumptions.assumeTrue;
+
+import java.io.IOException;
+import java.lang.management.ManagementFactory;
+import java.lang.management.ThreadMXBean;
+import java.nio.ByteBuffer;
+import java.util.Arrays;
+import java.util.Random;
+
+import org.junit.jupiter.api.Test;
+
+/**
+ * A HuffmanEncoder and HuffmanDecoder kept from message to message, against HuffmanCodec.
+ */
+public class HuffmanEncoderTest {
+
+	@Test
+	public void oneEncoderAndDecoderTakeEverySize() throws IOException{
+		HuffmanEncoder encoder = new HuffmanEncoder();
+		HuffmanDecoder decoder = new HuffmanDecoder();
+		Random random = new Random(22);
+		// big then small then big, so anything left over from the last message would show
+		for(int length: new int[]{100_000, 0, 1, 256, 70_000, 3, 4096, 100_000, 17}){
+			byte[] bytes = random.nextBoolean() ? BlockCodecTest.sample(length) : random(random, length);
+			byte[] out = new byte[encoder.maxEncodedLength(length)];
+			int encodedLength = encoder.encode(ByteBuffer.wrap(bytes), out, 0);
+			byte[] encoded = Arrays.copyOf(out, encodedLength);
+			// the same container HuffmanCodec writes
+			assertArrayEquals(HuffmanCodec.encode(bytes), encoded, length + " bytes");
+
+			byte[] decoded = new byte[HuffmanDecoder.decodedLength(encoded, 0, encoded.length)];
+			assertEquals(length, decoder.decode(encoded, 0, encoded.length, decoded, 0));
+			assertArrayEquals(bytes, decoded, length + " bytes");
+		}
+	}
+
+	@Test
+	public void containersCanSitAnywhereInTheArrays() throws IOException{
+		byte[] bytes = BlockCodecTest.sample(10_000);
+		HuffmanEncoder encoder = new HuffmanEncoder(1000, 12);
+		byte[] out = new byte[100 + encoder.maxEncodedLength(bytes.length)];
+		// only the remaining bytes of the buffer, and it ends up at its limit
+		ByteBuffer data = ByteBuffer.wrap(bytes, 500, 9000);
+		int encodedLength = encoder.encode(data, out, 100);
+		assertEquals(data.limit(), data.position());
+		assertEquals(9, BlockCodec.getInt(out, 100 + 6));
+
+		byte[] decoded = new byte[50 + 9000];
+		assertEquals(9000, HuffmanDecoder.forThread().decode(out, 100, encodedLength, decoded, 50));
+		assertArrayEquals(Arrays.copyOfRange(bytes, 500, 9500), Arrays.copyOfRange(decoded, 50, decoded.length));
+	}
+
+	@Test
+	public void arraysTooSmallAndBadSettingsAreRejected() throws IOException{
+		byte[] bytes = BlockCodecTest.sample(1000);
+		HuffmanEncoder encoder = new HuffmanEncoder();
+		byte[] out = new byte[encoder.maxEncodedLength(bytes.length)];
+		assertThrows(IllegalArgumentException.class, () -> encoder.encode(ByteBuffer.wrap(bytes), out, 1));
+		int encodedLength = encoder.encode(ByteBuffer.wrap(bytes), out, 0);
+		assertThrows(IllegalArgumentException.class, () -> new HuffmanDecoder().decode(out, 0, encodedLength, new byte[999], 0));
+
+		assertThrows(IllegalArgumentException.class, () -> new HuffmanEncoder(0, 0));
+		assertThrows(IllegalArgumentException.class, () -> new HuffmanEncoder(BlockCodec.MAX_BLOCK_SIZE + 1, 0));
+		assertThrows(IllegalArgumentException.class, () -> new HuffmanEncoder(4096, DecodeTable.MAX_LENGTH + 1));
+		assertThrows(IllegalArgumentException.class, () -> new HuffmanEncoder(1, 0).maxEncodedLength(Integer.MAX_VALUE));
+	}
+
+	@Test
+	public void eachThreadHasItsOwn() throws InterruptedException{
+		HuffmanEncoder[] other = new HuffmanEncoder[1];
+		Thread thread = new Thread(() -> other[0] = HuffmanEncoder.forThread());
+		thread.start();
+		thread.join();
+		assertSame(HuffmanEncoder.forThread(), HuffmanEncoder.forThread());
+		assertSame(HuffmanDecoder.forThread(), HuffmanDecoder.forThread());
+		assertTrue(other[0] != null && other[0] != HuffmanEncoder.forThread());
+	}
+
+	@Test
+	public void smallMessagesAllocateNothingOnceWarm() throws IOException{
+		ThreadMXBean threads = ManagementFactory.getThreadMXBean();
+		assumeTrue(threads instanceof com.sun.management.ThreadMXBean, "no per-thread allocation counts on this JVM");
+		com.sun.management.ThreadMXBean allocations = (com.sun.management.ThreadMXBean) threads;
+		assumeTrue(allocations.isThreadAllocatedMemorySupported() && allocations.isThreadAllocatedMemoryEnabled());
+
+		byte[] bytes = BlockCodecTest.sample(256);
+		ByteBuffer data = ByteBuffer.wrap(bytes);
+		HuffmanEncoder encoder = new HuffmanEncoder();
+		HuffmanDecoder decoder = new HuffmanDecoder();
+		byte[] out = new byte[encoder.maxEncodedLength(bytes.length)];
+		byte[] decoded = new byte[bytes.length];
+		int messages = 20_000;
+		for(int i = 0; i < messages; i++){
+			data.clear();
+			decoder.decode(out, 0, encoder.encode(data, out, 0), decoded, 0);
+		}
+		long thread = Thread.currentThread().getId();
+		long before = allocations.getThreadAllocatedBytes(thread);
+		for(int i = 0; i < messages; i++){
+			data.clear();
+			decoder.decode(out, 0, encoder.encode(data, out, 0), decoded, 0);
+		}
+		long allocated = allocations.getThreadAllocatedBytes(thread) - before;
+		assertArrayEquals(bytes, decoded);
+		// not a byte a message, whatever the JIT has or has not got round to (a compile can allocate a little)
+		assertTrue(allocated < messages, allocated + " bytes for " + messages + " messages");
+	}
+
+	/**
+	 * Random bytes from a few symbols, so they code rather than being stored.
+	 * @param random where the bytes come from
+	 * @param length how many bytes
+	 * @return the bytes
+	 */
+	private static byte[] random(Random random, int length){
+		byte[] bytes = new byte[length];
+		for(int i = 0; i < length; i++){
+			bytes[i] = (byte) ('a' + Math.min(random.nextInt(26), random.nextInt(26)));
+		}
+		return bytes;
+	}
+}
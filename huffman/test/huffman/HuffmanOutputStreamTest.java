@@ -0,0 +1,102 @@
+package huffman;
+
+import static org.junit.jupiter.api.Assertions.assertArrayEquals;
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertThrows;
+
+import java.io.BufferedOutputStream;
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.nio.charset.StandardCharsets;
+import java.util.Arrays;
+
+import org.junit.jupiter.api.Test;
+
+/**
+ * Bytes through a HuffmanOutputStream and back through a HuffmanInputStream.
+ */
+public class HuffmanOutputStreamTest {
+
+	@Test
+	public void manyFramesRoundTrip() throws IOException{
+		byte[] bytes = BlockCodecTest.sample(100_000);
+		ByteArrayOutputStream encoded = new ByteArrayOutputStream();
+		try(HuffmanOutputStream out = new HuffmanOutputStream(encoded, 4096, 0)){
+			// a byte at a time, then pieces that do not line up with the blocks
+			for(int i = 0; i < 5000; i++){
+				out.write(bytes[i]);
+			}
+			for(int i = 5000; i < bytes.length; i += 777){
+				out.write(bytes, i, Math.min(777, bytes.length - i));
+			}
+		}
+		assertArrayEquals(bytes, decode(encoded.toByteArray()));
+	}
+
+	@Test
+	public void flushSendsWhatHasBeenWritten() throws IOException{
+		ByteArrayOutputStream encoded = new ByteArrayOutputStream();
+		HuffmanOutputStream out = new HuffmanOutputStream(encoded);
+		out.write("first".getBytes(StandardCharsets.US_ASCII));
+		out.flush();
+		// the other end can decode the first frame before the stream is done
+		HuffmanInputStream in = new HuffmanInputStream(new ByteArrayInputStream(encoded.toByteArray()));
+		byte[] first = new byte[5];
+		assertEquals(5, in.read(first));
+		assertArrayEquals("first".getBytes(StandardCharsets.US_ASCII), first);
+
+		out.write(" second".getBytes(StandardCharsets.US_ASCII));
+		out.close();
+		assertArrayEquals("first second".getBytes(StandardCharsets.US_ASCII), decode(encoded.toByteArray()));
+	}
+
+	@Test
+	public void anEmptyStreamRoundTrips() throws IOException{
+		ByteArrayOutputStream encoded = new ByteArrayOutputStream();
+		new HuffmanOutputStream(encoded).close();
+		assertEquals(2 + 4 + 4, encoded.size());
+		assertArrayEquals(new byte[0], decode(encoded.toByteArray()));
+	}
+
+	@Test
+	public void cutShortFails() throws IOException{
+		ByteArrayOutputStream encoded = new ByteArrayOutputStream();
+		try(HuffmanOutputStream out = new HuffmanOutputStream(encoded, 4096, 0)){
+			out.write(BlockCodecTest.sample(20_000));
+		}
+		byte[] bytes = encoded.toByteArray();
+		assertThrows(IOException.class, () -> decode(Arrays.copyOf(bytes, bytes.length / 2)));
+		// without the end marker
+		assertThrows(IOException.class, () -> decode(Arrays.copyOf(bytes, bytes.length - 4)));
+	}
+
+	@Test
+	public void flushingAfterFinishDoesNothing() throws IOException{
+		byte[] bytes = "flush, then close\n".repeat(100).getBytes(StandardCharsets.US_ASCII);
+		ByteArrayOutputStream encoded = new ByteArrayOutputStream();
+		HuffmanOutputStream huffman = new HuffmanOutputStream(encoded);
+		// a BufferedOutputStream flushes before it closes, after finish that must not throw
+		try(OutputStream out = new BufferedOutputStream(huffman)){
+			out.write(bytes);
+			out.flush();
+			huffman.finish();
+		}
+		huffman.flush();
+		assertThrows(IOException.class, () -> huffman.write(1));
+		assertArrayEquals(bytes, decode(encoded.toByteArray()));
+	}
+
+	/**
+	 * Decodes a stream of frames.
+	 * @param encoded what a HuffmanOutputStream wrote
+	 * @return the decoded bytes
+	 * @throws IOException if it is corrupt
+	 */
+	private static byte[] decode(byte[] encoded) throws IOException{
+		try(HuffmanInputStream in = new HuffmanInputStream(new ByteArrayInputStream(encoded))){
+			return in.readAllBytes();
+		}
+	}
+}
@@ -0,0 +1,103 @@
+package huffman;
+
+import static org.junit.jupiter.api.Assertions.assertArrayEquals;
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertNotEquals;
+
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.io.Reader;
+import java.nio.ByteBuffer;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.Random;
+
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.io.TempDir;
+
+/**
+ * Files read through a MappedInput and written through a ChannelOutputStream.
+ */
+public class MappedInputTest {
+
+	@TempDir
+	Path directory;
+
+	@Test
+	public void chunksEndOnACharacter() throws IOException{
+		// two and a bit chunks of characters three and four bytes long, so the chunk ends land inside them
+		String string = "日本語😀".repeat((int) (MappedInput.CHUNK_SIZE * 11 / 5 / 13));
+		byte[] bytes = string.getBytes(StandardCharsets.UTF_8);
+		Path file = Files.write(this.directory.resolve("text"), bytes);
+
+		try(MappedInput input = new MappedInput(file.toString())){
+			assertEquals(bytes.length, input.size());
+			assertEquals(3, input.chunkCount());
+			long total = 0;
+			for(int i = 0; i < input.chunkCount(); i++){
+				ByteBuffer chunk = input.chunk(i);
+				// a chunk starts on a character, never on a continuation byte
+				assertNotEquals(0x80, chunk.get(0) & 0xC0, "chunk " + i);
+				total += chunk.remaining();
+			}
+			assertEquals(bytes.length, total);
+
+			// and the reader gives back the very same characters
+			StringBuilder read = new StringBuilder();
+			char[] chars = new char[10_000];
+			try(Reader reader = input.reader()){
+				int n;
+				while((n = reader.read(chars)) != -1){
+					read.append(chars, 0, n);
+				}
+			}
+			assertEquals(string, read.toString());
+		}
+	}
+
+	@Test
+	public void slicesAreTheFilesBytes() throws IOException{
+		byte[] bytes = new byte[100_000];
+		new Random(6).nextBytes(bytes);
+		Path file = Files.write(this.directory.resolve("bytes"), bytes);
+		try(MappedInput input = new MappedInput(file.toString())){
+			ByteBuffer slice = input.slice(12_345, 50_000);
+			byte[] got = new byte[50_000];
+			slice.get(got);
+			byte[] expected = new byte[50_000];
+			System.arraycopy(bytes, 12_345, expected, 0, expected.length);
+			assertArrayEquals(expected, got);
+		}
+	}
+
+	@Test
+	public void anEmptyFileHasNoChunks() throws IOException{
+		Path file = Files.write(this.directory.resolve("empty"), new byte[0]);
+		try(MappedInput input = new MappedInput(file.toString()); Reader reader = input.reader()){
+			assertEquals(0, input.chunkCount());
+			assertEquals(-1, reader.read(new char[16]));
+		}
+	}
+
+	@Test
+	public void smallAndLargeWritesLandInOrder() throws IOException{
+		Random random = new Random(7);
+		ByteArrayOutputStream expected = new ByteArrayOutputStream();
+		Path file = this.directory.resolve("written");
+		try(ChannelOutputStream out = new ChannelOutputStream(file.toString())){
+			for(int i = 0; i < 40; i++){
+				// single bytes, writes that fill the buffer part way and writes bigger than it
+				byte[] bytes = new byte[i % 3 == 0 ? 1 : i % 3 == 1 ? random.nextInt(100_000) : ChannelOutputStream.BUFFER_SIZE + i];
+				random.nextBytes(bytes);
+				if(bytes.length == 1){
+					out.write(bytes[0]);
+				}else{
+					out.write(bytes);
+				}
+				expected.write(bytes);
+			}
+		}
+		assertArrayEquals(expected.toByteArray(), Files.readAllBytes(file));
+	}
+}
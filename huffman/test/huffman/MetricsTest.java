@@ -0,0 +1,172 @@
+package huffman;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertNotNull;
+import static org.junit.jupiter.api.Assertions.assertNull;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+import java.io.IOException;
+import java.lang.management.ManagementFactory;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.EnumMap;
+import java.util.List;
+import java.util.Map;
+
+import javax.management.JMException;
+import javax.management.MBeanServer;
+import javax.management.ObjectName;
+
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.io.TempDir;
+
+/**
+ * The phase counters and listeners Metrics keeps, fed by files through Encode and Decode.
+ */
+public class MetricsTest {
+
+	@TempDir
+	Path directory;
+
+	@Test
+	public void listenersHearEveryPhaseOfAFile() throws IOException{
+		byte[] bytes = BlockCodecTest.sample(100_000);
+		Path source = Files.write(this.directory.resolve("source"), bytes);
+		Path encoded = this.directory.resolve("encoded");
+		Path decoded = this.directory.resolve("decoded");
+		Recorder recorder = new Recorder();
+		Metrics.addListener(recorder);
+		try{
+			Encode encode = new Encode(source.toString(), encoded.toString());
+			encode.setRaw(true);
+			encode.encode();
+			assertNull(encode.getFailure());
+			Decode decode = new Decode(encoded.toString(), decoded.toString());
+			decode.decode();
+			assertNull(decode.getFailure());
+		}finally{
+			Metrics.removeListener(recorder);
+		}
+		for(Phase phase: Phase.values()){
+			assertTrue(recorder.phases.containsKey(phase), phase + " never finished");
+		}
+		// the whole files in and out, with the encoded size in between
+		long size = Files.size(encoded);
+		assertEquals(List.of((long) bytes.length, size), recorder.bytes(Phase.ENCODE_FILE));
+		assertEquals(List.of(size, (long) bytes.length), recorder.bytes(Phase.DECODE_FILE));
+		assertEquals(bytes.length, recorder.phases.get(Phase.HISTOGRAM).get(0)[2]);
+		assertTrue(recorder.failures.isEmpty());
+
+		// once removed a listener hears nothing
+		Encode encode = new Encode(source.toString(), encoded.toString());
+		encode.encode();
+		assertEquals(1, recorder.phases.get(Phase.ENCODE_FILE).size());
+	}
+
+	@Test
+	public void removingOneListenerLeavesTheOthers(){
+		Recorder[] recorders = {new Recorder(), new Recorder(), new Recorder()};
+		for(Recorder recorder: recorders){
+			Metrics.addListener(recorder);
+		}
+		try{
+			Metrics.removeListener(recorders[1]);
+			// removing one that is not there changes nothing
+			Metrics.removeListener(new Recorder());
+			Metrics.record(Phase.TREE, System.nanoTime(), 0, 0, 7);
+		}finally{
+			for(Recorder recorder: recorders){
+				Metrics.removeListener(recorder);
+			}
+		}
+		assertEquals(1, recorders[0].phases.get(Phase.TREE).size());
+		assertNull(recorders[1].phases.get(Phase.TREE));
+		assertEquals(1, recorders[2].phases.get(Phase.TREE).size());
+	}
+
+	@Test
+	public void countersAddUpAcrossFiles() throws IOException{
+		Path source = Files.write(this.directory.resolve("source"), BlockCodecTest.sample(10_000));
+		Path encoded = this.directory.resolve("encoded");
+		MetricsMXBean metrics = Metrics.get();
+		metrics.reset();
+		assertTrue(metrics.getPhases().isEmpty());
+		for(int i = 0; i < 3; i++){
+			new Encode(source.toString(), encoded.toString()).encode();
+		}
+		PhaseStatistics file = Metrics.statistics(Phase.ENCODE_FILE);
+		assertEquals(3, file.getCount());
+		assertEquals(3 * Files.size(source), file.getBytesIn());
+		assertEquals(3 * Files.size(encoded), file.getBytesOut());
+		assertTrue(file.getNanos() > 0);
+		assertEquals((double) Files.size(source) / Files.size(encoded), file.getCompressionRatio(), 1e-9);
+		// only the phases that ran, and nothing decoded
+		assertTrue(metrics.getPhases().containsKey(Phase.ENCODE.name()));
+		assertNull(metrics.getPhases().get(Phase.DECODE_FILE.name()));
+		assertEquals(0, Metrics.statistics(Phase.DECODE_FILE).getMegabytesPerSecond());
+	}
+
+	@Test
+	public void failuresAreCountedAndHeard() throws IOException{
+		Path garbage = Files.write(this.directory.resolve("garbage"), "not encoded at all".getBytes());
+		Recorder recorder = new Recorder();
+		long before = Metrics.get().getFailures();
+		Metrics.addListener(recorder);
+		try{
+			Decode decode = new Decode(garbage.toString(), this.directory.resolve("decoded").toString());
+			decode.decode();
+			assertNotNull(decode.getFailure());
+		}finally{
+			Metrics.removeListener(recorder);
+		}
+		assertEquals(before + 1, Metrics.get().getFailures());
+		assertEquals(List.of(garbage.toString()), recorder.failures);
+	}
+
+	@Test
+	public void theCountersAreOnJmx() throws JMException, InterruptedException{
+		// registered on a thread of its own, give it a moment
+		MBeanServer server = ManagementFactory.getPlatformMBeanServer();
+		ObjectName name = new ObjectName(Metrics.OBJECT_NAME);
+		Metrics.get();
+		for(int i = 0; i < 100 && !server.isRegistered(name); i++){
+			Thread.sleep(50);
+		}
+		assertEquals(Metrics.get().getFailures(), server.getAttribute(name, "Failures"));
+	}
+
+	/**
+	 * A listener that keeps everything it is told.
+	 */
+	private static class Recorder implements HuffmanListener {
+
+		// bytes in, bytes out and symbols of every time each phase finished
+		private final Map<Phase, List<long[]>> phases = Collections.synchronizedMap(new EnumMap<>(Phase.class));
+
+		// the files that failed
+		private final List<String> failures = Collections.synchronizedList(new ArrayList<>());
+
+		@Override
+		public void phaseCompleted(Phase phase, long nanos, long bytesIn, long bytesOut, long symbols){
+			this.phases.computeIfAbsent(phase, p -> Collections.synchronizedList(new ArrayList<>())).add(new long[]{bytesIn, bytesOut, symbols});
+		}
+
+		@Override
+		public void failed(String file, Exception cause){
+			this.failures.add(file);
+		}
+
+		/**
+		 * The bytes in and out of a phase that finished once.
+		 * @param phase the phase
+		 * @return bytes in then bytes out
+		 */
+		private List<Long> bytes(Phase phase){
+			List<long[]> runs = this.phases.get(phase);
+			assertEquals(1, runs.size(), phase.name());
+			return List.of(runs.get(0)[0], runs.get(0)[1]);
+		}
+	}
+}
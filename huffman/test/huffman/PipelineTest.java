@@ -0,0 +1,87 @@
+package huffman;
+
+import static org.junit.jupiter.api.Assertions.assertArrayEquals;
+import static org.junit.jupiter.api.Assertions.assertThrows;
+import static org.junit.jupiter.api.Assertions.assertTimeoutPreemptively;
+
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.time.Duration;
+
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.io.TempDir;
+
+/**
+ * Block containers through the pipelined encoder and decoder.
+ */
+public class PipelineTest {
+
+	@TempDir
+	Path directory;
+
+	@Test
+	public void blocksRoundTrip() throws IOException{
+		byte[] bytes = "hello world, hello pipeline\n".repeat(5000).getBytes(StandardCharsets.UTF_8);
+		Path container = this.encode(bytes);
+		Path decoded = this.directory.resolve("decoded");
+		Pipeline.decode(container.toString(), decoded.toString());
+		assertArrayEquals(bytes, Files.readAllBytes(decoded));
+	}
+
+	@Test
+	public void hugeEncodedLengthFailsWithoutHanging() throws IOException{
+		Path container = this.encode("hello world\n".repeat(5000).getBytes(StandardCharsets.UTF_8));
+		// the first block's encoded length, far more than the file or any array holds
+		byte[] bytes = Files.readAllBytes(container);
+		BlockCodec.putInt(bytes, BlockCodec.HEADER_SIZE + 4, 0x7ffffff0);
+		Files.write(container, bytes);
+		String decoded = this.directory.resolve("decoded").toString();
+		assertTimeoutPreemptively(Duration.ofSeconds(30),
+				() -> assertThrows(IOException.class, () -> Pipeline.decode(container.toString(), decoded)));
+	}
+
+	@Test
+	public void forgedHeaderFailsBeforeAllocating() throws IOException{
+		// the biggest blocks, a thousand of them, decoding to nothing and with nothing after the header
+		byte[] bytes = new byte[34];
+		bytes[0] = Container.MARKER;
+		bytes[1] = Container.BLOCKS;
+		BlockCodec.putInt(bytes, 2, BlockCodec.MAX_BLOCK_SIZE);
+		BlockCodec.putInt(bytes, 6, 1000);
+		Path container = Files.write(this.directory.resolve("forged"), bytes);
+		String decoded = this.directory.resolve("decoded").toString();
+		assertThrows(IOException.class, () -> Pipeline.decode(container.toString(), decoded));
+
+		// more bytes than the blocks can hold
+		BlockCodec.putInt(bytes, 6, 2);
+		BlockCodec.putLong(bytes, 10, 3L * BlockCodec.MAX_BLOCK_SIZE);
+		Files.write(container, bytes);
+		assertThrows(IOException.class, () -> Pipeline.decode(container.toString(), decoded));
+	}
+
+	@Test
+	public void biggestBlocksOnlyTakeWhatTheFileNeeds() throws IOException{
+		byte[] bytes = "a small file in the biggest blocks\n".repeat(100).getBytes(StandardCharsets.UTF_8);
+		Path source = Files.write(this.directory.resolve("source"), bytes);
+		Path container = this.directory.resolve("encoded");
+		Pipeline.encode(source.toString(), container.toString(), BlockCodec.MAX_BLOCK_SIZE, 0, false);
+		Path decoded = this.directory.resolve("decoded");
+		Pipeline.decode(container.toString(), decoded.toString());
+		assertArrayEquals(bytes, Files.readAllBytes(decoded));
+	}
+
+	/**
+	 * Encodes bytes into a container with small blocks so there are several.
+	 * @param bytes the bytes
+	 * @return the container
+	 * @throws IOException if the files can not be written
+	 */
+	private Path encode(byte[] bytes) throws IOException{
+		Path source = Files.write(this.directory.resolve("source"), bytes);
+		Path container = this.directory.resolve("encoded");
+		Pipeline.encode(source.toString(), container.toString(), 1 << 12, 0, false);
+		return container;
+	}
+}